@@ -1,7 +1,7 @@
 package govind.incubator.launcher;
 
 import govind.incubator.launcher.LauncherProtocol.StopMessage;
-import govind.incubator.launcher.util.NamedThreadFactory;
+import govind.incubator.launcher.util.OutputRedirectService;
 import govind.incubator.launcher.util.OutputRedirector;
 import lombok.extern.slf4j.Slf4j;
 
@@ -9,9 +9,11 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ThreadFactory;
 
 import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
+import static govind.incubator.launcher.util.LauncherConsts.REDIRECT_BUFFER_LINES;
+import static govind.incubator.launcher.util.LauncherConsts.REDIRECT_MAX_LINES_PER_SECOND;
+import static govind.incubator.launcher.util.LauncherConsts.REDIRECT_THREADS;
 
 /**
  * @Author: 高文文
@@ -23,15 +25,15 @@ import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
  */
 @Slf4j
 public class ChildProcAppHandle implements GovindAppHandle{
-	/** 用于处理子进程输出流的线程工厂 */
-	static final ThreadFactory REDIRECT_FACTORY = new NamedThreadFactory("launcher-proc-%d");
+	/** 所有子进程共享的输出重定向服务，第一次启动子进程时创建 */
+	private static OutputRedirectService redirectService;
 
 	final String secrect;
 	final LauncherServer server;
 
 	private Process childProc;
 	private boolean disposed;
-	private LauncherConnection connection;
+	private LauncherServer.ServerConnection connection;
 	private List<Listener> listeners;
 	private State state;
 	private String appId;
@@ -100,11 +102,7 @@ public class ChildProcAppHandle implements GovindAppHandle{
 		if (!disposed) {
 			disposed = true;
 			if (connection != null) {
-				try {
-					connection.close();
-				} catch (IOException e) {
-					//NOP
-				}
+				connection.close();
 			}
 			server.unregister(this);
 			if (redirector != null) {
@@ -119,10 +117,25 @@ public class ChildProcAppHandle implements GovindAppHandle{
 
 	public void setChildProc(Process childProc, String loggerName) {
 		this.childProc = childProc;
-		this.redirector = new OutputRedirector(childProc.getInputStream(), loggerName, REDIRECT_FACTORY);
+		this.redirector = getRedirectService().redirect(childProc.getInputStream(), loggerName, childProc::isAlive);
+	}
+
+	static synchronized OutputRedirectService getRedirectService() {
+		if (redirectService == null) {
+			redirectService = new OutputRedirectService(
+					getIntConf(REDIRECT_THREADS, 2),
+					getIntConf(REDIRECT_BUFFER_LINES, 10000),
+					getIntConf(REDIRECT_MAX_LINES_PER_SECOND, 0));
+		}
+		return redirectService;
+	}
+
+	private static int getIntConf(String key, int defaultValue) {
+		String value = GovindLauncher.launcherConfig.get(key);
+		return value != null ? Integer.parseInt(value) : defaultValue;
 	}
 
-	public void setConnection(LauncherConnection connection) {
+	public void setConnection(LauncherServer.ServerConnection connection) {
 		this.connection = connection;
 	}
 
@@ -130,7 +143,7 @@ public class ChildProcAppHandle implements GovindAppHandle{
 		return server;
 	}
 
-	public LauncherConnection getConnection() {
+	public LauncherServer.ServerConnection getConnection() {
 		return connection;
 	}
 
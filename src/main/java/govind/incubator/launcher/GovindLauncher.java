@@ -256,6 +256,7 @@ public class GovindLauncher {
 		ProcessBuilder pb = createBuilder().redirectErrorStream(true);
 		pb.environment().put(LauncherProtocol.ENV_LAUNCHER_PORT, String.valueOf(LauncherServer.getServerInstance().getPort()));
 		pb.environment().put(LauncherProtocol.ENV_LAUNCHER_SECRET, handle.getSecrect());
+		pb.environment().put(LauncherProtocol.ENV_LAUNCHER_PROTOCOL, String.valueOf(LauncherProtocol.BINARY_PROTOCOL_VERSION));
 
 		try {
 			handle.setChildProc(pb.start(), loggerName);
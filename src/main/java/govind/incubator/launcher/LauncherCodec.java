@@ -0,0 +1,292 @@
+package govind.incubator.launcher;
+
+import govind.incubator.launcher.GovindAppHandle.State;
+import govind.incubator.launcher.LauncherProtocol.Hello;
+import govind.incubator.launcher.LauncherProtocol.Message;
+import govind.incubator.launcher.LauncherProtocol.SetAppId;
+import govind.incubator.launcher.LauncherProtocol.SetState;
+import govind.incubator.launcher.LauncherProtocol.StopMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.List;
+
+import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * {@link LauncherProtocol}消息的编解码器，支持两种格式：
+ * 1、二进制格式：每个消息为一帧，帧格式为[int 长度][byte 类型][消息内容]，长度不包含
+ * 自身的4个字节。Hello帧中携带客户端支持的协议版本，服务端使用双方中较低的版本，并在
+ * 回复的Hello帧中返回该版本，双方都将其保存在连接中(参见{@link BinaryHello})；
+ * 2、Java序列化：每个连接的每个方向都是一个完整的Java序列化流，用于兼容旧的子进程。
+ *
+ * 服务端根据连接的第一个字节选择格式：Java序列化流总是以0xACED开头，而二进制帧的长度
+ * 不超过{@link #MAX_FRAME_SIZE}，第一个字节总是0，回复消息使用与客户端相同的格式。
+ *
+ * Java序列化流中后面的消息会引用前面消息的类描述等信息，无法单独解码，而阻塞读取又需要
+ * 占用一个线程。由于每个连接只有少量很小的消息(Hello、SetAppId、SetState)，解码器
+ * 保存收到的所有数据，每次有新数据时从头重新解码，跳过已经解码的消息；数据不完整时
+ * 等待下一次数据到达。
+ *
+ */
+@Slf4j
+final class LauncherCodec {
+	/** 每个连接最多缓存的字节数，超过时认为是非法的客户端 */
+	static final int MAX_BUFFERED_BYTES = 1024 * 1024;
+	/** 二进制格式中一帧的最大长度 */
+	static final int MAX_FRAME_SIZE = 64 * 1024;
+
+	/** Java序列化流的第一个字节(STREAM_MAGIC = 0xACED) */
+	private static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+
+	/** 二进制格式的消息类型 */
+	private static final byte HELLO = 0;
+	private static final byte SET_APP_ID = 1;
+	private static final byte SET_STATE = 2;
+	private static final byte STOP = 3;
+
+	private LauncherCodec() {}
+
+	/**
+	 * 将消息编码为一帧，包含长度字段
+	 */
+	static byte[] encodeFrame(Message msg) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		if (msg instanceof Hello) {
+			Hello hello = (Hello) msg;
+			out.writeByte(HELLO);
+			out.writeByte(hello instanceof BinaryHello
+					? ((BinaryHello) hello).protocolVersion : LauncherProtocol.BINARY_PROTOCOL_VERSION);
+			writeString(out, hello.secret);
+			writeString(out, hello.version);
+		} else if (msg instanceof SetAppId) {
+			out.writeByte(SET_APP_ID);
+			writeString(out, ((SetAppId) msg).appId);
+		} else if (msg instanceof SetState) {
+			State state = ((SetState) msg).state;
+			out.writeByte(SET_STATE);
+			writeString(out, state != null ? state.name() : null);
+		} else if (msg instanceof StopMessage) {
+			out.writeByte(STOP);
+		} else {
+			throw new IllegalArgumentException("Unknown message: " +
+					(msg != null ? msg.getClass().getName() : null));
+		}
+
+		byte[] frame = bytes.toByteArray();
+		int length = frame.length - 4;
+		checkState(length <= MAX_FRAME_SIZE, "消息长度%s超过%s字节", length, MAX_FRAME_SIZE);
+		frame[0] = (byte) (length >>> 24);
+		frame[1] = (byte) (length >>> 16);
+		frame[2] = (byte) (length >>> 8);
+		frame[3] = (byte) length;
+		return frame;
+	}
+
+	/**
+	 * 解码一帧中长度字段之后的内容，未知的消息类型返回null，由调用者忽略，以便新版本的
+	 * 客户端可以增加消息类型
+	 */
+	static Message decodeFrame(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case HELLO:
+				int version = in.readUnsignedByte();
+				checkState(version > 0, "Invalid protocol version: %s", version);
+				int negotiated = Math.min(version, LauncherProtocol.BINARY_PROTOCOL_VERSION);
+				log.debug("对端协议版本为{}，使用版本{}", version, negotiated);
+				return new BinaryHello(readString(in), readString(in), negotiated);
+			case SET_APP_ID:
+				return new SetAppId(readString(in));
+			case SET_STATE:
+				String state = readString(in);
+				return new SetState(state != null ? State.valueOf(state) : null);
+			case STOP:
+				return new StopMessage();
+			default:
+				log.warn("Ignoring unknown launcher message type {}", type);
+				return null;
+		}
+	}
+
+	/**
+	 * 二进制格式中收到的Hello，携带协商后的协议版本(双方中较低的版本)；发送时写入该
+	 * 版本而不是本端支持的最高版本，服务端据此将协商结果回复给子进程。
+	 *
+	 * 只在二进制格式中使用，不会被Java序列化，{@link Hello}的序列化格式保持不变。
+	 */
+	static final class BinaryHello extends Hello {
+		private static final long serialVersionUID = 1L;
+
+		final int protocolVersion;
+
+		BinaryHello(String secret, String version, int protocolVersion) {
+			super(secret, version);
+			this.protocolVersion = protocolVersion;
+		}
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * 服务端pipeline中的第一个解码器，根据收到的第一个字节将自身替换为对应格式的解码器，
+	 * 并替换名为"encoder"的编码器
+	 */
+	static class ProtocolDetector extends ByteToMessageDecoder {
+
+		@Override
+		protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+			if (!in.isReadable()) {
+				return;
+			}
+
+			if (in.getByte(in.readerIndex()) == JAVA_SERIALIZATION_MAGIC) {
+				ctx.pipeline().addAfter(ctx.name(), "decoder", new Decoder());
+			} else {
+				ctx.pipeline().replace("encoder", "encoder", new BinaryEncoder());
+				ctx.pipeline().addAfter(ctx.name(), "frameDecoder",
+						new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE, 0, 4, 0, 4));
+				ctx.pipeline().addAfter("frameDecoder", "decoder", new BinaryDecoder());
+			}
+			//移除时剩余的数据会交给下一个handler
+			ctx.pipeline().remove(this);
+		}
+	}
+
+	static class BinaryDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+		@Override
+		protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
+			Message msg = decodeFrame(new ByteBufInputStream(frame));
+			if (msg != null) {
+				out.add(msg);
+			}
+		}
+	}
+
+	static class BinaryEncoder extends MessageToByteEncoder<Message> {
+
+		@Override
+		protected void encode(ChannelHandlerContext ctx, Message msg, ByteBuf buf) throws Exception {
+			buf.writeBytes(encodeFrame(msg));
+		}
+	}
+
+	static class Decoder extends ChannelInboundHandlerAdapter {
+		/** 收到的所有数据 */
+		private ByteBuf received = Unpooled.buffer();
+		/** 已经解码的消息数 */
+		private int decoded = 0;
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			ByteBuf buf = (ByteBuf) msg;
+			try {
+				checkState(received.readableBytes() + buf.readableBytes() <= MAX_BUFFERED_BYTES,
+						"连接%s发送的数据超过%s字节", ctx.channel().remoteAddress(), MAX_BUFFERED_BYTES);
+				received.writeBytes(buf);
+			} finally {
+				buf.release();
+			}
+
+			ObjectInputStream in;
+			try {
+				in = new FilteredObjectInputStream(new ByteBufInputStream(received.duplicate()));
+				for (int i = 0; i < decoded; i++) {
+					in.readObject();
+				}
+			} catch (EOFException e) {
+				return;
+			}
+
+			while (true) {
+				Message message;
+				try {
+					message = (Message) in.readObject();
+				} catch (EOFException e) {
+					//消息不完整，等待更多数据
+					return;
+				}
+				decoded++;
+				ctx.fireChannelRead(message);
+			}
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			received.release();
+			received = Unpooled.EMPTY_BUFFER;
+			super.channelInactive(ctx);
+		}
+	}
+
+	static class Encoder extends MessageToByteEncoder<Message> {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		/** 第一次发送消息时创建，同时写入序列化流的头部 */
+		private ObjectOutputStream out;
+
+		@Override
+		protected void encode(ChannelHandlerContext ctx, Message msg, ByteBuf buf) throws Exception {
+			if (out == null) {
+				out = new ObjectOutputStream(bytes);
+			}
+			out.writeObject(msg);
+			out.flush();
+			buf.writeBytes(bytes.toByteArray());
+			bytes.reset();
+		}
+	}
+
+	/**
+	 * 只允许反序列化launcher协议中的类，避免本机的其他进程连接后发送任意对象
+	 */
+	private static class FilteredObjectInputStream extends ObjectInputStream {
+
+		FilteredObjectInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			String name = desc.getName();
+			if (!name.startsWith("govind.incubator.launcher.") && !name.startsWith("java.lang.")) {
+				throw new InvalidClassException("launcher协议中不允许的类", name);
+			}
+			return super.resolveClass(desc);
+		}
+	}
+}
@@ -17,16 +17,33 @@ import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
  * takes care of the communication (sending and receiving messages), while
  * processing of messages is left for the implementations.
  *
+ * I/O is blocking, so this is meant for the child process side of the
+ * connection; the {@link LauncherServer} serves its clients from an event loop.
+ *
  */
 @Slf4j
 abstract public class LauncherConnection implements Closeable, Runnable{
 	final Socket socket;
+	/** 是否使用二进制格式，否则使用Java序列化 */
+	final boolean binary;
+	/** 使用Java序列化时的输出流，二进制格式时为null */
 	final ObjectOutputStream out;
+	/** 服务端回复的协商后的二进制协议版本，收到回复前及使用Java序列化时为0 */
+	volatile int protocolVersion;
 	volatile boolean closed;
 
 	public LauncherConnection(Socket socket) throws IOException {
+		this(socket, false);
+	}
+
+	/**
+	 * @param binary 是否使用{@link LauncherCodec}的二进制格式，只有当服务端在环境变量
+	 *               {@link LauncherProtocol#ENV_LAUNCHER_PROTOCOL}中声明支持时才能使用
+	 */
+	public LauncherConnection(Socket socket, boolean binary) throws IOException {
 		this.socket = socket;
-		this.out = new ObjectOutputStream(socket.getOutputStream());
+		this.binary = binary;
+		this.out = binary ? null : new ObjectOutputStream(socket.getOutputStream());
 		this.closed = false;
 	}
 
@@ -35,8 +52,14 @@ abstract public class LauncherConnection implements Closeable, Runnable{
 	protected synchronized void send(Message msg) throws IOException {
 		try {
 			checkState(!closed,"disconnect");
-			out.writeObject(msg);
-			out.flush();
+			if (binary) {
+				OutputStream os = socket.getOutputStream();
+				os.write(LauncherCodec.encodeFrame(msg));
+				os.flush();
+			} else {
+				out.writeObject(msg);
+				out.flush();
+			}
 		} catch (Exception e) {
 			log.error("发送消息时异常：{}", e);
 			try {
@@ -51,10 +74,14 @@ abstract public class LauncherConnection implements Closeable, Runnable{
 	@Override
 	public void run() {
 		try {
-			ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-			while (!closed) {
-				Message msg = (Message) ois.readObject();
-				handle(msg);
+			if (binary) {
+				readFrames();
+			} else {
+				ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+				while (!closed) {
+					Message msg = (Message) ois.readObject();
+					handle(msg);
+				}
 			}
 		} catch (EOFException e) {
 			//远端关闭连接
@@ -76,6 +103,28 @@ abstract public class LauncherConnection implements Closeable, Runnable{
 		}
 	}
 
+	private void readFrames() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		while (!closed) {
+			int length = in.readInt();
+			checkState(length > 0 && length <= LauncherCodec.MAX_FRAME_SIZE, "Invalid frame length: %s", length);
+			byte[] frame = new byte[length];
+			in.readFully(frame);
+			Message msg = LauncherCodec.decodeFrame(new DataInputStream(new ByteArrayInputStream(frame)));
+			if (msg instanceof LauncherCodec.BinaryHello) {
+				//服务端对Hello的回复，只携带协商后的版本
+				protocolVersion = ((LauncherCodec.BinaryHello) msg).protocolVersion;
+			} else if (msg != null) {
+				handle(msg);
+			}
+		}
+	}
+
+	/** 与服务端协商后的二进制协议版本，收到服务端的回复前及使用Java序列化时为0 */
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
 	@Override
 	public void close() throws IOException {
 		if (!closed) {
@@ -19,6 +19,18 @@ final public class LauncherProtocol {
 		static final String ENV_LAUNCHER_PORT = "_SPARK_LAUNCHER_PORT";
 	/** Environment variable where the secret for connecting back to the server is stored. */
 	static final String ENV_LAUNCHER_SECRET = "_SPARK_LAUNCHER_SECRET";
+	/**
+	 * Environment variable with the highest binary protocol version supported by
+	 * the server. Children only use the binary codec when it is set, otherwise
+	 * they fall back to Java serialization.
+	 */
+	static final String ENV_LAUNCHER_PROTOCOL = "_SPARK_LAUNCHER_PROTOCOL";
+
+	/**
+	 * Version of the binary codec (see {@link LauncherCodec}), sent in the Hello frame.
+	 * Both sides use the lower of the two versions.
+	 */
+	static final int BINARY_PROTOCOL_VERSION = 1;
 
 
 	/**
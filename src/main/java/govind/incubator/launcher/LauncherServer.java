@@ -7,19 +7,33 @@ import govind.incubator.launcher.LauncherProtocol.SetAppId;
 import govind.incubator.launcher.LauncherProtocol.SetState;
 import govind.incubator.launcher.util.LauncherConsts;
 import govind.incubator.launcher.util.NamedThreadFactory;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
@@ -33,8 +47,12 @@ import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
  * Each client has a secret that it needs to send to the server to identify itself
  * and establish the session.
  *
- * I/O is currently blocking (one thread per client). Clients have a limited time to
- * connect back to the server, otherwise the server will ignore the connection.
+ * I/O is event driven: all clients are served by a small Netty event loop group, and
+ * the hello timeouts are kept in a timing wheel instead of one timer task per client.
+ * Clients have a limited time to connect back to the server, otherwise the server will
+ * ignore the connection. Messages use a compact binary codec, falling back to Java
+ * serialization for older children (see {@link LauncherCodec}); child processes use
+ * the blocking {@link LauncherConnection}.
  *
  * === Architecture Overview ===
  *  The launcher server is used when Spark apps are launched as separate processes than
@@ -73,6 +91,7 @@ import static govind.incubator.launcher.util.CommandBuilderUtils.checkState;
 public class LauncherServer implements Closeable {
 	final String THREAD_NAME_FMT = "LauncherServer-%d";
 	final long DEFAULT_CONNECT_TIMEOUT = 10000L;
+	final int DEFAULT_SERVER_THREADS = 2;
 	/** For creating secrets used for communication with child processes */
 	static final SecureRandom RND = new SecureRandom();
 
@@ -102,39 +121,47 @@ public class LauncherServer implements Closeable {
 
 
 	private final AtomicLong refCnt;
-	private final AtomicLong threadIds;
 	private final ConcurrentMap<String, ChildProcAppHandle> pending;
 	private final List<ServerConnection> clients;
-	private final ServerSocket server;
-	private final Thread serverThread;
-	private final ThreadFactory factory;
-	private final Timer timeoutTimer;
+	private final EventLoopGroup group;
+	private final HashedWheelTimer timeoutTimer;
+	private Channel serverChannel;
+	private int port;
 
 	private volatile boolean running;
 
 	private LauncherServer() throws IOException {
 		this.refCnt = new AtomicLong(0L);
-		ServerSocket server = new ServerSocket();
-
-		try {
-			server.setReuseAddress(true);
-			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
-
-			this.clients = new ArrayList<>();
-			this.threadIds = new AtomicLong();
-			this.factory = new NamedThreadFactory(THREAD_NAME_FMT);
-			this.pending = new ConcurrentHashMap<>();
-			this.timeoutTimer = new Timer("LauncherServer-TimeoutTimer", true);
-			this.server = server;
-			this.running = true;
-			this.serverThread = factory.newThread(()->{
-				acceptConnections();
-			});
-			serverThread.start();
-		} catch (Exception e) {
+		this.clients = new ArrayList<>();
+		this.pending = new ConcurrentHashMap<>();
+		this.group = new NioEventLoopGroup(getServerThreads(), new NamedThreadFactory(THREAD_NAME_FMT));
+		this.timeoutTimer = new HashedWheelTimer(new NamedThreadFactory("LauncherServer-TimeoutTimer-%d"),
+				100, TimeUnit.MILLISECONDS);
+		this.running = true;
+
+		ServerBootstrap bootstrap = new ServerBootstrap()
+				.group(group)
+				.channel(NioServerSocketChannel.class)
+				.option(ChannelOption.SO_REUSEADDR, true)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) throws Exception {
+						ch.pipeline()
+								.addLast("encoder", new LauncherCodec.Encoder())
+								.addLast("detector", new LauncherCodec.ProtocolDetector())
+								.addLast("handler", new ServerConnection(ch));
+					}
+				});
+
+		ChannelFuture future = bootstrap.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+				.awaitUninterruptibly();
+		if (!future.isSuccess()) {
 			close();
-			throw e;
+			throw new IOException("LauncherServer启动失败", future.cause());
 		}
+		this.serverChannel = future.channel();
+		this.port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
 	}
 
 	/**
@@ -164,7 +191,7 @@ public class LauncherServer implements Closeable {
 		}
 	}
 
-	public int getPort(){return server.getLocalPort();}
+	public int getPort(){return port;}
 
 	/** Removes the client handle from the pending list (in case it's still
 	 * there), and unrefs the server.*/
@@ -178,6 +205,11 @@ public class LauncherServer implements Closeable {
 		return value != null ? Long.parseLong(value) : DEFAULT_CONNECT_TIMEOUT;
 	}
 
+	private int getServerThreads() {
+		String value = GovindLauncher.launcherConfig.get(LauncherConsts.LAUNCHER_SERVER_THREADS);
+		return value != null ? Integer.parseInt(value) : DEFAULT_SERVER_THREADS;
+	}
+
 	private String createSecret() {
 		byte[] secret = new  byte[128];
 		RND.nextBytes(secret);
@@ -193,90 +225,94 @@ public class LauncherServer implements Closeable {
 		return sb.toString();
 	}
 
-	private void acceptConnections() {
-		try {
-			while (running) {
-				final Socket client = server.accept();
-				TimerTask timeout = new TimerTask() {
-					@Override
-					public void run() {
-						log.warn("Timed out waiting for hello message from client.");
-						try {
-							client.close();
-						} catch (IOException e) {
-							//NOP
-						}
-					}
-				};
-
-				ServerConnection clientConn = new ServerConnection(client, timeout);
-				Thread clientThread = factory.newThread(clientConn);
-				synchronized (timeout) {
-					clientThread.start();
-					synchronized (clients) {
-						clients.add(clientConn);
-					}
-					long timeoutMs = getConnectionTimeout();
-					// 0 is used for testing to avoid issues with clock
-					// resolution / thread scheduling, and force an immediate timeout.
-					if (timeoutMs > 0) {
-						timeoutTimer.schedule(timeout, getConnectionTimeout());
-					} else {
-						timeout.run();
-					}
-				}
-			}
-		} catch (IOException e) {
-			if (running) {
-				log.error("Error in accept loop", e);
-			}
-		}
-	}
-
+	/**
+	 * 关闭监听端口及所有客户端连接。该方法可能在事件循环线程中被调用(最后一个handle
+	 * 断开连接时)，因此不等待事件循环退出。
+	 */
 	@Override
 	public void close() throws IOException {
 		synchronized (this) {
-			if (running) {
-				running = false;
-				timeoutTimer.cancel();
-				server.close();
-				synchronized (clients) {
-					ArrayList<ServerConnection> copy = new ArrayList<>(clients);
-					clients.clear();
-					for (ServerConnection client : copy) {
-						client.close();
-					}
-				}
+			if (!running) {
+				return;
 			}
+			running = false;
 		}
 
-		if (serverThread != null) {
-			try {
-				serverThread.join();
-			} catch (InterruptedException e) {
-				//NOP
+		if (serverChannel != null) {
+			ChannelFuture future = serverChannel.close();
+			if (!serverChannel.eventLoop().inEventLoop()) {
+				future.awaitUninterruptibly();
 			}
 		}
+
+		ArrayList<ServerConnection> copy;
+		synchronized (clients) {
+			copy = new ArrayList<>(clients);
+			clients.clear();
+		}
+		for (ServerConnection client : copy) {
+			client.close();
+		}
+
+		timeoutTimer.stop();
+		group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
 	}
 
-	private class ServerConnection extends LauncherConnection {
-		private TimerTask timeout;
+	/**
+	 * 服务端的一个子进程连接，所有回调都在该连接所属的事件循环线程中执行
+	 */
+	class ServerConnection extends SimpleChannelInboundHandler<Message> implements Closeable {
+		private final Channel channel;
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+		private Timeout timeout;
 		private ChildProcAppHandle handle;
+		/** 与子进程协商后的二进制协议版本，使用Java序列化时为0 */
+		private volatile int protocolVersion = 0;
+
+		ServerConnection(Channel channel) {
+			this.channel = channel;
+		}
 
-		public ServerConnection(Socket socket, TimerTask timeout) throws IOException {
-			super(socket);
-			this.timeout = timeout;
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception {
+			synchronized (clients) {
+				clients.add(this);
+			}
+			if (!running) {
+				close();
+				return;
+			}
+
+			long timeoutMs = getConnectionTimeout();
+			// 0 is used for testing to avoid issues with clock
+			// resolution / thread scheduling, and force an immediate timeout.
+			if (timeoutMs > 0) {
+				timeout = timeoutTimer.newTimeout(t -> channel.eventLoop().execute(() -> {
+					if (handle == null && !closed.get()) {
+						log.warn("Timed out waiting for hello message from client.");
+						close();
+					}
+				}), timeoutMs, TimeUnit.MILLISECONDS);
+			} else {
+				log.warn("Timed out waiting for hello message from client.");
+				close();
+			}
+			super.channelActive(ctx);
 		}
 
 		@Override
-		protected void handle(Message msg) throws IOException {
+		protected void channelRead0(ChannelHandlerContext ctx, Message msg) throws Exception {
 			try {
 				if (msg instanceof Hello) {
-					timeout.cancel();
-					timeout = null;
+					cancelTimeout();
 					Hello hello = (Hello) msg;
 					ChildProcAppHandle handle = pending.remove(hello.secret);
 					if (handle != null) {
+						if (hello instanceof LauncherCodec.BinaryHello) {
+							//将协商后的版本回复给子进程
+							protocolVersion = ((LauncherCodec.BinaryHello) hello).protocolVersion;
+							send(new LauncherCodec.BinaryHello(null, null, protocolVersion));
+						}
 						handle.setConnection(this);
 						handle.setState(State.CONNECTED);
 						this.handle = handle;
@@ -286,7 +322,7 @@ public class LauncherServer implements Closeable {
 				} else {
 					if (handle == null) {
 						throw new IllegalArgumentException("Expected hello, got: " +
-								msg != null ? msg.getClass().getName() : null);
+								(msg != null ? msg.getClass().getName() : null));
 					}
 
 					if (msg instanceof SetAppId) {
@@ -297,30 +333,67 @@ public class LauncherServer implements Closeable {
 						handle.setState(setState.state);
 					} else {
 						throw new IllegalArgumentException("Invalid message: " +
-								msg != null ? msg.getClass().getName() : null);
+								(msg != null ? msg.getClass().getName() : null));
 					}
-
 				}
 			} catch (Exception e) {
 				log.error("Error handling message from client.", e);
-				if (timeout != null) {
-					timeout.cancel();
-				}
 				close();
-			} finally {
-				timeoutTimer.purge();
 			}
 		}
 
 		@Override
-		public void close() throws IOException {
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			close();
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+			log.error("Error in connection from client {}.", channel.remoteAddress(), cause);
+			close();
+		}
+
+		/** 与子进程协商后的二进制协议版本，使用Java序列化时为0 */
+		int getProtocolVersion() {
+			return protocolVersion;
+		}
+
+		/**
+		 * 异步发送消息，发送失败时关闭连接
+		 */
+		public void send(Message msg) throws IOException {
+			if (closed.get()) {
+				throw new IOException("disconnect");
+			}
+			channel.writeAndFlush(msg).addListener((ChannelFutureListener) future -> {
+				if (!future.isSuccess()) {
+					log.error("发送消息时异常：{}", future.cause());
+					close();
+				}
+			});
+		}
+
+		@Override
+		public void close() {
+			if (!closed.compareAndSet(false, true)) {
+				return;
+			}
+			cancelTimeout();
 			synchronized (clients) {
 				clients.remove(this);
 			}
-			super.close();
+			channel.close();
 			if (handle != null) {
 				handle.disconnect();
 			}
 		}
+
+		private void cancelTimeout() {
+			if (timeout != null) {
+				timeout.cancel();
+				timeout = null;
+			}
+		}
 	}
 }
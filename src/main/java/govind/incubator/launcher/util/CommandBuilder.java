@@ -107,13 +107,37 @@ abstract public class CommandBuilder {
 		}
 	}
 
+	/** 影响classpath的环境变量，其值是{@link CommandBuilderCache}中classpath的key的一部分 */
+	private static final String[] CLASSPATH_ENVS = {
+			"SPARK_CLASSPATH", "SPARK_PREPEND_CLASSES", "SPARK_TESTING", "SPARK_SCALA_VERSION",
+			"SPARK_ASSEMBLY", "HADOOP_CONF_DIR", "YARN_CONF_DIR", "SPARK_DIST_CLASSPATH"};
+
 	/**
 	 * Builds the classpath for the application. Returns a list with
 	 * one classpath entry per element; each entry is formatted in the
 	 * way expected by <i>java.net.URLClassLoader</i> (more specifically,
 	 * with trailing slashes for directories).
+	 *
+	 * 结果缓存在{@link CommandBuilderCache}中，相关目录发生变化时重新计算。
 	 */
 	List<String> buildClassPath(String appClassPath) {
+		String sparkHome = getSparkHome();
+		String confDir = getConfDir();
+
+		StringBuilder key = new StringBuilder(sparkHome).append('\0').append(confDir)
+				.append('\0').append(appClassPath);
+		for (String env : CLASSPATH_ENVS) {
+			key.append('\0').append(getEnv(env));
+		}
+		List<File> watched = Arrays.asList(
+				new File(sparkHome), new File(confDir), new File(sparkHome, "RELEASE"), new File(sparkHome, "lib"),
+				new File(sparkHome, "launcher/target"), new File(sparkHome, "assembly/target"));
+
+		return new ArrayList<>(CommandBuilderCache.getClassPath(key.toString(), watched,
+				() -> computeClassPath(appClassPath)));
+	}
+
+	private List<String> computeClassPath(String appClassPath) {
 		List<String> cp = new ArrayList<>();
 		String sparkHome = getSparkHome();
 
@@ -207,10 +231,9 @@ abstract public class CommandBuilder {
 	public Map<String, String> getEffectiveConfig() throws IOException {
 		if (effectiveConfig == null) {
 			effectiveConfig = new HashMap<>(conf);
-			Properties p = loadPropertiesFile();
-			for (String key : p.stringPropertyNames()) {
-				if (!effectiveConfig.containsKey(key)) {
-					effectiveConfig.put(key, p.getProperty(key));
+			for (Map.Entry<String, String> e : loadPropertiesFile().entrySet()) {
+				if (!effectiveConfig.containsKey(e.getKey())) {
+					effectiveConfig.put(e.getKey(), e.getValue());
 				}
 			}
 		}
@@ -221,9 +244,10 @@ abstract public class CommandBuilder {
 	 * Loads the configuration file for the application, if it exists.
 	 * This is either the user-specified properties file, or the
 	 * govind-defaults.conf file under the Spark configuration directory.
+	 *
+	 * 解析结果缓存在{@link CommandBuilderCache}中，文件发生变化时重新读取。
 	 */
-	private Properties loadPropertiesFile() throws IOException {
-		Properties props = new Properties();
+	private Map<String, String> loadPropertiesFile() throws IOException {
 		File propsFile;
 		if (propertiesFile != null) {
 			propsFile = new File(propertiesFile);
@@ -232,6 +256,11 @@ abstract public class CommandBuilder {
 			propsFile = new File(getConfDir(), DEFAULT_PROPERTIES_FILE);
 		}
 
+		return CommandBuilderCache.getProperties(propsFile, () -> readPropertiesFile(propsFile));
+	}
+
+	private static Map<String, String> readPropertiesFile(File propsFile) throws IOException {
+		Properties props = new Properties();
 		if (propsFile.isFile()) {
 			FileInputStream fd = null;
 			try {
@@ -251,7 +280,11 @@ abstract public class CommandBuilder {
 			}
 		}
 
-		return props;
+		Map<String, String> result = new HashMap<>();
+		for (String key : props.stringPropertyNames()) {
+			result.put(key, props.getProperty(key));
+		}
+		return result;
 	}
 
 	/**
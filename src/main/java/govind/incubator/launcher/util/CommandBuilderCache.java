@@ -0,0 +1,134 @@
+package govind.incubator.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 进程内共享的{@link CommandBuilder}缓存，同一安装目录下多次提交应用时不必每次都扫描
+ * jar目录、检查assembly及编译目录、重新读取配置文件：
+ * 1、classpath：以SPARK_HOME、配置目录及所有相关环境变量为key，同时记录SPARK_HOME、
+ * 配置目录、lib及assembly等目录以及classpath中每个条目所在目录的修改时间；
+ * 2、配置文件：以配置文件的绝对路径为key，同时记录文件的修改时间及长度。
+ *
+ * 每次使用缓存前检查记录的修改时间，任一目录或文件发生变化时重新计算。
+ *
+ */
+public final class CommandBuilderCache {
+
+	private static final ConcurrentMap<String, Cached<List<String>>> CLASSPATHS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Cached<Map<String, String>>> PROPERTIES = new ConcurrentHashMap<>();
+
+	/** 统计信息 */
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	private CommandBuilderCache() {}
+
+	interface Loader<T> {
+		T load() throws IOException;
+	}
+
+	/**
+	 * @param watched 计算classpath之前需要记录修改时间的目录，classpath中每个条目所在的
+	 *                目录在计算之后自动加入
+	 */
+	static List<String> getClassPath(String key, Collection<File> watched, Supplier<List<String>> loader) {
+		Cached<List<String>> cached = CLASSPATHS.get(key);
+		if (cached != null && cached.isValid()) {
+			hits.incrementAndGet();
+			return cached.value;
+		}
+
+		misses.incrementAndGet();
+		//先记录修改时间再计算，计算期间目录发生变化时下次会重新计算
+		Map<String, Long> stamps = stamp(watched);
+		List<String> cp = Collections.unmodifiableList(loader.get());
+		for (String entry : cp) {
+			File parent = new File(entry).getAbsoluteFile().getParentFile();
+			if (parent != null && !stamps.containsKey(parent.getPath())) {
+				stamps.put(parent.getPath(), parent.lastModified());
+			}
+		}
+		CLASSPATHS.put(key, new Cached<>(cp, stamps));
+		return cp;
+	}
+
+	static Map<String, String> getProperties(File propsFile, Loader<Map<String, String>> loader) throws IOException {
+		String key = propsFile.getAbsolutePath();
+		Cached<Map<String, String>> cached = PROPERTIES.get(key);
+		if (cached != null && cached.isValid() && cached.length == propsFile.length()) {
+			hits.incrementAndGet();
+			return cached.value;
+		}
+
+		misses.incrementAndGet();
+		Map<String, Long> stamps = stamp(Collections.singleton(propsFile));
+		long length = propsFile.length();
+		Map<String, String> props = Collections.unmodifiableMap(loader.load());
+		PROPERTIES.put(key, new Cached<>(props, stamps, length));
+		return props;
+	}
+
+	private static Map<String, Long> stamp(Collection<File> files) {
+		Map<String, Long> stamps = new LinkedHashMap<>();
+		for (File file : files) {
+			stamps.put(file.getPath(), file.lastModified());
+		}
+		return stamps;
+	}
+
+	/** 清空缓存，用于测试 */
+	public static void clear() {
+		CLASSPATHS.clear();
+		PROPERTIES.clear();
+	}
+
+	/********************** 统计信息 ************************/
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	private static class Cached<T> {
+		final T value;
+		/** 路径 -> 修改时间，不存在的文件为0 */
+		final Map<String, Long> stamps;
+		final long length;
+
+		Cached(T value, Map<String, Long> stamps) {
+			this(value, stamps, -1);
+		}
+
+		Cached(T value, Map<String, Long> stamps, long length) {
+			this.value = value;
+			this.stamps = stamps;
+			this.length = length;
+		}
+
+		boolean isValid() {
+			for (Map.Entry<String, Long> e : stamps.entrySet()) {
+				if (new File(e.getKey()).lastModified() != e.getValue()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
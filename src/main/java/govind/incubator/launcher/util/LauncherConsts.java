@@ -31,6 +31,14 @@ public class LauncherConsts {
 	public static final String CHILD_PROCESS_LOGGER_NAME = "govind.launcher.childProcessLoggerName";
 	/** 当子进程启动时，连接Launcher Server的超时时间对应的key，单位ms */
 	public static final String CHILD_CONNECTION_TIMEOUT = "govind.launcher.childConnectionTimeout";
+	/** LauncherServer处理子进程连接的IO线程数对应的key，默认为2 */
+	public static final String LAUNCHER_SERVER_THREADS = "govind.launcher.serverThreads";
+	/** 读取所有子进程输出的线程数对应的key，默认为2 */
+	public static final String REDIRECT_THREADS = "govind.launcher.redirectThreads";
+	/** 每个子进程最多缓存的输出行数对应的key，默认为10000 */
+	public static final String REDIRECT_BUFFER_LINES = "govind.launcher.redirectBufferLines";
+	/** 每个子进程每秒最多输出到日志的行数对应的key，默认为0，即不限制 */
+	public static final String REDIRECT_MAX_LINES_PER_SECOND = "govind.launcher.redirectMaxLinesPerSecond";
 
 	public static final String DEFAULT_MEM = "1g";
 	public static final String DEFAULT_PROPERTIES_FILE = "govind-defaults.conf";
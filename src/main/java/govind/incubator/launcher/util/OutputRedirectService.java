@@ -0,0 +1,102 @@
+package govind.incubator.launcher.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 所有子进程共享的输出重定向服务，用少量线程读取所有子进程的输出：
+ * 1、每个{@link OutputRedirector}定期被调度读取当前可读的数据，不会阻塞在某个子进程的
+ * 管道上，读到的行先放入该子进程的有界缓冲区中；
+ * 2、一个flush任务定期将所有缓冲区中的行批量写入Logger，读取线程不会因为Logger的锁
+ * 竞争而阻塞，子进程也就不会因为管道写满而停顿；
+ * 3、缓冲区写满或超过每秒行数限制时丢弃新的行，并在flush时报告丢弃的行数。
+ *
+ */
+@Slf4j
+public class OutputRedirectService {
+	/** 没有数据可读时，两次读取之间的间隔 */
+	static final long POLL_INTERVAL_MS = 20;
+	/** 将缓冲区中的行写入Logger的间隔 */
+	static final long FLUSH_INTERVAL_MS = 100;
+
+	private final ScheduledExecutorService executor;
+	private final Set<OutputRedirector> redirectors = ConcurrentHashMap.newKeySet();
+	private final int bufferLines;
+	private final int maxLinesPerSecond;
+
+	/**
+	 * @param numThreads 读取子进程输出的线程数
+	 * @param bufferLines 每个子进程最多缓存的行数
+	 * @param maxLinesPerSecond 每个子进程每秒最多输出的行数，不大于0时不限制
+	 */
+	public OutputRedirectService(int numThreads, int bufferLines, int maxLinesPerSecond) {
+		this.executor = Executors.newScheduledThreadPool(numThreads, new NamedThreadFactory("launcher-proc-%d"));
+		this.bufferLines = bufferLines;
+		this.maxLinesPerSecond = maxLinesPerSecond;
+		executor.scheduleWithFixedDelay(this::flushAll, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 将子进程的输出重定向到名为loggerName的Logger中(级别为：INFO)
+	 *
+	 * @param alive 子进程是否存活，子进程退出且没有可读数据时结束读取
+	 */
+	public OutputRedirector redirect(InputStream in, String loggerName, BooleanSupplier alive) {
+		return redirect(in, loggerName, alive, Charset.defaultCharset());
+	}
+
+	/**
+	 * @param charset 子进程输出所用的字符集
+	 */
+	public OutputRedirector redirect(InputStream in, String loggerName, BooleanSupplier alive, Charset charset) {
+		OutputRedirector redirector = new OutputRedirector(in, loggerName, alive, charset, bufferLines, maxLinesPerSecond);
+		redirectors.add(redirector);
+		ScheduledFuture<?> future = executor.scheduleWithFixedDelay(() -> {
+			try {
+				redirector.drain();
+			} finally {
+				if (redirector.isFinished()) {
+					redirector.cancel();
+				}
+			}
+		}, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		redirector.setFuture(future);
+		return redirector;
+	}
+
+	/** 正在重定向输出的子进程数 */
+	public int getActiveRedirectors() {
+		return redirectors.size();
+	}
+
+	public void close() {
+		executor.shutdownNow();
+		flushAll();
+	}
+
+	private void flushAll() {
+		for (OutputRedirector redirector : redirectors) {
+			try {
+				redirector.flush();
+			} catch (Throwable t) {
+				log.warn("输出子进程日志时异常", t);
+			}
+			if (redirector.isFinished() && redirector.isEmpty()) {
+				redirectors.remove(redirector);
+			}
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package govind.incubator.launcher.util;
 
-import lombok.extern.slf4j.Slf4j;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.concurrent.ThreadFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,50 +20,231 @@ import java.util.logging.Logger;
  * Project Name: govind-incubator
  * Date: 2019-11-11
  * <p>
- * 将InputStream中的内容重定向到SLF4J Logger中（级别为：INFO）
+ * 将InputStream中的内容重定向到Logger中（级别为：INFO），由{@link OutputRedirectService}
+ * 创建及调度：读取线程只读取当前可读的数据并放入有界的环形缓冲区，由flush任务批量写入
+ * Logger。缓冲区已满或超过每秒行数限制时丢弃新的行，并记录丢弃的行数。
+ * <p>
+ * 按字节读取，最多读取{@link InputStream#available()}个字节，不会阻塞在子进程的管道上；
+ * 字节由{@link CharsetDecoder}解码，子进程只输出了多字节字符(例如中文)的一部分时，
+ * 剩余的字节留到下一次调度时再解码，而不是等待该字符的其余字节。
  */
 public class OutputRedirector {
-	final BufferedReader reader;
-	final Thread thread;
+	/** 每次调度最多读取的次数，避免输出很多的子进程一直占用读取线程 */
+	static final int MAX_READS_PER_DRAIN = 64;
+
+	final InputStream in;
 	final Logger sink;
+	final BooleanSupplier alive;
+	final int maxLinesPerSecond;
 
-	private volatile boolean active;
+	/** 环形缓冲区，由this保护 */
+	private final String[] ring;
+	private int head = 0;
+	private int size = 0;
+	/** 自上次flush以来丢弃的行数，由this保护 */
+	private long droppedSinceFlush = 0;
 
-	public OutputRedirector(InputStream in, ThreadFactory tf) {
-		this(in, OutputRedirector.class.getName(), tf);
-	}
+	/** 以下字段只在读取线程中访问 */
+	private final CharsetDecoder decoder;
+	/** 读取的字节，解码后剩余的不完整字符留在其中 */
+	private final ByteBuffer readBuf = ByteBuffer.allocate(8192);
+	private final CharBuffer decoded = CharBuffer.allocate(8192);
+	private final StringBuilder partialLine = new StringBuilder();
+	private long windowStart = 0;
+	private int linesInWindow = 0;
+
+	private final AtomicLong droppedLines = new AtomicLong();
+	private volatile Future<?> future;
+	private volatile boolean active;
+	private volatile boolean finished;
 
-	public OutputRedirector(InputStream in, String loggerName, ThreadFactory tf) {
+	OutputRedirector(InputStream in, String loggerName, BooleanSupplier alive, Charset charset,
+			int bufferLines, int maxLinesPerSecond) {
 		this.active = true;
-		this.reader = new BufferedReader(new InputStreamReader(in));
-		this.thread = tf.newThread(() -> {
-			redirect();
-		});
+		this.in = in;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
 		this.sink = Logger.getLogger(loggerName);
-		thread.start();
+		this.alive = alive;
+		this.ring = new String[Math.max(1, bufferLines)];
+		this.maxLinesPerSecond = maxLinesPerSecond;
 	}
 
-	private void redirect() {
+	/**
+	 * 读取当前可读的数据，不会等待新数据。子进程已经退出且没有可读数据时结束读取。
+	 */
+	void drain() {
+		if (finished) {
+			return;
+		}
 		try {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				if (active) {
-					sink.info(line.replace("\\s*$", ""));
+			for (int i = 0; i < MAX_READS_PER_DRAIN; i++) {
+				//先检查子进程是否存活，避免子进程在两次检查之间写入数据并退出时丢失输出
+				boolean processAlive = alive.getAsBoolean();
+				int available = in.available();
+				if (available <= 0) {
+					if (!processAlive) {
+						finish();
+					}
+					return;
 				}
+				int n = in.read(readBuf.array(), readBuf.position(), Math.min(available, readBuf.remaining()));
+				if (n < 0) {
+					finish();
+					return;
+				}
+				readBuf.position(readBuf.position() + n);
+				decode(false);
 			}
 		} catch (IOException e) {
 			sink.log(Level.FINE, "读取子进程的输出信息失败", e);
-		} finally {
+			finish();
+		}
+	}
+
+	/**
+	 * 解码readBuf中的字节，不完整的字符留在readBuf中等待后续的字节
+	 */
+	private void decode(boolean endOfInput) {
+		readBuf.flip();
+		CoderResult result;
+		do {
+			result = decoder.decode(readBuf, decoded, endOfInput);
+			splitLines();
+		} while (result.isOverflow());
+		if (endOfInput) {
+			while (decoder.flush(decoded).isOverflow()) {
+				splitLines();
+			}
+			splitLines();
+		}
+		readBuf.compact();
+	}
+
+	private void splitLines() {
+		decoded.flip();
+		char[] chars = decoded.array();
+		int n = decoded.limit();
+		int start = 0;
+		for (int i = 0; i < n; i++) {
+			if (chars[i] == '\n') {
+				partialLine.append(chars, start, i - start);
+				addLine(partialLine.toString());
+				partialLine.setLength(0);
+				start = i + 1;
+			}
+		}
+		partialLine.append(chars, start, n - start);
+		decoded.clear();
+	}
+
+	private void finish() {
+		//子进程退出时仍不完整的字符按照解码错误替换
+		decode(true);
+		if (partialLine.length() > 0) {
+			addLine(partialLine.toString());
+			partialLine.setLength(0);
+		}
+		try {
+			in.close();
+		} catch (IOException e) {
+			//NOP
+		}
+		finished = true;
+	}
+
+	private void addLine(String line) {
+		if (!active) {
+			return;
 		}
+
+		if (maxLinesPerSecond > 0) {
+			long now = System.nanoTime();
+			if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+				windowStart = now;
+				linesInWindow = 0;
+			}
+			if (linesInWindow >= maxLinesPerSecond) {
+				drop();
+				return;
+			}
+			linesInWindow++;
+		}
+
+		synchronized (this) {
+			if (size == ring.length) {
+				drop();
+				return;
+			}
+			ring[(head + size) % ring.length] = line;
+			size++;
+		}
+	}
+
+	private synchronized void drop() {
+		droppedSinceFlush++;
+		droppedLines.incrementAndGet();
+	}
+
+	/**
+	 * 将缓冲区中的所有行写入Logger，在Logger上的耗时不影响读取线程
+	 */
+	void flush() {
+		String[] lines;
+		long dropped;
+		synchronized (this) {
+			lines = new String[size];
+			for (int i = 0; i < size; i++) {
+				int idx = (head + i) % ring.length;
+				lines[i] = ring[idx];
+				ring[idx] = null;
+			}
+			head = (head + size) % ring.length;
+			size = 0;
+			dropped = droppedSinceFlush;
+			droppedSinceFlush = 0;
+		}
+
+		for (String line : lines) {
+			sink.info(line.replaceFirst("\\s*$", ""));
+		}
+		if (dropped > 0) {
+			sink.warning(String.format("子进程输出过多，丢弃了%d行", dropped));
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		return size == 0 && droppedSinceFlush == 0;
+	}
+
+	void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	void cancel() {
+		Future<?> f = future;
+		if (f != null) {
+			f.cancel(false);
+		}
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/** 因缓冲区已满或超过每秒行数限制而丢弃的总行数 */
+	public long getDroppedLines() {
+		return droppedLines.get();
 	}
 
 	/**
 	 * This method just stops the output of the process from showing up
 	 * in the local logs. The child's output will still be read (and, thus,
-	 * the redirect thread will still be alive) to avoid the child process
+	 * the redirect task will still be scheduled) to avoid the child process
 	 * hanging because of lack of output buffer.
 	 */
 	public void stop() {
-		active = true;
+		active = false;
 	}
 }
@@ -0,0 +1,66 @@
+package govind.incubator.network.buffer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 拥有整个临时文件的{@link FileSegmentManagedBuffer}，与{@link NettyManagedBuffer}一样
+ * 使用引用计数：创建时引用计数为1，{@link #retain()}加1，{@link #release()}减1，
+ * 减为0时删除该文件。
+ *
+ * 需要在回调返回后继续使用数据的消费者应在回调中调用{@link #retain()}，使用完毕后
+ * 调用{@link #release()}。
+ */
+@Slf4j
+public class TempFileManagedBuffer extends FileSegmentManagedBuffer {
+
+	private final AtomicInteger refCnt = new AtomicInteger(1);
+
+	public TempFileManagedBuffer(File file) {
+		super(file, 0, file.length());
+	}
+
+	@Override
+	public ManagedBuffer retain() {
+		int cnt = refCnt.getAndIncrement();
+		if (cnt <= 0) {
+			refCnt.getAndDecrement();
+			throw new IllegalStateException(this + "已被释放");
+		}
+		return this;
+	}
+
+	@Override
+	public ManagedBuffer release() {
+		int cnt = refCnt.decrementAndGet();
+		if (cnt == 0) {
+			if (!file.delete() && file.exists()) {
+				log.warn("删除临时文件{}失败", file);
+			}
+		} else if (cnt < 0) {
+			refCnt.getAndIncrement();
+			throw new IllegalStateException(this + "已被释放");
+		}
+		return this;
+	}
+
+	/** 当前的引用计数 */
+	public int refCnt() {
+		return refCnt.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TempFileManagedBuffer{" +
+				"file=" + file +
+				", length=" + length +
+				", refCnt=" + refCnt.get() +
+				'}';
+	}
+}
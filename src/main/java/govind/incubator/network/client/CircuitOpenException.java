@@ -0,0 +1,19 @@
+package govind.incubator.network.client;
+
+import java.io.IOException;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 远端的熔断器处于打开状态时，{@link TransportClientFactory#createClient(String, int)}
+ * 不再尝试连接而是直接抛出该异常，调用者不应重试。
+ */
+public class CircuitOpenException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
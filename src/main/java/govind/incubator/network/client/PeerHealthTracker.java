@@ -0,0 +1,205 @@
+package govind.incubator.network.client;
+
+import com.google.common.base.Objects;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 记录每个远端(host:port)的健康状况，远端不可用时快速失败，避免每个请求都等待连接
+ * 超时及多次重试：
+ * 1、CLOSED：正常放行，连续失败达到failureThreshold次后进入OPEN；
+ * 2、OPEN：所有请求直接抛出{@link CircuitOpenException}，openTimeMs后进入HALF_OPEN；
+ * 3、HALF_OPEN：只放行一个探测请求，其余请求仍快速失败，探测成功则回到CLOSED，失败则
+ * 重新进入OPEN。探测请求超过openTimeMs仍未返回结果时允许再放行一个探测请求；探测请求
+ * 没有实际连接远端(如使用了池中已有的连接)时调用{@link #releaseProbe(String)}让出名额；
+ *
+ * 连接失败、连接后bootstrap失败及获取数据时的IO异常计为失败，failureThreshold不大于0时不开启。
+ */
+@Slf4j
+public class PeerHealthTracker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openTimeNanos;
+	/** host:port -> 健康状况 */
+	private final ConcurrentMap<String, PeerState> peers = new ConcurrentHashMap<>();
+
+	/** 统计信息 */
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong opened = new AtomicLong();
+
+	public PeerHealthTracker(int failureThreshold, long openTimeMs) {
+		this.failureThreshold = failureThreshold;
+		this.openTimeNanos = TimeUnit.MILLISECONDS.toNanos(openTimeMs);
+	}
+
+	public boolean isEnabled() {
+		return failureThreshold > 0;
+	}
+
+	/**
+	 * 熔断器打开时抛出{@link CircuitOpenException}，HALF_OPEN状态下只有探测请求可以通过
+	 *
+	 * @return 当前请求是否为HALF_OPEN状态下放行的探测请求，是则调用者需要记录其结果或者
+	 * 调用{@link #releaseProbe(String)}
+	 */
+	public boolean checkAllowed(String peer) throws CircuitOpenException {
+		if (!isEnabled()) {
+			return false;
+		}
+		PeerState state = peers.get(peer);
+		if (state == null) {
+			return false;
+		}
+		Permit permit = state.tryAcquire();
+		if (permit == Permit.REJECTED) {
+			rejected.incrementAndGet();
+			throw new CircuitOpenException(String.format("到%s的熔断器处于%s状态，%dms内不再尝试连接",
+					peer, state.getState(), TimeUnit.NANOSECONDS.toMillis(state.remainingOpenNanos())));
+		}
+		return permit == Permit.PROBE;
+	}
+
+	/**
+	 * 探测请求没有产生结果时让出探测名额，下一个请求可以立即作为探测请求放行，而不必等待
+	 * openTimeMs
+	 */
+	public void releaseProbe(String peer) {
+		if (!isEnabled()) {
+			return;
+		}
+		PeerState state = peers.get(peer);
+		if (state != null) {
+			state.releaseProbe();
+		}
+	}
+
+	public void recordSuccess(String peer) {
+		if (!isEnabled()) {
+			return;
+		}
+		PeerState state = peers.get(peer);
+		if (state != null) {
+			state.onSuccess();
+		}
+	}
+
+	public void recordFailure(String peer) {
+		if (!isEnabled()) {
+			return;
+		}
+		peers.computeIfAbsent(peer, p -> new PeerState(p)).onFailure();
+	}
+
+	public State getState(String peer) {
+		PeerState state = peers.get(peer);
+		return state == null ? State.CLOSED : state.getState();
+	}
+
+	/********************** 统计信息 ************************/
+
+	/** 因熔断器打开而快速失败的请求数 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/** 熔断器进入OPEN状态的次数 */
+	public long getOpened() {
+		return opened.get();
+	}
+
+	private enum Permit {
+		REJECTED, ALLOWED, PROBE
+	}
+
+	private class PeerState {
+		final String peer;
+		State state = State.CLOSED;
+		int consecutiveFailures = 0;
+		/** 进入OPEN状态的时间 */
+		long openedAt;
+		/** 探测请求的放行时间，没有探测请求时为-1 */
+		long probeStartedAt = -1;
+
+		PeerState(String peer) {
+			this.peer = peer;
+		}
+
+		synchronized Permit tryAcquire() {
+			long now = System.nanoTime();
+			switch (state) {
+				case OPEN:
+					if (now - openedAt < openTimeNanos) {
+						return Permit.REJECTED;
+					}
+					state = State.HALF_OPEN;
+					log.info("到{}的熔断器进入HALF_OPEN状态，放行一个探测请求", peer);
+					probeStartedAt = now;
+					return Permit.PROBE;
+				case HALF_OPEN:
+					if (probeStartedAt >= 0 && now - probeStartedAt < openTimeNanos) {
+						return Permit.REJECTED;
+					}
+					probeStartedAt = now;
+					return Permit.PROBE;
+				default:
+					return Permit.ALLOWED;
+			}
+		}
+
+		synchronized void releaseProbe() {
+			if (state == State.HALF_OPEN) {
+				probeStartedAt = -1;
+			}
+		}
+
+		synchronized void onSuccess() {
+			if (state != State.CLOSED) {
+				log.info("到{}的请求成功，熔断器恢复为CLOSED状态", peer);
+			}
+			state = State.CLOSED;
+			consecutiveFailures = 0;
+			probeStartedAt = -1;
+		}
+
+		synchronized void onFailure() {
+			consecutiveFailures++;
+			if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+				log.warn("到{}的请求连续失败{}次，熔断器进入OPEN状态", peer, consecutiveFailures);
+				state = State.OPEN;
+				openedAt = System.nanoTime();
+				probeStartedAt = -1;
+				opened.incrementAndGet();
+			}
+		}
+
+		synchronized State getState() {
+			return state;
+		}
+
+		synchronized long remainingOpenNanos() {
+			long start = state == State.OPEN ? openedAt : probeStartedAt;
+			return Math.max(0, openTimeNanos - (System.nanoTime() - start));
+		}
+
+		@Override
+		public synchronized String toString() {
+			return Objects.toStringHelper(this)
+					.add("peer", peer)
+					.add("state", state)
+					.add("consecutiveFailures", consecutiveFailures)
+					.toString();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package govind.incubator.network.client;
 
 import com.google.common.util.concurrent.SettableFuture;
+import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.buffer.NioManagedBuffer;
 import govind.incubator.network.handler.ChunkReceivedCallback;
 import govind.incubator.network.handler.RpcCallback;
@@ -9,7 +10,6 @@ import govind.incubator.network.handler.TransportResponseHandler;
 import govind.incubator.network.protocol.*;
 import govind.incubator.network.util.NettyUtil;
 import io.netty.channel.Channel;
-import io.netty.channel.socket.SocketChannel;
 import jersey.repackaged.com.google.common.base.MoreObjects;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -63,7 +63,7 @@ public class TransportClient implements Closeable {
 	 */
 	private volatile boolean timedOut;
 
-	public TransportClient(SocketChannel ch, TransportResponseHandler responseHandler) {
+	public TransportClient(Channel ch, TransportResponseHandler responseHandler) {
 		this.channel = ch;
 		this.responseHandler = responseHandler;
 	}
@@ -187,6 +187,48 @@ public class TransportClient implements Closeable {
 				});
 	}
 
+	/**
+	 * 以流的方式向服务端上传数据，服务端由{@link govind.incubator.network.handler.RpcHandler#receiveStream}
+	 * 处理，数据接收完毕后通过RpcResponse响应。
+	 *
+	 * 与sendRpc不同，data不会被编码到帧中，而是紧跟在帧之后发送，因此服务端不需要
+	 * 将整个数据缓存在内存中。
+	 *
+	 * @param meta 元数据，用于说明如何处理上传的数据，应该比较小
+	 * @param data 要上传的数据，发送完成后被释放
+	 * @param callback 服务端处理完成后被调用
+	 * @return requestId
+	 */
+	public long uploadStream(ManagedBuffer meta, ManagedBuffer data, final RpcCallback callback) {
+		final String serverAddr = NettyUtil.getRemoteAddress(channel);
+		final long startTime = System.currentTimeMillis();
+
+		log.debug("上传流数据({} bytes)到{}", data.size(), serverAddr);
+
+		final long requestId = Math.abs(UUID.randomUUID().getLeastSignificantBits());
+		responseHandler.addRpcRequest(requestId, callback);
+
+		channel.writeAndFlush(new UploadStream(requestId, meta, data))
+				.addListener(future -> {
+					if (future.isSuccess()) {
+						long timeTaked = System.currentTimeMillis() - startTime;
+						log.debug("上传流数据{}到{}，耗时：{}ms", requestId, serverAddr, timeTaked);
+					} else {
+						String error = String.format("上传流数据%d到%s，失败：%s",requestId, serverAddr, future.cause().getMessage());
+						log.info(error);
+						responseHandler.removeRpcRequest(requestId);
+						channel.close();
+
+						try {
+							callback.onFailure(new IOException(error, future.cause()));
+						} catch (Exception e) {
+							log.error("调用RpcCallback处理器时抛出异常：{}", e.getMessage());
+						}
+					}
+				});
+		return requestId;
+	}
+
 	/**
 	 * 向服务端请求指定streamId的流数据
 	 * @param streamId 要获取的流
@@ -10,10 +10,11 @@ import govind.incubator.network.util.TransportContext;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -30,10 +31,17 @@ import java.util.concurrent.atomic.AtomicReference;
  * TransportClient的工厂类:
  *	1、内部维护一个连接池，对于相同的remote连接，返回同一个TransportClient；
  *	2、所有的TransportClient实例共享单一线程的线程池；
+ *	3、通过{@link PeerHealthTracker}记录每个远端的健康状况，远端不可用时快速失败；
  *
  * TransportClient会尽可能重用，在创建TransportClient实例前需要将
  * 提供的{@link TransportClientBootstrap}进行装配。
  *
+ * EPOLL模式下配置了domainSocketDir时，连接本机的服务端优先使用其监听的Unix
+ * domain socket，socket文件不存在或者通过socket文件连接失败(如服务端异常退出后留下
+ * 的文件)时仍使用TCP。
+ *
+ * LOCAL模式下只能连接当前JVM内的服务端，host被忽略，按照端口连接对应的LocalAddress。
+ *
  */
 @Slf4j
 public class TransportClientFactory implements Closeable {
@@ -67,7 +75,14 @@ public class TransportClientFactory implements Closeable {
 	private final Random random;
 	private final int numConnectionPerPeer;
 
+	private final IOMode ioMode;
 	private final Class<? extends Channel> socketChannelClz;
+	/** domain socket文件所在目录，未开启时为null */
+	private final String domainSocketDir;
+	/** host -> 是否为本机地址 */
+	private final ConcurrentHashMap<String, Boolean> localHosts = new ConcurrentHashMap<>();
+	/** 所有远端的健康状况，远端不可用时快速失败 */
+	private final PeerHealthTracker healthTracker;
 	private EventLoopGroup workerGroup;
 	private PooledByteBufAllocator pooledAllocator;
 
@@ -79,9 +94,11 @@ public class TransportClientFactory implements Closeable {
 		this.connectionPools = new ConcurrentHashMap<>();
 		this.random = new Random();
 		this.numConnectionPerPeer = conf.numConnectionsPerPeer();
+		this.healthTracker = new PeerHealthTracker(conf.circuitBreakerFailures(), conf.circuitBreakerOpenTimeMs());
 
-		IOMode ioMode = IOMode.valueOf(conf.ioMode());
+		ioMode = IOMode.valueOf(conf.ioMode());
 		socketChannelClz = NettyUtil.getClientChannelClass(ioMode);
+		domainSocketDir = ioMode == IOMode.EPOLL && !conf.domainSocketDir().isEmpty() ? conf.domainSocketDir() : null;
 		workerGroup = NettyUtil.createEventLoopGroup(ioMode, conf.clientThreads(), "govind-client");
 
 		this.pooledAllocator = NettyUtil.createPooledByteBufAllocator(conf.preferDirectBufs(), false, conf.clientThreads());
@@ -97,6 +114,7 @@ public class TransportClientFactory implements Closeable {
 	 * 说明：
 	 * 	1、该方法会阻塞至成功与远端建立连接并且完全启动；
 	 * 	2、该方法是线程安全的；
+	 * 	3、到该远端的熔断器打开时抛出{@link CircuitOpenException}；
 	 *
 	 * @param remoteHost 服务器地址
 	 * @param remotePort 服务器端口
@@ -104,6 +122,10 @@ public class TransportClientFactory implements Closeable {
 	 * @throws IOException
 	 */
 	public TransportClient createClient(String remoteHost,  int remotePort) throws IOException{
+		String peer = remoteHost + ":" + remotePort;
+		//探测请求使用池中已有的连接时没有连接远端，需要让出探测名额
+		boolean probe = healthTracker.checkAllowed(peer);
+
 		final InetSocketAddress address = new InetSocketAddress(remoteHost, remotePort);
 
 		ClientPool clientPool = connectionPools.get(address);
@@ -123,6 +145,9 @@ public class TransportClientFactory implements Closeable {
 
 			if (cachedClient.isActive()) {
 				log.debug("返回缓存的连接到{}的TransportClient：{}", address, cachedClient);
+				if (probe) {
+					healthTracker.releaseProbe(peer);
+				}
 				return cachedClient;
 			}
 		}
@@ -133,13 +158,24 @@ public class TransportClientFactory implements Closeable {
 			if (cachedClient != null) {
 				if (cachedClient.isActive()) {
 					log.debug("TransportClient已经被创建，且处于活动状态，可以直接使用");
+					if (probe) {
+						healthTracker.releaseProbe(peer);
+					}
 					return cachedClient;
 				} else {
 					log.debug("TransportClient处于非活动状态，不可用，因此将重新创建实例");
 				}
 			}
 
-			clientPool.clients[clientIdx] = createClient(address);
+			try {
+				clientPool.clients[clientIdx] = createClient(address);
+			} catch (IOException | RuntimeException e) {
+				//bootstrap(如SASL认证)失败时抛出RuntimeException，同样计为失败，探测请求失败时
+				//熔断器重新进入OPEN而不是一直停留在HALF_OPEN
+				healthTracker.recordFailure(peer);
+				throw e;
+			}
+			healthTracker.recordSuccess(peer);
 			return clientPool.clients[clientIdx];
 		}
 	}
@@ -154,24 +190,57 @@ public class TransportClientFactory implements Closeable {
 	 * @throws IOException
 	 */
 	public TransportClient  createClient(InetSocketAddress address) throws IOException {
-		log.debug("创建TransportClient，目标地址为：{}", address);
+		File domainSocketFile = getLocalDomainSocket(address);
+		if (domainSocketFile != null) {
+			try {
+				return createClient(address, domainSocketFile);
+			} catch (IOException e) {
+				//socket文件可能是异常退出的服务端留下的，改用TCP
+				log.warn("通过domain socket{}连接{}失败，改用TCP：{}", domainSocketFile, address, e.getMessage());
+			}
+		}
+		return createClient(address, null);
+	}
 
-		Bootstrap bootstrap = new Bootstrap();
+	/**
+	 * domainSocketFile不为null时通过该文件连接，否则根据ioMode连接address
+	 */
+	private TransportClient createClient(InetSocketAddress address, File domainSocketFile) throws IOException {
+		log.debug("创建TransportClient，目标地址为：{}{}", address,
+				domainSocketFile == null ? "" : "(domain socket: " + domainSocketFile + ")");
 
-		bootstrap.group(workerGroup)
-				.channel(socketChannelClz)
-				//禁止Nagle算法，因为不想要报文等待
-				.option(ChannelOption.TCP_NODELAY, true)
-				.option(ChannelOption.SO_KEEPALIVE, true)
-				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, conf.connectionTimeoutMS())
-				.option(ChannelOption.ALLOCATOR, pooledAllocator);
+		Bootstrap bootstrap = new Bootstrap();
+		SocketAddress connectAddress;
+
+		if (domainSocketFile != null) {
+			bootstrap.group(workerGroup)
+					.channel(NettyUtil.getDomainSocketChannelClass())
+					.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, conf.connectionTimeoutMS())
+					.option(ChannelOption.ALLOCATOR, pooledAllocator);
+			connectAddress = new DomainSocketAddress(domainSocketFile);
+		} else if (ioMode == IOMode.LOCAL) {
+			bootstrap.group(workerGroup)
+					.channel(socketChannelClz)
+					.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, conf.connectionTimeoutMS())
+					.option(ChannelOption.ALLOCATOR, pooledAllocator);
+			connectAddress = NettyUtil.getLocalAddress(address.getPort());
+		} else {
+			bootstrap.group(workerGroup)
+					.channel(socketChannelClz)
+					//禁止Nagle算法，因为不想要报文等待
+					.option(ChannelOption.TCP_NODELAY, true)
+					.option(ChannelOption.SO_KEEPALIVE, true)
+					.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, conf.connectionTimeoutMS())
+					.option(ChannelOption.ALLOCATOR, pooledAllocator);
+			connectAddress = address;
+		}
 
 		//由于需要将TransportClient和ch取出来，因此需要采用下面方式
 		final AtomicReference<TransportClient> clientRef = new AtomicReference<>();
 		final AtomicReference<Channel> chRef = new AtomicReference<>();
-		bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+		bootstrap.handler(new ChannelInitializer<Channel>() {
 			@Override
-			protected void initChannel(SocketChannel ch) throws Exception {
+			protected void initChannel(Channel ch) throws Exception {
 				TransportChannelHandler channelHandler = context.initializePipeline(ch);
 
 				clientRef.set(channelHandler.getClient());
@@ -180,7 +249,7 @@ public class TransportClientFactory implements Closeable {
 		});
 
 		long preConnect = System.nanoTime();
-		ChannelFuture future = bootstrap.connect(address);
+		ChannelFuture future = bootstrap.connect(connectAddress);
 
 		if (!future.awaitUninterruptibly(conf.connectionTimeoutMS())) {
 			throw new IOException(String.format("连接%s超时(%s ms)", address, conf.connectionTimeoutMS()));
@@ -213,6 +282,29 @@ public class TransportClientFactory implements Closeable {
 		return client;
 	}
 
+	/**
+	 * 目标为本机的服务端并且其domain socket文件存在时返回该文件，否则返回null。文件存在
+	 * 不代表服务端仍在监听，连接失败时由调用者改用TCP
+	 */
+	private File getLocalDomainSocket(InetSocketAddress address) {
+		if (domainSocketDir == null) {
+			return null;
+		}
+		String host = address.getHostString();
+		if (!localHosts.computeIfAbsent(host, NettyUtil::isLocalAddress)) {
+			return null;
+		}
+		File socketFile = NettyUtil.getDomainSocketFile(domainSocketDir, address.getPort());
+		return socketFile.exists() ? socketFile : null;
+	}
+
+	/**
+	 * 所有远端共用的健康状况，调用者可以记录请求的成功及失败
+	 */
+	public PeerHealthTracker getHealthTracker() {
+		return healthTracker;
+	}
+
 	/**
 	 * 创建一个不进行池化的TransportClient实例
 	 */
@@ -33,7 +33,34 @@ public class TransportConf {
 	private final String NETWORK_SASL_TIMEOUT_KEY;
 	private final String NETWORK_IO_MAXRETRIES_KEY;
 	private final String NETWORK_IO_RETRYWAIT_KEY;
+	private final String NETWORK_IO_RETRYMAXWAIT_KEY;
+	private final String NETWORK_IO_RETRYBACKOFF_KEY;
+	private final String NETWORK_IO_MAXPENDINGRETRIESPERHOST_KEY;
+	private final String NETWORK_IO_FETCHTODISKTHRESHOLD_KEY;
+	private final String NETWORK_IO_FETCHTEMPDIR_KEY;
+	private final String NETWORK_IO_SHORTCIRCUITLOCALREADS_KEY;
+	private final String NETWORK_IO_DOMAINSOCKETDIR_KEY;
+	private final String NETWORK_IO_CIRCUITBREAKERFAILURES_KEY;
+	private final String NETWORK_IO_CIRCUITBREAKEROPENTIME_KEY;
 	private final String NETWORK_IO_LAZYFD_KEY;
+	private final String NETWORK_IO_FETCHCOALESCEWINDOW_KEY;
+	private final String NETWORK_IO_FETCHCOALESCEMAXBLOCKS_KEY;
+	private final String NETWORK_IO_MAXBYTESINFLIGHT_KEY;
+	private final String NETWORK_IO_MAXREQSPERHOST_KEY;
+	private final String NETWORK_IO_MAXBLOCKSPERHOST_KEY;
+	private final String SHUFFLE_INDEXCACHE_SIZE_KEY;
+	private final String SHUFFLE_INDEXCACHE_MODE_KEY;
+	private final String SHUFFLE_INDEXCACHE_MAXMAPPINGS_KEY;
+	private final String SHUFFLE_CLEANER_MAXDELETERATE_KEY;
+	private final String SHUFFLE_REGISTEREDEXECUTORS_SYNCPOLICY_KEY;
+	private final String SHUFFLE_REGISTEREDEXECUTORS_FLUSHINTERVAL_KEY;
+	private final String SHUFFLE_REGISTEREDEXECUTORS_RECOVERYTHREADS_KEY;
+	private final String SHUFFLE_UPLOAD_MAXINRPCSIZE_KEY;
+	private final String SHUFFLE_PUSH_MAXBLOCKSIZE_KEY;
+	private final String SHUFFLE_DISKIO_THREADSPERDISK_KEY;
+	private final String SHUFFLE_DISKIO_MAXQUEUEDPERDISK_KEY;
+	private final String SHUFFLE_BLOCKCACHE_SIZE_KEY;
+	private final String SHUFFLE_BLOCKCACHE_MAXBLOCKSIZE_KEY;
 
 	public TransportConf(ConfigProvider conf, String module) {
 		this.conf = conf;
@@ -50,7 +77,34 @@ public class TransportConf {
 		NETWORK_SASL_TIMEOUT_KEY = getConfKey("sasl.timeout");
 		NETWORK_IO_MAXRETRIES_KEY = getConfKey("io.maxRetries");
 		NETWORK_IO_RETRYWAIT_KEY = getConfKey("io.retryWait");
+		NETWORK_IO_RETRYMAXWAIT_KEY = getConfKey("io.retryMaxWait");
+		NETWORK_IO_RETRYBACKOFF_KEY = getConfKey("io.retryBackoff");
+		NETWORK_IO_MAXPENDINGRETRIESPERHOST_KEY = getConfKey("io.maxPendingRetriesPerHost");
+		NETWORK_IO_FETCHTODISKTHRESHOLD_KEY = getConfKey("io.fetchToDiskThreshold");
+		NETWORK_IO_FETCHTEMPDIR_KEY = getConfKey("io.fetchTempDir");
+		NETWORK_IO_SHORTCIRCUITLOCALREADS_KEY = getConfKey("io.shortCircuitLocalReads");
+		NETWORK_IO_DOMAINSOCKETDIR_KEY = getConfKey("io.domainSocketDir");
+		NETWORK_IO_CIRCUITBREAKERFAILURES_KEY = getConfKey("io.circuitBreakerFailures");
+		NETWORK_IO_CIRCUITBREAKEROPENTIME_KEY = getConfKey("io.circuitBreakerOpenTime");
 		NETWORK_IO_LAZYFD_KEY = getConfKey("io.lazyFD");
+		NETWORK_IO_FETCHCOALESCEWINDOW_KEY = getConfKey("io.fetchCoalesceWindowMs");
+		NETWORK_IO_FETCHCOALESCEMAXBLOCKS_KEY = getConfKey("io.fetchCoalesceMaxBlocks");
+		NETWORK_IO_MAXBYTESINFLIGHT_KEY = getConfKey("io.maxBytesInFlight");
+		NETWORK_IO_MAXREQSPERHOST_KEY = getConfKey("io.maxReqsPerHost");
+		NETWORK_IO_MAXBLOCKSPERHOST_KEY = getConfKey("io.maxBlocksPerHost");
+		SHUFFLE_INDEXCACHE_SIZE_KEY = getConfKey("indexCache.size");
+		SHUFFLE_INDEXCACHE_MODE_KEY = getConfKey("indexCache.mode");
+		SHUFFLE_INDEXCACHE_MAXMAPPINGS_KEY = getConfKey("indexCache.maxMappings");
+		SHUFFLE_CLEANER_MAXDELETERATE_KEY = getConfKey("cleaner.maxDeleteRate");
+		SHUFFLE_REGISTEREDEXECUTORS_SYNCPOLICY_KEY = getConfKey("registeredExecutors.syncPolicy");
+		SHUFFLE_REGISTEREDEXECUTORS_FLUSHINTERVAL_KEY = getConfKey("registeredExecutors.flushIntervalMs");
+		SHUFFLE_REGISTEREDEXECUTORS_RECOVERYTHREADS_KEY = getConfKey("registeredExecutors.recoveryThreads");
+		SHUFFLE_UPLOAD_MAXINRPCSIZE_KEY = getConfKey("upload.maxInRpcSize");
+		SHUFFLE_PUSH_MAXBLOCKSIZE_KEY = getConfKey("push.maxBlockSize");
+		SHUFFLE_DISKIO_THREADSPERDISK_KEY = getConfKey("diskIO.threadsPerDisk");
+		SHUFFLE_DISKIO_MAXQUEUEDPERDISK_KEY = getConfKey("diskIO.maxQueuedPerDisk");
+		SHUFFLE_BLOCKCACHE_SIZE_KEY = getConfKey("blockCache.size");
+		SHUFFLE_BLOCKCACHE_MAXBLOCKSIZE_KEY = getConfKey("blockCache.maxBlockSize");
 
 	}
 
@@ -118,10 +172,232 @@ public class TransportConf {
 		return conf.getInt(NETWORK_IO_RETRYWAIT_KEY, 5) * 1000;
 	}
 
+	/**
+	 * 重试等待时间的上限，单位s，用于EXPONENTIAL、DECORRELATED_JITTER策略
+	 * @return 毫秒数
+	 */
+	public int ioRetryMaxWaitTimeMS() {
+		return conf.getInt(NETWORK_IO_RETRYMAXWAIT_KEY, 60) * 1000;
+	}
+
+	/**
+	 * 重试等待策略：FIXED、EXPONENTIAL、DECORRELATED_JITTER
+	 * @return
+	 */
+	public String ioRetryBackoff() {
+		return conf.get(NETWORK_IO_RETRYBACKOFF_KEY, "FIXED").toUpperCase();
+	}
+
+	/**
+	 * 每个远端host同时等待重试的最大请求数，超过时不再重试直接失败，0表示不限制
+	 * @return
+	 */
+	public int maxPendingRetriesPerHost() {
+		return conf.getInt(NETWORK_IO_MAXPENDINGRETRIESPERHOST_KEY, 0);
+	}
+
+	/**
+	 * 获取block时，超过该大小的block以流的方式直接写入{@link #fetchTempDir()}中的临时
+	 * 文件，不在内存中缓存整个block，单位MB，默认为0，表示不开启。
+	 * 开启后监听器得到的buffer在回调返回后即被释放，需要继续读取时应先retain
+	 * @return 字节数
+	 */
+	public long fetchToDiskThreshold() {
+		return conf.getLong(NETWORK_IO_FETCHTODISKTHRESHOLD_KEY, 0) * 1024 * 1024;
+	}
+
+	/**
+	 * 以流的方式获取的block所写入的临时文件目录
+	 * @return
+	 */
+	public String fetchTempDir() {
+		return conf.get(NETWORK_IO_FETCHTEMPDIR_KEY, System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * 客户端与Shuffle Server位于同一台机器时，是否直接从本地磁盘读取shuffle block
+	 * @return
+	 */
+	public boolean shortCircuitLocalReads() {
+		return conf.getBoolean(NETWORK_IO_SHORTCIRCUITLOCALREADS_KEY, false);
+	}
+
+	/**
+	 * Unix domain socket文件所在目录，只在EPOLL模式下生效，为空表示不开启。服务端在
+	 * 监听TCP端口的同时监听该目录下的govind-端口.sock，客户端连接本机的服务端时
+	 * 优先使用该socket
+	 * @return
+	 */
+	public String domainSocketDir() {
+		return conf.get(NETWORK_IO_DOMAINSOCKETDIR_KEY, "");
+	}
+
+	/**
+	 * 连续失败多少次后打开到该远端的熔断器，打开期间到该远端的请求直接失败，0表示不开启
+	 * @return
+	 */
+	public int circuitBreakerFailures() {
+		return conf.getInt(NETWORK_IO_CIRCUITBREAKERFAILURES_KEY, 0);
+	}
+
+	/**
+	 * 熔断器打开后经过多久放行一个探测请求，单位s
+	 * @return 毫秒数
+	 */
+	public long circuitBreakerOpenTimeMs() {
+		return conf.getLong(NETWORK_IO_CIRCUITBREAKEROPENTIME_KEY, 30) * 1000;
+	}
+
 	public boolean lazyFileDescription() {
 		return conf.getBoolean(NETWORK_IO_LAZYFD_KEY, true);
 	}
 
+	/**
+	 * 客户端合并发往同一个Executor的fetchBlocks请求的时间窗口，单位ms，0表示不合并
+	 * @return
+	 */
+	public long fetchCoalesceWindowMs() {
+		return conf.getLong(NETWORK_IO_FETCHCOALESCEWINDOW_KEY, 0);
+	}
+
+	/**
+	 * 合并后的单个OpenBlock请求最多包含的block数，达到时立即发送
+	 * @return
+	 */
+	public int fetchCoalesceMaxBlocks() {
+		return conf.getInt(NETWORK_IO_FETCHCOALESCEMAXBLOCKS_KEY, 512);
+	}
+
+	/**
+	 * 客户端所有获取请求正在获取的最大总字节数，超过时新的请求排队等待，单位MB，
+	 * 0表示不限制
+	 * @return 字节数
+	 */
+	public long maxBytesInFlight() {
+		return conf.getLong(NETWORK_IO_MAXBYTESINFLIGHT_KEY, 48) * 1024 * 1024;
+	}
+
+	/**
+	 * 客户端对每个远端host同时进行的最大获取请求数，0表示不限制
+	 * @return
+	 */
+	public int maxReqsPerHost() {
+		return conf.getInt(NETWORK_IO_MAXREQSPERHOST_KEY, 0);
+	}
+
+	/**
+	 * 客户端对每个远端host同时获取的最大block数，0表示不限制
+	 * @return
+	 */
+	public int maxBlocksPerHost() {
+		return conf.getInt(NETWORK_IO_MAXBLOCKSPERHOST_KEY, 0);
+	}
+
+	/**
+	 * 缓存已解析的shuffle索引文件所能使用的最大堆内存，单位MB
+	 * @return 字节数
+	 */
+	public long indexCacheSizeBytes() {
+		return conf.getLong(SHUFFLE_INDEXCACHE_SIZE_KEY, 100) * 1024 * 1024;
+	}
+
+	/**
+	 * 索引文件查找方式：HEAP将索引文件解析后缓存在堆内存中，MMAP将索引文件映射到内存
+	 * @return
+	 */
+	public String indexCacheMode() {
+		return conf.get(SHUFFLE_INDEXCACHE_MODE_KEY, "HEAP").toUpperCase();
+	}
+
+	/**
+	 * MMAP模式下同时存在的最大映射数量，每个映射占用一个vm.max_map_count配额
+	 * @return
+	 */
+	public int indexCacheMaxMappings() {
+		return conf.getInt(SHUFFLE_INDEXCACHE_MAXMAPPINGS_KEY, 8192);
+	}
+
+	/**
+	 * 删除应用程序目录时每个磁盘每秒最多删除的数据量，单位MB，0表示不限速
+	 * @return 字节数
+	 */
+	public long cleanerMaxDeleteBytesPerSec() {
+		return conf.getLong(SHUFFLE_CLEANER_MAXDELETERATE_KEY, 0) * 1024 * 1024;
+	}
+
+	/**
+	 * 持久化Executor注册信息时的同步策略：ALWAYS、BATCH、NONE，参见LevelDBWriteQueue
+	 * @return
+	 */
+	public String registeredExecutorsSyncPolicy() {
+		return conf.get(SHUFFLE_REGISTEREDEXECUTORS_SYNCPOLICY_KEY, "BATCH").toUpperCase();
+	}
+
+	/**
+	 * BATCH/NONE策略下合并写入的时间窗口，进程崩溃最多丢失该窗口内的注册信息
+	 * @return
+	 */
+	public long registeredExecutorsFlushIntervalMs() {
+		return conf.getLong(SHUFFLE_REGISTEREDEXECUTORS_FLUSHINTERVAL_KEY, 100);
+	}
+
+	/**
+	 * 重启时并行恢复已注册Executor的线程数
+	 * @return
+	 */
+	public int registeredExecutorsRecoveryThreads() {
+		return conf.getInt(SHUFFLE_REGISTEREDEXECUTORS_RECOVERYTHREADS_KEY, 4);
+	}
+
+	/**
+	 * 上传block时，不超过该大小的block放在RPC消息中上传，超过时以流的方式上传，单位KB
+	 * @return 字节数
+	 */
+	public long maxInRpcUploadBytes() {
+		return conf.getLong(SHUFFLE_UPLOAD_MAXINRPCSIZE_KEY, 1024) * 1024;
+	}
+
+	/**
+	 * push-merge模式下，Shuffle Server合并的单个block的最大大小，超过时拒绝合并，
+	 * 由reduce任务单独获取，单位KB
+	 * @return 字节数
+	 */
+	public long maxPushBlockBytes() {
+		return conf.getLong(SHUFFLE_PUSH_MAXBLOCKSIZE_KEY, 1024) * 1024;
+	}
+
+	/**
+	 * 每个local dir用于打开block的线程数，0表示在RPC处理线程中同步打开
+	 * @return
+	 */
+	public int diskIOThreadsPerDisk() {
+		return conf.getInt(SHUFFLE_DISKIO_THREADSPERDISK_KEY, 2);
+	}
+
+	/**
+	 * 每个local dir最多排队的IO请求数，超过时拒绝新的请求
+	 * @return
+	 */
+	public int diskIOMaxQueuedPerDisk() {
+		return conf.getInt(SHUFFLE_DISKIO_MAXQUEUEDPERDISK_KEY, 1024);
+	}
+
+	/**
+	 * 热点shuffle block缓存占用的直接内存大小，单位MB，0表示不开启缓存
+	 * @return 字节数
+	 */
+	public long blockCacheSizeBytes() {
+		return conf.getLong(SHUFFLE_BLOCKCACHE_SIZE_KEY, 0) * 1024 * 1024;
+	}
+
+	/**
+	 * 被缓存的shuffle block的最大大小，更大的block通过零拷贝发送，单位KB
+	 * @return 字节数
+	 */
+	public long blockCacheMaxBlockBytes() {
+		return conf.getLong(SHUFFLE_BLOCKCACHE_MAXBLOCKSIZE_KEY, 256) * 1024;
+	}
+
 	/**
 	 * 使用内存映射进行IO操作时，直接内存的大小必须大于2M，否则使用普通的IO操作。
 	 * @return
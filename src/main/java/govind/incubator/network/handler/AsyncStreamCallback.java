@@ -0,0 +1,20 @@
+package govind.incubator.network.handler;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 在其他线程中处理数据的{@link StreamCallback}，避免在Netty IO线程中执行阻塞的操作
+ * (例如写入文件)。onComplete返回时数据可能尚未处理完，服务端在{@link #completion()}
+ * 完成后再向客户端返回上传的结果。
+ */
+public interface AsyncStreamCallback extends StreamCallback {
+
+	/**
+	 * 所有数据处理完毕后成功，处理失败或流传输失败时以对应的异常失败
+	 */
+	ListenableFuture<Void> completion();
+}
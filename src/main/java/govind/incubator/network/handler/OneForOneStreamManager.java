@@ -3,6 +3,7 @@ package govind.incubator.network.handler;
 import com.google.common.base.Preconditions;
 import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.protocol.StreamChunkId;
 import io.netty.channel.Channel;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -65,11 +66,36 @@ public class OneForOneStreamManager extends StreamManager{
 	 * @return streamId
 	 */
 	public long registerStream(String appId, Iterator<ManagedBuffer> buffers) {
+		return registerStream(appId, buffers, null);
+	}
+
+	/**
+	 * 注册流并与客户端连接关联，连接关闭时释放该流，即使其中的chunk全部通过
+	 * {@link #openStream}读取
+	 * @param appId 客户端标识
+	 * @param buffers
+	 * @param channel 客户端连接
+	 * @return streamId
+	 */
+	public long registerStream(String appId, Iterator<ManagedBuffer> buffers, Channel channel) {
 		long streamId = nextStreamId.getAndIncrement();
-		streams.put(streamId, new StreamState(appId, buffers));
+		StreamState state = new StreamState(appId, buffers);
+		state.associatedChannel = channel;
+		streams.put(streamId, state);
 		return streamId;
 	}
 
+	/** 以流的方式读取某个chunk时使用的streamId */
+	public static String genStreamChunkId(long streamId, int chunkIdx) {
+		return streamId + "_" + chunkIdx;
+	}
+
+	public static StreamChunkId parseStreamChunkId(String streamChunkId) {
+		String[] parts = streamChunkId.split("_");
+		Preconditions.checkArgument(parts.length == 2, "非法的streamChunkId：" + streamChunkId);
+		return new StreamChunkId(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+	}
+
 	@Override
 	public void registerChannle(Channel channel, long streamId) {
 		if (streams.containsKey(streamId)) {
@@ -97,6 +123,17 @@ public class OneForOneStreamManager extends StreamManager{
 		return buffer;
 	}
 
+	/**
+	 * 以流的方式读取某个chunk，客户端不需要在内存中缓存整个chunk
+	 * @param streamChunkId 格式为streamId_chunkIdx
+	 * @return
+	 */
+	@Override
+	public ManagedBuffer openStream(String streamChunkId) {
+		StreamChunkId id = parseStreamChunkId(streamChunkId);
+		return getChunk(id.streamId, id.chunkIdx);
+	}
+
 	/**
 	 * 释放与该通道关联的流
 	 * @param channel
@@ -123,4 +160,9 @@ public class OneForOneStreamManager extends StreamManager{
 			}
 		}
 	}
+
+	@Override
+	public void checkAuthorization(TransportClient client, String streamChunkId) {
+		checkAuthorization(client, parseStreamChunkId(streamChunkId).streamId);
+	}
 }
@@ -39,6 +39,24 @@ public abstract  class RpcHandler {
 	 */
 	public abstract void receive(TransportClient client, ByteBuffer msg, RpcCallback callback);
 
+	/**
+	 * 接收客户端通过{@link TransportClient#uploadStream}上传的流数据，返回的回调函数
+	 * 用于消费紧跟在UploadStream消息之后的数据。
+	 *
+	 * 1、onData在Netty IO线程中被调用，不应该阻塞；
+	 * 2、onComplete正常返回时向客户端返回空的RpcResponse，抛出异常时返回RpcFailure；
+	 * 3、onFailure在channel关闭或数据接收出错时被调用；
+	 *
+	 * 默认不支持上传流数据。
+	 *
+	 * @param client channel中的client端
+	 * @param meta UploadStream中携带的元数据
+	 * @return 消费流数据的回调函数
+	 */
+	public StreamCallback receiveStream(TransportClient client, ByteBuffer meta) {
+		throw new UnsupportedOperationException("不支持上传流数据");
+	}
+
 	/**
 	 * 接收RPC消息并且不期待回复。
 	 * 当任何回调函数被调用时，仅仅记录一条日志而不进行回复。
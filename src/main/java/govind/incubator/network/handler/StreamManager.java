@@ -43,6 +43,14 @@ public abstract class StreamManager {
 	 */
 	public void checkAuthorization(TransportClient client, long streamId){}
 
+	/**
+	 * 验证客户端是否可以通过{@link #openStream}读取指定流中的数据
+	 * @param client
+	 * @param streamId
+	 * @throws SecurityException
+	 */
+	public void checkAuthorization(TransportClient client, String streamId){}
+
 	/**
 	 * 当客服端断开连接时，停止流传输并关闭，确保一个流打开一次仅对对应客户端服务
 	 * @param channel
@@ -1,13 +1,18 @@
 package govind.incubator.network.handler;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.buffer.NioManagedBuffer;
+import govind.incubator.network.inteceptor.StreamInteceptor;
 import govind.incubator.network.protocol.*;
+import govind.incubator.network.protocol.codec.TransportFrameDecoder;
 import io.netty.channel.Channel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 
@@ -64,6 +69,8 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
 			processStreamRequest((StreamRequest) message);
 		} else if (message instanceof ChunkFetchRequest) {
 			processChunkFetchRequest((ChunkFetchRequest) message);
+		} else if (message instanceof UploadStream) {
+			processStreamUpload((UploadStream) message);
 		} else {
 			throw new IllegalArgumentException("不支持的消息类型：{}" + message.type());
 		}
@@ -119,11 +126,45 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
 		}
 	}
 
+	/**
+	 * UploadStream消息之后紧跟着bodyByteCount字节的流数据，需要在返回前安装拦截器，
+	 * 由拦截器将数据交给RpcHandler返回的回调函数消费。RpcHandler拒绝处理时，仍然需要
+	 * 消费掉这些数据，以便后续的帧能够被正确解析。
+	 */
+	private void processStreamUpload(final UploadStream req) {
+		final String streamId = "upload-" + req.requestId;
+		StreamCallback callback;
+		Throwable rejected = null;
+		try {
+			callback = rpcHandler.receiveStream(requestClient, req.meta.nioByteBuffer());
+		} catch (Exception e) {
+			log.error("RpcHandler处理UploadStream请求{}时出错:{}", req.requestId, Throwables.getStackTraceAsString(e));
+			callback = new DiscardingStreamCallback();
+			rejected = e;
+		} finally {
+			req.meta.release();
+		}
+
+		StreamCallback wrappedCallback = new UploadStreamCallback(req.requestId, callback, rejected);
+		if (req.bodyByteCount > 0) {
+			StreamInteceptor inteceptor = new StreamInteceptor(this, streamId, req.bodyByteCount, wrappedCallback);
+			TransportFrameDecoder frameDecoder = (TransportFrameDecoder) associatedChannel.pipeline().get(TransportFrameDecoder.HANDLER_NAME);
+			frameDecoder.setInteceptor(inteceptor);
+		} else {
+			try {
+				wrappedCallback.onComplete(streamId);
+			} catch (IOException e) {
+				//UploadStreamCallback中已处理
+			}
+		}
+	}
+
 	private void processStreamRequest(StreamRequest req) {
 		final String clientAddr = associatedChannel.remoteAddress().toString();
 		ManagedBuffer buffer = null;
 
 		try {
+			streamManager.checkAuthorization(requestClient, req.streamId);
 			buffer = streamManager.openStream(req.streamId);
 		} catch (Exception e) {
 			log.error("为客户端{}打开流streamId={}出错：{}", clientAddr, req.streamId, e.getMessage());
@@ -152,6 +193,86 @@ public class TransportRequestHandler extends MessageHandler<RequestMessage> {
 		respond(new ChunkFetchSuccess(buffer, req.streamChunkId));
 	}
 
+	/**
+	 * 在RpcHandler的回调函数完成后向客户端返回RpcResponse或RpcFailure
+	 */
+	private class UploadStreamCallback implements StreamCallback {
+		private final long requestId;
+		private final StreamCallback delegate;
+		/** RpcHandler拒绝处理时的异常，数据消费完后返回给客户端 */
+		private final Throwable rejected;
+
+		UploadStreamCallback(long requestId, StreamCallback delegate, Throwable rejected) {
+			this.requestId = requestId;
+			this.delegate = delegate;
+			this.rejected = rejected;
+		}
+
+		@Override
+		public void onData(String streamId, ByteBuffer buffer) throws IOException {
+			delegate.onData(streamId, buffer);
+		}
+
+		@Override
+		public void onComplete(String streamId) throws IOException {
+			if (rejected != null) {
+				respond(new RpcFailure(requestId, Throwables.getStackTraceAsString(rejected)));
+				return;
+			}
+			try {
+				delegate.onComplete(streamId);
+			} catch (Exception e) {
+				respondFailure(streamId, e);
+				return;
+			}
+			if (!(delegate instanceof AsyncStreamCallback)) {
+				respond(new RpcResponse(new NioManagedBuffer(ByteBuffer.allocate(0)), requestId));
+				return;
+			}
+
+			//数据在其他线程中处理完毕后再返回结果
+			Futures.addCallback(((AsyncStreamCallback) delegate).completion(), new FutureCallback<Void>() {
+				@Override
+				public void onSuccess(Void result) {
+					respond(new RpcResponse(new NioManagedBuffer(ByteBuffer.allocate(0)), requestId));
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					respondFailure(streamId, t);
+				}
+			});
+		}
+
+		private void respondFailure(String streamId, Throwable e) {
+			log.error("处理上传的流数据{}出错：{}", streamId, Throwables.getStackTraceAsString(e));
+			respond(new RpcFailure(requestId, Throwables.getStackTraceAsString(e)));
+		}
+
+		@Override
+		public void onFailure(String streamId, Throwable cause) throws IOException {
+			try {
+				delegate.onFailure(streamId, cause);
+			} finally {
+				if (associatedChannel.isActive()) {
+					respond(new RpcFailure(requestId, Throwables.getStackTraceAsString(cause)));
+				}
+			}
+		}
+	}
+
+	/** 丢弃上传的流数据 */
+	private static class DiscardingStreamCallback implements StreamCallback {
+		@Override
+		public void onData(String streamId, ByteBuffer buffer) {}
+
+		@Override
+		public void onComplete(String streamId) {}
+
+		@Override
+		public void onFailure(String streamId, Throwable cause) {}
+	}
+
 	/**
 	 * 服务端处理过程出现错误，将错误信息返回给客户端，若在发送过程出
 	 * 现错误，则将记录日志同时关闭channel
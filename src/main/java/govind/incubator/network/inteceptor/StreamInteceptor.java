@@ -1,6 +1,7 @@
 package govind.incubator.network.inteceptor;
 
 
+import govind.incubator.network.handler.MessageHandler;
 import govind.incubator.network.handler.StreamCallback;
 import govind.incubator.network.handler.TransportResponseHandler;
 import govind.incubator.network.protocol.codec.Inteceptor;
@@ -19,13 +20,15 @@ import java.nio.channels.ClosedChannelException;
  * 流处理器，在{@link govind.incubator.network.protocol.codec.TransportFrameDecoder}中注册，
  * 用于消费其中的数据，并调用{@link govind.incubator.network.handler.StreamCallback}中的方法
  * 进行消费
+ *
+ * 客户端用于接收StreamResponse之后的流数据，服务端用于接收UploadStream之后的流数据。
  */
 @Slf4j
 public class StreamInteceptor implements Inteceptor {
 	/**
-	 * 该流处理器关联的响应处理器
+	 * 该流处理器关联的消息处理器
 	 */
-	private final TransportResponseHandler handler;
+	private final MessageHandler<?> handler;
 
 	/**
 	 * 该流处理器所处理的流的标识
@@ -47,7 +50,7 @@ public class StreamInteceptor implements Inteceptor {
 	 */
 	private volatile long byteRead;
 
-	public StreamInteceptor(TransportResponseHandler handler, String streamId, long byteCount, StreamCallback streamCallback) {
+	public StreamInteceptor(MessageHandler<?> handler, String streamId, long byteCount, StreamCallback streamCallback) {
 		this.handler = handler;
 		this.streamId = streamId;
 		this.byteCount = byteCount;
@@ -68,7 +71,7 @@ public class StreamInteceptor implements Inteceptor {
 		if (byteRead > byteCount) {
 			new IllegalStateException(String.format("消费过多数据？期待消费 %d 字节，实际消费 %d 字节",byteCount, byteRead));
 		} else if (byteRead == byteCount) {
-			handler.deactiveStream();
+			deactiveStream();
 			streamCallback.onComplete(streamId);
 		}
 		return byteRead != byteCount;
@@ -77,7 +80,7 @@ public class StreamInteceptor implements Inteceptor {
 	@Override
 	public void channelInactive() throws Exception {
 		try {
-			handler.deactiveStream();
+			deactiveStream();
 			streamCallback.onFailure(streamId, new ClosedChannelException());
 		} catch (IOException e) {
 			log.error("调用StreamCall#onFailure方法出错：{}", e.getMessage());
@@ -86,7 +89,13 @@ public class StreamInteceptor implements Inteceptor {
 
 	@Override
 	public void exceptionCaught(Throwable cause) throws Exception {
-		handler.deactiveStream();
+		deactiveStream();
 		streamCallback.onFailure(streamId, cause);
 	}
+
+	private void deactiveStream() {
+		if (handler instanceof TransportResponseHandler) {
+			((TransportResponseHandler) handler).deactiveStream();
+		}
+	}
 }
@@ -38,7 +38,7 @@ public interface Message extends Encodable{
 		ChunkFetchRequest(0), ChunkFetchSuccess(1), ChunkFetchFailure(2),
 		RpcRequest(3), RpcResponse(4), RpcFailure(5),
 		StreamRequest(6), StreamResponse(7), StreamFailure(8),
-		OneWayMessage(9), User(-1);
+		OneWayMessage(9), UploadStream(10), User(-1);
 
 		/**
 		 * 支持128个消息类型
@@ -73,6 +73,7 @@ public interface Message extends Encodable{
 				case 7: return StreamResponse;
 				case 8: return StreamFailure;
 				case 9: return OneWayMessage;
+				case 10: return UploadStream;
 				case -1: throw new IllegalArgumentException("无法解码User类型消息");
 				default: throw new IllegalArgumentException("非法消息类型");
 			}
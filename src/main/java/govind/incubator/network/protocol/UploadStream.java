@@ -0,0 +1,92 @@
+package govind.incubator.network.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NettyManagedBuffer;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 客户端向服务端以流的方式上传数据，响应为RpcResponse或RpcFailure
+ *
+ * 帧中只包含requestId、元数据(meta)及数据长度，数据本身(body)紧跟在帧
+ * 之后发送(isBodyInFrame=false)，服务端在解析出该消息后通过拦截器直接
+ * 消费body，不需要将整个body缓存在内存中。
+ */
+public class UploadStream extends AbstractMessage implements RequestMessage {
+	/** 请求标识，与响应的RpcResponse/RpcFailure的标识相同 */
+	public final long requestId;
+	/** 元数据，由RpcHandler解析，用于说明如何处理上传的数据 */
+	public final ManagedBuffer meta;
+	/** body的字节数 */
+	public final long bodyByteCount;
+
+	public UploadStream(long requestId, ManagedBuffer meta, ManagedBuffer body) {
+		super(body, false);
+		this.requestId = requestId;
+		this.meta = meta;
+		this.bodyByteCount = body.size();
+	}
+
+	/** 解码时body尚未到达，由拦截器消费 */
+	private UploadStream(long requestId, ManagedBuffer meta, long bodyByteCount) {
+		super(null, false);
+		this.requestId = requestId;
+		this.meta = meta;
+		this.bodyByteCount = bodyByteCount;
+	}
+
+	@Override
+	public Type type() {
+		return Type.UploadStream;
+	}
+
+	@Override
+	public int encodedLength() {
+		return 8 + 4 + (int) meta.size() + 8;
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		buf.writeLong(requestId);
+		try {
+			buf.writeInt((int) meta.size());
+			buf.writeBytes(meta.nioByteBuffer());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		buf.writeLong(bodyByteCount);
+	}
+
+	public static UploadStream decode(ByteBuf buf) {
+		long requestId = buf.readLong();
+		int metaSize = buf.readInt();
+		ManagedBuffer meta = new NettyManagedBuffer(buf.readSlice(metaSize).retain());
+		long bodyByteCount = buf.readLong();
+		return new UploadStream(requestId, meta, bodyByteCount);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(requestId, bodyByteCount);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof UploadStream) {
+			UploadStream o = (UploadStream) obj;
+			return requestId == o.requestId && bodyByteCount == o.bodyByteCount;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("requestId", requestId)
+				.add("meta", meta)
+				.add("bodyByteCount", bodyByteCount)
+				.toString();
+	}
+}
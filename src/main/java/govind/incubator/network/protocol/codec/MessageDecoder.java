@@ -47,6 +47,8 @@ public class MessageDecoder extends MessageToMessageDecoder<ByteBuf> {
 				return StreamFailure.decode(buf);
 			case OneWayMessage:
 				return OneWayMessage.decode(buf);
+			case UploadStream:
+				return UploadStream.decode(buf);
 			default:
 				throw new IllegalArgumentException("不支持的消息类型：" + type);
 		}
@@ -1,12 +1,15 @@
 package govind.incubator.network.protocol.codec;
 
+import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.protocol.AbstractResponseMessage;
 import govind.incubator.network.protocol.Message;
 import govind.incubator.network.protocol.MessageWithHeader;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
@@ -15,6 +18,22 @@ import java.util.List;
 @Sharable
 @Slf4j
 public class MessageEncoder extends MessageToMessageEncoder<Message> {
+	/**
+	 * true表示通道两端位于同一个JVM内(LocalChannel)，body在帧中的消息不再编码，
+	 * 直接将消息对象连同其body的引用交给对端，由对端处理完后释放。body在帧之后
+	 * 以流的方式发送的消息(StreamResponse、UploadStream)仍然编码，因为对端依赖
+	 * {@link TransportFrameDecoder}的拦截器读取流数据。
+	 */
+	private final boolean inJvm;
+
+	public MessageEncoder() {
+		this(false);
+	}
+
+	public MessageEncoder(boolean inJvm) {
+		this.inJvm = inJvm;
+	}
+
 	/**
 	 * 对消息进行编码后传输
 	 * 1、对于no-body的消息会把：帧长度、消息类型和消息本身放在ByteBuf中，然后添加到"out"中。
@@ -28,6 +47,11 @@ public class MessageEncoder extends MessageToMessageEncoder<Message> {
 	 */
 	@Override
 	protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
+		if (inJvm && (msg.body() == null || msg.isBodyInFrame())) {
+			out.add(msg);
+			return;
+		}
+
 		Object body = null;
 		long bodyLength = 0L;
 		boolean isBodyInFrame = false;
@@ -82,11 +106,23 @@ public class MessageEncoder extends MessageToMessageEncoder<Message> {
 
 		assert header.writableBytes() == 0 : "可写字节数应该为0";
 
-		if (body != null && bodyLength > 0) {
+		if (body != null && bodyLength > 0 && inJvm) {
+			//LocalChannel只能传递对象，无法使用FileRegion
+			out.add(header);
+			out.add(toByteBuf(msg.body(), body));
+		} else if (body != null && bodyLength > 0) {
 			out.add(new MessageWithHeader(header, body, bodyLength));
 		} else {
 			out.add(header);
 		}
 
 	}
+
+	private Object toByteBuf(ManagedBuffer managedBuffer, Object body) throws IOException {
+		if (body instanceof ByteBuf) {
+			return body;
+		}
+		ReferenceCountUtil.release(body);
+		return Unpooled.wrappedBuffer(managedBuffer.nioByteBuffer());
+	}
 }
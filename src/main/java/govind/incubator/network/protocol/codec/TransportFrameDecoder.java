@@ -1,6 +1,7 @@
 package govind.incubator.network.protocol.codec;
 
 import com.google.common.base.Preconditions;
+import govind.incubator.network.protocol.Message;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
@@ -97,6 +98,11 @@ public class TransportFrameDecoder extends ChannelInboundHandlerAdapter {
 					totalSize -= read;
 				}
 			}
+		} else if (msg instanceof Message) {
+			//IOMode.LOCAL下未经编码直接传递的消息，之前的帧及流数据都已经处理完
+			Preconditions.checkState(totalSize == 0 && nextFrameSize == UNKNOWN_FRAME_SIZE && inteceptor == null,
+					"收到消息%s时仍有未处理完的数据", msg);
+			ctx.fireChannelRead(msg);
 		} else {
 			throw new IllegalArgumentException("msg is not instance of ByteBuf!");
 		}
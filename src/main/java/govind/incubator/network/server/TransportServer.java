@@ -6,25 +6,41 @@ import govind.incubator.network.handler.RpcHandler;
 import govind.incubator.network.util.IOMode;
 import govind.incubator.network.util.NettyUtil;
 import govind.incubator.network.util.TransportContext;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @Author: 高文文
  * Project Name: govind-incubator
  * Date: 2019-9-25
+ *
+ * EPOLL模式下配置了domainSocketDir时，除TCP端口外同时监听Unix domain socket，
+ * 同一台机器上的客户端通过该socket连接，两者使用相同的pipeline及线程池。
+ *
+ * LOCAL模式下不监听任何socket，而是在当前JVM内监听与端口对应的LocalAddress，
+ * 只有同一个JVM内的客户端可以连接。
  */
 @Slf4j
 public class TransportServer implements Closeable {
+	/** LOCAL模式下自动分配的端口 */
+	private static final AtomicInteger nextLocalPort = new AtomicInteger(1);
+	private static final int MAX_LOCAL_BIND_ATTEMPTS = 100;
+	/** 探测socket文件是否失效时连接的超时时间 */
+	private static final long STALE_SOCKET_PROBE_TIMEOUT_MS = 1000;
+
 	private final TransportConf conf;
 	private final TransportContext context;
 	private final RpcHandler appRpcHandler;
@@ -33,6 +49,9 @@ public class TransportServer implements Closeable {
 	private int  port = -1;
 	private ChannelFuture future;
 	private ServerBootstrap bootstrap;
+	/** 监听domain socket，未开启时为null */
+	private ChannelFuture domainSocketFuture;
+	private File domainSocketFile;
 
 	public TransportServer(String hostToBind, int portToBind, TransportContext context, RpcHandler rpcHandler, List<TransportServerBootstrap> bootstraps) {
 		this.context = context;
@@ -64,38 +83,140 @@ public class TransportServer implements Closeable {
 				.channel(serverChannelClasss)
 				.option(ChannelOption.ALLOCATOR, allocator)
 				.childOption(ChannelOption.ALLOCATOR, allocator);
-		if (conf.backlog() > 0) {
-			bootstrap.option(ChannelOption.SO_BACKLOG, conf.backlog());
+		if (ioMode != IOMode.LOCAL) {
+			if (conf.backlog() > 0) {
+				bootstrap.option(ChannelOption.SO_BACKLOG, conf.backlog());
+			}
+
+			if (conf.receiveBuffer() > 0) {
+				bootstrap.option(ChannelOption.SO_RCVBUF, conf.receiveBuffer());
+			}
+
+			if (conf.sendBuffer() > 0) {
+				bootstrap.option(ChannelOption.SO_SNDBUF, conf.sendBuffer());
+			}
+		}
+
+		bootstrap.childHandler(createChannelInitializer());
+
+		if (ioMode == IOMode.LOCAL) {
+			future = bindLocal(portToBind);
+		} else {
+			InetSocketAddress address =  hostToBind == null ?
+					new InetSocketAddress(portToBind) :
+					new InetSocketAddress(hostToBind, portToBind);
+
+			future = bootstrap.bind(address);
+			future.syncUninterruptibly();
+			port = ((InetSocketAddress)future.channel().localAddress()).getPort();
 		}
 
-		if (conf.receiveBuffer() > 0) {
-			bootstrap.option(ChannelOption.SO_RCVBUF, conf.receiveBuffer());
+		log.info("服务器成功启动，监听端口为：{}", port);
+
+		if (!conf.domainSocketDir().isEmpty()) {
+			if (ioMode == IOMode.EPOLL) {
+				bindDomainSocket(bossGroup, workGroup, allocator);
+			} else {
+				log.warn("Unix domain socket只支持EPOLL模式，当前模式为{}，不监听domain socket", ioMode);
+			}
+		}
+	}
+
+	/**
+	 * LOCAL模式下监听{@link NettyUtil#getLocalAddress(int)}，portToBind为0时
+	 * 依次尝试{@link #nextLocalPort}直到找到当前JVM内未被占用的端口
+	 */
+	private ChannelFuture bindLocal(int portToBind) {
+		int attempts = portToBind == 0 ? MAX_LOCAL_BIND_ATTEMPTS : 1;
+		for (int i = 1; ; i++) {
+			int candidate = portToBind == 0 ? nextLocalPort.getAndIncrement() : portToBind;
+			ChannelFuture bindFuture = bootstrap.bind(NettyUtil.getLocalAddress(candidate));
+			if (i == attempts) {
+				bindFuture.syncUninterruptibly();
+			} else if (!bindFuture.awaitUninterruptibly().isSuccess()) {
+				log.debug("LOCAL端口{}已被占用，尝试下一个端口", candidate);
+				continue;
+			}
+			port = candidate;
+			return bindFuture;
 		}
+	}
 
-		if (conf.sendBuffer() > 0) {
-			bootstrap.option(ChannelOption.SO_SNDBUF, conf.sendBuffer());
+	/**
+	 * 在domainSocketDir下监听与TCP端口对应的socket文件，上次未删除的文件先删除
+	 */
+	private void bindDomainSocket(EventLoopGroup bossGroup, EventLoopGroup workGroup, PooledByteBufAllocator allocator) {
+		domainSocketFile = NettyUtil.getDomainSocketFile(conf.domainSocketDir(), port);
+		File dir = domainSocketFile.getParentFile();
+		dir.mkdirs();
+		if (!domainSocketFile.delete() && domainSocketFile.exists()) {
+			throw new IllegalStateException("无法删除上次未删除的domain socket文件：" + domainSocketFile);
 		}
+		removeStaleDomainSockets(dir, workGroup);
 
-		bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+		ServerBootstrap domainBootstrap = new ServerBootstrap()
+				.group(bossGroup, workGroup)
+				.channel(NettyUtil.getServerDomainSocketChannelClass())
+				.option(ChannelOption.ALLOCATOR, allocator)
+				.childOption(ChannelOption.ALLOCATOR, allocator)
+				.childHandler(createChannelInitializer());
+		domainSocketFuture = domainBootstrap.bind(new DomainSocketAddress(domainSocketFile));
+		domainSocketFuture.syncUninterruptibly();
+
+		log.info("服务器成功监听domain socket：{}", domainSocketFile);
+	}
+
+	/**
+	 * 删除目录下异常退出的服务端留下的socket文件：连接该文件时被拒绝，说明已经没有进程
+	 * 在监听。只探测socket文件本身，不占用任何TCP端口。客户端仍会在domain socket连接
+	 * 失败时改用TCP，这里只是避免每次连接都先尝试一个无效的socket文件
+	 */
+	private void removeStaleDomainSockets(File dir, EventLoopGroup group) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			int filePort = NettyUtil.getDomainSocketPort(file);
+			if (filePort <= 0 || filePort == port) {
+				continue;
+			}
+			if (isStaleDomainSocket(file, group) && file.delete()) {
+				log.info("删除已失效的domain socket文件：{}", file);
+			}
+		}
+	}
+
+	private boolean isStaleDomainSocket(File socketFile, EventLoopGroup group) {
+		ChannelFuture connect = new Bootstrap()
+				.group(group)
+				.channel(NettyUtil.getDomainSocketChannelClass())
+				.handler(new ChannelInboundHandlerAdapter())
+				.connect(new DomainSocketAddress(socketFile));
+		if (!connect.awaitUninterruptibly(STALE_SOCKET_PROBE_TIMEOUT_MS) || connect.isSuccess()) {
+			//超时或者连接成功时认为仍有服务端在监听
+			connect.channel().close();
+			return false;
+		}
+		return connect.cause() instanceof ConnectException;
+	}
+
+	private ChannelInitializer<Channel> createChannelInitializer() {
+		return new ChannelInitializer<Channel>() {
 			@Override
-			protected void initChannel(SocketChannel ch) throws Exception {
+			protected void initChannel(Channel ch) throws Exception {
 				RpcHandler rpcHandler = appRpcHandler;
 				for (TransportServerBootstrap  bootstrap : bootstraps) {
 					rpcHandler = bootstrap.doBootstrap(ch, rpcHandler);
 				}
 				context.initializePipeline(ch, rpcHandler);
 			}
-		});
-
-		InetSocketAddress address =  hostToBind == null ?
-				new InetSocketAddress(portToBind) :
-				new InetSocketAddress(hostToBind, portToBind);
-
-		future = bootstrap.bind(address);
-		future.syncUninterruptibly();
-		port = ((InetSocketAddress)future.channel().localAddress()).getPort();
+		};
+	}
 
-		log.info("服务器成功启动，监听端口为：{}", port);
+	/** 监听的domain socket文件，未开启时返回null */
+	public File getDomainSocketFile() {
+		return domainSocketFuture == null ? null : domainSocketFile;
 	}
 
 	public int getPort() {
@@ -111,6 +232,14 @@ public class TransportServer implements Closeable {
 			future.channel().close().awaitUninterruptibly(10, TimeUnit.SECONDS);
 		}
 
+		if (domainSocketFuture != null) {
+			domainSocketFuture.channel().close().awaitUninterruptibly(10, TimeUnit.SECONDS);
+			domainSocketFuture = null;
+		}
+		if (domainSocketFile != null) {
+			domainSocketFile.delete();
+		}
+
 		if (bootstrap != null && bootstrap.group() != null) {
 			bootstrap.group().shutdownGracefully();
 		}
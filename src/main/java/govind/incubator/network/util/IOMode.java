@@ -4,9 +4,12 @@ package govind.incubator.network.util;
  * @Author: 高文文
  * Project Name: govind-incubator
  * Date: 2019-9-25
+ *
+ * LOCAL：使用Netty的LocalChannel在同一个JVM内通信，不经过socket，用于嵌入式
+ * 部署的服务及测试。
  */
 public enum IOMode {
-	NIO("NIO"), EPOLL("EPOLL");
+	NIO("NIO"), EPOLL("EPOLL"), LOCAL("LOCAL");
 
 	private String name;
 
@@ -9,9 +9,15 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
 import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -20,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.InetAddress;
+import java.net.NetworkInterface;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
@@ -48,6 +55,8 @@ public class NettyUtil {
 				return NioSocketChannel.class;
 			case EPOLL:
 				return EpollSocketChannel.class;
+			case LOCAL:
+				return LocalChannel.class;
 			default:
 				throw new IllegalArgumentException("未知枚举类型");
 		}
@@ -59,11 +68,70 @@ public class NettyUtil {
 				return NioServerSocketChannel.class;
 			case EPOLL:
 				return EpollServerSocketChannel.class;
+			case LOCAL:
+				return LocalServerChannel.class;
 			default:
 				throw new IllegalArgumentException("未知枚举类型");
 		}
 	}
 
+	/**
+	 * Unix domain socket只支持EPOLL模式
+	 */
+	public static Class<? extends Channel> getDomainSocketChannelClass() {
+		return EpollDomainSocketChannel.class;
+	}
+
+	public static Class<? extends ServerChannel> getServerDomainSocketChannelClass() {
+		return EpollServerDomainSocketChannel.class;
+	}
+
+	private static final String DOMAIN_SOCKET_PREFIX = "govind-";
+	private static final String DOMAIN_SOCKET_SUFFIX = ".sock";
+
+	/**
+	 * 监听TCP端口port的服务端对应的domain socket文件，同一台机器上的多个服务端通过
+	 * 端口区分
+	 */
+	public static File getDomainSocketFile(String domainSocketDir, int port) {
+		return new File(domainSocketDir, DOMAIN_SOCKET_PREFIX + port + DOMAIN_SOCKET_SUFFIX);
+	}
+
+	/**
+	 * {@link #getDomainSocketFile(String, int)}的逆操作，文件名不符合格式时返回-1
+	 */
+	public static int getDomainSocketPort(File socketFile) {
+		String name = socketFile.getName();
+		if (!name.startsWith(DOMAIN_SOCKET_PREFIX) || !name.endsWith(DOMAIN_SOCKET_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(DOMAIN_SOCKET_PREFIX.length(), name.length() - DOMAIN_SOCKET_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * LOCAL模式下端口号只是服务端在当前JVM内的标识，对应的LocalAddress
+	 */
+	public static LocalAddress getLocalAddress(int port) {
+		return new LocalAddress("govind-" + port);
+	}
+
+	/**
+	 * host是否为本机的地址
+	 */
+	public static boolean isLocalAddress(String host) {
+		try {
+			InetAddress addr = InetAddress.getByName(host);
+			return addr.isAnyLocalAddress() || addr.isLoopbackAddress()
+					|| NetworkInterface.getByInetAddress(addr) != null;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
 	public static EventLoopGroup createEventLoopGroup(IOMode ioMode, int numThreads,String threadPrefix) {
 		ThreadFactory factory = createThreadFactory(threadPrefix);
 		switch (ioMode) {
@@ -71,6 +139,8 @@ public class NettyUtil {
 				return new NioEventLoopGroup(numThreads, factory);
 			case EPOLL:
 				return new EpollEventLoopGroup(numThreads, factory);
+			case LOCAL:
+				return new LocalEventLoopGroup(numThreads, factory);
 			default:
 				throw new IllegalArgumentException("未知枚举类型");
 		}
@@ -197,16 +267,8 @@ public class NettyUtil {
 	}
 
 	/** 文件是不是链接文件 */
-	private static boolean isSymlink(File file) throws IOException {
+	private static boolean isSymlink(File file) {
 		Preconditions.checkNotNull(file);
-		File fileInCanonicalDir = null;
-
-		if (file.getParent() == null) {
-			fileInCanonicalDir = file;
-		} else  {
-			fileInCanonicalDir = new File(file.getParentFile().getCanonicalFile(), file.getName());
-		}
-
-		return !fileInCanonicalDir.getCanonicalFile().equals(fileInCanonicalDir.getAbsoluteFile());
+		return Files.isSymbolicLink(file.toPath());
 	}
 }
@@ -14,7 +14,8 @@ import govind.incubator.network.protocol.codec.MessageEncoder;
 import govind.incubator.network.protocol.codec.TransportFrameDecoder;
 import govind.incubator.network.server.TransportServer;
 import govind.incubator.network.server.TransportServerBootstrap;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.Channel;
+import io.netty.channel.local.LocalChannel;
 import io.netty.handler.timeout.IdleStateHandler;
 import lombok.extern.slf4j.Slf4j;
 
@@ -40,6 +41,9 @@ import java.util.List;
  * TransportServer、TransportClientFactory会为每个Channel创建一个
  * TransportChannelHandler实例，每个实例中都包含一个TransportClient
  * 以便服务端进程将消息发回非客户端。
+ * <p>
+ * IOMode.LOCAL下通道两端位于同一个JVM内，消息对象及其body直接交给对端，
+ * 不经过序列化，此时不支持SASL加密。
  */
 @Slf4j
 public class TransportContext {
@@ -48,6 +52,8 @@ public class TransportContext {
 	private final boolean closeIdleConnections;
 
 	private final MessageEncoder encoder;
+	/** 用于LocalChannel，不对消息进行编码 */
+	private final MessageEncoder inJvmEncoder;
 	private final MessageDecoder decoder;
 
 	/**
@@ -70,6 +76,7 @@ public class TransportContext {
 		this.rpcHandler = rpcHandler;
 		this.closeIdleConnections = closeIdleConnections;
 		this.encoder = new MessageEncoder();
+		this.inJvmEncoder = new MessageEncoder(true);
 		this.decoder = new MessageDecoder();
 		//frameDecoder = NettyUtil.createFrameDecoder();
 	}
@@ -78,7 +85,7 @@ public class TransportContext {
 		return conf;
 	}
 
-	public TransportChannelHandler initializePipeline(SocketChannel channel) {
+	public TransportChannelHandler initializePipeline(Channel channel) {
 		return initializePipeline(channel, rpcHandler);
 	}
 
@@ -90,11 +97,11 @@ public class TransportContext {
 	 * @param rpcHandler 用于当前Channel上的RPC回调
 	 * @return
 	 */
-	public TransportChannelHandler initializePipeline(SocketChannel ch, RpcHandler rpcHandler) {
+	public TransportChannelHandler initializePipeline(Channel ch, RpcHandler rpcHandler) {
 		try {
 			TransportChannelHandler channelHandler = createChannelHandler(ch, rpcHandler);
 			ch.pipeline()
-					.addLast("encoder", encoder)
+					.addLast("encoder", ch instanceof LocalChannel ? inJvmEncoder : encoder)
 					.addLast(TransportFrameDecoder.HANDLER_NAME, NettyUtil.createFrameDecoder())
 					.addLast("decoder", decoder)
 					.addLast("idleStateHandler", new IdleStateHandler(0, 0, conf.connectionTimeoutMS() / 1000))
@@ -113,7 +120,7 @@ public class TransportContext {
 	 * @param rpcHandler
 	 * @return
 	 */
-	private TransportChannelHandler createChannelHandler(SocketChannel ch, RpcHandler rpcHandler) {
+	private TransportChannelHandler createChannelHandler(Channel ch, RpcHandler rpcHandler) {
 		TransportResponseHandler responseHandler = new TransportResponseHandler(ch);
 		TransportClient client = new TransportClient(ch, responseHandler);
 		TransportRequestHandler requestHandler = new TransportRequestHandler(ch, client, rpcHandler);
@@ -23,4 +23,11 @@ public interface BlockFetchingListener extends EventListener {
 	 */
 	void onBlockFetchFailure(String blockId, Throwable cause);
 
+	/**
+	 * 服务端打开blocks后、开始获取数据前被调用，告知每个block的字节数，可用于规划内存、
+	 * 决定是否直接写入磁盘。服务端未返回大小时不会被调用；重试时可能针对剩余的block
+	 * 再次被调用。
+	 */
+	default void onBlockSizes(String[] blockIds, long[] sizes) {}
+
 }
@@ -0,0 +1,225 @@
+package govind.incubator.shuffle;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import govind.incubator.network.util.NettyUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-14
+ *
+ * 应用程序移除后删除其local dirs。
+ *
+ * 1、每个物理磁盘(FileStore)对应一个单线程的worker，不同磁盘上的目录并行删除，
+ * 同一磁盘上的目录串行删除，避免随机IO相互干扰；
+ * 2、使用Files.walkFileTree遍历目录且不跟随符号链接，只删除链接本身；
+ * 3、按照每秒删除的字节数限速，避免删除操作抢占正在进行的shuffle读取；
+ * 4、统计待删除目录数(积压量)及已回收的字节数；
+ *
+ */
+@Slf4j
+public class DirectoryCleaner implements Closeable {
+	/** 指定的executor，主要用于测试；为null时每个磁盘对应一个worker */
+	private final Executor executor;
+	private final ConcurrentMap<Object, ExecutorService> workers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Object, Throttler> throttlers = new ConcurrentHashMap<>();
+	/** 每秒最多删除的字节数，小于等于0表示不限速 */
+	private final long maxBytesPerSec;
+
+	/** 统计信息 */
+	private final AtomicLong pendingDirs = new AtomicLong();
+	private final AtomicLong bytesReclaimed = new AtomicLong();
+	private final AtomicLong deletedDirs = new AtomicLong();
+	private final AtomicLong failedDeletes = new AtomicLong();
+
+	public DirectoryCleaner(long maxBytesPerSec) {
+		this(null, maxBytesPerSec);
+	}
+
+	public DirectoryCleaner(Executor executor, long maxBytesPerSec) {
+		this.executor = executor;
+		this.maxBytesPerSec = maxBytesPerSec;
+	}
+
+	/** 异步删除给定的目录，位于同一磁盘上的目录由同一个worker依次删除 */
+	public void cleanup(String[] dirs) {
+		for (final String dir : dirs) {
+			final Path path = Paths.get(dir);
+			final Object store = fileStoreOf(path);
+			if (store == null) {
+				continue;
+			}
+
+			pendingDirs.incrementAndGet();
+			workerFor(store).execute(() -> {
+				try {
+					delete(path, throttlerFor(store));
+					deletedDirs.incrementAndGet();
+					log.info("成功删除文件夹：{}", dir);
+				} catch (Exception e) {
+					failedDeletes.incrementAndGet();
+					log.error("删除文件夹{}失败：{}", dir, e);
+				} finally {
+					pendingDirs.decrementAndGet();
+				}
+			});
+		}
+	}
+
+	/** 目录不存在时返回null，无法获取FileStore时所有目录共用一个worker */
+	private Object fileStoreOf(Path path) {
+		try {
+			return Files.getFileStore(path);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			log.warn("无法获取{}所在的磁盘，使用默认worker删除", path, e);
+			return "default";
+		}
+	}
+
+	private Executor workerFor(Object store) {
+		if (executor != null) {
+			return executor;
+		}
+		ExecutorService worker = workers.get(store);
+		if (worker == null) {
+			//空闲时回收线程，避免为很少使用的磁盘保留线程
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(),
+					NettyUtil.createThreadFactory("govind-shuffle-directory-cleaner-" + workers.size()));
+			pool.allowCoreThreadTimeOut(true);
+			worker = workers.putIfAbsent(store, pool);
+			if (worker == null) {
+				worker = pool;
+			} else {
+				pool.shutdown();
+			}
+		}
+		return worker;
+	}
+
+	private Throttler throttlerFor(Object store) {
+		Throttler throttler = throttlers.get(store);
+		if (throttler == null) {
+			Throttler newThrottler = new Throttler(maxBytesPerSec);
+			throttler = throttlers.putIfAbsent(store, newThrottler);
+			if (throttler == null) {
+				throttler = newThrottler;
+			}
+		}
+		return throttler;
+	}
+
+	private void delete(Path root, final Throttler throttler) throws IOException {
+		Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						//符号链接也会作为文件访问，此时只删除链接本身
+						long size = attrs.isSymbolicLink() ? 0 : attrs.size();
+						throttler.acquire(size);
+						Files.deleteIfExists(file);
+						bytesReclaimed.addAndGet(size);
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						if (e instanceof NoSuchFileException) {
+							return FileVisitResult.CONTINUE;
+						}
+						throw e;
+					}
+
+					@Override
+					public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+						if (e != null) {
+							throw e;
+						}
+						Files.deleteIfExists(dir);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+	}
+
+	/********************** 统计信息 ************************/
+
+	/** 已提交但尚未删除完成的目录数 */
+	public long getPendingDirs() {
+		return pendingDirs.get();
+	}
+
+	public long getBytesReclaimed() {
+		return bytesReclaimed.get();
+	}
+
+	public long getDeletedDirs() {
+		return deletedDirs.get();
+	}
+
+	public long getFailedDeletes() {
+		return failedDeletes.get();
+	}
+
+	@Override
+	public void close() {
+		for (ExecutorService worker : workers.values()) {
+			worker.shutdown();
+		}
+	}
+
+	/**
+	 * 按照每秒字节数限速，以1秒为窗口统计已删除的字节数，超过限额时
+	 * 睡眠到下一个窗口
+	 */
+	private static class Throttler {
+		private final long bytesPerSec;
+		private long windowStart = System.nanoTime();
+		private long bytesInWindow = 0;
+
+		Throttler(long bytesPerSec) {
+			this.bytesPerSec = bytesPerSec;
+		}
+
+		synchronized void acquire(long bytes) {
+			if (bytesPerSec <= 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+				windowStart = now;
+				bytesInWindow = 0;
+			}
+			bytesInWindow += bytes;
+			if (bytesInWindow > bytesPerSec) {
+				//超出的部分按照速率折算为需要等待的时间
+				long waitNanos = (long) (TimeUnit.SECONDS.toNanos(1) * ((double) bytesInWindow / bytesPerSec)) - (now - windowStart);
+				Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+				windowStart = System.nanoTime();
+				bytesInWindow = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package govind.incubator.shuffle;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import govind.incubator.network.util.NettyUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-20
+ *
+ * 按照Executor的local dir所在的磁盘({@link java.nio.file.FileStore})调度磁盘IO，例如读取索引文件、
+ * 打开block。
+ *
+ * 1、每块磁盘对应一个有界的线程池，同一块磁盘上的多个local dir共用该线程池，某块磁盘
+ * 故障或繁忙时，只有该磁盘上的请求排队等待，其他磁盘上的请求不受影响；无法确定所在
+ * 磁盘的请求在单独的线程池中执行，不会占用调用者(通常为Netty IO线程)；
+ * 2、排队的请求数超过maxQueuedPerDisk时直接拒绝，避免慢磁盘积压过多请求；
+ * 3、统计每块磁盘的排队长度、延迟(排队+执行)及错误率；
+ * 4、Executor被移除后通过{@link #localDirsRemoved}移除其local dir，没有local dir的
+ * 磁盘对应的线程池及统计信息随之移除。
+ *
+ */
+@Slf4j
+public class DiskIOScheduler implements Closeable {
+	/** 无法确定所在磁盘的请求使用的key */
+	static final String UNKNOWN_DISK = "unknown";
+
+	private final int threadsPerDisk;
+	private final int maxQueuedPerDisk;
+	/** local dir -> 所在磁盘，无法获取FileStore时为local dir本身 */
+	private final ConcurrentMap<String, String> disks = new ConcurrentHashMap<>();
+	/** 磁盘 -> 线程池，以下两个map的增删在当前对象的锁内进行 */
+	private final ConcurrentMap<String, ThreadPoolExecutor> workers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, DiskStats> stats = new ConcurrentHashMap<>();
+	private final AtomicInteger poolId = new AtomicInteger();
+	private volatile boolean closed = false;
+
+	public DiskIOScheduler(int threadsPerDisk, int maxQueuedPerDisk) {
+		this.threadsPerDisk = threadsPerDisk;
+		this.maxQueuedPerDisk = maxQueuedPerDisk;
+	}
+
+	/**
+	 * 在localDir所在磁盘的线程池中执行task，localDir为null(无法确定所在磁盘)时在
+	 * {@link #UNKNOWN_DISK}对应的线程池中执行。队列已满时返回失败的Future。
+	 */
+	public <T> ListenableFuture<T> submit(String localDir, final Callable<T> task) {
+		String disk = localDir == null ? UNKNOWN_DISK : diskOf(localDir);
+		final long submitTime = System.nanoTime();
+
+		while (true) {
+			ThreadPoolExecutor worker;
+			final DiskStats diskStats;
+			synchronized (this) {
+				worker = workerFor(disk);
+				diskStats = stats.get(disk);
+			}
+
+			ListenableFutureTask<T> future = ListenableFutureTask.create(() -> {
+				boolean success = false;
+				try {
+					T result = task.call();
+					success = true;
+					return result;
+				} finally {
+					diskStats.record(System.nanoTime() - submitTime, success);
+				}
+			});
+
+			try {
+				worker.execute(future);
+				return future;
+			} catch (RejectedExecutionException e) {
+				if (worker.isShutdown() && !closed) {
+					//磁盘上的local dir刚被全部移除，使用新的线程池
+					continue;
+				}
+				diskStats.record(System.nanoTime() - submitTime, false);
+				return Futures.immediateFailedFuture(new RejectedExecutionException(
+						"磁盘" + disk + "排队的请求数超过" + maxQueuedPerDisk, e));
+			}
+		}
+	}
+
+	/** localDir所在的磁盘，结果被缓存，直到{@link #localDirsRemoved}移除 */
+	String diskOf(String localDir) {
+		String disk = disks.get(localDir);
+		if (disk == null) {
+			try {
+				disk = Files.getFileStore(Paths.get(localDir)).toString();
+			} catch (IOException | RuntimeException e) {
+				log.debug("无法获取{}所在的磁盘：{}", localDir, e.getMessage());
+				disk = localDir;
+			}
+			String existing = disks.putIfAbsent(localDir, disk);
+			if (existing != null) {
+				disk = existing;
+			}
+		}
+		return disk;
+	}
+
+	/** 需要在当前对象的锁内调用 */
+	private ThreadPoolExecutor workerFor(String disk) {
+		ThreadPoolExecutor worker = workers.get(disk);
+		if (worker == null) {
+			worker = new ThreadPoolExecutor(threadsPerDisk, threadsPerDisk, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(maxQueuedPerDisk),
+					NettyUtil.createThreadFactory("govind-shuffle-disk-io-" + poolId.getAndIncrement()));
+			worker.allowCoreThreadTimeOut(true);
+			if (closed) {
+				worker.shutdown();
+			}
+			workers.put(disk, worker);
+		}
+		if (!stats.containsKey(disk)) {
+			stats.put(disk, new DiskStats(disk));
+		}
+		return worker;
+	}
+
+	/**
+	 * 移除Executor的local dirs，不再有local dir的磁盘对应的线程池在执行完已提交的
+	 * 请求后关闭，统计信息同时移除
+	 */
+	public synchronized void localDirsRemoved(Collection<String> localDirs) {
+		Set<String> candidates = new HashSet<>();
+		for (String localDir : localDirs) {
+			String disk = disks.remove(localDir);
+			if (disk != null) {
+				candidates.add(disk);
+			}
+		}
+		candidates.removeAll(disks.values());
+		for (String disk : candidates) {
+			ThreadPoolExecutor worker = workers.remove(disk);
+			if (worker != null) {
+				worker.shutdown();
+			}
+			stats.remove(disk);
+		}
+	}
+
+	/********************** 统计信息 ************************/
+
+	/** 磁盘 -> 该磁盘的统计信息 */
+	public Map<String, DiskStats> getDiskStats() {
+		return Collections.unmodifiableMap(new HashMap<>(stats));
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (ThreadPoolExecutor worker : workers.values()) {
+			worker.shutdown();
+		}
+	}
+
+	/**
+	 * 单个磁盘的统计信息
+	 */
+	public class DiskStats {
+		private final String disk;
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+		DiskStats(String disk) {
+			this.disk = disk;
+		}
+
+		void record(long latencyNanos, boolean success) {
+			completed.incrementAndGet();
+			totalLatencyNanos.addAndGet(latencyNanos);
+			if (!success) {
+				failed.incrementAndGet();
+			}
+		}
+
+		/** 排队等待执行的请求数 */
+		public int getQueueLength() {
+			ThreadPoolExecutor worker = workers.get(disk);
+			return worker == null ? 0 : worker.getQueue().size();
+		}
+
+		/** 已完成(包括失败及被拒绝)的请求数 */
+		public long getCompleted() {
+			return completed.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public double getErrorRate() {
+			long total = completed.get();
+			return total == 0 ? 0 : (double) failed.get() / total;
+		}
+
+		/** 平均延迟，包括排队时间 */
+		public double getAvgLatencyMs() {
+			long total = completed.get();
+			return total == 0 ? 0 : totalLatencyNanos.get() / 1e6 / total;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package govind.incubator.shuffle;
+
+import govind.incubator.network.util.NettyUtil;
+import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-21
+ *
+ * 缓存已注册Executor的文件路径，避免每次查找block时都格式化子目录名、创建File对象。
+ *
+ * 1、子目录(localDir/%02x)在第一次使用时创建File对象并缓存，之后查找文件只需创建
+ * 一个子File；
+ * 2、sort-based shuffle按照(shuffleId, mapId)缓存索引文件及数据文件，同一个map输出
+ * 的多个reduce分区共用。缓存为固定大小的直接映射表，以两个int直接定位槽位，命中时
+ * 不创建任何对象(包括装箱的key)，冲突时新的map输出覆盖旧的；
+ *
+ */
+class ExecutorFiles {
+	/** 每个Executor最多缓存的map输出文件数，必须为2的幂 */
+	private static final int MAX_CACHED_MAP_OUTPUTS = 1024;
+
+	final ExecutorShuffleInfo shuffleInfo;
+	/** [localDir][subDir]，并发初始化时可能重复创建，结果相同 */
+	private final File[][] subDirs;
+	/** slot(shuffleId, mapId) -> 该map输出的文件，并发未命中时可能重复创建，结果相同 */
+	private final AtomicReferenceArray<SortFiles> sortFiles = new AtomicReferenceArray<>(MAX_CACHED_MAP_OUTPUTS);
+
+	ExecutorFiles(ExecutorShuffleInfo shuffleInfo) {
+		this.shuffleInfo = shuffleInfo;
+		this.subDirs = new File[shuffleInfo.localDirs.length][shuffleInfo.subDirsPerLocalDir];
+	}
+
+	/** 与{@link ExternalShuffleBlockResolver#getFile}的映射方式相同 */
+	File getFile(String filename) {
+		int hashCode = NettyUtil.nonnagetiveHash(filename);
+		int dirId = hashCode % subDirs.length;
+		int subDirId = (hashCode / subDirs.length) % shuffleInfo.subDirsPerLocalDir;
+		File subDir = subDirs[dirId][subDirId];
+		if (subDir == null) {
+			subDir = new File(shuffleInfo.localDirs[dirId], String.format("%02x", subDirId));
+			subDirs[dirId][subDirId] = subDir;
+		}
+		return new File(subDir, filename);
+	}
+
+	/** 返回sort-based shuffle的索引文件及数据文件 */
+	SortFiles getSortBasedFiles(int shuffleId, int mapId) {
+		int slot = (shuffleId * 0x9E3779B9 + mapId) & (MAX_CACHED_MAP_OUTPUTS - 1);
+		SortFiles files = sortFiles.get(slot);
+		if (files == null || files.shuffleId != shuffleId || files.mapId != mapId) {
+			files = new SortFiles(shuffleId, mapId);
+			sortFiles.set(slot, files);
+		}
+		return files;
+	}
+
+	/** 一个map输出的索引文件及数据文件 */
+	final class SortFiles {
+		final int shuffleId;
+		final int mapId;
+		final File indexFile;
+		final File dataFile;
+		/** 索引文件所在的local dir */
+		final String indexLocalDir;
+
+		private SortFiles(int shuffleId, int mapId) {
+			this.shuffleId = shuffleId;
+			this.mapId = mapId;
+			String prefix = "shuffle_" + shuffleId + "_" + mapId + "_0";
+			String indexName = prefix + ".index";
+			this.indexFile = getFile(indexName);
+			this.dataFile = getFile(prefix + ".data");
+			this.indexLocalDir = ExternalShuffleBlockResolver.getLocalDir(shuffleInfo.localDirs, indexName);
+		}
+	}
+}
@@ -1,18 +1,35 @@
 package govind.incubator.shuffle;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.conf.TransportConf;
 import govind.incubator.network.handler.OneForOneStreamManager;
 import govind.incubator.network.handler.RpcCallback;
 import govind.incubator.network.handler.RpcHandler;
+import govind.incubator.network.handler.StreamCallback;
 import govind.incubator.network.handler.StreamManager;
+import govind.incubator.network.util.NettyUtil;
 import govind.incubator.shuffle.protocol.BlockTransferMessage;
 import govind.incubator.shuffle.protocol.BlockTransferMessage.Decoder;
+import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.FinalizeShuffleMerge;
+import govind.incubator.shuffle.protocol.GetExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.MergeStatuses;
 import govind.incubator.shuffle.protocol.OpenBlock;
+import govind.incubator.shuffle.protocol.PushBlockStream;
 import govind.incubator.shuffle.protocol.RegisterExecutor;
+import govind.incubator.shuffle.protocol.RegisterExecutors;
 import govind.incubator.shuffle.protocol.StreamHandle;
+import govind.incubator.shuffle.protocol.UploadBlock;
+import govind.incubator.shuffle.protocol.UploadBlockStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.zookeeper.Op;
 
@@ -21,6 +38,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 /**
  * @Author: 高文文
@@ -32,22 +54,49 @@ import java.util.ArrayList;
  * 1、支持Executor注册，及存放Executor文件的元数据信息。
  * 2、支持获取Shuffle数据，shuffle block是按照"one-for-one"策略注册，即Transport-Layer
  * 的chunk与Spark-Leve shuffle block是一一对应。
+ * 3、指定{@link DiskIOScheduler}时，OpenBlock在block所在磁盘的线程池中异步打开，
+ * 慢磁盘上的请求只在该磁盘上排队，不会阻塞RPC处理线程。
  *
  */
 @Slf4j
 public class ExternalShuffleBlockHandler extends RpcHandler implements Closeable {
 
+	/** 默认在RPC消息中上传的block最大为1MB */
+	private static final long DEFAULT_MAX_IN_RPC_UPLOAD_BYTES = 1024 * 1024;
+
 	final ExternalShuffleBlockResolver blockManger;
 	private final OneForOneStreamManager streamManager;
+	/** UploadBlock消息中block的最大字节数，更大的block需要以流的方式上传 */
+	private final long maxInRpcUploadBytes;
+	/** 为null时在RPC处理线程中同步打开block */
+	private final DiskIOScheduler diskScheduler;
+	/** 将上传及推送的block写入文件、结束合并，不占用Netty IO线程 */
+	private final ListeningExecutorService uploadWriter = MoreExecutors.listeningDecorator(
+			Executors.newCachedThreadPool(NettyUtil.createThreadFactory("govind-shuffle-upload-writer")));
 
 	public ExternalShuffleBlockHandler(TransportConf conf, File registeredExecutorFile) throws IOException {
 		this(new ExternalShuffleBlockResolver(conf, registeredExecutorFile),
-				new OneForOneStreamManager());
+				new OneForOneStreamManager(),
+				conf.maxInRpcUploadBytes(),
+				conf.diskIOThreadsPerDisk() > 0
+						? new DiskIOScheduler(conf.diskIOThreadsPerDisk(), conf.diskIOMaxQueuedPerDisk())
+						: null);
 	}
 
 	public ExternalShuffleBlockHandler(ExternalShuffleBlockResolver blockManger, OneForOneStreamManager streamManager) {
+		this(blockManger, streamManager, DEFAULT_MAX_IN_RPC_UPLOAD_BYTES);
+	}
+
+	public ExternalShuffleBlockHandler(ExternalShuffleBlockResolver blockManger, OneForOneStreamManager streamManager, long maxInRpcUploadBytes) {
+		this(blockManger, streamManager, maxInRpcUploadBytes, null);
+	}
+
+	public ExternalShuffleBlockHandler(ExternalShuffleBlockResolver blockManger, OneForOneStreamManager streamManager,
+			long maxInRpcUploadBytes, DiskIOScheduler diskScheduler) {
 		this.blockManger = blockManger;
 		this.streamManager = streamManager;
+		this.maxInRpcUploadBytes = maxInRpcUploadBytes;
+		this.diskScheduler = diskScheduler;
 	}
 
 	@Override
@@ -61,12 +110,40 @@ public class ExternalShuffleBlockHandler extends RpcHandler implements Closeable
 		handleMessage(msgObj, client, callback);
 	}
 
+	/**
+	 * 以流的方式上传block，数据直接写入Executor的local dirs中
+	 */
+	@Override
+	public StreamCallback receiveStream(TransportClient client, ByteBuffer meta) {
+		BlockTransferMessage msgObj = Decoder.fromByteByffer(meta);
+		if (msgObj instanceof PushBlockStream) {
+			PushBlockStream msg = (PushBlockStream) msgObj;
+			checkAuth(client, msg.appId);
+			return blockManger.receivePushedBlock(msg.appId, msg.shuffleId, msg.mapId, msg.reduceId, uploadWriter);
+		}
+		if (!(msgObj instanceof UploadBlockStream)) {
+			throw new UnsupportedOperationException("不支持的流消息类型：" + msgObj);
+		}
+
+		UploadBlockStream msg = (UploadBlockStream) msgObj;
+		checkAuth(client, msg.appId);
+		File target = blockManger.getUploadedBlockFile(msg.appId, msg.execId, msg.blockId);
+		try {
+			return new UploadedBlockWriter(target, uploadWriter, client.getChannel());
+		} catch (IOException e) {
+			throw new RuntimeException("无法创建block文件" + target, e);
+		}
+	}
+
 	/**
 	 * 当应用程序结束时，移除已用程序，同时可以指定是否删除与该应用关联的配置文
 	 * 件所在的目录及文件（在但单独的线程中完成清理操作）。
 	 */
 	public void applicationRemoved(String appId, boolean cleanLocalDirs) {
-		blockManger.applicationRemoved(appId, cleanLocalDirs);
+		Set<String> removedLocalDirs = blockManger.applicationRemoved(appId, cleanLocalDirs);
+		if (diskScheduler != null && removedLocalDirs != null) {
+			diskScheduler.localDirsRemoved(removedLocalDirs);
+		}
 	}
 
 	private void handleMessage(BlockTransferMessage msg, TransportClient client, RpcCallback callback) {
@@ -75,6 +152,14 @@ public class ExternalShuffleBlockHandler extends RpcHandler implements Closeable
 			handleOpenBlock(client, callback, (OpenBlock)msg);
 		} else if (msg instanceof RegisterExecutor) {
 			handleRegisterExecutor(client,callback, (RegisterExecutor)msg);
+		} else if (msg instanceof RegisterExecutors) {
+			handleRegisterExecutors(client, callback, (RegisterExecutors) msg);
+		} else if (msg instanceof UploadBlock) {
+			handleUploadBlock(client, callback, (UploadBlock) msg);
+		} else if (msg instanceof FinalizeShuffleMerge) {
+			handleFinalizeShuffleMerge(client, callback, (FinalizeShuffleMerge) msg);
+		} else if (msg instanceof GetExecutorShuffleInfo) {
+			handleGetExecutorShuffleInfo(client, callback, (GetExecutorShuffleInfo) msg);
 		} else {
 			throw new UnsupportedOperationException("不支持的消息类型：" + msg);
 		}
@@ -83,19 +168,176 @@ public class ExternalShuffleBlockHandler extends RpcHandler implements Closeable
 	private void handleOpenBlock(TransportClient client, RpcCallback callback, OpenBlock msg) {
 		checkAuth(client, msg.appId);
 
-		ArrayList<ManagedBuffer> blocks = Lists.newArrayList();
-		for (String blockId : msg.blockIds) {
-			blocks.add(blockManger.getBlockData(msg.appId, msg.execId, blockId));
+		if (diskScheduler == null) {
+			ArrayList<ManagedBuffer> blocks = Lists.newArrayList();
+			for (String blockId : msg.blockIds) {
+				blocks.add(blockManger.getBlockData(msg.appId, msg.execId, blockId));
+			}
+			registerStream(client, callback, blocks);
+			return;
+		}
+
+		//每个block在其所在磁盘的线程池中打开，全部完成后再注册stream，有block打开失败时
+		//释放已经打开的blocks
+		final List<ListenableFuture<ManagedBuffer>> futures = new ArrayList<>(msg.blockIds.length);
+		for (final String blockId : msg.blockIds) {
+			String localDir = blockManger.getBlockLocalDir(msg.appId, msg.execId, blockId);
+			futures.add(diskScheduler.submit(localDir,
+					() -> blockManger.getBlockData(msg.appId, msg.execId, blockId)));
+		}
+		Futures.addCallback(Futures.successfulAsList(futures), new FutureCallback<List<ManagedBuffer>>() {
+			@Override
+			public void onSuccess(List<ManagedBuffer> blocks) {
+				Throwable failure = null;
+				for (int i = 0; i < blocks.size() && failure == null; i++) {
+					if (blocks.get(i) == null) {
+						failure = failureOf(futures.get(i));
+					}
+				}
+				if (failure == null) {
+					registerStream(client, callback, blocks);
+					return;
+				}
+
+				for (ManagedBuffer block : blocks) {
+					if (block != null) {
+						block.release();
+					}
+				}
+				onFailure(failure);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				log.error("打开blocks失败：{}", msg, t);
+				callback.onFailure(t);
+			}
+		});
+	}
+
+	/** 已完成的Future失败的原因，成功时返回null */
+	private static Throwable failureOf(ListenableFuture<?> future) {
+		try {
+			return future.get() == null ? new NullPointerException("打开的block为null") : null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (Exception e) {
+			return e;
 		}
-		long streamId = streamManager.registerStream(client.getClientId(), blocks.iterator());
+	}
+
+	private void registerStream(TransportClient client, RpcCallback callback, List<ManagedBuffer> blocks) {
+		long streamId = streamManager.registerStream(client.getClientId(), blocks.iterator(), client.getChannel());
 		log.debug("为streamId[{}]注册了[{}]个buffers", streamId, blocks.size());
-		callback.onSuccess(new StreamHandle(streamId, msg.blockIds.length).toByteBuffer());
+		long[] blockSizes = new long[blocks.size()];
+		for (int i = 0; i < blockSizes.length; i++) {
+			blockSizes[i] = blocks.get(i).size();
+		}
+		callback.onSuccess(new StreamHandle(streamId, blocks.size(), blockSizes).toByteBuffer());
 	}
 
+	/**
+	 * 注册信息按照同步策略持久化后再返回结果，不阻塞RPC处理线程
+	 */
 	private void handleRegisterExecutor(TransportClient client, RpcCallback callback, RegisterExecutor msg) {
 		checkAuth(client, msg.appId);
-		blockManger.registerExecutor(msg.appId, msg.execId, msg.executorShuffleInfo);
-		callback.onSuccess(ByteBuffer.wrap(new byte[0]));
+		respondWhenRegistered(callback, blockManger.registerExecutor(msg.appId, msg.execId, msg.executorShuffleInfo));
+	}
+
+	private void handleRegisterExecutors(TransportClient client, RpcCallback callback, RegisterExecutors msg) {
+		checkAuth(client, msg.appId);
+		List<ListenableFuture<Void>> registered = new ArrayList<>(msg.execIds.length);
+		for (int i = 0; i < msg.execIds.length; i++) {
+			registered.add(blockManger.registerExecutor(msg.appId, msg.execIds[i], msg.executorShuffleInfos[i]));
+		}
+		respondWhenRegistered(callback, Futures.allAsList(registered));
+	}
+
+	private void respondWhenRegistered(RpcCallback callback, ListenableFuture<?> registered) {
+		Futures.addCallback(registered, new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(Object result) {
+				callback.onSuccess(ByteBuffer.wrap(new byte[0]));
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				callback.onFailure(t);
+			}
+		});
+	}
+
+	/**
+	 * 在RPC消息中上传的block需要整个缓存在内存中，因此限制其大小
+	 */
+	private void handleUploadBlock(TransportClient client, RpcCallback callback, UploadBlock msg) {
+		checkAuth(client, msg.appId);
+		if (msg.blockData.length > maxInRpcUploadBytes) {
+			throw new IllegalArgumentException(String.format(
+					"block[%s]大小为%s字节，超过了RPC上传的限制%s字节，请以流的方式上传",
+					msg.blockId, msg.blockData.length, maxInRpcUploadBytes));
+		}
+
+		File target = blockManger.getUploadedBlockFile(msg.appId, msg.execId, msg.blockId);
+		UploadedBlockWriter writer;
+		try {
+			writer = new UploadedBlockWriter(target, uploadWriter, null);
+			writer.onData(msg.blockId, ByteBuffer.wrap(msg.blockData));
+			writer.onComplete(msg.blockId);
+		} catch (IOException e) {
+			throw new RuntimeException("写入block文件" + target + "失败", e);
+		}
+		Futures.addCallback(writer.completion(), new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+				callback.onSuccess(ByteBuffer.wrap(new byte[0]));
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				callback.onFailure(new IOException("写入block文件" + target + "失败", t));
+			}
+		});
+	}
+
+	/**
+	 * 结束合并需要截断所有分区的合并文件并写入meta文件，在uploadWriter中执行，完成后
+	 * 再返回结果
+	 */
+	private void handleFinalizeShuffleMerge(TransportClient client, RpcCallback callback, FinalizeShuffleMerge msg) {
+		checkAuth(client, msg.appId);
+		ListenableFuture<MergeStatuses> future = uploadWriter.submit(new Callable<MergeStatuses>() {
+			@Override
+			public MergeStatuses call() throws IOException {
+				return blockManger.finalizeShuffleMerge(msg.appId, msg.shuffleId);
+			}
+		});
+		Futures.addCallback(future, new FutureCallback<MergeStatuses>() {
+			@Override
+			public void onSuccess(MergeStatuses statuses) {
+				callback.onSuccess(statuses.toByteBuffer());
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				callback.onFailure(new IOException("结束shuffle[" + msg.shuffleId + "]的合并失败", t));
+			}
+		});
+	}
+
+	/**
+	 * 返回Executor注册的文件布局，客户端据此直接读取本地shuffle文件
+	 */
+	private void handleGetExecutorShuffleInfo(TransportClient client, RpcCallback callback, GetExecutorShuffleInfo msg) {
+		checkAuth(client, msg.appId);
+		ExecutorShuffleInfo shuffleInfo = blockManger.getExecutorInfo(msg.appId, msg.execId);
+		if (shuffleInfo == null) {
+			throw new RuntimeException(String.format(
+					"没有找到Executor元数据信息，确定Executor[%s, %s]是否注册？", msg.appId, msg.execId));
+		}
+		ByteBuf buf = Unpooled.buffer(shuffleInfo.encodedLength());
+		shuffleInfo.encode(buf);
+		callback.onSuccess(buf.nioBuffer());
 	}
 
 	private void checkAuth(TransportClient client, String appId) {
@@ -108,8 +350,17 @@ public class ExternalShuffleBlockHandler extends RpcHandler implements Closeable
 
 	@Override
 	public void close() throws IOException {
+		uploadWriter.shutdown();
+		if (diskScheduler != null) {
+			diskScheduler.close();
+		}
 		if (blockManger != null) {
 			blockManger.close();
 		}
 	}
+
+	/** 磁盘IO调度器，用于获取每块磁盘的排队长度、延迟及错误率，未开启时返回null */
+	public DiskIOScheduler getDiskIOScheduler() {
+		return diskScheduler;
+	}
 }
@@ -6,24 +6,47 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
 import com.google.common.collect.Maps;
-import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import govind.incubator.network.buffer.FileSegmentManagedBuffer;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.handler.AsyncStreamCallback;
+import govind.incubator.network.util.CodecUtil.Strings;
 import govind.incubator.network.util.NettyUtil;
 import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.MergeStatuses;
 import govind.incubator.shuffle.util.LevelDBProvider;
+import govind.incubator.shuffle.util.LevelDBWriteQueue;
+import govind.incubator.shuffle.util.StoreMigration;
 import govind.incubator.shuffle.util.StoreVersion;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import lombok.extern.slf4j.Slf4j;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
 
 import java.io.*;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @Author: 高文文
@@ -41,88 +64,162 @@ import java.util.concurrent.Executors;
 @Slf4j
 public class ExternalShuffleBlockResolver implements Closeable{
 	/**
-	 * 每个应用注册时的Key前缀，因为LevelDB支持前缀搜索，这样提高查询速率。
+	 * 1.x版本中每个应用注册时的Key前缀，Key和Value均为JSON格式，仅用于迁移。
 	 */
-	private static final String APP_KEY_PREFIX = "AppExecShuffleInfo";
-	private static final StoreVersion CURRENT_VERSION = new StoreVersion(1, 0);
+	private static final String LEGACY_APP_KEY_PREFIX = "AppExecShuffleInfo";
+	/**
+	 * 2.x版本的Key格式：前缀 + 分区号(1字节) + appId + execId，Value为ExecutorShuffleInfo
+	 * 的二进制编码。同一分区的Key在LevelDB中是连续的，恢复时每个分区可以独立并行读取。
+	 */
+	private static final byte[] EXEC_KEY_PREFIX = "ExecShuffleInfo;".getBytes(Charsets.UTF_8);
+	/** Key的分区数，属于存储格式的一部分，修改时需要升级版本 */
+	private static final int NUM_KEY_PARTITIONS = 16;
+	private static final StoreVersion CURRENT_VERSION = new StoreVersion(2, 0);
+	/** 每个WriteBatch最多包含的操作数 */
+	private static final int MAX_DB_BATCH_SIZE = 1000;
 
 	private static final ObjectMapper mapper = new ObjectMapper();
 
-	/** 单线程线程池，用于执行比较耗时的文件夹递归删除操作 */
-	private  final Executor dirCleaner;
+	/** 按磁盘并行、限速删除应用程序的文件夹，删除操作比较耗时 */
+	private final DirectoryCleaner dirCleaner;
 	private final TransportConf conf;
 
-	/** 保存所有已注册的Executor的元数据 */
-	final ConcurrentMap<AppExecId, ExecutorShuffleInfo> executors;
+	/**
+	 * 保存所有已注册的Executor的元数据：appId -> (execId -> ExecutorFiles)，
+	 * 按应用分组，移除应用时只需访问该应用的Executor，查询时也无需创建AppExecId。
+	 * ExecutorFiles同时缓存该Executor已解析的文件路径。
+	 */
+	final ConcurrentMap<String, ConcurrentMap<String, ExecutorFiles>> executors;
+	/** 缓存已解析的索引文件，避免读取同一个map输出的多个分区时重复读取索引文件 */
+	final ShuffleIndexLookup indexCache;
 	final File registeredExecutorFile;
 	final DB db;
+	/** 异步批量写入数据库，避免在RPC线程中同步写LevelDB */
+	final LevelDBWriteQueue dbWriter;
+	/** 从数据库恢复已注册的Executor，恢复期间可以正常注册及查询 */
+	final ListenableFuture<?> recovery;
+	/** push-merge模式下按照reduce分区合并推送的block */
+	final MergedShuffleFileManager mergeManager;
+	/** 热点shuffle block缓存，未开启时为null */
+	final ShuffleBlockCache blockCache;
 
 	public ExternalShuffleBlockResolver(TransportConf conf, File registeredExecutorFile) throws IOException {
-		this(
-				Executors.newSingleThreadExecutor(NettyUtil.createThreadFactory("govind-shuffle-directory-cleaner")),
-				conf,
-				registeredExecutorFile);
+		this(new DirectoryCleaner(conf.cleanerMaxDeleteBytesPerSec()), conf, registeredExecutorFile);
 	}
 
+	/** 使用指定的Executor删除文件夹，主要用于测试 */
 	public ExternalShuffleBlockResolver(Executor dirCleaner, TransportConf conf, File registeredExecutorFile) throws IOException {
+		this(new DirectoryCleaner(dirCleaner, conf.cleanerMaxDeleteBytesPerSec()), conf, registeredExecutorFile);
+	}
+
+	private ExternalShuffleBlockResolver(DirectoryCleaner dirCleaner, TransportConf conf, File registeredExecutorFile) throws IOException {
 		this.dirCleaner = dirCleaner;
 		this.conf = conf;
 		this.registeredExecutorFile = registeredExecutorFile;
+		this.indexCache = ShuffleIndexLookup.create(conf);
+		this.mergeManager = new MergedShuffleFileManager(this, conf.maxPushBlockBytes());
+		this.blockCache = conf.blockCacheSizeBytes() > 0
+				? new ShuffleBlockCache(conf.blockCacheSizeBytes(), conf.blockCacheMaxBlockBytes())
+				: null;
 		if (registeredExecutorFile != null) {
-			db = LevelDBProvider.initLevelDB(registeredExecutorFile,CURRENT_VERSION, mapper);
-			executors = reloadRegisteredExecutors(db);
+			db = LevelDBProvider.initLevelDB(registeredExecutorFile,CURRENT_VERSION, mapper, new LegacyStoreMigration());
+			executors = Maps.newConcurrentMap();
+			recovery = recoverRegisteredExecutors(db, conf.registeredExecutorsRecoveryThreads());
+			dbWriter = new LevelDBWriteQueue(db,
+					LevelDBWriteQueue.SyncPolicy.valueOf(conf.registeredExecutorsSyncPolicy()),
+					conf.registeredExecutorsFlushIntervalMs(),
+					MAX_DB_BATCH_SIZE);
 		} else {
 			db = null;
+			dbWriter = null;
 			executors = Maps.newConcurrentMap();
+			recovery = Futures.immediateFuture(null);
 		}
 	}
 
 	/********************** 公共接口 ************************/
 
-	/** 注册Executor，同时持久化元数据信息，以便找到其shuffle文件 */
-	public void registerExecutor(String appId, String execId, ExecutorShuffleInfo shuffleInfo) {
+	/**
+	 * 注册Executor，同时持久化元数据信息，以便找到其shuffle文件。
+	 *
+	 * 不会阻塞调用线程，返回的future在元数据按照同步策略持久化后完成(参见
+	 * {@link LevelDBWriteQueue})，调用者应在其完成后再返回注册结果。持久化失败只记录
+	 * 日志，future仍然成功，与注册时的内存状态一致。
+	 */
+	public ListenableFuture<Void> registerExecutor(String appId, String execId, ExecutorShuffleInfo shuffleInfo) {
 		AppExecId appExecId = new AppExecId(appId, execId);
 		log.debug("注册Executor[{}]，元数据信息为：{}",appExecId, shuffleInfo);
 
-		try {
-			if (db != null) {
-				byte[] key = dbAppExecKey(appExecId);
-				byte[] value = mapper.writeValueAsString(shuffleInfo).getBytes(Charsets.UTF_8);
-				db.put(key, value);
-			}
-		} catch (IOException e) {
-			log.error("保存注册的Executor元数据失败", e);
+		putExecutorInfo(appId, execId, shuffleInfo, false);
+		if (db == null) {
+			return Futures.immediateFuture(null);
 		}
-		executors.put(appExecId, shuffleInfo);
+		ListenableFuture<Void> persisted = dbWriter.put(dbExecKey(appId, execId), encodeExecutorInfo(shuffleInfo));
+
+		final SettableFuture<Void> registered = SettableFuture.create();
+		Futures.addCallback(persisted, new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+				registered.set(null);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				log.error("保存注册的Executor{}元数据失败", appExecId, t);
+				registered.set(null);
+			}
+		});
+		return registered;
 	}
 
 
-	/** 删除该应用下注册的所有Executor元数据，同时允许配置是否删除对应的物理文件 */
-	public void applicationRemoved(String appId, boolean cleanupDirs) {
+	/**
+	 * 删除该应用下注册的所有Executor元数据，同时允许配置是否删除对应的物理文件
+	 * @return 被移除的Executor的local dirs
+	 */
+	public Set<String> applicationRemoved(String appId, boolean cleanupDirs) {
 		log.info("应用程序移除：{}，是否清理对应的本地文件夹：{}", appId, cleanupDirs);
 
-		Iterator<Entry<AppExecId, ExecutorShuffleInfo>> iter = executors.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry<AppExecId, ExecutorShuffleInfo> entry = iter.next();
-			AppExecId appExecId = entry.getKey();
-			final ExecutorShuffleInfo shuffleInfo = entry.getValue();
-
-			if (appId.equals(appExecId.appId)) {
-				iter.remove();
-				if (db != null) {
-					try {
-						db.delete(dbAppExecKey(appExecId));
-					} catch (IOException e) {
-						log.error("无法删除{}对应的状态", appExecId, e);
+		//恢复完成前移除，已恢复的Executor可能被重新加入
+		awaitRecovery();
+		ConcurrentMap<String, ExecutorFiles> appExecutors = executors.remove(appId);
+		//先关闭合并文件，再删除所在的目录
+		mergeManager.applicationRemoved(appId);
+		if (blockCache != null) {
+			blockCache.invalidateApp(appId);
+		}
+		if (appExecutors == null) {
+			return Collections.emptySet();
+		}
+
+		Set<String> removedLocalDirs = new HashSet<>();
+		for (Entry<String, ExecutorFiles> entry : appExecutors.entrySet()) {
+			AppExecId appExecId = new AppExecId(appId, entry.getKey());
+			final ExecutorShuffleInfo shuffleInfo = entry.getValue().shuffleInfo;
+
+			for (String localDir : shuffleInfo.localDirs) {
+				removedLocalDirs.add(localDir);
+			}
+			if (db != null) {
+				Futures.addCallback(dbWriter.delete(dbExecKey(appId, entry.getKey())), new FutureCallback<Void>() {
+					@Override
+					public void onSuccess(Void result) {
 					}
-				}
 
-				if (cleanupDirs) {
-					log.info("删除Executor[{}]状态对应的{}个本地目录", appExecId, shuffleInfo.localDirs.length);
-					dirCleaner.execute(()-> deleteExecutorDirs(shuffleInfo.localDirs));
-				}
+					@Override
+					public void onFailure(Throwable t) {
+						log.error("无法删除{}对应的状态", appExecId, t);
+					}
+				});
+			}
+
+			if (cleanupDirs) {
+				log.info("删除Executor[{}]状态对应的{}个本地目录", appExecId, shuffleInfo.localDirs.length);
+				dirCleaner.cleanup(shuffleInfo.localDirs);
 			}
 		}
+		indexCache.invalidateLocalDirs(removedLocalDirs);
+		return removedLocalDirs;
 	}
 
 	/**
@@ -131,48 +228,188 @@ public class ExternalShuffleBlockResolver implements Closeable{
 	 * 前提条件：
 	 * 1、blockId的格式为： shuffle_ShuffleId_MapId_reduceId
 	 * 2、HashShuffle和SortBasedShuffle的存储方式是已知的。
+	 *
+	 * 合并block(shuffleMerged_ShuffleId_ReduceId)与Executor无关，参见{@link #finalizeShuffleMerge}；
+	 * 其他非shuffle block为Executor上传的block，参见{@link #getUploadedBlockFile}。
 	 */
 	public ManagedBuffer getBlockData(String appId, String execId, String blockId) {
-		String[] splits = blockId.split("_");
+		if (blockId.startsWith(MergedShuffleFileManager.MERGED_BLOCK_PREFIX)) {
+			if (blockIdFields(blockId) != 3) {
+				throw new IllegalArgumentException("非法的合并block id：" + blockId);
+			}
+			return mergeManager.getMergedBlockData(appId, blockIdField(blockId, 1), blockIdField(blockId, 2));
+		}
 
-		if (splits.length < 4) {
-			throw new IllegalArgumentException("非法的block id：" + blockId);
-		} else if (!splits[0].equals("shuffle")) {
-			throw new IllegalArgumentException("非法的shuffle blockI id：" + blockId);
+		if (!blockId.startsWith("shuffle_")) {
+			File file = getUploadedBlockFile(appId, execId, blockId);
+			if (!file.exists()) {
+				throw new RuntimeException("上传的block不存在：" + blockId);
+			}
+			return new FileSegmentManagedBuffer(file, 0, file.length());
+		}
+
+		ExecutorFiles executorFiles = getExecutorFiles(appId, execId);
+		if (executorFiles == null){
+			throw new RuntimeException(String.format(
+					"没有找到Executor元数据信息，确定Executor[%s, %s]是否注册？", appId, execId
+			));
 		}
 
-		int shuffleId = Integer.parseInt(splits[1]);
-		int mapId = Integer.parseInt(splits[2]);
-		int reduceId = Integer.parseInt(splits[3]);
+		ManagedBuffer block = getShuffleBlockData(executorFiles, indexCache, blockId);
+		return blockCache == null ? block : blockCache.get(appId, execId, blockId, block);
+	}
 
-		ExecutorShuffleInfo shuffleInfo = executors.get(new AppExecId(appId, execId));
-		if (shuffleInfo == null){
+	/**
+	 * Executor上传的block存放在该Executor注册的local dirs中，与shuffle文件使用相同的
+	 * 目录分布方式，应用移除时一并删除。
+	 */
+	public File getUploadedBlockFile(String appId, String execId, String blockId) {
+		if (blockId.startsWith("shuffle") || blockId.isEmpty() || blockId.contains("/")
+				|| blockId.contains("\\") || blockId.contains("..")) {
+			throw new IllegalArgumentException("非法的上传block id：" + blockId);
+		}
+
+		ExecutorFiles executorFiles = getExecutorFiles(appId, execId);
+		if (executorFiles == null){
 			throw new RuntimeException(String.format(
-					"没有找到Executor元数据信息，确定Executor[{}]是否注册？", appId, execId
+					"没有找到Executor元数据信息，确定Executor[%s, %s]是否注册？", appId, execId
 			));
 		}
+		return executorFiles.getFile(blockId);
+	}
 
-		if ("org.apache.spark.shuffle.hash.HashShuffleManager".equals(shuffleInfo.shuffleManager)) {
-			return getHashBasedShuffleBlockData(shuffleInfo, blockId);
-		} else if ("org.apache.spark.shuffle.sort.SortShuffleManager".equals(shuffleInfo.shuffleManager)
-		|| "org.apache.spark.shuffle.unsafe.UnsafeShuffleManager".equals(shuffleInfo.shuffleManager)) {
-			return getSortBasedShuffleBlockData(shuffleInfo, shuffleId, mapId, reduceId);
-		}  else {
-			throw new UnsupportedOperationException("不支持的ShuffleManger：" + shuffleInfo.shuffleManager);
+	/**
+	 * 查询已注册的Executor元数据，不存在时返回null；恢复完成前查询不到时抛出
+	 * {@link RecoveringException}，不在IO线程中等待恢复
+	 */
+	ExecutorShuffleInfo getExecutorInfo(String appId, String execId) {
+		ExecutorFiles executorFiles = getExecutorFiles(appId, execId);
+		return executorFiles == null ? null : executorFiles.shuffleInfo;
+	}
+
+	private ExecutorFiles getExecutorFiles(String appId, String execId) {
+		ConcurrentMap<String, ExecutorFiles> appExecutors = executors.get(appId);
+		ExecutorFiles executorFiles = appExecutors == null ? null : appExecutors.get(execId);
+		if (executorFiles == null && !recovery.isDone()) {
+			throw new RecoveringException(appId, execId);
+		}
+		return executorFiles;
+	}
+
+	/**
+	 * 接收map任务推送的block，追加到reduce分区的合并文件中，合并文件存放在该应用
+	 * 在本机注册的某个Executor的local dirs中。
+	 *
+	 * @param executor 将block写入合并文件，不应是Netty IO线程
+	 */
+	public AsyncStreamCallback receivePushedBlock(String appId, int shuffleId, int mapId, int reduceId, Executor executor) {
+		return mergeManager.receiveBlockStream(appId, shuffleId, mapId, reduceId, executor);
+	}
+
+	/** 结束某个shuffle的合并，之后reduce任务可以获取合并block。会写入文件，不应在Netty IO线程中调用 */
+	public MergeStatuses finalizeShuffleMerge(String appId, int shuffleId) throws IOException {
+		return mergeManager.finalizeShuffleMerge(appId, shuffleId);
+	}
+
+	/**
+	 * 存放合并文件的目录：该应用所有已注册Executor的local dirs(排序后去重)，合并文件
+	 * 按照文件名的hash分布在这些目录中，而不是集中在某一个Executor的目录中。分区的
+	 * 文件位置在创建时确定，之后注册的Executor不影响已创建的分区。
+	 */
+	ExecutorShuffleInfo getMergeExecutorInfo(String appId) {
+		//恢复完成前已注册的Executor不完整，选出的目录可能与恢复后不同
+		if (!recovery.isDone()) {
+			throw new RecoveringException(appId, "*");
+		}
+		ConcurrentMap<String, ExecutorFiles> appExecutors = executors.get(appId);
+		if (appExecutors == null) {
+			return null;
+		}
+		TreeSet<String> localDirs = new TreeSet<>();
+		ExecutorShuffleInfo any = null;
+		for (ExecutorFiles executorFiles : appExecutors.values()) {
+			any = executorFiles.shuffleInfo;
+			localDirs.addAll(Arrays.asList(any.localDirs));
+		}
+		if (any == null) {
+			return null;
 		}
+		return new ExecutorShuffleInfo(localDirs.toArray(new String[localDirs.size()]),
+				any.subDirsPerLocalDir, any.shuffleManager);
+	}
+
+	/** 是否已从数据库恢复完所有已注册的Executor */
+	public boolean isRecovered() {
+		return recovery.isDone();
+	}
+
+	/**
+	 * 获取打开block时首先读取的文件所在的local dir：sort-based shuffle为索引文件，
+	 * 其他为block文件本身。无法确定时(例如Executor未注册、合并block)返回null。
+	 */
+	public String getBlockLocalDir(String appId, String execId, String blockId) {
+		if (blockId.startsWith(MergedShuffleFileManager.MERGED_BLOCK_PREFIX)) {
+			return null;
+		}
+		ExecutorFiles executorFiles = getExecutorFiles(appId, execId);
+		if (executorFiles == null) {
+			return null;
+		}
+
+		ExecutorShuffleInfo shuffleInfo = executorFiles.shuffleInfo;
+		if (blockId.startsWith("shuffle_") && blockIdFields(blockId) >= 4
+				&& !"org.apache.spark.shuffle.hash.HashShuffleManager".equals(shuffleInfo.shuffleManager)) {
+			return executorFiles.getSortBasedFiles(blockIdField(blockId, 1), blockIdField(blockId, 2)).indexLocalDir;
+		}
+		return getLocalDir(shuffleInfo.localDirs, blockId);
 	}
 
 	/** 将文件名映射为对应的本地路径下的物理文件 */
 	public static File getFile(String[] localDirs, int subDirsPerLocalDir, String filename) {
 		int hasCode = NettyUtil.nonnagetiveHash(filename);
-		String dir = localDirs[hasCode % localDirs.length];
+		String dir = getLocalDir(localDirs, filename);
 		int subDirId = (hasCode / localDirs.length ) % subDirsPerLocalDir;
 		return new File(new File(dir, String.format("%02x", subDirId)), filename);
 	}
 
+	/** 文件所在的local dir */
+	static String getLocalDir(String[] localDirs, String filename) {
+		return localDirs[NettyUtil.nonnagetiveHash(filename) % localDirs.length];
+	}
+
+	/** 索引文件缓存，用于获取命中率、内存使用量及加载耗时等统计信息 */
+	public ShuffleIndexLookup getIndexCache() {
+		return indexCache;
+	}
+
+	/** 热点block缓存，用于获取命中率及节省的字节数等统计信息，未开启时返回null */
+	public ShuffleBlockCache getBlockCache() {
+		return blockCache;
+	}
+
+	/** 文件夹清理器，用于获取积压量及已回收的字节数等统计信息 */
+	public DirectoryCleaner getDirectoryCleaner() {
+		return dirCleaner;
+	}
+
+	/** 合并管理器，用于获取合并的block数及字节数等统计信息 */
+	MergedShuffleFileManager getMergeManager() {
+		return mergeManager;
+	}
+
 	@Override
 	public void close() {
+		dirCleaner.close();
+		indexCache.close();
+		mergeManager.close();
+		if (blockCache != null) {
+			blockCache.close();
+		}
 		if (db != null) {
+			//恢复线程仍在读取数据库
+			awaitRecovery();
+			//先将队列中的操作写入数据库，再关闭数据库
+			dbWriter.close();
 			try {
 				db.close();
 			} catch (IOException e) {
@@ -183,16 +420,69 @@ public class ExternalShuffleBlockResolver implements Closeable{
 
 	/*******************************************************/
 
-	/** 同步删除文件夹，每次删除一个，每个Executor中的文件夹在单独的线程中进行，删除操作会比较耗时 */
-	private void deleteExecutorDirs(String[] dirs) {
-		for (String dir : dirs) {
-			try {
-				NettyUtil.deleteRecursively(new File(dir));
-				log.info("成功删除文件夹：{}", dir);
-			} catch (Exception e) {
-				log.error("删除文件夹{}失败：{}", dir, e);
+	/**
+	 * 根据Executor的文件布局查找shuffle block，客户端短路读取本地block时使用相同的逻辑，
+	 * 参见{@link LocalShuffleBlockReader}。
+	 */
+	static ManagedBuffer getShuffleBlockData(ExecutorFiles executorFiles, ShuffleIndexLookup indexCache, String blockId) {
+		if (blockIdFields(blockId) < 4) {
+			throw new IllegalArgumentException("非法的block id：" + blockId);
+		}
+
+		int shuffleId = blockIdField(blockId, 1);
+		int mapId = blockIdField(blockId, 2);
+		int reduceId = blockIdField(blockId, 3);
+
+		ExecutorShuffleInfo shuffleInfo = executorFiles.shuffleInfo;
+		if ("org.apache.spark.shuffle.hash.HashShuffleManager".equals(shuffleInfo.shuffleManager)) {
+			return getHashBasedShuffleBlockData(executorFiles, blockId);
+		} else if ("org.apache.spark.shuffle.sort.SortShuffleManager".equals(shuffleInfo.shuffleManager)
+		|| "org.apache.spark.shuffle.unsafe.UnsafeShuffleManager".equals(shuffleInfo.shuffleManager)) {
+			return getSortBasedShuffleBlockData(executorFiles, indexCache, shuffleId, mapId, reduceId);
+		}  else {
+			throw new UnsupportedOperationException("不支持的ShuffleManger：" + shuffleInfo.shuffleManager);
+		}
+	}
+
+	/** blockId中以'_'分隔的字段数，每次查找block时调用，不使用split以免创建数组及子串 */
+	static int blockIdFields(String blockId) {
+		int fields = 1;
+		for (int i = 0; i < blockId.length(); i++) {
+			if (blockId.charAt(i) == '_') {
+				fields++;
 			}
 		}
+		return fields;
+	}
+
+	/**
+	 * 将blockId中以'_'分隔的第field个字段(从0开始)解析为非负整数，不创建子串
+	 */
+	static int blockIdField(String blockId, int field) {
+		int start = 0;
+		for (int i = 0; i < field; i++) {
+			start = blockId.indexOf('_', start) + 1;
+			if (start == 0) {
+				throw new IllegalArgumentException("非法的block id：" + blockId);
+			}
+		}
+		int end = blockId.indexOf('_', start);
+		if (end < 0) {
+			end = blockId.length();
+		}
+		if (start == end) {
+			throw new NumberFormatException("非法的block id：" + blockId);
+		}
+
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = blockId.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+				throw new NumberFormatException("非法的block id：" + blockId);
+			}
+			value = value * 10 + digit;
+		}
+		return value;
 	}
 
 	/**
@@ -201,8 +491,8 @@ public class ExternalShuffleBlockResolver implements Closeable{
 	 *
 	 * 可以参考：FileShuffleBlockResolver
 	 */
-	private ManagedBuffer getHashBasedShuffleBlockData(ExecutorShuffleInfo excutor, String blockId) {
-		File file = getFile(excutor.localDirs, excutor.subDirsPerLocalDir, blockId);
+	private static ManagedBuffer getHashBasedShuffleBlockData(ExecutorFiles excutor, String blockId) {
+		File file = excutor.getFile(blockId);
 		return new FileSegmentManagedBuffer(file, 0, file.length());
 	}
 
@@ -211,62 +501,202 @@ public class ExternalShuffleBlockResolver implements Closeable{
 	 * 	1、索引文件：shuffle_ShuffleId_MapId_0.index
 	 * 	2、数据文件：shuffle_ShuffleId_MapId_0.data
 	 */
-	private ManagedBuffer getSortBasedShuffleBlockData(ExecutorShuffleInfo excutor, int shuffleId, int mapId, int reduceId) {
-
-		String indexFileName =  "shuffle_" + shuffleId + "_" + mapId + "_0.index";
-		String dataFileName =  "shuffle_" + shuffleId + "_" + mapId + "_0.data";
-		File indexFile = getFile(excutor.localDirs, excutor.subDirsPerLocalDir, indexFileName);
-		File dataFie = getFile(excutor.localDirs, excutor.subDirsPerLocalDir, dataFileName);
-
-		DataInputStream in = null;
+	private static ManagedBuffer getSortBasedShuffleBlockData(ExecutorFiles excutor, ShuffleIndexLookup indexCache,
+			int shuffleId, int mapId, int reduceId) {
+		ExecutorFiles.SortFiles files = excutor.getSortBasedFiles(shuffleId, mapId);
+		File indexFile = files.indexFile;
+		File dataFie = files.dataFile;
 
 		try {
-			in = new DataInputStream(new FileInputStream(indexFile));
-			in.skipBytes(reduceId * 8);
-			long offset = in.readLong();
-			long nextOffset = in.readLong();
-			return new FileSegmentManagedBuffer(dataFie, offset, nextOffset - offset);
+			ShuffleIndexRecord record = indexCache.getIndex(indexFile, reduceId);
+			return new FileSegmentManagedBuffer(dataFie, record.getOffset(), record.getLength());
 		} catch (IOException e) {
 			throw new RuntimeException("打开文件" + indexFile + "失败", e);
-		} finally {
-			Closeables.closeQuietly(in);
 		}
 	}
 
-	/** 从数据库加载Executor保存文件位置信息等的元数据 */
-	private ConcurrentMap<AppExecId, ExecutorShuffleInfo> reloadRegisteredExecutors(DB db) throws IOException {
-		ConcurrentMap<AppExecId, ExecutorShuffleInfo>  regiesteredExecutors = Maps.newConcurrentMap();
-		if (db != null) {
-			DBIterator iter = db.iterator();
-			iter.seek(APP_KEY_PREFIX.getBytes(Charsets.UTF_8));
+	/**
+	 * 注册或恢复Executor元数据，与applicationRemoved中的remove互斥，避免注册到已被
+	 * 移除的应用中。恢复时onlyIfAbsent为true，不覆盖恢复期间新注册的元数据。
+	 */
+	private void putExecutorInfo(String appId, String execId, ExecutorShuffleInfo shuffleInfo, boolean onlyIfAbsent) {
+		executors.compute(appId, (id, appExecutors) -> {
+			if (appExecutors == null) {
+				appExecutors = Maps.newConcurrentMap();
+			}
+			if (onlyIfAbsent) {
+				appExecutors.putIfAbsent(execId, new ExecutorFiles(shuffleInfo));
+			} else {
+				appExecutors.put(execId, new ExecutorFiles(shuffleInfo));
+			}
+			return appExecutors;
+		});
+	}
+
+	/**
+	 * 每个Key分区由一个线程独立读取、解码，所有分区恢复完成前服务已可以正常
+	 * 接收请求。
+	 */
+	private ListenableFuture<?> recoverRegisteredExecutors(final DB db, int numThreads) {
+		final long start = System.nanoTime();
+		ListeningExecutorService pool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+				Math.max(1, Math.min(numThreads, NUM_KEY_PARTITIONS)),
+				NettyUtil.createThreadFactory("govind-shuffle-recovery")));
+
+		List<ListenableFuture<Integer>> partitions = new ArrayList<>(NUM_KEY_PARTITIONS);
+		for (int i = 0; i < NUM_KEY_PARTITIONS; i++) {
+			final int partition = i;
+			partitions.add(pool.submit(() -> recoverPartition(db, partition)));
+		}
+		//已提交的任务执行完后线程退出
+		pool.shutdown();
+
+		ListenableFuture<List<Integer>> all = Futures.allAsList(partitions);
+		Futures.addCallback(all, new FutureCallback<List<Integer>>() {
+			@Override
+			public void onSuccess(List<Integer> counts) {
+				int total = 0;
+				for (int count : counts) {
+					total += count;
+				}
+				log.info("从数据库恢复{}个已注册的Executor，耗时{}ms", total,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				log.error("从数据库恢复已注册的Executor失败", t);
+			}
+		});
+		return all;
+	}
+
+	private int recoverPartition(DB db, int partition) throws IOException {
+		byte[] prefix = partitionKeyPrefix(partition);
+		int count = 0;
+		DBIterator iter = db.iterator();
+		try {
+			iter.seek(prefix);
 			while (iter.hasNext()) {
 				Entry<byte[], byte[]> entry = iter.next();
-				String key = new String(entry.getKey(), Charsets.UTF_8);
-				if (!key.startsWith(APP_KEY_PREFIX)) {
+				byte[] key = entry.getKey();
+				if (!hasPrefix(key, prefix)) {
 					break;
 				}
 
-				AppExecId appExecId = parseDbAppExecKey(key);
-				ExecutorShuffleInfo shuffleInfo = mapper.readValue(entry.getValue(), ExecutorShuffleInfo.class);
-				regiesteredExecutors.put(appExecId, shuffleInfo);
+				ByteBuf keyBuf = Unpooled.wrappedBuffer(key);
+				keyBuf.skipBytes(prefix.length);
+				String appId = Strings.decode(keyBuf);
+				String execId = Strings.decode(keyBuf);
+				ExecutorShuffleInfo shuffleInfo = ExecutorShuffleInfo.decode(Unpooled.wrappedBuffer(entry.getValue()));
+				putExecutorInfo(appId, execId, shuffleInfo, true);
+				count++;
+			}
+		} finally {
+			iter.close();
+		}
+		return count;
+	}
+
+	/** 等待恢复完成，恢复失败时已在回调中记录日志，此处忽略；不能在IO线程中调用 */
+	void awaitRecovery() {
+		try {
+			Uninterruptibles.getUninterruptibly(recovery);
+		} catch (ExecutionException e) {
+			//ignore
+		}
+	}
+
+	private static byte[] partitionKeyPrefix(int partition) {
+		byte[] prefix = Arrays.copyOf(EXEC_KEY_PREFIX, EXEC_KEY_PREFIX.length + 1);
+		prefix[EXEC_KEY_PREFIX.length] = (byte) partition;
+		return prefix;
+	}
+
+	private static boolean hasPrefix(byte[] key, byte[] prefix) {
+		if (key.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static byte[] dbExecKey(String appId, String execId) {
+		int partition = NettyUtil.nonnagetiveHash(appId) % NUM_KEY_PARTITIONS;
+		byte[] key = new byte[EXEC_KEY_PREFIX.length + 1
+				+ Strings.encodedLength(appId) + Strings.encodedLength(execId)];
+		ByteBuf buf = Unpooled.wrappedBuffer(key);
+		buf.clear();
+		buf.writeBytes(EXEC_KEY_PREFIX);
+		buf.writeByte(partition);
+		Strings.encode(buf, appId);
+		Strings.encode(buf, execId);
+		return key;
+	}
+
+	static byte[] encodeExecutorInfo(ExecutorShuffleInfo shuffleInfo) {
+		byte[] value = new byte[shuffleInfo.encodedLength()];
+		ByteBuf buf = Unpooled.wrappedBuffer(value);
+		buf.clear();
+		shuffleInfo.encode(buf);
+		return value;
+	}
+
+	/**
+	 * 将1.x版本中JSON格式的Key/Value转换为二进制格式，新旧Key在同一个WriteBatch中
+	 * 写入/删除，迁移要么全部完成要么不生效。
+	 */
+	private static class LegacyStoreMigration implements StoreMigration {
+		@Override
+		public void migrate(DB db, StoreVersion fromVersion, StoreVersion toVersion) throws IOException {
+			if (fromVersion.major != 1) {
+				throw new IOException("不支持从版本" + fromVersion + "迁移到" + toVersion);
+			}
+
+			byte[] legacyPrefix = (LEGACY_APP_KEY_PREFIX + ";").getBytes(Charsets.UTF_8);
+			int migrated = 0;
+			WriteBatch batch = db.createWriteBatch();
+			DBIterator iter = db.iterator();
+			try {
+				iter.seek(legacyPrefix);
+				while (iter.hasNext()) {
+					Entry<byte[], byte[]> entry = iter.next();
+					if (!hasPrefix(entry.getKey(), legacyPrefix)) {
+						break;
+					}
+
+					AppExecId appExecId = parseLegacyDbAppExecKey(new String(entry.getKey(), Charsets.UTF_8));
+					ExecutorShuffleInfo shuffleInfo = mapper.readValue(entry.getValue(), ExecutorShuffleInfo.class);
+					batch.put(dbExecKey(appExecId.appId, appExecId.execId), encodeExecutorInfo(shuffleInfo));
+					batch.delete(entry.getKey());
+					migrated++;
+				}
+				db.write(batch, new WriteOptions().sync(true));
+			} finally {
+				iter.close();
+				batch.close();
 			}
+			log.info("迁移{}个已注册的Executor", migrated);
 		}
-		return regiesteredExecutors;
 	}
 
-	private static AppExecId parseDbAppExecKey(String key) throws IOException {
-		if (!key.startsWith(APP_KEY_PREFIX)) {
-			throw new IllegalArgumentException("要解析的字符串前缀应该为：" + APP_KEY_PREFIX);
+	private static AppExecId parseLegacyDbAppExecKey(String key) throws IOException {
+		if (!key.startsWith(LEGACY_APP_KEY_PREFIX)) {
+			throw new IllegalArgumentException("要解析的字符串前缀应该为：" + LEGACY_APP_KEY_PREFIX);
 		}
 
-		String appExecJson = key.substring(APP_KEY_PREFIX.length() + 1);
+		String appExecJson = key.substring(LEGACY_APP_KEY_PREFIX.length() + 1);
 		AppExecId appExecId = mapper.readValue(appExecJson, AppExecId.class);
 		return appExecId;
 	}
 
-	private static byte[] dbAppExecKey(AppExecId appExecId) throws IOException {
+	static byte[] legacyDbAppExecKey(AppExecId appExecId) throws IOException {
 		String appExecJson = mapper.writeValueAsString(appExecId);
-		String key = APP_KEY_PREFIX + ";" + appExecJson;
+		String key = LEGACY_APP_KEY_PREFIX + ";" + appExecJson;
 		return key.getBytes(Charsets.UTF_8);
 	}
 
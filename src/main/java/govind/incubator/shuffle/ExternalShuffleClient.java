@@ -3,21 +3,39 @@ package govind.incubator.shuffle;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.io.Closeables;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NioManagedBuffer;
+import govind.incubator.network.client.PeerHealthTracker;
 import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.client.TransportClientBootstrap;
 import govind.incubator.network.client.TransportClientFactory;
 import govind.incubator.network.conf.TransportConf;
 import govind.incubator.network.handler.NoOpRpcHandler;
+import govind.incubator.network.handler.RpcCallback;
 import govind.incubator.network.sasl.SaslClientBootstrap;
 import govind.incubator.network.sasl.SecretKeyHolder;
 import govind.incubator.network.util.TransportContext;
 import govind.incubator.shuffle.RetryingBlockFetcher.BlockFetcherStarter;
+import govind.incubator.shuffle.protocol.BlockTransferMessage;
 import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.FinalizeShuffleMerge;
+import govind.incubator.shuffle.protocol.GetExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.MergeStatuses;
+import govind.incubator.shuffle.protocol.PushBlockStream;
 import govind.incubator.shuffle.protocol.RegisterExecutor;
+import govind.incubator.shuffle.protocol.RegisterExecutors;
+import govind.incubator.shuffle.protocol.UploadBlock;
+import govind.incubator.shuffle.protocol.UploadBlockStream;
+import io.netty.buffer.Unpooled;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @Author: 高文文
@@ -38,6 +56,12 @@ public class ExternalShuffleClient extends ShuffleClient {
 
 	protected TransportClientFactory clientFactory;
 	protected String appId;
+	/** 合并发往同一个Executor的fetchBlocks调用，未开启时为null */
+	private FetchRequestCoalescer coalescer;
+	/** 限制所有获取请求占用的字节数及每个host的请求数、block数 */
+	private FetchAdmissionController admissionController;
+	/** 短路读取本机Shuffle Server的block，未开启时为null */
+	private LocalShuffleBlockReader localReader;
 
 	public ExternalShuffleClient(TransportConf conf, SecretKeyHolder secretKeyHolder, boolean saslEnabled, boolean saslEncryptionEnabled) {
 		Preconditions.checkArgument(
@@ -58,14 +82,58 @@ public class ExternalShuffleClient extends ShuffleClient {
 			bootstraps.add(new SaslClientBootstrap(saslEncryptionEnabled, appId, conf, secretKeyHolder));
 		}
 		clientFactory = context.createClientFactory(bootstraps);
+		if (conf.shortCircuitLocalReads()) {
+			localReader = new LocalShuffleBlockReader(conf, this::getExecutorShuffleInfo);
+		}
+		admissionController = new FetchAdmissionController(conf.maxBytesInFlight(),
+				conf.maxReqsPerHost(), conf.maxBlocksPerHost());
+		if (conf.fetchCoalesceWindowMs() > 0) {
+			coalescer = new FetchRequestCoalescer(this::admitAndFetchBlocks,
+					conf.fetchCoalesceWindowMs(), conf.fetchCoalesceMaxBlocks());
+		}
 	}
 
 	/**
-	 * 从指定远端获取shuffle blocks
+	 * 从指定远端获取shuffle blocks，开启合并时在时间窗口内与发往同一个Executor的其他
+	 * 调用合并为一个请求。开启短路读取并且远端为本机时直接读取本地文件，失败时改为
+	 * 通过网络获取。
 	 */
 	@Override
 	public void fetchBlocks(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener) {
 		checkInit();
+		if (localReader != null && localReader.isLocal(host)) {
+			List<ManagedBuffer> blocks = null;
+			try {
+				blocks = localReader.getBlocks(host, port, execId, blockIds);
+			} catch (Exception e) {
+				log.warn("无法在本地读取{}:{}(executor id={})的blocks，改为通过网络获取：{}", host, port, execId, e.getMessage());
+			}
+			if (blocks != null) {
+				for (int i = 0; i < blockIds.length; i++) {
+					listener.onBlockFetchSuccess(blockIds[i], blocks.get(i));
+				}
+				return;
+			}
+		}
+		if (coalescer != null) {
+			coalescer.fetchBlocks(host, port, execId, blockIds, listener);
+		} else {
+			admitAndFetchBlocks(host, port, execId, blockIds, listener);
+		}
+	}
+
+	/** 超过正在获取的字节数、请求数限制时排队等待，同一host上的所有Executor共用限制 */
+	private void admitAndFetchBlocks(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener) {
+		admissionController.fetch(host, blockIds, listener,
+				(ids, admittedListener) -> doFetchBlocks(host, port, execId, ids, admittedListener));
+	}
+
+	/** 获取请求的准入控制器，用于获取正在获取的字节数、请求数及排队的请求数 */
+	FetchAdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	private void doFetchBlocks(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener) {
 		log.debug("准备从{}:{}(executor id={})获取shuffle数据", host, port, execId);
 
 		try {
@@ -73,14 +141,16 @@ public class ExternalShuffleClient extends ShuffleClient {
 				@Override
 				public void createAndStart(String[] blockIds, BlockFetchingListener listener) throws IOException {
 					TransportClient client = clientFactory.createClient(host, port);
-					new  OneForOneBlockFetcher(client, appId, execId, blockIds, listener)
+					new  OneForOneBlockFetcher(client, appId, execId, blockIds,
+							trackPeerHealth(host + ":" + port, listener),
+							conf.fetchToDiskThreshold(), new File(conf.fetchTempDir()))
 					.start();
 				}
 			};
 
 			int maxRetries = conf.maxIORetries();
 			if (maxRetries > 0) {
-				new RetryingBlockFetcher(conf, fetcherStarter, blockIds,  listener).start();
+				new RetryingBlockFetcher(conf, host + ":" + port, fetcherStarter, blockIds,  listener).start();
 			} else {
 				fetcherStarter.createAndStart(blockIds, listener);
 			}
@@ -92,6 +162,41 @@ public class ExternalShuffleClient extends ShuffleClient {
 		}
 	}
 
+	/**
+	 * 将一次获取请求的结果反馈给熔断器，每次请求只计一次：第一个block成功计为成功，
+	 * 因IO异常失败计为失败，服务端返回的其他错误说明远端可用，不计入
+	 */
+	private BlockFetchingListener trackPeerHealth(String peer, BlockFetchingListener listener) {
+		PeerHealthTracker healthTracker = clientFactory.getHealthTracker();
+		if (!healthTracker.isEnabled()) {
+			return listener;
+		}
+		AtomicBoolean reported = new AtomicBoolean(false);
+		return new BlockFetchingListener() {
+			@Override
+			public void onBlockFetchSuccess(String blockId, ManagedBuffer data) {
+				if (reported.compareAndSet(false, true)) {
+					healthTracker.recordSuccess(peer);
+				}
+				listener.onBlockFetchSuccess(blockId, data);
+			}
+
+			@Override
+			public void onBlockFetchFailure(String blockId, Throwable cause) {
+				boolean isIOException = cause instanceof IOException || cause.getCause() instanceof IOException;
+				if (isIOException && reported.compareAndSet(false, true)) {
+					healthTracker.recordFailure(peer);
+				}
+				listener.onBlockFetchFailure(blockId, cause);
+			}
+
+			@Override
+			public void onBlockSizes(String[] blockIds, long[] sizes) {
+				listener.onBlockSizes(blockIds, sizes);
+			}
+		};
+	}
+
 	private void checkInit() {
 		assert appId != null : "应该在init方法之后调用";
 	}
@@ -100,6 +205,8 @@ public class ExternalShuffleClient extends ShuffleClient {
 	 * 将当前Executor元数据信息注册给指定的Shuffle Server，元数据包括当前
 	 * Executor将shuffle文件存放在哪里以及以何种方式存储。
 	 *
+	 * 使用连接池中的连接，注册完成后不关闭，之后获取block时可以直接复用。
+	 *
 	 * @param host host of shuffle server
 	 * @param port port of shuffle server
 	 * @param execId this executor's id
@@ -108,17 +215,146 @@ public class ExternalShuffleClient extends ShuffleClient {
 	public void registerWithShuffleServer(String host, int port, String execId, ExecutorShuffleInfo shuffleInfo) throws IOException {
 		checkInit();
 		TransportClient client = clientFactory.createClient(host, port);
+		RegisterExecutor msg = new RegisterExecutor(appId, execId, shuffleInfo);
+		client.sendRpcSync(msg.toByteBuffer(), conf.connectionTimeoutMS());
+	}
+
+	/**
+	 * 异步注册Executor，服务端注册完成后调用callback
+	 */
+	public void registerWithShuffleServer(String host, int port, String execId, ExecutorShuffleInfo shuffleInfo, RpcCallback callback) {
+		checkInit();
+		sendRegistration(host, port, new RegisterExecutor(appId, execId, shuffleInfo), callback);
+	}
+
+	/**
+	 * 在一次RPC中注册多个Executor，用于节点上的代理进程注册本机的所有Executor
+	 *
+	 * @param executors execId -> 文件布局
+	 * @param callback 服务端全部注册完成后被调用
+	 */
+	public void registerWithShuffleServer(String host, int port, Map<String, ExecutorShuffleInfo> executors, RpcCallback callback) {
+		checkInit();
+		String[] execIds = new String[executors.size()];
+		ExecutorShuffleInfo[] shuffleInfos = new ExecutorShuffleInfo[executors.size()];
+		int i = 0;
+		for (Map.Entry<String, ExecutorShuffleInfo> entry : executors.entrySet()) {
+			execIds[i] = entry.getKey();
+			shuffleInfos[i] = entry.getValue();
+			i++;
+		}
+		sendRegistration(host, port, new RegisterExecutors(appId, execIds, shuffleInfos), callback);
+	}
 
+	private void sendRegistration(String host, int port, BlockTransferMessage msg, RpcCallback callback) {
 		try {
-			RegisterExecutor msg = new RegisterExecutor(appId, execId, shuffleInfo);
-			client.sendRpcSync(msg.toByteBuffer(), 5000);
-		} finally {
-			client.close();
+			TransportClient client = clientFactory.createClient(host, port);
+			client.sendRpcAsync(msg.toByteBuffer(), callback);
+		} catch (Exception e) {
+			log.error("向{}:{}注册{}失败", host, port, msg, e);
+			callback.onFailure(e);
+		}
+	}
+
+	/**
+	 * 将block上传到指定的Shuffle Server，存放在execId注册的local dirs中。不超过
+	 * maxInRpcUploadBytes的block放在UploadBlock消息中上传，更大的block以流的方式上传，
+	 * 两端都不需要将整个block缓存在内存中。
+	 *
+	 * @param data 要上传的block，上传完成后被释放
+	 * @param callback 服务端写入完成后被调用
+	 */
+	public void uploadBlock(String host, int port, String execId, String blockId, byte[] metadata,
+			ManagedBuffer data, RpcCallback callback) {
+		checkInit();
+		//data交给下面的finally或者uploadStream之后不再由这里释放
+		boolean released = false;
+		try {
+			TransportClient client = clientFactory.createClient(host, port);
+			if (data.size() <= conf.maxInRpcUploadBytes()) {
+				byte[] blockData;
+				try {
+					ByteBuffer buffer = data.nioByteBuffer();
+					blockData = new byte[buffer.remaining()];
+					buffer.get(blockData);
+				} finally {
+					released = true;
+					data.release();
+				}
+				UploadBlock msg = new UploadBlock(appId, execId, blockId, metadata, blockData);
+				client.sendRpcAsync(msg.toByteBuffer(), callback);
+			} else {
+				UploadBlockStream msg = new UploadBlockStream(appId, execId, blockId, metadata);
+				ByteBuffer meta = msg.toByteBuffer();
+				released = true;
+				client.uploadStream(new NioManagedBuffer(meta), data, callback);
+			}
+		} catch (Exception e) {
+			log.error("上传block{}到{}:{}失败", blockId, host, port, e);
+			if (!released) {
+				data.release();
+			}
+			callback.onFailure(e);
+		}
+	}
+
+	/**
+	 * push-merge模式下，将map输出中某个reduce分区的block推送给负责合并该分区的
+	 * Shuffle Server。推送失败不影响正确性，reduce任务会单独获取未合并的block。
+	 *
+	 * @param data 要推送的block，推送完成后被释放
+	 * @param callback 服务端将block追加到合并文件后被调用
+	 */
+	public void pushBlock(String host, int port, int shuffleId, int mapId, int reduceId,
+			ManagedBuffer data, RpcCallback callback) {
+		checkInit();
+		try {
+			TransportClient client = clientFactory.createClient(host, port);
+			PushBlockStream msg = new PushBlockStream(appId, shuffleId, mapId, reduceId);
+			client.uploadStream(new NioManagedBuffer(msg.toByteBuffer()), data, callback);
+		} catch (Exception e) {
+			log.error("推送shuffle[{}]的block(map={}, reduce={})到{}:{}失败", shuffleId, mapId, reduceId, host, port, e);
+			data.release();
+			callback.onFailure(e);
 		}
 	}
 
+	/**
+	 * 结束指定Shuffle Server上某个shuffle的合并，返回每个reduce分区已合并的map及
+	 * 合并文件大小。之后reduce任务通过fetchBlocks获取shuffleMerged_ShuffleId_ReduceId，
+	 * 未合并的map输出仍按照shuffle_ShuffleId_MapId_ReduceId获取。
+	 */
+	public MergeStatuses finalizeShuffleMerge(String host, int port, int shuffleId) throws IOException {
+		checkInit();
+		TransportClient client = clientFactory.createClient(host, port);
+		FinalizeShuffleMerge msg = new FinalizeShuffleMerge(appId, shuffleId);
+		ByteBuffer response = client.sendRpcSync(msg.toByteBuffer(), conf.connectionTimeoutMS());
+		return (MergeStatuses) BlockTransferMessage.Decoder.fromByteByffer(response);
+	}
+
+	/**
+	 * 获取Executor注册的文件布局，用于短路读取本地block
+	 */
+	private ExecutorShuffleInfo getExecutorShuffleInfo(String host, int port, String execId) throws IOException {
+		TransportClient client = clientFactory.createClient(host, port);
+		GetExecutorShuffleInfo msg = new GetExecutorShuffleInfo(appId, execId);
+		ByteBuffer response = client.sendRpcSync(msg.toByteBuffer(), conf.connectionTimeoutMS());
+		return ExecutorShuffleInfo.decode(Unpooled.wrappedBuffer(response));
+	}
+
+	/** 短路读取本地block的读取器，未开启时返回null */
+	LocalShuffleBlockReader getLocalReader() {
+		return localReader;
+	}
+
 	@Override
 	public void close() throws IOException {
+		if (coalescer != null) {
+			coalescer.close();
+		}
+		if (localReader != null) {
+			localReader.close();
+		}
 		Closeables.closeQuietly(clientFactory);
 	}
 }
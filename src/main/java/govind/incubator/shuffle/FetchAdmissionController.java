@@ -0,0 +1,383 @@
+package govind.incubator.shuffle;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import govind.incubator.network.buffer.ManagedBuffer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-22
+ *
+ * 限制同一个ExternalShuffleClient中所有并发获取请求占用的资源：
+ * 1、所有请求正在获取的总字节数(maxBytesInFlight)，block大小来自服务端OpenBlock的
+ * 响应({@link BlockFetchingListener#onBlockSizes})。获取失败的block在回调后释放，获取
+ * 成功的block在监听器得到的buffer被释放后才释放：监听器在回调中retain的buffer在
+ * release之前一直计入；
+ * 2、每个远端host(不区分端口)同时进行的请求数(maxReqsPerHost)及block数(maxBlocksPerHost)，
+ * 每个block回调返回后释放；
+ *
+ * 超过限制的请求不会失败，而是在等待队列中排队，每个host一个FIFO队列，资源释放后
+ * 按照host轮流放行，避免某个host的请求占满所有资源。没有任何请求在进行且没有被
+ * 持有的block时总是放行，单个超过限制的请求也可以执行。
+ *
+ * 资源通常在Netty IO线程中的回调里释放，而发起请求需要创建连接，可能阻塞，因此排队
+ * 的请求放行后交给线程池执行，与{@link RetryingBlockFetcher}的重试一样。
+ *
+ */
+@Slf4j
+class FetchAdmissionController {
+	/** 执行排队后被放行的请求 */
+	private static final ExecutorService deferredStarter = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setNameFormat("Block Fetch Admission").setDaemon(true).build()
+	);
+
+	/** 实际发起获取请求 */
+	interface Fetcher {
+		void fetch(String[] blockIds, BlockFetchingListener listener);
+	}
+
+	private final long maxBytesInFlight;
+	private final int maxReqsPerHost;
+	private final int maxBlocksPerHost;
+	private final Executor executor;
+
+	/** 以下字段均在当前对象的锁内访问 */
+	private long bytesInFlight = 0;
+	private int reqsInFlight = 0;
+	private int deferredReqs = 0;
+	private final Map<String, HostUsage> hosts = new HashMap<>();
+	/** host -> 等待的请求，按照放行顺序轮转 */
+	private final LinkedHashMap<String, ArrayDeque<Request>> waiting = new LinkedHashMap<>();
+
+	FetchAdmissionController(long maxBytesInFlight, int maxReqsPerHost, int maxBlocksPerHost) {
+		this(maxBytesInFlight, maxReqsPerHost, maxBlocksPerHost, deferredStarter);
+	}
+
+	/**
+	 * @param executor 执行排队后被放行的请求
+	 */
+	FetchAdmissionController(long maxBytesInFlight, int maxReqsPerHost, int maxBlocksPerHost, Executor executor) {
+		this.executor = executor;
+		this.maxBytesInFlight = maxBytesInFlight <= 0 ? Long.MAX_VALUE : maxBytesInFlight;
+		this.maxReqsPerHost = maxReqsPerHost <= 0 ? Integer.MAX_VALUE : maxReqsPerHost;
+		this.maxBlocksPerHost = maxBlocksPerHost <= 0 ? Integer.MAX_VALUE : maxBlocksPerHost;
+	}
+
+	/** 未超过限制时立即获取，否则排队等待 */
+	void fetch(String host, String[] blockIds, BlockFetchingListener listener, Fetcher fetcher) {
+		if (blockIds.length == 0) {
+			fetcher.fetch(blockIds, listener);
+			return;
+		}
+		Request request = new Request(host, blockIds, listener, fetcher);
+		synchronized (this) {
+			ArrayDeque<Request> queue = waiting.get(host);
+			if ((queue == null || queue.isEmpty()) && canAdmit(request)) {
+				admit(request);
+			} else {
+				if (queue == null) {
+					queue = new ArrayDeque<>();
+					waiting.put(host, queue);
+				}
+				queue.add(request);
+				deferredReqs++;
+				log.debug("获取请求超过限制，排队等待：host={}, blocks={}", host, blockIds.length);
+				return;
+			}
+		}
+		request.start();
+	}
+
+	private boolean canAdmit(Request request) {
+		//没有正在进行的请求，也没有被监听器持有的block
+		if (reqsInFlight == 0 && bytesInFlight == 0) {
+			return true;
+		}
+		if (bytesInFlight >= maxBytesInFlight) {
+			return false;
+		}
+		HostUsage usage = hosts.get(request.host);
+		if (usage == null || usage.reqs == 0) {
+			return true;
+		}
+		return usage.reqs < maxReqsPerHost && usage.blocks + request.numBlocks() <= maxBlocksPerHost;
+	}
+
+	private void admit(Request request) {
+		reqsInFlight++;
+		HostUsage usage = hosts.get(request.host);
+		if (usage == null) {
+			usage = new HostUsage();
+			hosts.put(request.host, usage);
+		}
+		usage.reqs++;
+		usage.blocks += request.numBlocks();
+	}
+
+	/** 资源释放后按照host轮流放行等待的请求，交给线程池发起 */
+	private void drain() {
+		List<Request> admitted = new ArrayList<>();
+		synchronized (this) {
+			boolean progress = true;
+			while (progress && !waiting.isEmpty()) {
+				progress = false;
+				Iterator<Map.Entry<String, ArrayDeque<Request>>> iter = waiting.entrySet().iterator();
+				while (iter.hasNext()) {
+					Map.Entry<String, ArrayDeque<Request>> entry = iter.next();
+					Request request = entry.getValue().peek();
+					if (!canAdmit(request)) {
+						continue;
+					}
+					entry.getValue().poll();
+					deferredReqs--;
+					admit(request);
+					admitted.add(request);
+					progress = true;
+					iter.remove();
+					if (!entry.getValue().isEmpty()) {
+						//已放行的host移到队尾
+						waiting.put(entry.getKey(), entry.getValue());
+					}
+					break;
+				}
+			}
+		}
+		for (Request request : admitted) {
+			executor.execute(request::start);
+		}
+	}
+
+	private synchronized void chargeBytes(long bytes) {
+		bytesInFlight += bytes;
+	}
+
+	private void releaseBytes(long bytes) {
+		if (bytes == 0) {
+			return;
+		}
+		synchronized (this) {
+			bytesInFlight -= bytes;
+		}
+		drain();
+	}
+
+	private void releaseBlock(String host, boolean requestDone) {
+		synchronized (this) {
+			HostUsage usage = hosts.get(host);
+			usage.blocks--;
+			if (requestDone) {
+				reqsInFlight--;
+				usage.reqs--;
+				if (usage.reqs == 0) {
+					hosts.remove(host);
+				}
+			}
+		}
+		drain();
+	}
+
+	/********************** 统计信息 ************************/
+
+	synchronized long getBytesInFlight() {
+		return bytesInFlight;
+	}
+
+	synchronized int getRequestsInFlight() {
+		return reqsInFlight;
+	}
+
+	synchronized int getRequestsInFlight(String host) {
+		HostUsage usage = hosts.get(host);
+		return usage == null ? 0 : usage.reqs;
+	}
+
+	synchronized int getBlocksInFlight(String host) {
+		HostUsage usage = hosts.get(host);
+		return usage == null ? 0 : usage.blocks;
+	}
+
+	/** 排队等待的请求数 */
+	synchronized int getDeferredRequests() {
+		return deferredReqs;
+	}
+
+	private static class HostUsage {
+		int reqs = 0;
+		int blocks = 0;
+	}
+
+	/**
+	 * 一个获取请求，同时作为监听器统计其占用的资源，每个block完成后释放
+	 */
+	private class Request implements BlockFetchingListener {
+		final String host;
+		final String[] blockIds;
+		final BlockFetchingListener listener;
+		final Fetcher fetcher;
+		/** 尚未完成的block -> 已计入bytesInFlight的字节数 */
+		private final Map<String, Long> outstanding = new HashMap<>();
+
+		Request(String host, String[] blockIds, BlockFetchingListener listener, Fetcher fetcher) {
+			this.host = host;
+			this.blockIds = blockIds;
+			this.listener = listener;
+			this.fetcher = fetcher;
+			for (String blockId : blockIds) {
+				outstanding.put(blockId, 0L);
+			}
+		}
+
+		int numBlocks() {
+			return outstanding.size();
+		}
+
+		void start() {
+			fetcher.fetch(blockIds, this);
+		}
+
+		@Override
+		public void onBlockSizes(String[] ids, long[] sizes) {
+			long charged = 0;
+			synchronized (this) {
+				for (int i = 0; i < ids.length; i++) {
+					Long current = outstanding.get(ids[i]);
+					//重试时会再次收到剩余block的大小，只计入一次
+					if (current != null && current == 0) {
+						outstanding.put(ids[i], sizes[i]);
+						charged += sizes[i];
+					}
+				}
+			}
+			chargeBytes(charged);
+			listener.onBlockSizes(ids, sizes);
+		}
+
+		@Override
+		public void onBlockFetchSuccess(String blockId, ManagedBuffer data) {
+			Long bytes;
+			synchronized (this) {
+				bytes = outstanding.get(blockId);
+			}
+			if (bytes == null) {
+				listener.onBlockFetchSuccess(blockId, data);
+				return;
+			}
+			AccountedBuffer buffer = new AccountedBuffer(data, bytes);
+			try {
+				listener.onBlockFetchSuccess(blockId, buffer);
+			} finally {
+				//字节数在监听器释放buffer后释放
+				complete(blockId);
+				buffer.releaseCallbackRef();
+			}
+		}
+
+		@Override
+		public void onBlockFetchFailure(String blockId, Throwable cause) {
+			try {
+				listener.onBlockFetchFailure(blockId, cause);
+			} finally {
+				Long bytes = complete(blockId);
+				if (bytes != null) {
+					releaseBytes(bytes);
+				}
+			}
+		}
+
+		/** 释放block占用的请求数及block数，返回该block计入的字节数 */
+		private Long complete(String blockId) {
+			Long bytes;
+			boolean requestDone;
+			synchronized (this) {
+				bytes = outstanding.remove(blockId);
+				requestDone = outstanding.isEmpty();
+			}
+			if (bytes != null) {
+				releaseBlock(host, requestDone);
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * 交给监听器的buffer，记录监听器持有的引用数：回调本身持有一个引用，回调返回后
+	 * 释放，监听器retain时加1，release时减1，引用数为0时释放该block计入的字节数。
+	 *
+	 * 底层buffer由获取数据的一方在回调返回后释放，这里只转发监听器的retain/release。
+	 */
+	private class AccountedBuffer extends ManagedBuffer {
+		private final ManagedBuffer delegate;
+		private final long bytes;
+		private final AtomicInteger refCnt = new AtomicInteger(1);
+
+		AccountedBuffer(ManagedBuffer delegate, long bytes) {
+			this.delegate = delegate;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public long size() {
+			return delegate.size();
+		}
+
+		@Override
+		public ManagedBuffer retain() {
+			refCnt.incrementAndGet();
+			delegate.retain();
+			return this;
+		}
+
+		@Override
+		public ManagedBuffer release() {
+			delegate.release();
+			deref();
+			return this;
+		}
+
+		void releaseCallbackRef() {
+			deref();
+		}
+
+		private void deref() {
+			if (refCnt.decrementAndGet() == 0) {
+				releaseBytes(bytes);
+			}
+		}
+
+		@Override
+		public InputStream createInputStream() throws IOException {
+			return delegate.createInputStream();
+		}
+
+		@Override
+		public Object nettyByteBuf() throws IOException {
+			return delegate.nettyByteBuf();
+		}
+
+		@Override
+		public ByteBuffer nioByteBuffer() throws IOException {
+			return delegate.nioByteBuffer();
+		}
+
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+}
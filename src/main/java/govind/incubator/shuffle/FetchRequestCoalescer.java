@@ -0,0 +1,259 @@
+package govind.incubator.shuffle;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.util.NettyUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-22
+ *
+ * 合并同一个Executor中并发的fetchBlocks调用。
+ *
+ * 同一个远端Executor(host, port, execId)的请求在windowMs内被缓存，窗口结束或累计
+ * 的block数达到maxBlocks时合并为一个OpenBlock请求，减少RPC往返次数及服务端注册
+ * stream的次数。获取到的block按照blockId分发给原始的监听器，多个调用请求同一个
+ * block时只获取一次。
+ *
+ * 定时器线程只负责在窗口结束时取出batch，发送交给线程池：发送时需要创建连接，连接
+ * 某个不可达的host时会阻塞，不能影响其他host的batch按时发送。
+ *
+ */
+@Slf4j
+class FetchRequestCoalescer implements Closeable {
+
+	/** 实际发送合并后的请求 */
+	interface BatchFetcher {
+		void fetch(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener);
+	}
+
+	private final BatchFetcher fetcher;
+	private final long windowMs;
+	private final int maxBlocks;
+	private final ScheduledExecutorService timer;
+	/** 发送窗口结束的batch */
+	private final ExecutorService sender;
+	/** 所有访问均在当前对象的锁内进行 */
+	private final Map<BatchKey, Batch> pending = new HashMap<>();
+
+	/** 统计信息 */
+	private final AtomicLong callsReceived = new AtomicLong();
+	private final AtomicLong batchesSent = new AtomicLong();
+
+	FetchRequestCoalescer(BatchFetcher fetcher, long windowMs, int maxBlocks) {
+		this.fetcher = fetcher;
+		this.windowMs = windowMs;
+		this.maxBlocks = maxBlocks;
+		this.timer = Executors.newSingleThreadScheduledExecutor(
+				NettyUtil.createThreadFactory("govind-shuffle-fetch-coalescer"));
+		this.sender = Executors.newCachedThreadPool(
+				NettyUtil.createThreadFactory("govind-shuffle-fetch-coalescer-sender"));
+	}
+
+	void fetchBlocks(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener) {
+		callsReceived.incrementAndGet();
+		BatchKey key = new BatchKey(host, port, execId);
+		Batch full = null;
+		synchronized (this) {
+			Batch batch = pending.get(key);
+			if (batch == null) {
+				final Batch newBatch = new Batch(key);
+				pending.put(key, newBatch);
+				timer.schedule(() -> flush(newBatch), windowMs, TimeUnit.MILLISECONDS);
+				batch = newBatch;
+			}
+			batch.add(blockIds, listener);
+			if (batch.numBlocks() >= maxBlocks) {
+				pending.remove(key);
+				full = batch;
+			}
+		}
+		if (full != null) {
+			send(full);
+		}
+	}
+
+	/** 窗口结束时交给线程池发送，已因达到maxBlocks而发送的batch不再发送 */
+	private void flush(Batch batch) {
+		synchronized (this) {
+			if (pending.get(batch.key) != batch) {
+				return;
+			}
+			pending.remove(batch.key);
+		}
+		try {
+			sender.execute(() -> send(batch));
+		} catch (RejectedExecutionException e) {
+			//已关闭
+			send(batch);
+		}
+	}
+
+	private void send(Batch batch) {
+		batchesSent.incrementAndGet();
+		String[] blockIds = batch.blockIds();
+		log.debug("合并{}个fetchBlocks调用，从{}获取{}个blocks", batch.calls.size(), batch.key, blockIds.length);
+		fetcher.fetch(batch.key.host, batch.key.port, batch.key.execId, blockIds, batch);
+	}
+
+	/********************** 统计信息 ************************/
+
+	long getCallsReceived() {
+		return callsReceived.get();
+	}
+
+	/** 实际发送的OpenBlock请求数 */
+	long getBatchesSent() {
+		return batchesSent.get();
+	}
+
+	/** 发送所有缓存的请求 */
+	@Override
+	public void close() {
+		List<Batch> batches;
+		synchronized (this) {
+			batches = new ArrayList<>(pending.values());
+			pending.clear();
+		}
+		for (Batch batch : batches) {
+			send(batch);
+		}
+		timer.shutdown();
+		sender.shutdown();
+	}
+
+	private static class BatchKey {
+		final String host;
+		final int port;
+		final String execId;
+
+		BatchKey(String host, int port, String execId) {
+			this.host = host;
+			this.port = port;
+			this.execId = execId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(host, port, execId);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof BatchKey) {
+				BatchKey o = (BatchKey) obj;
+				return host.equals(o.host) && port == o.port && execId.equals(o.execId);
+			}
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return host + ":" + port + "(executor id=" + execId + ")";
+		}
+	}
+
+	/**
+	 * 一组被合并的调用，同时作为合并后请求的监听器，将结果分发给原始的监听器
+	 */
+	private static class Batch implements BlockFetchingListener {
+		final BatchKey key;
+		final List<Call> calls = new ArrayList<>();
+		/** blockId -> 请求该block的监听器，保持请求顺序 */
+		final LinkedHashMap<String, List<BlockFetchingListener>> listeners = new LinkedHashMap<>();
+
+		Batch(BatchKey key) {
+			this.key = key;
+		}
+
+		void add(String[] blockIds, BlockFetchingListener listener) {
+			calls.add(new Call(blockIds, listener));
+			for (String blockId : blockIds) {
+				listeners.computeIfAbsent(blockId, id -> new ArrayList<>(1)).add(listener);
+			}
+		}
+
+		int numBlocks() {
+			return listeners.size();
+		}
+
+		String[] blockIds() {
+			return listeners.keySet().toArray(new String[listeners.size()]);
+		}
+
+		@Override
+		public void onBlockFetchSuccess(String blockId, ManagedBuffer data) {
+			for (BlockFetchingListener listener : listeners.get(blockId)) {
+				try {
+					listener.onBlockFetchSuccess(blockId, data);
+				} catch (Exception e) {
+					log.error("调用onBlockFetchSuccess失败", e);
+				}
+			}
+		}
+
+		@Override
+		public void onBlockFetchFailure(String blockId, Throwable cause) {
+			for (BlockFetchingListener listener : listeners.get(blockId)) {
+				try {
+					listener.onBlockFetchFailure(blockId, cause);
+				} catch (Exception e) {
+					log.error("调用onBlockFetchFailure失败", e);
+				}
+			}
+		}
+
+		/** 按照原始调用拆分block大小 */
+		@Override
+		public void onBlockSizes(String[] blockIds, long[] sizes) {
+			Map<String, Long> sizeById = new HashMap<>();
+			for (int i = 0; i < blockIds.length; i++) {
+				sizeById.put(blockIds[i], sizes[i]);
+			}
+			for (Call call : calls) {
+				List<String> callBlockIds = new ArrayList<>();
+				List<Long> callSizes = new ArrayList<>();
+				for (String blockId : call.blockIds) {
+					Long size = sizeById.get(blockId);
+					if (size != null) {
+						callBlockIds.add(blockId);
+						callSizes.add(size);
+					}
+				}
+				if (callBlockIds.isEmpty()) {
+					continue;
+				}
+				long[] callSizeArray = new long[callSizes.size()];
+				for (int i = 0; i < callSizeArray.length; i++) {
+					callSizeArray[i] = callSizes.get(i);
+				}
+				call.listener.onBlockSizes(callBlockIds.toArray(new String[callBlockIds.size()]), callSizeArray);
+			}
+		}
+	}
+
+	private static class Call {
+		final String[] blockIds;
+		final BlockFetchingListener listener;
+
+		Call(String[] blockIds, BlockFetchingListener listener) {
+			this.blockIds = blockIds;
+			this.listener = listener;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package govind.incubator.shuffle;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import govind.incubator.network.buffer.FileSegmentManagedBuffer;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.util.NettyUtil;
+import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-23
+ *
+ * 客户端与Shuffle Server位于同一台机器时，直接从本地磁盘读取shuffle block，不再经过
+ * TCP、SASL及sendfile的回环。
+ *
+ * 1、第一次读取某个Executor的block时，通过RPC从Shuffle Server获取其注册的
+ * {@link ExecutorShuffleInfo}并缓存；
+ * 2、使用与{@link ExternalShuffleBlockResolver}相同的文件布局及索引文件查找block；
+ * 3、Executor的local dirs及block所在文件必须对当前进程可读；
+ *
+ * 任何错误都会抛出异常，由调用者改为通过网络获取。
+ *
+ */
+@Slf4j
+class LocalShuffleBlockReader implements Closeable {
+	/** 最多缓存的Executor文件布局数 */
+	private static final int MAX_CACHED_EXECUTORS = 1024;
+
+	/** 从Shuffle Server获取Executor的文件布局 */
+	interface ShuffleInfoFetcher {
+		ExecutorShuffleInfo fetch(String host, int port, String execId) throws IOException;
+	}
+
+	private final ShuffleInfoFetcher fetcher;
+	private final ShuffleIndexLookup indexCache;
+	/** host:port/execId -> 文件布局 */
+	private final Cache<String, ExecutorFiles> executors;
+	/** host -> 是否为本机地址 */
+	private final ConcurrentMap<String, Boolean> localHosts = new ConcurrentHashMap<>();
+
+	/** 统计信息 */
+	private final AtomicLong localReads = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	LocalShuffleBlockReader(TransportConf conf, ShuffleInfoFetcher fetcher) {
+		this.fetcher = fetcher;
+		this.indexCache = ShuffleIndexLookup.create(conf);
+		this.executors = CacheBuilder.newBuilder()
+				.maximumSize(MAX_CACHED_EXECUTORS)
+				.build();
+	}
+
+	/** host是否为本机的地址 */
+	boolean isLocal(String host) {
+		return localHosts.computeIfAbsent(host, NettyUtil::isLocalAddress);
+	}
+
+	/**
+	 * 读取所有blocks，任何一个block无法在本地读取时抛出异常
+	 */
+	List<ManagedBuffer> getBlocks(String host, int port, String execId, String[] blockIds) throws Exception {
+		String key = host + ":" + port + "/" + execId;
+		try {
+			ExecutorFiles executorFiles = executors.get(key, () -> loadExecutorFiles(host, port, execId));
+			List<ManagedBuffer> blocks = new ArrayList<>(blockIds.length);
+			for (String blockId : blockIds) {
+				if (!blockId.startsWith("shuffle_")) {
+					throw new IllegalArgumentException("只能在本地读取shuffle block：" + blockId);
+				}
+				ManagedBuffer block = ExternalShuffleBlockResolver.getShuffleBlockData(executorFiles, indexCache, blockId);
+				File file = ((FileSegmentManagedBuffer) block).getFile();
+				if (!file.canRead()) {
+					throw new IOException("没有读取权限：" + file);
+				}
+				blocks.add(block);
+			}
+			localReads.addAndGet(blocks.size());
+			return blocks;
+		} catch (Exception e) {
+			//Executor可能重新注册，下次重新获取文件布局
+			executors.invalidate(key);
+			fallbacks.incrementAndGet();
+			throw e instanceof ExecutionException && e.getCause() instanceof Exception
+					? (Exception) e.getCause() : e;
+		}
+	}
+
+	private ExecutorFiles loadExecutorFiles(String host, int port, String execId) throws IOException {
+		ExecutorShuffleInfo shuffleInfo = fetcher.fetch(host, port, execId);
+		for (String localDir : shuffleInfo.localDirs) {
+			File dir = new File(localDir);
+			if (!dir.isDirectory() || !dir.canRead() || !dir.canExecute()) {
+				throw new IOException("没有访问Executor[" + execId + "]目录的权限：" + localDir);
+			}
+		}
+		log.debug("从{}:{}获取Executor[{}]的文件布局：{}", host, port, execId, shuffleInfo);
+		return new ExecutorFiles(shuffleInfo);
+	}
+
+	/********************** 统计信息 ************************/
+
+	/** 在本地读取的block数 */
+	long getLocalReads() {
+		return localReads.get();
+	}
+
+	/** 无法在本地读取、改为通过网络获取的请求数 */
+	long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	@Override
+	public void close() {
+		executors.invalidateAll();
+		indexCache.close();
+	}
+}
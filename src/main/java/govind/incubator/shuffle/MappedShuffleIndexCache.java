@@ -0,0 +1,147 @@
+package govind.incubator.shuffle;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-13
+ *
+ * 以只读方式将索引文件映射到内存，查找reduce分区时直接从映射区域读取偏移量，
+ * 索引数据由操作系统的page cache管理，不占用JVM堆内存。
+ *
+ * 1、同时存在的映射数量受indexCache.maxMappings限制(每个映射占用一个vm.max_map_count
+ * 配额)，超过时按照LRU策略淘汰；
+ * 2、每个映射通过引用计数管理，读取期间持有引用，被淘汰或应用程序移除时释放缓存
+ * 持有的引用，最后一个引用释放后立即unmap，不依赖GC回收；
+ *
+ */
+@Slf4j
+public class MappedShuffleIndexCache extends ShuffleIndexLookup {
+	private final LoadingCache<File, MappedIndex> cache;
+
+	public MappedShuffleIndexCache(int maxMappings) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxMappings)
+				.removalListener(new RemovalListener<File, MappedIndex>() {
+					@Override
+					public void onRemoval(RemovalNotification<File, MappedIndex> notification) {
+						notification.getValue().release();
+					}
+				})
+				.build(new CacheLoader<File, MappedIndex>() {
+					@Override
+					public MappedIndex load(File indexFile) throws Exception {
+						long start = System.nanoTime();
+						MappedIndex index = new MappedIndex(indexFile);
+						recordLoad(start);
+						return index;
+					}
+				});
+	}
+
+	@Override
+	public ShuffleIndexRecord getIndex(File indexFile, int reduceId) throws IOException {
+		requestCount.incrementAndGet();
+		while (true) {
+			MappedIndex index;
+			try {
+				index = cache.get(indexFile);
+			} catch (ExecutionException e) {
+				throw new IOException("映射索引文件" + indexFile + "失败", e.getCause());
+			}
+
+			try {
+				index.retain();
+			} catch (IllegalReferenceCountException e) {
+				//获取后、读取前该映射已被淘汰并释放，重新获取
+				continue;
+			}
+			try {
+				return index.getIndex(reduceId);
+			} finally {
+				index.release();
+			}
+		}
+	}
+
+	@Override
+	public void invalidateLocalDirs(Set<String> localDirs) {
+		if (localDirs.isEmpty()) {
+			return;
+		}
+
+		Set<String> roots = normalize(localDirs);
+		int invalidated = 0;
+		for (File indexFile : cache.asMap().keySet()) {
+			if (isUnderLocalDirs(indexFile, roots)) {
+				cache.invalidate(indexFile);
+				invalidated++;
+			}
+		}
+		log.debug("释放{}个索引文件映射", invalidated);
+	}
+
+	/** 当前存在的映射数量 */
+	public long getLiveMappings() {
+		return cache.size();
+	}
+
+	@Override
+	public void close() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * 单个索引文件的映射，引用计数为0时unmap
+	 */
+	private class MappedIndex extends AbstractReferenceCounted {
+		private final File file;
+		private final MappedByteBuffer buffer;
+		private final int size;
+
+		MappedIndex(File file) throws IOException {
+			this.file = file;
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			this.size = buffer.capacity();
+			memoryUsed.addAndGet(size);
+		}
+
+		ShuffleIndexRecord getIndex(int reduceId) {
+			int numOffsets = size / 8;
+			if (reduceId < 0 || reduceId + 1 >= numOffsets) {
+				throw new IllegalArgumentException(String.format(
+						"reduceId(%s)越界，索引文件中只有%s个分区", reduceId, numOffsets - 1));
+			}
+			//使用绝对位置读取，不修改buffer的position，可以被多个线程并发读取
+			long offset = buffer.getLong(reduceId * 8);
+			long nextOffset = buffer.getLong(reduceId * 8 + 8);
+			return new ShuffleIndexRecord(offset, nextOffset - offset);
+		}
+
+		@Override
+		protected void deallocate() {
+			PlatformDependent.freeDirectBuffer(buffer);
+			memoryUsed.addAndGet(-size);
+			log.trace("unmap索引文件{}", file);
+		}
+	}
+}
@@ -0,0 +1,411 @@
+package govind.incubator.shuffle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import govind.incubator.network.buffer.FileSegmentManagedBuffer;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.handler.AsyncStreamCallback;
+import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.MergeStatuses;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-19
+ *
+ * push-merge模式下，将map任务推送的block按照reduce分区追加到合并文件中，reduce
+ * 任务只需顺序读取一个合并block，而不是从每个map输出中随机读取小block。
+ *
+ * 每个reduce分区对应三个文件，按照文件名的hash分布在该应用所有Executor的local dirs
+ * 中(参见{@link ExternalShuffleBlockResolver#getMergeExecutorInfo})，应用移除时一并删除：
+ * 1、shuffleMerged_ShuffleId_ReduceId.data：按照到达顺序追加的block数据；
+ * 2、shuffleMerged_ShuffleId_ReduceId.index：每个block的结束偏移量，格式与sort-based
+ * shuffle的索引文件相同(第一个偏移量为0)；
+ * 3、shuffleMerged_ShuffleId_ReduceId.meta：结束合并时写入已合并的mapId(bitmap)；
+ *
+ * 推送的block先在内存中缓存完整(不超过maxBlockBytes)，再交给调用者提供的executor在
+ * 分区锁内一次性追加，Netty IO线程不会阻塞在磁盘上，并发推送到同一分区的block也不会
+ * 交错写入；写入失败时截断到追加前的位置。文件(包括创建分区时的初始化)只在追加时
+ * 打开，未结束合并的分区不会一直占用文件描述符。结束合并同样会写入文件，调用者应在
+ * 同一个executor中调用{@link #finalizeShuffleMerge}。同一个
+ * map的重复推送(重试)被忽略。合并状态只保存在内存中，服务重启后未结束的合并丢失，
+ * reduce任务按照未合并的block获取。
+ *
+ */
+@Slf4j
+class MergedShuffleFileManager implements Closeable {
+	static final String MERGED_BLOCK_PREFIX = "shuffleMerged_";
+
+	private final ExternalShuffleBlockResolver resolver;
+	/** 单个推送block的最大字节数，更大的block不合并，由reduce任务单独获取 */
+	private final long maxBlockBytes;
+	private final ConcurrentMap<String, AppMergeState> apps = new ConcurrentHashMap<>();
+
+	/** 统计信息 */
+	private final AtomicLong mergedBlocks = new AtomicLong();
+	private final AtomicLong mergedBytes = new AtomicLong();
+	private final AtomicLong duplicateBlocks = new AtomicLong();
+	private final AtomicLong rejectedBlocks = new AtomicLong();
+
+	MergedShuffleFileManager(ExternalShuffleBlockResolver resolver, long maxBlockBytes) {
+		this.resolver = resolver;
+		this.maxBlockBytes = maxBlockBytes;
+	}
+
+	/**
+	 * 返回接收推送block的回调函数，该shuffle已结束合并时抛出异常
+	 *
+	 * @param executor 将接收完成的block追加到合并文件中
+	 */
+	AsyncStreamCallback receiveBlockStream(String appId, int shuffleId, int mapId, int reduceId, Executor executor) {
+		MergePartition partition = getOrCreatePartition(appId, shuffleId, reduceId);
+		return new PushedBlockCallback(partition, mapId, executor);
+	}
+
+	/** 结束某个shuffle的合并，关闭所有合并文件并返回每个分区的合并结果 */
+	MergeStatuses finalizeShuffleMerge(String appId, int shuffleId) throws IOException {
+		AppMergeState app = apps.get(appId);
+		ShuffleMergeState shuffle = app == null ? null : app.shuffles.get(shuffleId);
+		if (shuffle == null) {
+			return new MergeStatuses(shuffleId, new int[0], new BitSet[0], new long[0]);
+		}
+
+		List<MergePartition> partitions;
+		synchronized (shuffle) {
+			shuffle.finalized = true;
+			partitions = new ArrayList<>(shuffle.partitions.values());
+		}
+
+		int[] reduceIds = new int[partitions.size()];
+		BitSet[] mapBitmaps = new BitSet[partitions.size()];
+		long[] sizes = new long[partitions.size()];
+		for (int i = 0; i < partitions.size(); i++) {
+			MergePartition partition = partitions.get(i);
+			partition.finalizeMerge();
+			reduceIds[i] = partition.reduceId;
+			mapBitmaps[i] = partition.getMapIds();
+			sizes[i] = partition.getSize();
+		}
+		log.info("应用{}的shuffle[{}]合并结束，共{}个分区", appId, shuffleId, partitions.size());
+		return new MergeStatuses(shuffleId, reduceIds, mapBitmaps, sizes);
+	}
+
+	/** 获取已结束合并的分区对应的合并block */
+	ManagedBuffer getMergedBlockData(String appId, int shuffleId, int reduceId) {
+		AppMergeState app = apps.get(appId);
+		ShuffleMergeState shuffle = app == null ? null : app.shuffles.get(shuffleId);
+		MergePartition partition = shuffle == null ? null : shuffle.partitions.get(reduceId);
+		if (partition == null || !partition.isFinalized()) {
+			throw new RuntimeException(String.format(
+					"应用%s的shuffle[%s]分区[%s]不存在合并结果或尚未结束合并", appId, shuffleId, reduceId));
+		}
+		return new FileSegmentManagedBuffer(partition.dataFile, 0, partition.getSize());
+	}
+
+	/** 移除应用的合并状态，合并文件随Executor的local dirs一起删除 */
+	void applicationRemoved(String appId) {
+		apps.remove(appId);
+	}
+
+	/********************** 统计信息 ************************/
+
+	long getMergedBlocks() {
+		return mergedBlocks.get();
+	}
+
+	long getMergedBytes() {
+		return mergedBytes.get();
+	}
+
+	long getDuplicateBlocks() {
+		return duplicateBlocks.get();
+	}
+
+	long getRejectedBlocks() {
+		return rejectedBlocks.get();
+	}
+
+	/** 合并文件只在追加时打开，这里只需清除合并状态 */
+	@Override
+	public void close() {
+		apps.clear();
+	}
+
+	private MergePartition getOrCreatePartition(String appId, int shuffleId, int reduceId) {
+		AppMergeState app = apps.get(appId);
+		if (app == null) {
+			AppMergeState newApp = new AppMergeState();
+			app = apps.putIfAbsent(appId, newApp);
+			if (app == null) {
+				app = newApp;
+			}
+		}
+
+		ShuffleMergeState shuffle = app.shuffles.get(shuffleId);
+		if (shuffle == null) {
+			ShuffleMergeState newShuffle = new ShuffleMergeState();
+			shuffle = app.shuffles.putIfAbsent(shuffleId, newShuffle);
+			if (shuffle == null) {
+				shuffle = newShuffle;
+			}
+		}
+
+		synchronized (shuffle) {
+			if (shuffle.finalized) {
+				throw new IllegalStateException(String.format(
+						"应用%s的shuffle[%s]已结束合并", appId, shuffleId));
+			}
+			MergePartition partition = shuffle.partitions.get(reduceId);
+			if (partition == null) {
+				ExecutorShuffleInfo mergeDirs = resolver.getMergeExecutorInfo(appId);
+				if (mergeDirs == null) {
+					throw new IllegalStateException("应用" + appId + "没有在该Shuffle Server上注册Executor，无法合并");
+				}
+				partition = new MergePartition(mergeDirs, shuffleId, reduceId);
+				shuffle.partitions.put(reduceId, partition);
+			}
+			return partition;
+		}
+	}
+
+	private static class AppMergeState {
+		final ConcurrentMap<Integer, ShuffleMergeState> shuffles = new ConcurrentHashMap<>();
+	}
+
+	private static class ShuffleMergeState {
+		/** 在该对象的锁内修改，结束合并后不再创建新的分区 */
+		boolean finalized = false;
+		final ConcurrentMap<Integer, MergePartition> partitions = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * 单个reduce分区的合并文件，所有修改操作均在该对象的锁内进行。
+	 *
+	 * 文件只在追加时打开，追加完成后立即关闭，同时打开的文件数不超过正在追加的分区数，
+	 * 而不是所有未结束合并的分区数。创建文件同样推迟到第一次追加或结束合并时进行。
+	 * dataFile及indexFile中超过已提交长度的数据(追加失败且截断也失败时留下的数据)在
+	 * 下一次追加或结束合并时被截断。
+	 */
+	private static class MergePartition {
+		final int reduceId;
+		final File dataFile;
+		final File indexFile;
+		final File metaFile;
+		private final BitSet mapIds = new BitSet();
+		/** 已提交的数据文件长度 */
+		private long size = 0;
+		/** 已提交的索引文件长度 */
+		private long indexSize = 0;
+		private boolean created = false;
+		private boolean finalized = false;
+
+		MergePartition(ExecutorShuffleInfo dirs, int shuffleId, int reduceId) {
+			this.reduceId = reduceId;
+			String name = MERGED_BLOCK_PREFIX + shuffleId + "_" + reduceId;
+			this.dataFile = ExternalShuffleBlockResolver.getFile(dirs.localDirs, dirs.subDirsPerLocalDir, name + ".data");
+			this.indexFile = ExternalShuffleBlockResolver.getFile(dirs.localDirs, dirs.subDirsPerLocalDir, name + ".index");
+			this.metaFile = ExternalShuffleBlockResolver.getFile(dirs.localDirs, dirs.subDirsPerLocalDir, name + ".meta");
+		}
+
+		/** 创建合并文件，清除上次留下的同名文件 */
+		private void create() throws IOException {
+			if (created) {
+				return;
+			}
+			for (File file : Arrays.asList(dataFile, indexFile, metaFile)) {
+				File parent = file.getParentFile();
+				if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+					throw new IOException("无法创建目录：" + parent);
+				}
+			}
+
+			try (FileChannel dataChannel = open(dataFile);
+				 FileChannel indexChannel = open(indexFile)) {
+				dataChannel.truncate(0);
+				indexChannel.truncate(0);
+				writeOffset(indexChannel, 0);
+			}
+			indexSize = 8;
+			created = true;
+		}
+
+		/**
+		 * 追加一个map输出的block，该map已合并过时返回false
+		 */
+		synchronized boolean append(int mapId, List<ByteBuffer> blocks) throws IOException {
+			if (finalized) {
+				throw new IllegalStateException("分区" + reduceId + "已结束合并");
+			}
+			if (mapIds.get(mapId)) {
+				return false;
+			}
+			create();
+
+			try (FileChannel dataChannel = open(dataFile);
+				 FileChannel indexChannel = open(indexFile)) {
+				//丢弃之前追加失败时未能截断的数据
+				truncate(dataChannel, size);
+				truncate(indexChannel, indexSize);
+
+				long position = size;
+				try {
+					for (ByteBuffer block : blocks) {
+						while (block.hasRemaining()) {
+							position += dataChannel.write(block);
+						}
+					}
+					writeOffset(indexChannel, position);
+				} catch (IOException e) {
+					//丢弃写入了一部分的block，保持数据文件与索引文件一致；截断失败时不掩盖
+					//原来的异常，多余的数据在下一次追加或结束合并时截断
+					try {
+						truncate(dataChannel, size);
+						truncate(indexChannel, indexSize);
+					} catch (IOException te) {
+						e.addSuppressed(te);
+					}
+					throw e;
+				}
+				size = position;
+				indexSize += 8;
+			}
+			mapIds.set(mapId);
+			return true;
+		}
+
+		synchronized void finalizeMerge() throws IOException {
+			if (finalized) {
+				return;
+			}
+			finalized = true;
+			create();
+			try (FileChannel dataChannel = open(dataFile);
+				 FileChannel indexChannel = open(indexFile)) {
+				truncate(dataChannel, size);
+				truncate(indexChannel, indexSize);
+			}
+			Files.write(metaFile.toPath(), mapIds.toByteArray());
+		}
+
+		synchronized boolean isFinalized() {
+			return finalized;
+		}
+
+		synchronized BitSet getMapIds() {
+			return (BitSet) mapIds.clone();
+		}
+
+		synchronized long getSize() {
+			return size;
+		}
+
+		private static FileChannel open(File file) throws IOException {
+			return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		}
+
+		private static void truncate(FileChannel channel, long length) throws IOException {
+			if (channel.size() > length) {
+				channel.truncate(length);
+			}
+			channel.position(length);
+		}
+
+		private static void writeOffset(FileChannel indexChannel, long offset) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(8);
+			buf.putLong(offset);
+			buf.flip();
+			while (buf.hasRemaining()) {
+				indexChannel.write(buf);
+			}
+		}
+	}
+
+	/**
+	 * 在内存中缓存推送的block，接收完成后在executor中追加到分区的合并文件中。超过
+	 * maxBlockBytes时丢弃后续数据，接收完成后返回失败。
+	 */
+	private class PushedBlockCallback implements AsyncStreamCallback {
+		private final MergePartition partition;
+		private final int mapId;
+		private final Executor executor;
+		private final SettableFuture<Void> completion = SettableFuture.create();
+		private final List<ByteBuffer> buffers = new ArrayList<>();
+		private long bytesReceived = 0;
+
+		PushedBlockCallback(MergePartition partition, int mapId, Executor executor) {
+			this.partition = partition;
+			this.mapId = mapId;
+			this.executor = executor;
+		}
+
+		@Override
+		public void onData(String streamId, ByteBuffer buffer) {
+			bytesReceived += buffer.remaining();
+			if (bytesReceived > maxBlockBytes) {
+				buffers.clear();
+				return;
+			}
+			//buffer在回调返回后被释放，需要复制
+			ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+			copy.put(buffer);
+			copy.flip();
+			buffers.add(copy);
+		}
+
+		@Override
+		public void onComplete(String streamId) throws IOException {
+			if (bytesReceived > maxBlockBytes) {
+				rejectedBlocks.incrementAndGet();
+				throw new IOException(String.format("推送的block大小为%s字节，超过了合并限制%s字节",
+						bytesReceived, maxBlockBytes));
+			}
+			executor.execute(() -> {
+				try {
+					if (partition.append(mapId, buffers)) {
+						mergedBlocks.incrementAndGet();
+						mergedBytes.addAndGet(bytesReceived);
+					} else {
+						duplicateBlocks.incrementAndGet();
+					}
+					completion.set(null);
+				} catch (IllegalStateException e) {
+					rejectedBlocks.incrementAndGet();
+					completion.setException(e);
+				} catch (Throwable t) {
+					completion.setException(t);
+				} finally {
+					buffers.clear();
+				}
+			});
+		}
+
+		@Override
+		public void onFailure(String streamId, Throwable cause) {
+			log.warn("接收map[{}]推送到分区{}的block失败", mapId, partition.reduceId, cause);
+			buffers.clear();
+			completion.setException(cause);
+		}
+
+		@Override
+		public ListenableFuture<Void> completion() {
+			return completion;
+		}
+	}
+}
@@ -2,15 +2,22 @@ package govind.incubator.shuffle;
 
 import com.google.common.base.Preconditions;
 import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.TempFileManagedBuffer;
 import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.handler.ChunkReceivedCallback;
+import govind.incubator.network.handler.OneForOneStreamManager;
 import govind.incubator.network.handler.RpcCallback;
+import govind.incubator.network.handler.StreamCallback;
 import govind.incubator.shuffle.protocol.BlockTransferMessage;
 import govind.incubator.shuffle.protocol.OpenBlock;
 import govind.incubator.shuffle.protocol.StreamHandle;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @Author: 高文文
@@ -20,6 +27,12 @@ import java.nio.ByteBuffer;
  * 封装client请求block，用于将每一个block解析为一个chunk，并在解析成功或失败
  * 时调用{@link BlockFetchingListener}中的方法通知用户。
  *
+ * 超过fetchToDiskThreshold的block不通过ChunkFetchRequest获取(需要在内存中缓存整个
+ * chunk)，而是以流的方式获取并直接写入临时文件，监听器得到的是该文件的
+ * {@link TempFileManagedBuffer}。与内存中的chunk一样，回调返回后释放一次该buffer，
+ * 引用计数为0时删除临时文件；需要在回调返回后继续读取的监听器应在回调中调用
+ * {@link ManagedBuffer#retain()}，使用完毕后调用{@link ManagedBuffer#release()}。
+ *
  */
 @Slf4j
 public class OneForOneBlockFetcher {
@@ -28,6 +41,10 @@ public class OneForOneBlockFetcher {
 	private final String[] blockIds;
 	private final BlockFetchingListener listener;
 	private final ChunkReceivedCallback chunkCallback;
+	/** 超过该大小的block写入临时文件，单位字节 */
+	private final long fetchToDiskThreshold;
+	/** 临时文件目录 */
+	private final File tempDir;
 
 	private StreamHandle streamHandle = null;
 
@@ -37,9 +54,26 @@ public class OneForOneBlockFetcher {
 			String execId,
 			String[] blockIds,
 			BlockFetchingListener listener) {
+		this(client, appId, execId, blockIds, listener, 0, null);
+	}
+
+	/**
+	 * @param fetchToDiskThreshold 超过该大小的block写入临时文件，0表示不开启
+	 * @param tempDir 临时文件目录
+	 */
+	public OneForOneBlockFetcher(
+			TransportClient client,
+			String appId,
+			String execId,
+			String[] blockIds,
+			BlockFetchingListener listener,
+			long fetchToDiskThreshold,
+			File tempDir) {
 		this.client = client;
 		this.blockIds = blockIds;
 		this.listener = listener;
+		this.fetchToDiskThreshold = fetchToDiskThreshold <= 0 ? Long.MAX_VALUE : fetchToDiskThreshold;
+		this.tempDir = tempDir;
 
 		this.openMessage = new OpenBlock(appId, execId, blockIds);
 		this.chunkCallback = new ChunkCallback();
@@ -58,6 +92,46 @@ public class OneForOneBlockFetcher {
 		}
 	}
 
+	/**
+	 * 将流数据写入临时文件，接收完毕后通知监听器并释放对该文件的引用
+	 */
+	private class DownloadCallback implements StreamCallback {
+		private final int chunkIdx;
+		private final File targetFile;
+		private final FileChannel channel;
+
+		DownloadCallback(int chunkIdx) throws IOException {
+			this.chunkIdx = chunkIdx;
+			this.targetFile = File.createTempFile("shuffle-fetch-", ".data", tempDir);
+			this.channel = new FileOutputStream(targetFile).getChannel();
+		}
+
+		@Override
+		public void onData(String streamId, ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		@Override
+		public void onComplete(String streamId) throws IOException {
+			channel.close();
+			ManagedBuffer buffer = new TempFileManagedBuffer(targetFile);
+			try {
+				listener.onBlockFetchSuccess(blockIds[chunkIdx], buffer);
+			} finally {
+				buffer.release();
+			}
+		}
+
+		@Override
+		public void onFailure(String streamId, Throwable cause) throws IOException {
+			channel.close();
+			targetFile.delete();
+			listener.onBlockFetchFailure(blockIds[chunkIdx], cause);
+		}
+	}
+
 	/**
 	 * 开始获取数据，每次每一chunk成功获取时会调用对应的监听器函数。
 	 *
@@ -74,10 +148,27 @@ public class OneForOneBlockFetcher {
 				try {
 					streamHandle = (StreamHandle) BlockTransferMessage.Decoder.fromByteByffer(response);
 					log.debug("成功打开blocks：{}，准备开始获取chunks。", streamHandle);
+					if (streamHandle.blockSizes != null) {
+						listener.onBlockSizes(blockIds, streamHandle.blockSizes);
+					}
 
-					//立即请求所有的chunk
+					//立即请求所有的chunk，超过阈值的block以流的方式写入临时文件
 					for (int i = 0; i < streamHandle.numChunks; i++) {
-						client.fetchChunk(streamHandle.streamId, i, chunkCallback);
+						DownloadCallback downloadCallback = null;
+						if (streamHandle.blockSizes != null && streamHandle.blockSizes[i] > fetchToDiskThreshold) {
+							try {
+								downloadCallback = new DownloadCallback(i);
+							} catch (IOException e) {
+								//服务端要求按顺序读取chunk，不能跳过，改为在内存中获取
+								log.warn("创建临时文件失败，在内存中获取block{}：{}", blockIds[i], e.getMessage());
+							}
+						}
+						if (downloadCallback != null) {
+							client.stream(OneForOneStreamManager.genStreamChunkId(streamHandle.streamId, i),
+									downloadCallback);
+						} else {
+							client.fetchChunk(streamHandle.streamId, i, chunkCallback);
+						}
 					}
 				} catch (Exception e) {
 					log.error("在成功打开blocks后，开始获取chunks时失败：{}", e.getMessage());
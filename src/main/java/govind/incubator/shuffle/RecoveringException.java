@@ -0,0 +1,31 @@
+package govind.incubator.shuffle;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * Shuffle Server重启后正在从数据库恢复已注册的Executor，查询的Executor尚未恢复。
+ * 这些查询发生在Netty IO线程中，不能等待恢复完成，因此直接失败，由客户端稍后重试。
+ *
+ * 服务端的异常以字符串形式返回客户端，客户端通过{@link #isCausedBy(Throwable)}判断。
+ */
+public class RecoveringException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public RecoveringException(String appId, String execId) {
+		super(String.format("Shuffle Server正在恢复已注册的Executor，Executor[%s, %s]尚未恢复，请稍后重试",
+				appId, execId));
+	}
+
+	/** 失败原因是否为服务端正在恢复 */
+	public static boolean isCausedBy(Throwable cause) {
+		for (Throwable t = cause; t != null; t = t.getCause()) {
+			if (t instanceof RecoveringException
+					|| (t.getMessage() != null && t.getMessage().contains(RecoveringException.class.getName()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,53 @@
+package govind.incubator.shuffle;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-23
+ *
+ * 获取block失败后重试的等待策略。
+ *
+ * 1、FIXED：每次等待固定的时间；
+ * 2、EXPONENTIAL：等待时间随重试次数指数增长，并在[wait/2, wait]之间随机，避免大量
+ * 客户端在同一时刻重试；
+ * 3、DECORRELATED_JITTER：在[base, 上次等待时间*3]之间随机，相邻两次等待时间不相关；
+ *
+ * 除FIXED外，等待时间均不超过maxWaitMs。
+ */
+public enum RetryBackoff {
+	FIXED {
+		@Override
+		long nextWaitMs(int retryCount, long baseMs, long maxMs, long prevWaitMs) {
+			return baseMs;
+		}
+	},
+
+	EXPONENTIAL {
+		@Override
+		long nextWaitMs(int retryCount, long baseMs, long maxMs, long prevWaitMs) {
+			int shift = Math.min(Math.max(retryCount - 1, 0), 30);
+			long wait = Math.min(maxMs, baseMs << shift);
+			long half = wait / 2;
+			return half + ThreadLocalRandom.current().nextLong(wait - half + 1);
+		}
+	},
+
+	DECORRELATED_JITTER {
+		@Override
+		long nextWaitMs(int retryCount, long baseMs, long maxMs, long prevWaitMs) {
+			long upper = Math.max(baseMs, Math.min(maxMs, Math.max(prevWaitMs, baseMs) * 3));
+			return baseMs + ThreadLocalRandom.current().nextLong(upper - baseMs + 1);
+		}
+	};
+
+	/**
+	 * @param retryCount 第几次重试，从1开始
+	 * @param baseMs 基础等待时间
+	 * @param maxMs 最大等待时间
+	 * @param prevWaitMs 上一次等待时间，第一次重试时为0
+	 * @return 本次重试前的等待时间，单位ms
+	 */
+	abstract long nextWaitMs(int retryCount, long baseMs, long maxMs, long prevWaitMs);
+}
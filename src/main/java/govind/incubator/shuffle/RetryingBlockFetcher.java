@@ -1,8 +1,8 @@
 package govind.incubator.shuffle;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.common.util.concurrent.Uninterruptibles;
 import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.client.CircuitOpenException;
 import govind.incubator.network.conf.TransportConf;
 import jersey.repackaged.com.google.common.collect.Sets;
 import lombok.extern.slf4j.Slf4j;
@@ -10,9 +10,14 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @Author: 高文文
@@ -21,20 +26,51 @@ import java.util.concurrent.TimeUnit;
  *
  * 当因网络原因从远程获取block失败时，可以自动重试获取。
  *
+ * 所有实例共用一个定时器等待重试，等待期间不占用线程，到期后在线程池中重新获取。
+ * 等待时间由{@link RetryBackoff}决定，每个远端host同时等待重试的请求数受
+ * maxPendingRetriesPerHost限制，避免远端服务重启后被大量重试请求同时冲击。
+ *
  */
 @Slf4j
 public class RetryingBlockFetcher {
-	/** 在等待或尝试重试是使用 */
+	/** 在尝试重试时使用 */
 	private static final ExecutorService executorService = Executors.newCachedThreadPool(
-			new ThreadFactoryBuilder().setNameFormat("Block Fetch Retry").build()
+			new ThreadFactoryBuilder().setNameFormat("Block Fetch Retry").setDaemon(true).build()
+	);
+
+	/** 所有实例共用的重试定时器，等待期间不占用线程 */
+	private static final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setNameFormat("Block Fetch Retry Timer").setDaemon(true).build()
 	);
 
+	/** host -> 正在等待重试的请求数 */
+	private static final ConcurrentMap<String, AtomicInteger> pendingRetries = new ConcurrentHashMap<>();
+
+	/** 统计信息 */
+	private static final AtomicInteger totalPendingRetries = new AtomicInteger();
+	private static final AtomicLong retryBudgetExhausted = new AtomicLong();
+
 	/** 尝试重试次数 */
 	private final int maxRetries;
 
-	/** 每次重试等待时间，单位ms */
+	/** 重试基础等待时间，单位ms */
 	private final int retryWaitTime;
 
+	/** 重试最大等待时间，单位ms */
+	private final int maxRetryWaitTime;
+
+	/** 重试等待策略 */
+	private final RetryBackoff backoff;
+
+	/** 远端host，用于统计每个host的重试请求数，为null时不限制 */
+	private final String host;
+
+	/** 每个host同时等待重试的最大请求数 */
+	private final int maxPendingRetriesPerHost;
+
+	/** 上一次重试的等待时间 */
+	private long lastWaitTime = 0;
+
 	/** 已经重试次数 注意：所有non-final字段在访问和修改是需要加锁！ */
 	private int retryCount;
 
@@ -57,10 +93,23 @@ public class RetryingBlockFetcher {
 			BlockFetcherStarter fetchStarter,
 			String[] blockIds,
 			BlockFetchingListener listener) {
+		this(conf, null, fetchStarter, blockIds, listener);
+	}
+
+	public RetryingBlockFetcher(
+			TransportConf conf,
+			String host,
+			BlockFetcherStarter fetchStarter,
+			String[] blockIds,
+			BlockFetchingListener listener) {
 		this.listener = listener;
 		this.fetchStarter = fetchStarter;
+		this.host = host;
 		this.maxRetries = conf.maxIORetries();
 		this.retryWaitTime = conf.ioRetryWaitTimeMS();
+		this.maxRetryWaitTime = Math.max(conf.ioRetryMaxWaitTimeMS(), retryWaitTime);
+		this.backoff = RetryBackoff.valueOf(conf.ioRetryBackoff());
+		this.maxPendingRetriesPerHost = conf.maxPendingRetriesPerHost();
 		this.currentListener = new RetryingBlockFetchListener();
 		this.outstandingBlockIds = Sets.newLinkedHashSet();
 		this.outstandingBlockIds.addAll(Arrays.asList(blockIds));
@@ -105,28 +154,76 @@ public class RetryingBlockFetcher {
 	}
 
 	/**
-	 * 通过重启一个线程开始进行重试，重试操作会在等待一段时间开始运行。
+	 * 通过共用的定时器在等待一段时间后开始重试，调用前需通过{@link #shouldRetry}
+	 * 占用重试名额。
 	 */
 	private synchronized void initiateRetry() {
 		retryCount++;
 		currentListener = new RetryingBlockFetchListener();
+		lastWaitTime = backoff.nextWaitMs(retryCount, retryWaitTime, maxRetryWaitTime, lastWaitTime);
 
-		log.info("在{}ms后，开始尝试重试({}/{}){}个未成功获取的blocks", retryWaitTime, retryCount, maxRetries, outstandingBlockIds.size());
+		log.info("在{}ms后，开始尝试重试({}/{}){}个未成功获取的blocks", lastWaitTime, retryCount, maxRetries, outstandingBlockIds.size());
 
-		executorService.submit(() -> {
-			Uninterruptibles.sleepUninterruptibly(retryWaitTime, TimeUnit.MILLISECONDS);
+		retryTimer.schedule(() -> executorService.submit(() -> {
+			releaseRetry();
 			fetchAllOutstanding();
-		});
+		}), lastWaitTime, TimeUnit.MILLISECONDS);
 	}
 
 	/**
-	 * 当遇到IOException并且重试次数未超过最大次数时才会重试。
+	 * 当遇到IOException或服务端正在恢复({@link RecoveringException})、重试次数未超过最大次数
+	 * 并且远端host还有重试名额时才会重试。
+	 * 远端熔断器打开({@link CircuitOpenException})时不重试，直接失败。
 	 */
 	private synchronized boolean shouldRetry(Throwable cause) {
+		if (cause instanceof CircuitOpenException) {
+			return false;
+		}
 		boolean isIOException = cause instanceof IOException
 				|| (cause.getCause() != null && cause.getCause() instanceof IOException);
+		boolean retryable = isIOException || RecoveringException.isCausedBy(cause);
 		boolean hasRemainingRetries = retryCount < maxRetries;
-		return isIOException && hasRemainingRetries;
+		return retryable && hasRemainingRetries && acquireRetry();
+	}
+
+	/** 占用一个等待重试的名额 */
+	private boolean acquireRetry() {
+		if (host != null) {
+			AtomicInteger pending = pendingRetries.computeIfAbsent(host, h -> new AtomicInteger());
+			if (pending.incrementAndGet() > maxPendingRetriesPerHost && maxPendingRetriesPerHost > 0) {
+				pending.decrementAndGet();
+				retryBudgetExhausted.incrementAndGet();
+				log.warn("{}等待重试的请求数超过{}，不再重试", host, maxPendingRetriesPerHost);
+				return false;
+			}
+		}
+		totalPendingRetries.incrementAndGet();
+		return true;
+	}
+
+	private void releaseRetry() {
+		if (host != null) {
+			pendingRetries.get(host).decrementAndGet();
+		}
+		totalPendingRetries.decrementAndGet();
+	}
+
+	/********************** 统计信息 ************************/
+
+	/** 所有host正在等待重试的请求数 */
+	public static int getPendingRetries() {
+		return totalPendingRetries.get();
+	}
+
+	/** 指定host正在等待重试的请求数 */
+	public static int getPendingRetries(String host) {
+		AtomicInteger pending = pendingRetries.get(host);
+		return pending == null ? 0 : pending.get();
+	}
+
+	/** 因超过maxPendingRetriesPerHost而放弃重试的次数 */
+	public static long getRetryBudgetExhausted() {
+		return retryBudgetExhausted.get();
 	}
 
 	/** 用于第一次获取所有blocks，以及重试获取剩余未成功获取的blocks */
@@ -179,7 +276,7 @@ public class RetryingBlockFetcher {
 					if (shouldRetry(cause)) {
 						initiateRetry();
 					} else {
-						log.error("尝试获取block【{}】失败，超过重试次数【{}】，停止重试。失败原因：{}。", blockId, retryCount,cause.getMessage());
+						log.error("尝试获取block【{}】失败，已重试【{}】次，停止重试。失败原因：{}。", blockId, retryCount,cause.getMessage());
 						outstandingBlockIds.remove(blockId);
 						shouldForwardFailure = true;
 					}
@@ -190,5 +287,15 @@ public class RetryingBlockFetcher {
 				listener.onBlockFetchFailure(blockId, cause);
 			}
 		}
+
+		@Override
+		public void onBlockSizes(String[] blockIds, long[] sizes) {
+			synchronized (RetryingBlockFetcher.this) {
+				if (this != currentListener) {
+					return;
+				}
+			}
+			listener.onBlockSizes(blockIds, sizes);
+		}
 	}
 }
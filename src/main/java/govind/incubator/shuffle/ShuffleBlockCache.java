@@ -0,0 +1,276 @@
+package govind.incubator.shuffle;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NettyManagedBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-21
+ *
+ * 缓存被多次读取的小shuffle block(例如推测执行、stage重试时多个reduce任务读取同一个
+ * block)，数据存放在直接内存中，命中时不再读取磁盘。
+ *
+ * 1、只缓存不超过maxBlockBytes的block，大的block适合通过sendfile零拷贝发送，直接绕过缓存；
+ * 2、使用Count-Min Sketch统计block的访问频率，第一次读取的block不缓存；缓存已满时，
+ * 只有访问频率高于LRU淘汰对象的block才会被缓存(TinyLFU)，避免只读一次的block
+ * 冲掉热点block；
+ * 3、缓存的ByteBuf通过引用计数管理，命中时返回共享数据的duplicate，被淘汰后正在发送
+ * 的数据不受影响；
+ * 4、应用移除时使其缓存失效，统计命中率及节省的磁盘读取字节数；
+ *
+ */
+@Slf4j
+public class ShuffleBlockCache implements Closeable {
+	/** 至少被访问该次数后才会被缓存 */
+	private static final int MIN_ADMIT_FREQUENCY = 2;
+
+	private final long capacityBytes;
+	private final long maxBlockBytes;
+	/** 按照访问顺序排列，第一个元素为LRU淘汰对象，所有访问均在当前对象的锁内进行 */
+	private final LinkedHashMap<BlockKey, ByteBuf> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final FrequencySketch sketch = new FrequencySketch();
+	private long memoryUsed = 0;
+
+	/** 统计信息 */
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+	private final AtomicLong bypassCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public ShuffleBlockCache(long capacityBytes, long maxBlockBytes) {
+		this.capacityBytes = capacityBytes;
+		this.maxBlockBytes = maxBlockBytes;
+	}
+
+	/**
+	 * 命中时返回缓存的block，否则根据访问频率决定是否读取block并缓存。未缓存时返回
+	 * 原始的block。
+	 */
+	public ManagedBuffer get(String appId, String execId, String blockId, ManagedBuffer block) {
+		long size = block.size();
+		if (size > maxBlockBytes || size > capacityBytes) {
+			bypassCount.incrementAndGet();
+			return block;
+		}
+
+		BlockKey key = new BlockKey(appId, execId, blockId);
+		requestCount.incrementAndGet();
+		synchronized (this) {
+			sketch.increment(key.hashCode());
+			ByteBuf cached = entries.get(key);
+			if (cached != null) {
+				hitCount.incrementAndGet();
+				bytesSaved.addAndGet(size);
+				return share(cached);
+			}
+			if (sketch.frequency(key.hashCode()) < MIN_ADMIT_FREQUENCY) {
+				return block;
+			}
+		}
+
+		//在锁外读取磁盘
+		ByteBuf buf;
+		try {
+			buf = load(block);
+		} catch (IOException e) {
+			log.warn("读取block{}失败，不缓存", blockId, e);
+			return block;
+		}
+
+		synchronized (this) {
+			ByteBuf existing = entries.get(key);
+			if (existing != null) {
+				//其他线程已缓存
+				buf.release();
+				return share(existing);
+			}
+			if (!admit(key, size)) {
+				rejectedCount.incrementAndGet();
+				return new NettyManagedBuffer(buf);
+			}
+			entries.put(key, buf);
+			memoryUsed += size;
+			return share(buf);
+		}
+	}
+
+	/** 使应用的所有缓存失效 */
+	public synchronized void invalidateApp(String appId) {
+		int invalidated = 0;
+		Iterator<Map.Entry<BlockKey, ByteBuf>> iter = entries.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<BlockKey, ByteBuf> entry = iter.next();
+			if (entry.getKey().appId.equals(appId)) {
+				memoryUsed -= entry.getValue().readableBytes();
+				entry.getValue().release();
+				iter.remove();
+				invalidated++;
+			}
+		}
+		log.debug("使应用{}的{}个缓存block失效", appId, invalidated);
+	}
+
+	/**
+	 * 为容纳新的block淘汰LRU对象，候选block的访问频率不高于淘汰对象时拒绝缓存
+	 */
+	private boolean admit(BlockKey candidate, long size) {
+		int candidateFrequency = sketch.frequency(candidate.hashCode());
+		Iterator<Map.Entry<BlockKey, ByteBuf>> iter = entries.entrySet().iterator();
+		while (memoryUsed + size > capacityBytes) {
+			Map.Entry<BlockKey, ByteBuf> victim = iter.next();
+			if (candidateFrequency <= sketch.frequency(victim.getKey().hashCode())) {
+				return false;
+			}
+			memoryUsed -= victim.getValue().readableBytes();
+			victim.getValue().release();
+			iter.remove();
+			evictionCount.incrementAndGet();
+		}
+		return true;
+	}
+
+	private ByteBuf load(ManagedBuffer block) throws IOException {
+		ByteBuffer data = block.nioByteBuffer();
+		ByteBuf buf = Unpooled.directBuffer(data.remaining());
+		buf.writeBytes(data);
+		return buf;
+	}
+
+	/** 返回的buffer持有一个引用，发送完成后释放 */
+	private ManagedBuffer share(ByteBuf buf) {
+		return new NettyManagedBuffer(buf.duplicate().retain());
+	}
+
+	/********************** 统计信息 ************************/
+
+	public double getHitRate() {
+		long requests = requestCount.get();
+		return requests == 0 ? 0 : (double) hitCount.get() / requests;
+	}
+
+	/** 命中缓存而节省的磁盘读取字节数 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	public synchronized long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/** 超过maxBlockBytes而绕过缓存的请求数 */
+	public long getBypassCount() {
+		return bypassCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/** 访问频率低于淘汰对象而未被缓存的block数 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public synchronized void close() {
+		for (ByteBuf buf : entries.values()) {
+			buf.release();
+		}
+		entries.clear();
+		memoryUsed = 0;
+	}
+
+	private static class BlockKey {
+		final String appId;
+		final String execId;
+		final String blockId;
+
+		BlockKey(String appId, String execId, String blockId) {
+			this.appId = appId;
+			this.execId = execId;
+			this.blockId = blockId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(appId, execId, blockId);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof BlockKey) {
+				BlockKey o = (BlockKey) obj;
+				return appId.equals(o.appId) && execId.equals(o.execId) && blockId.equals(o.blockId);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Count-Min Sketch，使用4个哈希函数估计访问频率，每个计数器最大为15。
+	 * 累计访问次数达到阈值后所有计数器减半，使频率随时间衰减。
+	 */
+	private static class FrequencySketch {
+		private static final int TABLE_SIZE = 1 << 16;
+		private static final int MAX_COUNT = 15;
+		private static final int RESET_THRESHOLD = TABLE_SIZE * 10;
+		private static final int[] SEEDS = {0x97cb3127, 0xb3c47a4d, 0x6c1f5e3b, 0x2e4d9a71};
+
+		private final byte[] table = new byte[TABLE_SIZE];
+		private int additions = 0;
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int seed : SEEDS) {
+				int index = indexOf(hash, seed);
+				if (table[index] < MAX_COUNT) {
+					table[index]++;
+					added = true;
+				}
+			}
+			if (added && ++additions >= RESET_THRESHOLD) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] >>= 1;
+				}
+				additions /= 2;
+			}
+		}
+
+		int frequency(int hash) {
+			int frequency = MAX_COUNT;
+			for (int seed : SEEDS) {
+				frequency = Math.min(frequency, table[indexOf(hash, seed)]);
+			}
+			return frequency;
+		}
+
+		private static int indexOf(int hash, int seed) {
+			int h = (hash ^ seed) * 0x9e3779b9;
+			h ^= h >>> 16;
+			return h & (TABLE_SIZE - 1);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package govind.incubator.shuffle;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-12
+ *
+ * 缓存已解析的索引文件(shuffle_ShuffleId_MapId_0.index)，避免同一个map输出
+ * 的多个reduce分区被读取时重复打开、读取同一个索引文件。
+ *
+ * 1、以索引文件为key，按照索引文件占用的内存大小限制缓存总容量，超过容量
+ * 时按照LRU策略淘汰；
+ * 2、应用程序移除时，根据其Executor的local dirs使对应的缓存失效；
+ * 3、统计命中率、内存使用量及加载耗时；
+ *
+ */
+@Slf4j
+public class ShuffleIndexCache extends ShuffleIndexLookup {
+	private final LoadingCache<File, ShuffleIndexInformation> cache;
+
+	public ShuffleIndexCache(long maxMemoryBytes) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxMemoryBytes)
+				.weigher(new Weigher<File, ShuffleIndexInformation>() {
+					@Override
+					public int weigh(File file, ShuffleIndexInformation info) {
+						return info.getSize();
+					}
+				})
+				.removalListener(new RemovalListener<File, ShuffleIndexInformation>() {
+					@Override
+					public void onRemoval(RemovalNotification<File, ShuffleIndexInformation> notification) {
+						memoryUsed.addAndGet(-notification.getValue().getSize());
+					}
+				})
+				.build(new CacheLoader<File, ShuffleIndexInformation>() {
+					@Override
+					public ShuffleIndexInformation load(File indexFile) throws Exception {
+						long start = System.nanoTime();
+						ShuffleIndexInformation info = new ShuffleIndexInformation(indexFile);
+						recordLoad(start);
+						memoryUsed.addAndGet(info.getSize());
+						return info;
+					}
+				});
+	}
+
+	/** 获取索引文件中reduceId对应的记录，若缓存中不存在则读取并解析索引文件 */
+	@Override
+	public ShuffleIndexRecord getIndex(File indexFile, int reduceId) throws IOException {
+		requestCount.incrementAndGet();
+		try {
+			return cache.get(indexFile).getIndex(reduceId);
+		} catch (ExecutionException e) {
+			throw new IOException("读取索引文件" + indexFile + "失败", e.getCause());
+		}
+	}
+
+	@Override
+	public void invalidateLocalDirs(Set<String> localDirs) {
+		if (localDirs.isEmpty()) {
+			return;
+		}
+
+		Set<String> roots = normalize(localDirs);
+		int invalidated = 0;
+		for (File indexFile : cache.asMap().keySet()) {
+			if (isUnderLocalDirs(indexFile, roots)) {
+				cache.invalidate(indexFile);
+				invalidated++;
+			}
+		}
+		log.debug("使{}个索引文件缓存失效", invalidated);
+	}
+
+	@Override
+	public void close() {
+		cache.invalidateAll();
+	}
+}
@@ -0,0 +1,41 @@
+package govind.incubator.shuffle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-12
+ *
+ * 解析后的sort-based shuffle索引文件，索引文件由(numReduces + 1)个long组成，
+ * 第i个分区的数据位于数据文件的[offsets[i], offsets[i+1])区间。
+ *
+ */
+public class ShuffleIndexInformation {
+	/** 每个long占用8个字节 */
+	private final long[] offsets;
+
+	public ShuffleIndexInformation(File indexFile) throws IOException {
+		byte[] bytes = Files.readAllBytes(indexFile.toPath());
+		this.offsets = new long[bytes.length / 8];
+		ByteBuffer.wrap(bytes).asLongBuffer().get(offsets);
+	}
+
+	/** 占用的内存大小，用于计算缓存容量 */
+	public int getSize() {
+		return offsets.length * 8;
+	}
+
+	public ShuffleIndexRecord getIndex(int reduceId) {
+		if (reduceId < 0 || reduceId + 1 >= offsets.length) {
+			throw new IllegalArgumentException(String.format(
+					"reduceId(%s)越界，索引文件中只有%s个分区", reduceId, offsets.length - 1));
+		}
+		long offset = offsets[reduceId];
+		long nextOffset = offsets[reduceId + 1];
+		return new ShuffleIndexRecord(offset, nextOffset - offset);
+	}
+}
@@ -0,0 +1,117 @@
+package govind.incubator.shuffle;
+
+import govind.incubator.network.conf.TransportConf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-12
+ *
+ * 根据索引文件查找reduce分区在数据文件中的位置，有两种实现：
+ * 1、{@link ShuffleIndexCache}：将索引文件解析为long[]缓存在堆内存中；
+ * 2、{@link MappedShuffleIndexCache}：以只读方式将索引文件映射到内存，查找时
+ * 直接读取映射区域，不占用堆内存且可以与其他进程共享page cache；
+ *
+ * 通过配置项indexCache.mode选择实现方式(heap/mmap)。
+ *
+ */
+public abstract class ShuffleIndexLookup implements Closeable {
+	public static final String MODE_HEAP = "HEAP";
+	public static final String MODE_MMAP = "MMAP";
+
+	/** 统计信息 */
+	protected final AtomicLong requestCount = new AtomicLong();
+	protected final AtomicLong loadCount = new AtomicLong();
+	protected final AtomicLong totalLoadTimeNanos = new AtomicLong();
+	protected final AtomicLong memoryUsed = new AtomicLong();
+
+	public static ShuffleIndexLookup create(TransportConf conf) {
+		String mode = conf.indexCacheMode();
+		if (MODE_HEAP.equals(mode)) {
+			return new ShuffleIndexCache(conf.indexCacheSizeBytes());
+		} else if (MODE_MMAP.equals(mode)) {
+			return new MappedShuffleIndexCache(conf.indexCacheMaxMappings());
+		} else {
+			throw new IllegalArgumentException("不支持的索引文件查找方式：" + mode);
+		}
+	}
+
+	/** 获取索引文件中reduceId对应的记录 */
+	public abstract ShuffleIndexRecord getIndex(File indexFile, int reduceId) throws IOException;
+
+	/** 使位于给定local dirs下的索引文件失效，同时释放其占用的资源 */
+	public abstract void invalidateLocalDirs(Set<String> localDirs);
+
+	@Override
+	public void close() {}
+
+	/**
+	 * 索引文件的路径格式为localDir/subDir/filename，因此只需比较其祖父目录
+	 * 是否属于给定的local dirs。
+	 */
+	protected static boolean isUnderLocalDirs(File indexFile, Set<String> roots) {
+		File subDir = indexFile.getParentFile();
+		File root = subDir == null ? null : subDir.getParentFile();
+		return root != null && roots.contains(root.getPath());
+	}
+
+	protected static Set<String> normalize(Set<String> localDirs) {
+		Set<String> roots = new HashSet<>();
+		for (String dir : localDirs) {
+			roots.add(new File(dir).getPath());
+		}
+		return roots;
+	}
+
+	protected void recordLoad(long startNanos) {
+		totalLoadTimeNanos.addAndGet(System.nanoTime() - startNanos);
+		loadCount.incrementAndGet();
+	}
+
+	/********************** 统计信息 ************************/
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	public long getHitCount() {
+		return requestCount.get() - loadCount.get();
+	}
+
+	public double getHitRate() {
+		long requests = requestCount.get();
+		return requests == 0 ? 1.0 : (double) getHitCount() / requests;
+	}
+
+	/** 缓存的索引文件占用的内存(堆内存或映射区域)，单位字节 */
+	public long getMemoryUsed() {
+		return memoryUsed.get();
+	}
+
+	public long getLoadCount() {
+		return loadCount.get();
+	}
+
+	/** 平均每次加载索引文件的耗时，单位纳秒 */
+	public long getAverageLoadTimeNanos() {
+		long loads = loadCount.get();
+		return loads == 0 ? 0 : totalLoadTimeNanos.get() / loads;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "{" +
+				"requests=" + getRequestCount() +
+				", hitRate=" + getHitRate() +
+				", memoryUsed=" + getMemoryUsed() +
+				", averageLoadTimeNanos=" + getAverageLoadTimeNanos() +
+				'}';
+	}
+}
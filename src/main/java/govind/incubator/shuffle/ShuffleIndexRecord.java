@@ -0,0 +1,27 @@
+package govind.incubator.shuffle;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-12
+ *
+ * 索引文件中某个reduce分区对应的记录：在数据文件中的起始位置及长度
+ *
+ */
+public class ShuffleIndexRecord {
+	private final long offset;
+	private final long length;
+
+	public ShuffleIndexRecord(long offset, long length) {
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getLength() {
+		return length;
+	}
+}
@@ -0,0 +1,180 @@
+package govind.incubator.shuffle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import govind.incubator.network.handler.AsyncStreamCallback;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-18
+ *
+ * 将上传的block写入Executor的local dirs中。
+ *
+ * 数据先写入同一目录下的临时文件，全部接收完成后再重命名为目标文件，读取方
+ * 不会看到只写入了一部分的block；上传失败时删除临时文件。
+ *
+ * onData等回调在Netty IO线程中被调用，数据复制后按顺序交给executor写入文件，IO线程
+ * 不会阻塞在磁盘上。尚未写入的数据超过{@link #HIGH_WATER_MARK}时暂停读取该连接，
+ * 降到{@link #LOW_WATER_MARK}以下时恢复，避免磁盘较慢时积压过多数据。
+ *
+ */
+@Slf4j
+class UploadedBlockWriter implements AsyncStreamCallback {
+	static final long HIGH_WATER_MARK = 4 * 1024 * 1024;
+	static final long LOW_WATER_MARK = 1024 * 1024;
+
+	private final File target;
+	private final File tmpFile;
+	private final FileChannel channel;
+	private final Executor executor;
+	/** 上传数据的连接，为null时不做流量控制 */
+	private final Channel connection;
+	private final SettableFuture<Void> completion = SettableFuture.create();
+
+	/** 以下字段在当前对象的锁内访问 */
+	private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+	private boolean running = false;
+	private long pendingBytes = 0;
+
+	/** 以下字段只在写入任务中访问，任务按顺序执行 */
+	private long bytesWritten = 0;
+	private IOException writeError = null;
+
+	UploadedBlockWriter(File target, Executor executor, Channel connection) throws IOException {
+		this.target = target;
+		this.executor = executor;
+		this.connection = connection;
+		File parent = target.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("无法创建目录：" + parent);
+		}
+		this.tmpFile = new File(parent, target.getName() + "." + UUID.randomUUID() + ".tmp");
+		this.channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	}
+
+	@Override
+	public void onData(String streamId, ByteBuffer buffer) throws IOException {
+		//buffer在返回后被释放，需要复制
+		final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+		copy.put(buffer);
+		copy.flip();
+		final int length = copy.remaining();
+
+		synchronized (this) {
+			pendingBytes += length;
+			if (pendingBytes > HIGH_WATER_MARK && connection != null) {
+				connection.config().setAutoRead(false);
+			}
+		}
+		enqueue(() -> {
+			try {
+				if (writeError == null) {
+					while (copy.hasRemaining()) {
+						bytesWritten += channel.write(copy);
+					}
+				}
+			} catch (IOException e) {
+				writeError = e;
+			} finally {
+				written(length);
+			}
+		});
+	}
+
+	@Override
+	public void onComplete(String streamId) throws IOException {
+		enqueue(() -> {
+			try {
+				channel.close();
+				if (writeError != null) {
+					throw writeError;
+				}
+				Files.move(tmpFile.toPath(), target.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				log.debug("接收上传的block{}完成，共{}字节", target.getName(), bytesWritten);
+				completion.set(null);
+			} catch (IOException e) {
+				deleteTmpFile();
+				completion.setException(e);
+			}
+		});
+	}
+
+	@Override
+	public void onFailure(String streamId, Throwable cause) throws IOException {
+		log.warn("接收上传的block{}失败", target.getName(), cause);
+		enqueue(() -> {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn("关闭临时文件{}失败", tmpFile, e);
+			} finally {
+				deleteTmpFile();
+				completion.setException(cause);
+			}
+		});
+	}
+
+	@Override
+	public ListenableFuture<Void> completion() {
+		return completion;
+	}
+
+	/** 已经写入length字节，低于LOW_WATER_MARK时恢复读取 */
+	private synchronized void written(int length) {
+		pendingBytes -= length;
+		if (pendingBytes < LOW_WATER_MARK && connection != null && !connection.config().isAutoRead()) {
+			connection.config().setAutoRead(true);
+		}
+	}
+
+	/** 按照提交顺序执行，同一时刻最多有一个任务在执行 */
+	private void enqueue(Runnable task) {
+		synchronized (this) {
+			tasks.add(task);
+			if (running) {
+				return;
+			}
+			running = true;
+		}
+		executor.execute(this::runTasks);
+	}
+
+	private void runTasks() {
+		while (true) {
+			Runnable task;
+			synchronized (this) {
+				task = tasks.poll();
+				if (task == null) {
+					running = false;
+					return;
+				}
+			}
+			try {
+				task.run();
+			} catch (Throwable t) {
+				log.error("写入上传的block{}时出错", target.getName(), t);
+			}
+		}
+	}
+
+	private void deleteTmpFile() {
+		if (tmpFile.exists() && !tmpFile.delete()) {
+			log.warn("无法删除临时文件：{}", tmpFile);
+		}
+	}
+}
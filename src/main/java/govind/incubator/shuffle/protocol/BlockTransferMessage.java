@@ -16,13 +16,20 @@ import java.nio.ByteBuffer;
  * 1、OpenBlock，表示打开某个shuffle文件，返回StreamHandle;
  * 2、UploadBlock，仅仅被NettyBlockTransferService使用；
  * 3、RegisterExecutor，注册Executor；
+ * 4、UploadBlockStream，以流的方式上传block，作为UploadStream的元数据；
+ * 5、PushBlockStream、FinalizeShuffleMerge、MergeStatuses，push-merge模式下推送
+ * block、结束合并及返回合并结果；
+ * 6、GetExecutorShuffleInfo，同一台机器上的客户端获取Executor的文件布局，短路读取本地block；
+ * 7、RegisterExecutors，一次注册多个Executor；
  */
 public abstract class BlockTransferMessage implements Encodable {
 	protected abstract Type type();
 
 	/** 需要将消息类型序列化，以方便能够被解序列化出来 */
 	public enum Type {
-		OPEN_BLOCK(0), UPLOAD_BLOCK(1), REGISTER_EXECUTOR(2), STREAM_HANDLE(3), REGISTER_DRIVER(4);
+		OPEN_BLOCK(0), UPLOAD_BLOCK(1), REGISTER_EXECUTOR(2), STREAM_HANDLE(3), REGISTER_DRIVER(4), UPLOAD_BLOCK_STREAM(5),
+		PUSH_BLOCK_STREAM(6), FINALIZE_SHUFFLE_MERGE(7), MERGE_STATUSES(8),
+		GET_EXECUTOR_SHUFFLE_INFO(9), REGISTER_EXECUTORS(10);
 		private final byte id;
 
 		Type(int id) {
@@ -52,6 +59,18 @@ public abstract class BlockTransferMessage implements Encodable {
 					return StreamHandle.decode(buf);
 				case 4:
 					return RegisterDriver.decode(buf);
+				case 5:
+					return UploadBlockStream.decode(buf);
+				case 6:
+					return PushBlockStream.decode(buf);
+				case 7:
+					return FinalizeShuffleMerge.decode(buf);
+				case 8:
+					return MergeStatuses.decode(buf);
+				case 9:
+					return GetExecutorShuffleInfo.decode(buf);
+				case 10:
+					return RegisterExecutors.decode(buf);
 				default:
 					throw new IllegalArgumentException("不支持的消息类型：" + type);
 			}
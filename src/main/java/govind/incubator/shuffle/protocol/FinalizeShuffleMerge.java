@@ -0,0 +1,68 @@
+package govind.incubator.shuffle.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.util.CodecUtil.Strings;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-19
+ *
+ * 所有map任务完成后由Driver发送给参与合并的Shuffle Server，结束该shuffle的合并，
+ * 之后到达的推送被拒绝。响应消息为{@link MergeStatuses}。
+ *
+ */
+public class FinalizeShuffleMerge extends BlockTransferMessage {
+	public final String appId;
+	public final int shuffleId;
+
+	public FinalizeShuffleMerge(String appId, int shuffleId) {
+		this.appId = appId;
+		this.shuffleId = shuffleId;
+	}
+
+	@Override
+	protected Type type() {
+		return Type.FINALIZE_SHUFFLE_MERGE;
+	}
+
+	@Override
+	public int encodedLength() {
+		return Strings.encodedLength(appId) + 4;
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		Strings.encode(buf, appId);
+		buf.writeInt(shuffleId);
+	}
+
+	public static FinalizeShuffleMerge decode(ByteBuf buf) {
+		String appId = Strings.decode(buf);
+		int shuffleId = buf.readInt();
+		return new FinalizeShuffleMerge(appId, shuffleId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(appId, shuffleId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj != null && obj instanceof FinalizeShuffleMerge) {
+			FinalizeShuffleMerge o = (FinalizeShuffleMerge) obj;
+			return Objects.equal(appId, o.appId) && shuffleId == o.shuffleId;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("appId", appId)
+				.add("shuffleId", shuffleId)
+				.toString();
+	}
+}
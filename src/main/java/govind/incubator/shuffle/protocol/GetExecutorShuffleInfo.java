@@ -0,0 +1,68 @@
+package govind.incubator.shuffle.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.util.CodecUtil.Strings;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-23
+ *
+ * 客户端与Shuffle Server位于同一台机器时，获取Executor注册的{@link ExecutorShuffleInfo}，
+ * 之后直接从本地磁盘读取该Executor的shuffle文件。响应消息为ExecutorShuffleInfo的编码。
+ *
+ */
+public class GetExecutorShuffleInfo extends BlockTransferMessage {
+	public final String appId;
+	public final String execId;
+
+	public GetExecutorShuffleInfo(String appId, String execId) {
+		this.appId = appId;
+		this.execId = execId;
+	}
+
+	@Override
+	protected Type type() {
+		return Type.GET_EXECUTOR_SHUFFLE_INFO;
+	}
+
+	@Override
+	public int encodedLength() {
+		return Strings.encodedLength(appId) + Strings.encodedLength(execId);
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		Strings.encode(buf, appId);
+		Strings.encode(buf, execId);
+	}
+
+	public static GetExecutorShuffleInfo decode(ByteBuf buf) {
+		String appId = Strings.decode(buf);
+		String execId = Strings.decode(buf);
+		return new GetExecutorShuffleInfo(appId, execId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(appId, execId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj != null && obj instanceof GetExecutorShuffleInfo) {
+			GetExecutorShuffleInfo o = (GetExecutorShuffleInfo) obj;
+			return Objects.equal(appId, o.appId) && Objects.equal(execId, o.execId);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("appId", appId)
+				.add("execId", execId)
+				.toString();
+	}
+}
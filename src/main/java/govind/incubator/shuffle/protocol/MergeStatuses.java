@@ -0,0 +1,102 @@
+package govind.incubator.shuffle.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.util.CodecUtil.ByteArray;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-19
+ *
+ * {@link FinalizeShuffleMerge}的响应消息，描述某个shuffle在该Shuffle Server上合并的
+ * 结果：每个reduce分区合并文件的大小以及已合并的map任务(bitmap)。
+ *
+ * reduce任务从该Shuffle Server获取合并block(shuffleMerged_ShuffleId_ReduceId)，
+ * 未包含在bitmap中的map输出仍按照shuffle_ShuffleId_MapId_ReduceId单独获取。
+ *
+ */
+public class MergeStatuses extends BlockTransferMessage {
+	public final int shuffleId;
+	public final int[] reduceIds;
+	/** 与reduceIds一一对应，已合并到该分区的mapId */
+	public final BitSet[] mapBitmaps;
+	/** 与reduceIds一一对应，合并文件的字节数 */
+	public final long[] sizes;
+
+	public MergeStatuses(int shuffleId, int[] reduceIds, BitSet[] mapBitmaps, long[] sizes) {
+		assert reduceIds.length == mapBitmaps.length && reduceIds.length == sizes.length;
+		this.shuffleId = shuffleId;
+		this.reduceIds = reduceIds;
+		this.mapBitmaps = mapBitmaps;
+		this.sizes = sizes;
+	}
+
+	@Override
+	protected Type type() {
+		return Type.MERGE_STATUSES;
+	}
+
+	@Override
+	public int encodedLength() {
+		int length = 4 + 4;
+		for (BitSet bitmap : mapBitmaps) {
+			length += 4 + 8 + ByteArray.encodedLength(bitmap.toByteArray());
+		}
+		return length;
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		buf.writeInt(shuffleId);
+		buf.writeInt(reduceIds.length);
+		for (int i = 0; i < reduceIds.length; i++) {
+			buf.writeInt(reduceIds[i]);
+			buf.writeLong(sizes[i]);
+			ByteArray.encode(buf, mapBitmaps[i].toByteArray());
+		}
+	}
+
+	public static MergeStatuses decode(ByteBuf buf) {
+		int shuffleId = buf.readInt();
+		int numReduces = buf.readInt();
+		int[] reduceIds = new int[numReduces];
+		long[] sizes = new long[numReduces];
+		BitSet[] mapBitmaps = new BitSet[numReduces];
+		for (int i = 0; i < numReduces; i++) {
+			reduceIds[i] = buf.readInt();
+			sizes[i] = buf.readLong();
+			mapBitmaps[i] = BitSet.valueOf(ByteArray.decode(buf));
+		}
+		return new MergeStatuses(shuffleId, reduceIds, mapBitmaps, sizes);
+	}
+
+	@Override
+	public int hashCode() {
+		return (Objects.hashCode(shuffleId) * 41 + Arrays.hashCode(reduceIds)) * 41
+				+ Arrays.hashCode(mapBitmaps) * 41 + Arrays.hashCode(sizes);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj != null && obj instanceof MergeStatuses) {
+			MergeStatuses o = (MergeStatuses) obj;
+			return shuffleId == o.shuffleId
+					&& Arrays.equals(reduceIds, o.reduceIds)
+					&& Arrays.equals(mapBitmaps, o.mapBitmaps)
+					&& Arrays.equals(sizes, o.sizes);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("shuffleId", shuffleId)
+				.add("numReduces", reduceIds.length)
+				.toString();
+	}
+}
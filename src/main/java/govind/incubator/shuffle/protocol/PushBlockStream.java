@@ -0,0 +1,82 @@
+package govind.incubator.shuffle.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.util.CodecUtil.Strings;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-19
+ *
+ * map任务将某个reduce分区的block推送给负责合并该分区的Shuffle Server，作为
+ * UploadStream的元数据发送，block数据紧跟在元数据之后发送。服务端将其追加到
+ * 该分区的合并文件中。
+ *
+ */
+public class PushBlockStream extends BlockTransferMessage {
+	public final String appId;
+	public final int shuffleId;
+	public final int mapId;
+	public final int reduceId;
+
+	public PushBlockStream(String appId, int shuffleId, int mapId, int reduceId) {
+		this.appId = appId;
+		this.shuffleId = shuffleId;
+		this.mapId = mapId;
+		this.reduceId = reduceId;
+	}
+
+	@Override
+	protected Type type() {
+		return Type.PUSH_BLOCK_STREAM;
+	}
+
+	@Override
+	public int encodedLength() {
+		return Strings.encodedLength(appId) + 4 + 4 + 4;
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		Strings.encode(buf, appId);
+		buf.writeInt(shuffleId);
+		buf.writeInt(mapId);
+		buf.writeInt(reduceId);
+	}
+
+	public static PushBlockStream decode(ByteBuf buf) {
+		String appId = Strings.decode(buf);
+		int shuffleId = buf.readInt();
+		int mapId = buf.readInt();
+		int reduceId = buf.readInt();
+		return new PushBlockStream(appId, shuffleId, mapId, reduceId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(appId, shuffleId, mapId, reduceId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj != null && obj instanceof PushBlockStream) {
+			PushBlockStream o = (PushBlockStream) obj;
+			return Objects.equal(appId, o.appId)
+					&& shuffleId == o.shuffleId
+					&& mapId == o.mapId
+					&& reduceId == o.reduceId;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("appId", appId)
+				.add("shuffleId", shuffleId)
+				.add("mapId", mapId)
+				.add("reduceId", reduceId)
+				.toString();
+	}
+}
@@ -0,0 +1,91 @@
+package govind.incubator.shuffle.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.util.CodecUtil;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 一次注册同一个应用在该机器上的多个Executor，与逐个发送{@link RegisterExecutor}等价，
+ * 响应为空(empty byte array)
+ *
+ */
+public class RegisterExecutors extends BlockTransferMessage {
+	public final String appId;
+	public final String[] execIds;
+	/** 与execIds一一对应 */
+	public final ExecutorShuffleInfo[] executorShuffleInfos;
+
+	public RegisterExecutors(String appId, String[] execIds, ExecutorShuffleInfo[] executorShuffleInfos) {
+		assert execIds.length == executorShuffleInfos.length;
+		this.appId = appId;
+		this.execIds = execIds;
+		this.executorShuffleInfos = executorShuffleInfos;
+	}
+
+	@Override
+	protected Type type() {
+		return Type.REGISTER_EXECUTORS;
+	}
+
+	@Override
+	public int encodedLength() {
+		int length = CodecUtil.Strings.encodedLength(appId) + 4;
+		for (int i = 0; i < execIds.length; i++) {
+			length += CodecUtil.Strings.encodedLength(execIds[i]) + executorShuffleInfos[i].encodedLength();
+		}
+		return length;
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		CodecUtil.Strings.encode(buf, appId);
+		buf.writeInt(execIds.length);
+		for (int i = 0; i < execIds.length; i++) {
+			CodecUtil.Strings.encode(buf, execIds[i]);
+			executorShuffleInfos[i].encode(buf);
+		}
+	}
+
+	public static RegisterExecutors decode(ByteBuf buf) {
+		String appId = CodecUtil.Strings.decode(buf);
+		int numExecutors = buf.readInt();
+		String[] execIds = new String[numExecutors];
+		ExecutorShuffleInfo[] executorShuffleInfos = new ExecutorShuffleInfo[numExecutors];
+		for (int i = 0; i < numExecutors; i++) {
+			execIds[i] = CodecUtil.Strings.decode(buf);
+			executorShuffleInfos[i] = ExecutorShuffleInfo.decode(buf);
+		}
+		return new RegisterExecutors(appId, execIds, executorShuffleInfos);
+	}
+
+	@Override
+	public int hashCode() {
+		return (Objects.hashCode(appId) * 41 + Arrays.hashCode(execIds)) * 41
+				+ Arrays.hashCode(executorShuffleInfos);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj != null && obj instanceof RegisterExecutors) {
+			RegisterExecutors o = (RegisterExecutors) obj;
+			return Objects.equal(appId, o.appId)
+					&& Arrays.equals(execIds, o.execIds)
+					&& Arrays.equals(executorShuffleInfos, o.executorShuffleInfos);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("appId", appId)
+				.add("execIds", Arrays.toString(execIds))
+				.toString();
+	}
+}
@@ -3,6 +3,8 @@ package govind.incubator.shuffle.protocol;
 import com.google.common.base.Objects;
 import io.netty.buffer.ByteBuf;
 
+import java.util.Arrays;
+
 /**
  * @Author: 高文文
  * Project Name: govind-incubator
@@ -11,14 +13,25 @@ import io.netty.buffer.ByteBuf;
  * {@link OpenBlock}消息的响应消息，返回从某个Stream可以读取的chunk数。
  * 在OneForOneBlockFetcher中使用。
  *
+ * blockSizes为每个chunk(block)的字节数，编码在消息末尾，客户端可以在获取数据前
+ * 规划内存。旧版本的服务端不发送该字段(解码为null)，旧版本的客户端忽略该字段。
+ *
  */
 public class StreamHandle extends BlockTransferMessage {
 	public final long streamId;
 	public final int numChunks;
+	/** 可以为null */
+	public final long[] blockSizes;
 
 	public StreamHandle(long streamId, int numChunks) {
+		this(streamId, numChunks, null);
+	}
+
+	public StreamHandle(long streamId, int numChunks, long[] blockSizes) {
+		assert blockSizes == null || blockSizes.length == numChunks;
 		this.streamId = streamId;
 		this.numChunks = numChunks;
+		this.blockSizes = blockSizes;
 	}
 
 	@Override
@@ -28,24 +41,36 @@ public class StreamHandle extends BlockTransferMessage {
 
 	@Override
 	public int encodedLength() {
-		return 8 + 4;
+		return 8 + 4 + (blockSizes == null ? 0 : 8 * blockSizes.length);
 	}
 
 	@Override
 	public void encode(ByteBuf buf) {
 		buf.writeLong(streamId);
 		buf.writeInt(numChunks);
+		if (blockSizes != null) {
+			for (long size : blockSizes) {
+				buf.writeLong(size);
+			}
+		}
 	}
 
 	public static StreamHandle decode(ByteBuf buf) {
 		long streamId = buf.readLong();
 		int numChunks = buf.readInt();
-		return new StreamHandle(streamId, numChunks);
+		long[] blockSizes = null;
+		if (buf.readableBytes() >= 8 * numChunks && buf.isReadable()) {
+			blockSizes = new long[numChunks];
+			for (int i = 0; i < numChunks; i++) {
+				blockSizes[i] = buf.readLong();
+			}
+		}
+		return new StreamHandle(streamId, numChunks, blockSizes);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(streamId, numChunks);
+		return Objects.hashCode(streamId, numChunks) * 41 + Arrays.hashCode(blockSizes);
 	}
 
 	@Override
@@ -53,7 +78,8 @@ public class StreamHandle extends BlockTransferMessage {
 		if (obj != null && obj instanceof StreamHandle) {
 			StreamHandle sh = (StreamHandle)obj;
 			return Objects.equal(streamId, sh.streamId)
-					&& Objects.equal(numChunks, sh.numChunks);
+					&& Objects.equal(numChunks, sh.numChunks)
+					&& Arrays.equals(blockSizes, sh.blockSizes);
 		}
 		return false;
 	}
@@ -63,6 +89,7 @@ public class StreamHandle extends BlockTransferMessage {
 		return Objects.toStringHelper(this)
 				.add("streamId", streamId)
 				.add("numChunks", numChunks)
+				.add("blockSizes", Arrays.toString(blockSizes))
 				.toString();
 	}
 }
@@ -0,0 +1,87 @@
+package govind.incubator.shuffle.protocol;
+
+import com.google.common.base.Objects;
+import govind.incubator.network.util.CodecUtil;
+import govind.incubator.network.util.CodecUtil.Strings;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-18
+ *
+ * 以流的方式上传某个block，作为UploadStream的元数据发送，block数据紧跟在
+ * 元数据之后发送，服务端直接写入文件，不需要缓存整个block。
+ *
+ */
+public class UploadBlockStream extends BlockTransferMessage {
+	public final String appId;
+	public final String execId;
+	public final String blockId;
+	/** 元数据，例如存储级别信息 */
+	public final byte[] metadata;
+
+	public UploadBlockStream(String appId, String execId, String blockId, byte[] metadata) {
+		this.appId = appId;
+		this.execId = execId;
+		this.blockId = blockId;
+		this.metadata = metadata;
+	}
+
+	@Override
+	protected Type type() {
+		return Type.UPLOAD_BLOCK_STREAM;
+	}
+
+	@Override
+	public int encodedLength() {
+		return CodecUtil.Strings.encodedLength(appId) +
+				CodecUtil.Strings.encodedLength(execId) +
+				CodecUtil.Strings.encodedLength(blockId) +
+				CodecUtil.ByteArray.encodedLength(metadata);
+	}
+
+	@Override
+	public void encode(ByteBuf buf) {
+		CodecUtil.Strings.encode(buf, appId);
+		CodecUtil.Strings.encode(buf, execId);
+		CodecUtil.Strings.encode(buf, blockId);
+		CodecUtil.ByteArray.encode(buf, metadata);
+	}
+
+	public static UploadBlockStream decode(ByteBuf buf) {
+		String appId = Strings.decode(buf);
+		String execId = Strings.decode(buf);
+		String blockId = Strings.decode(buf);
+		byte[] metadata = CodecUtil.ByteArray.decode(buf);
+		return new UploadBlockStream(appId, execId, blockId, metadata);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(appId, execId, blockId) * 41 + Arrays.hashCode(metadata);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj != null && obj instanceof UploadBlockStream) {
+			UploadBlockStream o = (UploadBlockStream) obj;
+			return Objects.equal(appId, o.appId) &&
+					Objects.equal(execId, o.execId) &&
+					Objects.equal(blockId, o.blockId) &&
+					Arrays.equals(metadata, o.metadata);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("appId", appId)
+				.add("execId", execId)
+				.add("blockId", blockId)
+				.toString();
+	}
+}
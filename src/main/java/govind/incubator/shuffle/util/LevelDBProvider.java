@@ -21,6 +21,10 @@ import java.io.IOException;
 @Slf4j
 public class LevelDBProvider {
 	public static DB initLevelDB(File dbFile, StoreVersion version, ObjectMapper mapper) throws IOException {
+		return initLevelDB(dbFile, version, mapper, null);
+	}
+
+	public static DB initLevelDB(File dbFile, StoreVersion version, ObjectMapper mapper, StoreMigration migration) throws IOException {
 		DB tmpDB = null;
 
 		if (dbFile != null) {
@@ -64,7 +68,7 @@ public class LevelDBProvider {
 			}
 
 			//若版本不匹配，则抛出异常，表示服务不可用
-			checkVersion(tmpDB, version, mapper);
+			checkVersion(tmpDB, version, mapper, migration);
 		}
 		return tmpDB;
 	}
@@ -76,12 +80,22 @@ public class LevelDBProvider {
 	 * 前后不同版本中的内容。
 	 */
 	public static void checkVersion(DB db, StoreVersion newVersion, ObjectMapper mapper) throws IOException {
+		checkVersion(db, newVersion, mapper, null);
+	}
+
+	/**
+	 * 旧版本的major小于当前版本且提供了migration时，先迁移数据再更新版本号
+	 */
+	public static void checkVersion(DB db, StoreVersion newVersion, ObjectMapper mapper, StoreMigration migration) throws IOException {
 		byte[] version = db.get(StoreVersion.KEY);
 		if (version == null) {
 			storeVersion(db, newVersion, mapper);
 		} else {
 			StoreVersion storeVersion = mapper.readValue(version, StoreVersion.class);
-			if (storeVersion.major != newVersion.major) {
+			if (storeVersion.major < newVersion.major && migration != null) {
+				log.info("将数据库从版本{}迁移到{}", storeVersion, newVersion);
+				migration.migrate(db, storeVersion, newVersion);
+			} else if (storeVersion.major != newVersion.major) {
 				throw new IOException("无法从DB版本为" + storeVersion
 						+ "的数据库中读取状态，因为与当前版本" + newVersion
 						+ "不兼容");
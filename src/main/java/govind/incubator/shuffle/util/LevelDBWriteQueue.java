@@ -0,0 +1,201 @@
+package govind.incubator.shuffle.util;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import govind.incubator.network.util.NettyUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-15
+ *
+ * LevelDB的write-behind写入队列，put/delete操作按照提交顺序(FIFO)进入队列，由
+ * 后台线程合并为WriteBatch后写入数据库，避免在RPC处理线程中同步写数据库。
+ *
+ * put/delete从不阻塞调用线程(可能是Netty IO线程)，而是返回一个future，调用方在
+ * future完成后再向客户端返回结果。同步策略(SyncPolicy)决定future何时完成：
+ * 1、ALWAYS：所在的WriteBatch以sync方式写入后完成，并发提交的操作会合并到同一个
+ * WriteBatch中(group commit)，完成即表示已持久化；
+ * 2、BATCH：立即完成，后台线程最多等待flushInterval后以sync方式写入，进程崩溃最多
+ * 丢失flushInterval内提交的操作；
+ * 3、NONE：与BATCH相同，但写入时不sync，由操作系统决定何时刷盘；
+ *
+ * 写入积压(队列中已有超过maxBatchSize个操作)时，BATCH/NONE模式返回的future也在操作
+ * 写入后才完成，调用方的响应随之推迟，客户端因此放慢提交速度(背压)。
+ *
+ */
+@Slf4j
+public class LevelDBWriteQueue implements Closeable {
+	public enum SyncPolicy { ALWAYS, BATCH, NONE }
+
+	private final DB db;
+	private final SyncPolicy syncPolicy;
+	private final long flushIntervalMs;
+	private final int maxBatchSize;
+	private final LinkedBlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+	private final Thread flusher;
+	/** 保护stopped及入队操作，保证close之后不会再有操作进入队列 */
+	private final Object lock = new Object();
+	private volatile boolean stopped = false;
+
+	/** 统计信息 */
+	private final AtomicLong batchesWritten = new AtomicLong();
+	private final AtomicLong opsWritten = new AtomicLong();
+	private final AtomicLong writeErrors = new AtomicLong();
+
+	public LevelDBWriteQueue(DB db, SyncPolicy syncPolicy, long flushIntervalMs, int maxBatchSize) {
+		this.db = db;
+		this.syncPolicy = syncPolicy;
+		this.flushIntervalMs = flushIntervalMs;
+		this.maxBatchSize = maxBatchSize;
+		this.flusher = NettyUtil.createThreadFactory("govind-leveldb-write-queue").newThread(this::runFlusher);
+		this.flusher.start();
+	}
+
+	/** 返回的future完成的时机参见类注释，写入失败或队列已关闭时以IOException失败 */
+	public ListenableFuture<Void> put(byte[] key, byte[] value) {
+		return submit(new Op(key, value));
+	}
+
+	public ListenableFuture<Void> delete(byte[] key) {
+		return submit(new Op(key, null));
+	}
+
+	private ListenableFuture<Void> submit(Op op) {
+		boolean backlogged;
+		synchronized (lock) {
+			if (stopped) {
+				return Futures.immediateFailedFuture(new IOException("写入队列已关闭"));
+			}
+			backlogged = queue.size() >= maxBatchSize;
+			queue.add(op);
+		}
+		if (syncPolicy == SyncPolicy.ALWAYS || backlogged) {
+			return op.done;
+		}
+		return Futures.immediateFuture(null);
+	}
+
+	private void runFlusher() {
+		List<Op> batch = new ArrayList<>(maxBatchSize);
+		while (!stopped || !queue.isEmpty()) {
+			Op first;
+			try {
+				first = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (first == null) {
+				continue;
+			}
+
+			//非ALWAYS模式下等待一个flushInterval，以便合并更多操作
+			if (syncPolicy != SyncPolicy.ALWAYS && !stopped) {
+				long waitMs = first.submitTimeMs + flushIntervalMs - System.currentTimeMillis();
+				if (waitMs > 0) {
+					Uninterruptibles.sleepUninterruptibly(waitMs, TimeUnit.MILLISECONDS);
+				}
+			}
+
+			batch.add(first);
+			queue.drainTo(batch, maxBatchSize - 1);
+			write(batch);
+			batch.clear();
+		}
+	}
+
+	private void write(List<Op> ops) {
+		Throwable error = null;
+		try {
+			WriteBatch batch = db.createWriteBatch();
+			try {
+				for (Op op : ops) {
+					if (op.value != null) {
+						batch.put(op.key, op.value);
+					} else {
+						batch.delete(op.key);
+					}
+				}
+				db.write(batch, new WriteOptions().sync(syncPolicy != SyncPolicy.NONE));
+			} finally {
+				batch.close();
+			}
+			batchesWritten.incrementAndGet();
+			opsWritten.addAndGet(ops.size());
+		} catch (Throwable e) {
+			writeErrors.incrementAndGet();
+			log.error("写入{}个操作到数据库失败", ops.size(), e);
+			error = e;
+		}
+
+		for (Op op : ops) {
+			if (error == null) {
+				op.done.set(null);
+			} else {
+				op.done.setException(new IOException("写入数据库失败", error));
+			}
+		}
+	}
+
+	/********************** 统计信息 ************************/
+
+	/** 尚未写入数据库的操作数 */
+	public long getPendingOps() {
+		return queue.size();
+	}
+
+	public long getBatchesWritten() {
+		return batchesWritten.get();
+	}
+
+	public long getOpsWritten() {
+		return opsWritten.get();
+	}
+
+	public long getWriteErrors() {
+		return writeErrors.get();
+	}
+
+	/** 停止接收新的操作，并等待队列中已有的操作全部写入数据库 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			stopped = true;
+		}
+		Uninterruptibles.joinUninterruptibly(flusher);
+
+		//后台线程退出前已写完队列中的操作，这里只是保险
+		List<Op> rest = new ArrayList<>();
+		queue.drainTo(rest);
+		if (!rest.isEmpty()) {
+			write(rest);
+		}
+	}
+
+	private static class Op {
+		final byte[] key;
+		/** 为null表示删除操作 */
+		final byte[] value;
+		final long submitTimeMs = System.currentTimeMillis();
+		final SettableFuture<Void> done = SettableFuture.create();
+
+		Op(byte[] key, byte[] value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package govind.incubator.shuffle.util;
+
+import org.iq80.leveldb.DB;
+
+import java.io.IOException;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-16
+ *
+ * 数据库major版本升级时的迁移操作，由{@link LevelDBProvider#checkVersion}在
+ * 写入新版本号之前调用，迁移失败时不会更新版本号。
+ *
+ */
+public interface StoreMigration {
+	void migrate(DB db, StoreVersion fromVersion, StoreVersion toVersion) throws IOException;
+}
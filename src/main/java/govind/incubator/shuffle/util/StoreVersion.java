@@ -36,4 +36,9 @@ public class StoreVersion {
 		}
 		return false;
 	}
+
+	@Override
+	public String toString() {
+		return major + "." + minor;
+	}
 }
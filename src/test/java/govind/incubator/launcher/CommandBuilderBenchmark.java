@@ -0,0 +1,69 @@
+package govind.incubator.launcher;
+
+import com.google.common.io.Files;
+import govind.incubator.launcher.util.CommandBuilderCache;
+import govind.incubator.launcher.util.GovindSubmitCommandBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static govind.incubator.launcher.util.LauncherConsts.ENV_SPARK_HOME;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 比较缓存为空及缓存命中时构建提交命令的耗时：
+ *
+ *   java govind.incubator.launcher.CommandBuilderBenchmark [numJars] [iterations]
+ *
+ */
+public class CommandBuilderBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numJars = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+		File sparkHome = Files.createTempDir();
+		try {
+			CommandBuilderCacheSuite.createSparkHome(sparkHome, numJars);
+
+			//预热
+			run(sparkHome, iterations / 10, true);
+			run(sparkHome, iterations / 10, false);
+
+			print("cold cache", run(sparkHome, iterations, true));
+			print("warm cache", run(sparkHome, iterations, false));
+		} finally {
+			CommandBuilderCacheSuite.deleteRecursively(sparkHome);
+			CommandBuilderCache.clear();
+		}
+	}
+
+	private static long[] run(File sparkHome, int iterations, boolean cold) throws Exception {
+		long[] latencies = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			if (cold) {
+				CommandBuilderCache.clear();
+			}
+			long start = System.nanoTime();
+			GovindSubmitCommandBuilder builder = new GovindSubmitCommandBuilder();
+			builder.childEnv.put(ENV_SPARK_HOME, sparkHome.getAbsolutePath());
+			builder.appResources = "/foo";
+			builder.mainClass = "my.class";
+			builder.buildCommand(new HashMap<>());
+			latencies[i] = System.nanoTime() - start;
+		}
+		return latencies;
+	}
+
+	private static void print(String name, long[] latencies) {
+		Arrays.sort(latencies);
+		System.out.printf("%s：avg=%.1fus, p50=%.1fus, p99=%.1fus%n", name,
+				Arrays.stream(latencies).average().orElse(0) / 1000,
+				latencies[latencies.length / 2] / 1000.0,
+				latencies[(int) (latencies.length * 0.99)] / 1000.0);
+	}
+}
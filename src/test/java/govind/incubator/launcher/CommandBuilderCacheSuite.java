@@ -0,0 +1,122 @@
+package govind.incubator.launcher;
+
+import com.google.common.io.Files;
+import govind.incubator.launcher.util.CommandBuilderCache;
+import govind.incubator.launcher.util.GovindSubmitCommandBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+
+import static govind.incubator.launcher.util.LauncherConsts.DEFAULT_PROPERTIES_FILE;
+import static govind.incubator.launcher.util.LauncherConsts.ENV_SPARK_HOME;
+import static org.junit.Assert.*;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ */
+public class CommandBuilderCacheSuite {
+	private File sparkHome;
+
+	@Before
+	public void setUp() throws IOException {
+		sparkHome = Files.createTempDir();
+		createSparkHome(sparkHome, 10);
+		CommandBuilderCache.clear();
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursively(sparkHome);
+		CommandBuilderCache.clear();
+	}
+
+	@Test
+	public void testCacheHit() throws Exception {
+		long misses = CommandBuilderCache.getMisses();
+		long hits = CommandBuilderCache.getHits();
+
+		List<String> cmd1 = newBuilder().buildCommand(new HashMap<>());
+		assertEquals(misses + 2, CommandBuilderCache.getMisses());
+
+		List<String> cmd2 = newBuilder().buildCommand(new HashMap<>());
+		assertEquals(misses + 2, CommandBuilderCache.getMisses());
+		assertEquals(hits + 2, CommandBuilderCache.getHits());
+		assertEquals(cmd1, cmd2);
+	}
+
+	@Test
+	public void testClassPathInvalidation() throws Exception {
+		File lib = new File(sparkHome, "lib");
+		assertTrue(classPath(newBuilder().buildCommand(new HashMap<>())).contains("spark-assembly-1.0-hadoop2.6.jar"));
+
+		assertTrue(new File(lib, "spark-assembly-1.0-hadoop2.6.jar").renameTo(new File(lib, "spark-assembly-2.0-hadoop2.6.jar")));
+		touch(lib);
+
+		String cp = classPath(newBuilder().buildCommand(new HashMap<>()));
+		assertTrue(cp.contains("spark-assembly-2.0-hadoop2.6.jar"));
+		assertFalse(cp.contains("spark-assembly-1.0-hadoop2.6.jar"));
+	}
+
+	@Test
+	public void testPropertiesInvalidation() throws Exception {
+		File props = new File(sparkHome, "conf/" + DEFAULT_PROPERTIES_FILE);
+		assertEquals("foo", newBuilder().getEffectiveConfig().get("govind.foo"));
+
+		Files.write("govind.foo=bar\n", props, StandardCharsets.UTF_8);
+		touch(props);
+		assertEquals("bar", newBuilder().getEffectiveConfig().get("govind.foo"));
+	}
+
+	/**
+	 * 创建一个最小的安装目录：RELEASE文件、lib目录下的assembly及numJars个其他jar、
+	 * conf目录下的默认配置文件
+	 */
+	static void createSparkHome(File sparkHome, int numJars) throws IOException {
+		Files.touch(new File(sparkHome, "RELEASE"));
+		File lib = new File(sparkHome, "lib");
+		assertTrue(lib.mkdir());
+		Files.touch(new File(lib, "spark-assembly-1.0-hadoop2.6.jar"));
+		for (int i = 0; i < numJars; i++) {
+			Files.touch(new File(lib, "dep-" + i + ".jar"));
+		}
+		File conf = new File(sparkHome, "conf");
+		assertTrue(conf.mkdir());
+		Files.write("govind.foo=foo\n", new File(conf, DEFAULT_PROPERTIES_FILE), StandardCharsets.UTF_8);
+	}
+
+	static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+	private GovindSubmitCommandBuilder newBuilder() {
+		GovindSubmitCommandBuilder builder = new GovindSubmitCommandBuilder();
+		builder.childEnv.put(ENV_SPARK_HOME, sparkHome.getAbsolutePath());
+		builder.childEnv.put("SPARK_CONF_DIR", new File(sparkHome, "conf").getAbsolutePath());
+		builder.appResources = "/foo";
+		builder.mainClass = "my.class";
+		return builder;
+	}
+
+	/** 避免文件系统修改时间的精度不够，将修改时间推后 */
+	private static void touch(File file) {
+		assertTrue(file.setLastModified(file.lastModified() + 10000));
+	}
+
+	private static String classPath(List<String> cmd) {
+		return cmd.get(cmd.indexOf("-cp") + 1);
+	}
+}
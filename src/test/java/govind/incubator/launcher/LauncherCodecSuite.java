@@ -0,0 +1,61 @@
+package govind.incubator.launcher;
+
+import govind.incubator.launcher.GovindAppHandle.State;
+import govind.incubator.launcher.LauncherProtocol.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ */
+public class LauncherCodecSuite {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Hello hello = (Hello) roundTrip(new Hello("secret", "1.6.3"));
+		assertEquals("secret", hello.secret);
+		assertEquals("1.6.3", hello.version);
+
+		assertEquals("app-id", ((SetAppId) roundTrip(new SetAppId("app-id"))).appId);
+		assertNull(((SetAppId) roundTrip(new SetAppId(null))).appId);
+		assertEquals(State.RUNNING, ((SetState) roundTrip(new SetState(State.RUNNING))).state);
+		assertTrue(roundTrip(new StopMessage()) instanceof StopMessage);
+	}
+
+	@Test
+	public void testFrameLength() throws IOException {
+		byte[] frame = LauncherCodec.encodeFrame(new SetState(State.FINISHED));
+		assertEquals(frame.length - 4, ByteBuffer.wrap(frame).getInt());
+		//与Java序列化流的第一个字节(0xAC)不同，服务端据此区分两种格式
+		assertEquals(0, frame[0]);
+	}
+
+	@Test
+	public void testNegotiatedVersion() throws IOException {
+		//更高版本的客户端
+		byte[] frame = LauncherCodec.encodeFrame(new LauncherCodec.BinaryHello("secret", "1.6.3", 9));
+		Hello hello = (Hello) LauncherCodec.decodeFrame(new DataInputStream(new ByteArrayInputStream(frame, 4, frame.length - 4)));
+		assertTrue(hello instanceof LauncherCodec.BinaryHello);
+		assertEquals(LauncherProtocol.BINARY_PROTOCOL_VERSION, ((LauncherCodec.BinaryHello) hello).protocolVersion);
+		assertEquals("secret", hello.secret);
+	}
+
+	@Test
+	public void testUnknownTypeIgnored() throws IOException {
+		byte[] frame = {(byte) 100, 1, 2, 3};
+		assertNull(LauncherCodec.decodeFrame(new DataInputStream(new ByteArrayInputStream(frame))));
+	}
+
+	private Message roundTrip(Message msg) throws IOException {
+		byte[] frame = LauncherCodec.encodeFrame(msg);
+		return LauncherCodec.decodeFrame(new DataInputStream(new ByteArrayInputStream(frame, 4, frame.length - 4)));
+	}
+}
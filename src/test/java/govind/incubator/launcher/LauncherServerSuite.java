@@ -9,7 +9,10 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -83,6 +86,8 @@ public class LauncherServerSuite {
 				waitLock.wait(TimeUnit.SECONDS.toMillis(10));
 			}
 			assertNotNull(handle.getConnection());
+			//Java序列化的子进程不支持版本协商，服务端不回复
+			assertEquals(0, handle.getConnection().getProtocolVersion());
 
 			synchronized (waitLock) {
 				client.send(new SetAppId("app-id"));
@@ -108,6 +113,54 @@ public class LauncherServerSuite {
 		}
 	}
 
+	@Test
+	public void testBinaryCommunication() throws Exception {
+		ChildProcAppHandle handle = LauncherServer.newAppHandler();
+		BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		handle.addListener(new Listener() {
+			@Override
+			public void stateChanged(GovindAppHandle handle) {
+				events.offer(handle.getState().name());
+			}
+
+			@Override
+			public void infoChanged(GovindAppHandle handle) {
+				events.offer(handle.getAppId());
+			}
+		});
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), LauncherServer.getServerInstance().getPort());
+		TestClient client = new TestClient(socket, true);
+		try {
+			client.send(new Hello(handle.getSecrect(), "1.6.3"));
+			assertEquals(State.CONNECTED.name(), events.poll(10, TimeUnit.SECONDS));
+			assertNotNull(handle.getConnection());
+
+			//双方保存协商后的版本，服务端的回复不交给handle
+			assertEquals(LauncherProtocol.BINARY_PROTOCOL_VERSION, handle.getConnection().getProtocolVersion());
+			long deadline = System.currentTimeMillis() + 10000;
+			while (client.getProtocolVersion() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(LauncherProtocol.BINARY_PROTOCOL_VERSION, client.getProtocolVersion());
+			assertTrue(client.inbound.isEmpty());
+
+			client.send(new SetAppId("app-id"));
+			assertEquals("app-id", events.poll(10, TimeUnit.SECONDS));
+
+			client.send(new SetState(State.RUNNING));
+			assertEquals(State.RUNNING.name(), events.poll(10, TimeUnit.SECONDS));
+
+			handle.stop();
+			Message stopMsg = client.inbound.poll(10, TimeUnit.SECONDS);
+			assertTrue(stopMsg instanceof StopMessage);
+		} finally {
+			kill(handle);
+			Closeables.closeQuietly(client);
+			client.clientThread.join();
+		}
+	}
+
 	@Test
 	public void testTimeout() throws Exception {
 		ChildProcAppHandle handle = null;
@@ -147,7 +200,56 @@ public class LauncherServerSuite {
 			}
 
 		} finally {
+			GovindLauncher.launcherConfig.remove(CHILD_CONNECTION_TIMEOUT);
+			kill(handle);
+			Closeables.closeQuietly(client);
+		}
+	}
+
+	@Test
+	public void testManyClients() throws Exception {
+		int numClients = 50;
+		List<ChildProcAppHandle> handles = new ArrayList<>();
+		List<TestClient> clients = new ArrayList<>();
+		CountDownLatch running = new CountDownLatch(numClients);
+
+		try {
+			for (int i = 0; i < numClients; i++) {
+				ChildProcAppHandle handle = LauncherServer.newAppHandler();
+				handle.addListener(new Listener() {
+					@Override
+					public void stateChanged(GovindAppHandle handle) {
+						if (handle.getState() == State.RUNNING) {
+							running.countDown();
+						}
+					}
+
+					@Override
+					public void infoChanged(GovindAppHandle handle) {
+					}
+				});
+				handles.add(handle);
+			}
+
+			int port = LauncherServer.getServerInstance().getPort();
+			for (ChildProcAppHandle handle : handles) {
+				TestClient client = new TestClient(new Socket(InetAddress.getLoopbackAddress(), port));
+				clients.add(client);
+				client.send(new Hello(handle.getSecrect(), "1.6.3"));
+				client.send(new SetState(State.RUNNING));
+			}
 
+			assertTrue(running.await(10, TimeUnit.SECONDS));
+			for (ChildProcAppHandle handle : handles) {
+				assertNotNull(handle.getConnection());
+			}
+		} finally {
+			for (ChildProcAppHandle handle : handles) {
+				kill(handle);
+			}
+			for (TestClient client : clients) {
+				Closeables.closeQuietly(client);
+			}
 		}
 	}
 
@@ -162,7 +264,11 @@ public class LauncherServerSuite {
 		final BlockingQueue<Message> inbound;
 
 		public TestClient(Socket socket) throws IOException {
-			super(socket);
+			this(socket, false);
+		}
+
+		public TestClient(Socket socket, boolean binary) throws IOException {
+			super(socket, binary);
 			this.inbound = new LinkedBlockingQueue<>();
 			this.clientThread = new Thread(this);
 			clientThread.setName("TestClient");
@@ -0,0 +1,167 @@
+package govind.incubator.launcher;
+
+import govind.incubator.launcher.util.OutputRedirectService;
+import govind.incubator.launcher.util.OutputRedirector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ */
+public class OutputRedirectorSuite {
+	private static final String LOGGER_NAME = OutputRedirectorSuite.class.getName();
+
+	private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+	private final Handler handler = new Handler() {
+		@Override
+		public void publish(LogRecord record) {
+			records.add(record);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	private OutputRedirectService service;
+
+	@Before
+	public void setUp() {
+		Logger.getLogger(LOGGER_NAME).addHandler(handler);
+	}
+
+	@After
+	public void tearDown() {
+		Logger.getLogger(LOGGER_NAME).removeHandler(handler);
+		if (service != null) {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testRedirectLines() throws Exception {
+		service = new OutputRedirectService(1, 100, 0);
+		OutputRedirector redirector = service.redirect(input("line1\nline2  \nline3"), LOGGER_NAME, () -> false);
+
+		waitUntilDone(redirector);
+		assertEquals(3, records.size());
+		assertEquals("line1", records.get(0).getMessage());
+		assertEquals("line2", records.get(1).getMessage());
+		assertEquals("line3", records.get(2).getMessage());
+		assertEquals(0, redirector.getDroppedLines());
+	}
+
+	@Test
+	public void testRateLimit() throws Exception {
+		service = new OutputRedirectService(1, 1000, 10);
+		OutputRedirector redirector = service.redirect(input(lines(100)), LOGGER_NAME, () -> false);
+
+		waitUntilDone(redirector);
+		assertTrue(redirector.getDroppedLines() >= 80);
+		assertTrue(records.stream().anyMatch(r -> r.getLevel() == Level.WARNING));
+	}
+
+	@Test
+	public void testBufferFull() throws Exception {
+		service = new OutputRedirectService(1, 10, 0);
+		OutputRedirector redirector = service.redirect(input(lines(100)), LOGGER_NAME, () -> false);
+
+		waitUntilDone(redirector);
+		//所有数据在一次调度中读完，flush之前缓冲区只能容纳10行
+		assertEquals(90, redirector.getDroppedLines());
+		assertEquals(11, records.size());
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		service = new OutputRedirectService(1, 100, 0);
+		PipedOutputStream out = new PipedOutputStream();
+		AtomicBoolean alive = new AtomicBoolean(true);
+		OutputRedirector redirector = service.redirect(new PipedInputStream(out), LOGGER_NAME, alive::get);
+		redirector.stop();
+
+		//停止后仍然读取子进程的输出，但不再输出到日志
+		out.write(lines(10).getBytes(StandardCharsets.UTF_8));
+		out.close();
+		alive.set(false);
+
+		waitUntilDone(redirector);
+		assertEquals(0, records.size());
+	}
+
+	@Test
+	public void testIncompleteCharacterDoesNotBlock() throws Exception {
+		service = new OutputRedirectService(1, 100, 0);
+		byte[] bytes = "你好世界\n".getBytes(StandardCharsets.UTF_8);
+		PipedOutputStream out = new PipedOutputStream();
+		AtomicBoolean alive = new AtomicBoolean(true);
+		OutputRedirector paused = service.redirect(new PipedInputStream(out), LOGGER_NAME, alive::get,
+				StandardCharsets.UTF_8);
+		//子进程只输出了"世"的第一个字节
+		out.write(bytes, 0, 7);
+		out.flush();
+
+		//同一个线程上的其他子进程不受影响
+		OutputRedirector other = service.redirect(input("other\n"), LOGGER_NAME, () -> false);
+		waitUntilDone(other, () -> records.size() == 1);
+		assertEquals("other", records.get(0).getMessage());
+
+		out.write(bytes, 7, bytes.length - 7);
+		out.close();
+		alive.set(false);
+		waitUntilDone(paused, () -> records.size() == 2);
+		assertEquals(2, records.size());
+		assertEquals("你好世界", records.get(1).getMessage());
+	}
+
+	private void waitUntilDone(OutputRedirector redirector, BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!redirector.isFinished() || !condition.getAsBoolean()) {
+			assertTrue("等待子进程输出超时", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private void waitUntilDone(OutputRedirector redirector) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!redirector.isFinished() || service.getActiveRedirectors() > 0) {
+			assertTrue("等待子进程输出超时", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static String lines(int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			sb.append("line").append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static ByteArrayInputStream input(String s) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -55,6 +55,10 @@ public class ChunkFetchIntegrationSuite {
 
 	@BeforeClass
 	public static void setup() throws IOException {
+		setup(new TransportConf(new SystemPropertyConfigProvider(), "shuffle"));
+	}
+
+	static void setup(final TransportConf conf) throws IOException {
 		int bufSize = 100000;
 		final ByteBuffer buf = ByteBuffer.allocate(bufSize);
 		for (int i = 0; i < bufSize; i++) {
@@ -78,7 +82,6 @@ public class ChunkFetchIntegrationSuite {
 			Closeables.close(raf, shouldSuppressIOException);
 		}
 
-		final TransportConf conf = new TransportConf(new SystemPropertyConfigProvider(), "shuffle");
 		fileChunk = new FileSegmentManagedBuffer(testFile, 10, testFile.length() - 25);
 
 		streamManager = new StreamManager() {
@@ -0,0 +1,150 @@
+package govind.incubator.network;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NioManagedBuffer;
+import govind.incubator.network.client.TransportClient;
+import govind.incubator.network.client.TransportClientFactory;
+import govind.incubator.network.conf.MapConfigProvider;
+import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.handler.ChunkReceivedCallback;
+import govind.incubator.network.handler.RpcCallback;
+import govind.incubator.network.handler.RpcHandler;
+import govind.incubator.network.handler.StreamManager;
+import govind.incubator.network.server.TransportServer;
+import govind.incubator.network.util.TransportContext;
+import io.netty.channel.Channel;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-23
+ *
+ * 比较本机TCP回环与Unix domain socket的chunk吞吐量及RPC延迟，需要在支持EPOLL的
+ * Linux上运行：
+ *
+ *   java govind.incubator.network.DomainSocketBenchmark [chunkKB] [numChunks] [numRpcs]
+ *
+ */
+public class DomainSocketBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int chunkSize = (args.length > 0 ? Integer.parseInt(args[0]) : 1024) * 1024;
+		int numChunks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int numRpcs = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		File socketDir = Files.createTempDir();
+		try {
+			run("TCP loopback", ImmutableMap.of("govind.network.bench.io.mode", "EPOLL"),
+					chunkSize, numChunks, numRpcs);
+			run("domain socket", ImmutableMap.of("govind.network.bench.io.mode", "EPOLL",
+					"govind.network.bench.io.domainSocketDir", socketDir.getAbsolutePath()),
+					chunkSize, numChunks, numRpcs);
+		} finally {
+			socketDir.delete();
+		}
+	}
+
+	private static void run(String name, Map<String, String> config, int chunkSize, int numChunks, int numRpcs) throws Exception {
+		TransportConf conf = new TransportConf(new MapConfigProvider(config), "bench");
+		ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSize);
+
+		StreamManager streamManager = new StreamManager() {
+			@Override
+			public ManagedBuffer getChunk(long streamId, int chunkIdx) {
+				return new NioManagedBuffer(chunk.duplicate());
+			}
+
+			@Override
+			public void connectionTerminated(Channel channel) {
+			}
+		};
+
+		RpcHandler rpcHandler = new RpcHandler() {
+			@Override
+			public StreamManager getStreamManager() {
+				return streamManager;
+			}
+
+			@Override
+			public void receive(TransportClient client, ByteBuffer msg, RpcCallback callback) {
+				callback.onSuccess(msg);
+			}
+		};
+
+		TransportContext context = new TransportContext(conf, rpcHandler);
+		TransportServer server = context.createServer();
+		TransportClientFactory clientFactory = context.createClientFactory();
+		try {
+			TransportClient client = clientFactory.createClient("localhost", server.getPort());
+			System.out.println(name + "，连接：" + client.getSocketAddress());
+
+			//预热
+			fetchChunks(client, numChunks / 10);
+			rpcs(client, numRpcs / 10);
+
+			long start = System.nanoTime();
+			fetchChunks(client, numChunks);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("  chunk吞吐量：%.1f MB/s%n", (double) chunkSize * numChunks / 1024 / 1024 / seconds);
+
+			long[] latencies = rpcs(client, numRpcs);
+			Arrays.sort(latencies);
+			System.out.printf("  RPC延迟：avg=%.1fus, p50=%.1fus, p99=%.1fus%n",
+					Arrays.stream(latencies).average().orElse(0) / 1000,
+					latencies[latencies.length / 2] / 1000.0,
+					latencies[(int) (latencies.length * 0.99)] / 1000.0);
+		} finally {
+			clientFactory.close();
+			server.close();
+		}
+	}
+
+	/** 同时最多有64个未完成的chunk请求 */
+	private static void fetchChunks(TransportClient client, int numChunks) throws Exception {
+		Semaphore inFlight = new Semaphore(64);
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		ChunkReceivedCallback callback = new ChunkReceivedCallback() {
+			@Override
+			public void onSuccess(int chunkIdx, ManagedBuffer buffer) {
+				inFlight.release();
+			}
+
+			@Override
+			public void onFailure(int chunkIdx, Throwable cause) {
+				error.set(cause);
+				inFlight.release();
+			}
+		};
+		for (int i = 0; i < numChunks; i++) {
+			inFlight.acquire();
+			client.fetchChunk(0, i, callback);
+		}
+		if (!inFlight.tryAcquire(64, 60, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("获取chunk超时");
+		}
+		if (error.get() != null) {
+			throw new IllegalStateException("获取chunk失败", error.get());
+		}
+	}
+
+	private static long[] rpcs(TransportClient client, int numRpcs) {
+		long[] latencies = new long[numRpcs];
+		ByteBuffer msg = ByteBuffer.allocate(64);
+		for (int i = 0; i < numRpcs; i++) {
+			long start = System.nanoTime();
+			client.sendRpcSync(msg.duplicate(), 10000);
+			latencies[i] = System.nanoTime() - start;
+		}
+		return latencies;
+	}
+}
@@ -0,0 +1,25 @@
+package govind.incubator.network;
+
+import com.google.common.collect.ImmutableMap;
+import govind.incubator.network.conf.MapConfigProvider;
+import govind.incubator.network.conf.TransportConf;
+import org.junit.BeforeClass;
+
+import java.io.IOException;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 在IOMode.LOCAL下运行{@link ChunkFetchIntegrationSuite}中的所有测试，chunk的
+ * ManagedBuffer不经过编码直接交给客户端
+ */
+public class LocalChunkFetchIntegrationSuite extends ChunkFetchIntegrationSuite {
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		setup(new TransportConf(new MapConfigProvider(
+				ImmutableMap.of("govind.network.shuffle.io.mode", "LOCAL")), "shuffle"));
+	}
+}
@@ -0,0 +1,22 @@
+package govind.incubator.network;
+
+import com.google.common.collect.ImmutableMap;
+import govind.incubator.network.conf.MapConfigProvider;
+import govind.incubator.network.conf.TransportConf;
+import org.junit.BeforeClass;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 在IOMode.LOCAL下运行{@link RpcIntegrationSuite}中的所有测试
+ */
+public class LocalRpcIntegrationSuite extends RpcIntegrationSuite {
+
+	@BeforeClass
+	public static void setup() {
+		setup(new TransportConf(new MapConfigProvider(
+				ImmutableMap.of("govind.network.shuffle.io.mode", "LOCAL")), "shuffle"));
+	}
+}
@@ -0,0 +1,91 @@
+package govind.incubator.network;
+
+import govind.incubator.network.client.CircuitOpenException;
+import govind.incubator.network.client.PeerHealthTracker;
+import govind.incubator.network.client.PeerHealthTracker.State;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ */
+public class PeerHealthTrackerSuite {
+	private static final String PEER = "host:1";
+
+	@Test
+	public void testOpenAfterConsecutiveFailures() throws Exception {
+		PeerHealthTracker tracker = new PeerHealthTracker(3, 60000);
+
+		tracker.recordFailure(PEER);
+		tracker.recordFailure(PEER);
+		//成功后重新计数
+		tracker.recordSuccess(PEER);
+		tracker.recordFailure(PEER);
+		tracker.recordFailure(PEER);
+		assertEquals(State.CLOSED, tracker.getState(PEER));
+		tracker.checkAllowed(PEER);
+
+		tracker.recordFailure(PEER);
+		assertEquals(State.OPEN, tracker.getState(PEER));
+		assertRejected(tracker, PEER);
+		tracker.checkAllowed("other:1");
+		assertEquals(1, tracker.getOpened());
+		assertEquals(1, tracker.getRejected());
+	}
+
+	@Test
+	public void testHalfOpenProbe() throws Exception {
+		PeerHealthTracker tracker = new PeerHealthTracker(1, 200);
+		tracker.recordFailure(PEER);
+		assertRejected(tracker, PEER);
+
+		Thread.sleep(300);
+		//只放行一个探测请求
+		tracker.checkAllowed(PEER);
+		assertEquals(State.HALF_OPEN, tracker.getState(PEER));
+		assertRejected(tracker, PEER);
+
+		//探测失败重新打开
+		tracker.recordFailure(PEER);
+		assertEquals(State.OPEN, tracker.getState(PEER));
+		assertRejected(tracker, PEER);
+
+		Thread.sleep(300);
+		assertTrue(tracker.checkAllowed(PEER));
+		//探测请求没有结果时让出名额，下一个请求作为探测请求放行
+		tracker.releaseProbe(PEER);
+		assertEquals(State.HALF_OPEN, tracker.getState(PEER));
+		assertTrue(tracker.checkAllowed(PEER));
+		assertRejected(tracker, PEER);
+		tracker.recordSuccess(PEER);
+		assertEquals(State.CLOSED, tracker.getState(PEER));
+		assertFalse(tracker.checkAllowed(PEER));
+		assertFalse(tracker.checkAllowed(PEER));
+		assertEquals(2, tracker.getOpened());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		PeerHealthTracker tracker = new PeerHealthTracker(0, 60000);
+		for (int i = 0; i < 10; i++) {
+			tracker.recordFailure(PEER);
+		}
+		tracker.checkAllowed(PEER);
+		assertEquals(State.CLOSED, tracker.getState(PEER));
+	}
+
+	private void assertRejected(PeerHealthTracker tracker, String peer) {
+		try {
+			tracker.checkAllowed(peer);
+			fail("熔断器打开时应该快速失败");
+		} catch (CircuitOpenException e) {
+			//expected
+		}
+	}
+}
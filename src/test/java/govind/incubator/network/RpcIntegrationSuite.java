@@ -37,8 +37,10 @@ public class RpcIntegrationSuite {
 
 	@BeforeClass
 	public static void setup() {
-		TransportConf conf = new TransportConf(new SystemPropertyConfigProvider(), "shuffle");
+		setup(new TransportConf(new SystemPropertyConfigProvider(), "shuffle"));
+	}
 
+	static void setup(TransportConf conf) {
 		rpcHandler = new RpcHandler() {
 			@Override
 			public StreamManager getStreamManager() {
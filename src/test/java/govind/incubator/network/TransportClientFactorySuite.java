@@ -1,7 +1,11 @@
 package govind.incubator.network;
 
 import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import govind.incubator.network.client.CircuitOpenException;
+import govind.incubator.network.client.PeerHealthTracker;
 import govind.incubator.network.client.TransportClient;
+import govind.incubator.network.client.TransportClientBootstrap;
 import govind.incubator.network.client.TransportClientFactory;
 import govind.incubator.network.conf.ConfigProvider;
 import govind.incubator.network.conf.MapConfigProvider;
@@ -14,19 +18,26 @@ import govind.incubator.network.handler.StreamManager;
 import govind.incubator.network.server.TransportServer;
 import govind.incubator.network.util.NettyUtil;
 import govind.incubator.network.util.TransportContext;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.unix.DomainSocketAddress;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.spark_project.guava.collect.Maps;
 import sun.rmi.transport.Transport;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
 
 /**
  * @Author: 高文文
@@ -199,4 +210,180 @@ public class TransportClientFactorySuite {
 		}
 	}
 
+	@Test
+	public void connectLocalServerThroughDomainSocket() throws Exception {
+		Assume.assumeTrue(Epoll.isAvailable());
+		File socketDir = Files.createTempDir();
+		Map<String, String> configMap = Maps.newHashMap();
+		configMap.put("govind.network.shuffle.io.mode", "EPOLL");
+		configMap.put("govind.network.shuffle.io.domainSocketDir", socketDir.getAbsolutePath());
+		TransportConf conf = new TransportConf(new MapConfigProvider(configMap), "shuffle");
+		TransportContext context = new TransportContext(conf, new NoOpRpcHandler());
+
+		TransportServer server = context.createServer();
+		TransportClientFactory factory = context.createClientFactory();
+		try {
+			File socketFile = server.getDomainSocketFile();
+			assertTrue(socketFile.exists());
+
+			//本机的服务端通过domain socket连接
+			TransportClient client = factory.createClient(NettyUtil.getLocalHost(), server.getPort());
+			assertTrue(client.isActive());
+			assertTrue(client.getSocketAddress() instanceof DomainSocketAddress);
+
+			//没有监听domain socket的服务端仍使用TCP
+			TransportClient tcpClient = factory.createClient(NettyUtil.getLocalHost(), server1.getPort());
+			assertTrue(tcpClient.getSocketAddress() instanceof InetSocketAddress);
+		} finally {
+			factory.close();
+			server.close();
+		}
+		assertFalse(NettyUtil.getDomainSocketFile(socketDir.getAbsolutePath(), server.getPort()).exists());
+		socketDir.delete();
+	}
+
+	@Test
+	public void fallBackToTcpForStaleDomainSocket() throws Exception {
+		Assume.assumeTrue(Epoll.isAvailable());
+		File socketDir = Files.createTempDir();
+		Map<String, String> configMap = Maps.newHashMap();
+		configMap.put("govind.network.shuffle.io.mode", "EPOLL");
+		configMap.put("govind.network.shuffle.io.domainSocketDir", socketDir.getAbsolutePath());
+		TransportConf conf = new TransportConf(new MapConfigProvider(configMap), "shuffle");
+		TransportContext context = new TransportContext(conf, new NoOpRpcHandler());
+
+		//异常退出的服务端留下的socket文件，没有进程监听
+		File staleForServer1 = NettyUtil.getDomainSocketFile(socketDir.getAbsolutePath(), server1.getPort());
+		Files.touch(staleForServer1);
+
+		TransportClientFactory factory = context.createClientFactory();
+		try {
+			TransportClient client = factory.createClient(NettyUtil.getLocalHost(), server1.getPort());
+			assertTrue(client.isActive());
+			assertTrue(client.getSocketAddress() instanceof InetSocketAddress);
+		} finally {
+			factory.close();
+		}
+
+		//新的服务端启动时删除无人监听的socket文件，仍在监听的保留
+		TransportServer live = context.createServer();
+		TransportServer server = null;
+		try {
+			server = context.createServer();
+			assertFalse(staleForServer1.exists());
+			assertTrue(live.getDomainSocketFile().exists());
+		} finally {
+			if (server != null) {
+				server.close();
+			}
+			live.close();
+		}
+		socketDir.delete();
+	}
+
+	@Test
+	public void failFastWhenCircuitOpen() throws Exception {
+		Map<String, String> configMap = Maps.newHashMap();
+		configMap.put("govind.network.shuffle.io.circuitBreakerFailures", "2");
+		TransportConf conf = new TransportConf(new MapConfigProvider(configMap), "shuffle");
+		TransportContext context = new TransportContext(conf, new NoOpRpcHandler());
+
+		//关闭后的端口无法连接
+		TransportServer server = context.createServer();
+		int port = server.getPort();
+		server.close();
+
+		TransportClientFactory factory = context.createClientFactory();
+		String peer = NettyUtil.getLocalHost() + ":" + port;
+		try {
+			for (int i = 0; i < 2; i++) {
+				try {
+					factory.createClient(NettyUtil.getLocalHost(), port);
+					fail("连接已关闭的端口应该失败");
+				} catch (IOException e) {
+					assertFalse(e instanceof CircuitOpenException);
+				}
+			}
+			assertEquals(PeerHealthTracker.State.OPEN, factory.getHealthTracker().getState(peer));
+
+			try {
+				factory.createClient(NettyUtil.getLocalHost(), port);
+				fail("熔断器打开时应该快速失败");
+			} catch (CircuitOpenException e) {
+				assertEquals(1, factory.getHealthTracker().getRejected());
+			}
+
+			//其他远端不受影响
+			assertTrue(factory.createClient(NettyUtil.getLocalHost(), server1.getPort()).isActive());
+		} finally {
+			factory.close();
+		}
+	}
+
+	@Test
+	public void recordBootstrapFailure() throws Exception {
+		Map<String, String> configMap = Maps.newHashMap();
+		configMap.put("govind.network.shuffle.io.circuitBreakerFailures", "1");
+		configMap.put("govind.network.shuffle.io.circuitBreakerOpenTime", "1");
+		TransportConf conf = new TransportConf(new MapConfigProvider(configMap), "shuffle");
+		TransportContext context = new TransportContext(conf, new NoOpRpcHandler());
+
+		//连接成功但bootstrap失败，例如SASL认证失败
+		TransportClientBootstrap failing = (client, channel) -> {
+			throw new IllegalStateException("bootstrap failed");
+		};
+		TransportClientFactory factory = context.createClientFactory(Arrays.asList(failing));
+		String peer = NettyUtil.getLocalHost() + ":" + server1.getPort();
+		try {
+			try {
+				factory.createClient(NettyUtil.getLocalHost(), server1.getPort());
+				fail("bootstrap失败时应该抛出异常");
+			} catch (IllegalStateException e) {
+				//expected
+			}
+			assertEquals(PeerHealthTracker.State.OPEN, factory.getHealthTracker().getState(peer));
+
+			//探测请求同样失败，熔断器重新打开而不是停留在HALF_OPEN
+			Thread.sleep(1200);
+			try {
+				factory.createClient(NettyUtil.getLocalHost(), server1.getPort());
+				fail("bootstrap失败时应该抛出异常");
+			} catch (IllegalStateException e) {
+				//expected
+			}
+			assertEquals(PeerHealthTracker.State.OPEN, factory.getHealthTracker().getState(peer));
+			assertEquals(2, factory.getHealthTracker().getOpened());
+		} finally {
+			factory.close();
+		}
+	}
+
+	@Test
+	public void releaseProbeWhenReusingPooledClient() throws Exception {
+		Map<String, String> configMap = Maps.newHashMap();
+		configMap.put("govind.network.shuffle.io.circuitBreakerFailures", "1");
+		configMap.put("govind.network.shuffle.io.circuitBreakerOpenTime", "1");
+		configMap.put("govind.network.shuffle.io.numConnectionsPerPeer", "1");
+		TransportConf conf = new TransportConf(new MapConfigProvider(configMap), "shuffle");
+		TransportContext context = new TransportContext(conf, new NoOpRpcHandler());
+
+		TransportClientFactory factory = context.createClientFactory();
+		String peer = NettyUtil.getLocalHost() + ":" + server1.getPort();
+		try {
+			TransportClient client = factory.createClient(NettyUtil.getLocalHost(), server1.getPort());
+			//已有连接上的请求失败，熔断器打开
+			factory.getHealthTracker().recordFailure(peer);
+			assertEquals(PeerHealthTracker.State.OPEN, factory.getHealthTracker().getState(peer));
+
+			Thread.sleep(1200);
+			//探测请求使用池中的连接后让出名额，其他请求不会被拒绝
+			assertTrue(client == factory.createClient(NettyUtil.getLocalHost(), server1.getPort()));
+			assertTrue(client == factory.createClient(NettyUtil.getLocalHost(), server1.getPort()));
+			assertEquals(PeerHealthTracker.State.HALF_OPEN, factory.getHealthTracker().getState(peer));
+			assertEquals(0, factory.getHealthTracker().getRejected());
+		} finally {
+			factory.close();
+		}
+	}
+
 }
@@ -1,5 +1,7 @@
 package govind.incubator.network;
 
+import govind.incubator.network.protocol.Message;
+import govind.incubator.network.protocol.RpcFailure;
 import govind.incubator.network.protocol.codec.Inteceptor;
 import govind.incubator.network.protocol.codec.TransportFrameDecoder;
 import io.netty.buffer.ByteBuf;
@@ -148,6 +150,32 @@ public class TransportFrameDecoderSuite {
 		testInvalidFrame(Integer.MAX_VALUE + 9L);
 	}
 
+	@Test
+	public void testPassThroughMessage() throws Exception {
+		TransportFrameDecoder decoder = new TransportFrameDecoder();
+		ChannelHandlerContext ctx = mockChannelHandlerContext();
+		Message msg = new RpcFailure(1, "失败");
+
+		//IOMode.LOCAL下未编码的消息与帧可以交替出现
+		ByteBuf data = createAndFeedFrame(10, decoder, ctx);
+		decoder.channelRead(ctx, msg);
+		verify(ctx).fireChannelRead(msg);
+		verifyAndCloseDecoder(decoder, ctx, data);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPassThroughMessageWithPendingData() throws Exception {
+		TransportFrameDecoder decoder = new TransportFrameDecoder();
+		ChannelHandlerContext ctx = mockChannelHandlerContext();
+		ByteBuf partial = Unpooled.copyLong(100);
+		try {
+			decoder.channelRead(ctx, partial);
+			decoder.channelRead(ctx, new RpcFailure(1, "失败"));
+		} finally {
+			decoder.channelInactive(ctx);
+		}
+	}
+
 
 	/********************************************************/
 	/**
@@ -231,8 +259,9 @@ public class TransportFrameDecoderSuite {
 		ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
 
 		when(ctx.fireChannelRead(any())).thenAnswer((Answer<Void>) in -> {
-			ByteBuf buf = (ByteBuf) in.getArguments()[0];
-			buf.release();
+			if (in.getArguments()[0] instanceof ByteBuf) {
+				((ByteBuf) in.getArguments()[0]).release();
+			}
 			return null;
 		});
 		return ctx;
@@ -0,0 +1,77 @@
+package govind.incubator.shuffle;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ */
+public class DiskIOSchedulerSuite {
+	DiskIOScheduler scheduler;
+
+	@Before
+	public void beforeEach() {
+		scheduler = new DiskIOScheduler(1, 16);
+	}
+
+	@After
+	public void afterEach() {
+		scheduler.close();
+	}
+
+	@Test
+	public void testLocalDirsOnSameDiskShareWorker() throws Exception {
+		File dir0 = Files.createTempDir();
+		File dir1 = Files.createTempDir();
+		try {
+			//两个临时目录在同一块磁盘上
+			assertEquals(scheduler.diskOf(dir0.getAbsolutePath()), scheduler.diskOf(dir1.getAbsolutePath()));
+
+			scheduler.submit(dir0.getAbsolutePath(), () -> 0).get();
+			scheduler.submit(dir1.getAbsolutePath(), () -> 1).get();
+			assertEquals(1, scheduler.getDiskStats().size());
+			String disk = scheduler.diskOf(dir0.getAbsolutePath());
+			assertEquals(2, scheduler.getDiskStats().get(disk).getCompleted());
+		} finally {
+			dir0.delete();
+			dir1.delete();
+		}
+	}
+
+	@Test
+	public void testUnknownDiskRunsOnWorker() throws Exception {
+		Thread caller = Thread.currentThread();
+		Thread worker = scheduler.submit(null, Thread::currentThread).get();
+		assertFalse(caller == worker);
+		assertEquals(1, scheduler.getDiskStats().get(DiskIOScheduler.UNKNOWN_DISK).getCompleted());
+	}
+
+	@Test
+	public void testLocalDirsRemovedPrunesDisk() throws Exception {
+		//不存在的目录无法获取所在磁盘，使用目录本身
+		scheduler.submit("/disk0/a", () -> 0).get();
+		scheduler.submit("/disk1/a", () -> 0).get();
+		assertEquals(2, scheduler.getDiskStats().size());
+
+		scheduler.localDirsRemoved(Collections.singleton("/disk0/a"));
+		assertEquals(1, scheduler.getDiskStats().size());
+		assertTrue(scheduler.getDiskStats().containsKey("/disk1/a"));
+
+		//移除后再次提交时重新创建
+		assertEquals(Integer.valueOf(1), scheduler.submit("/disk0/a", () -> 1).get());
+		scheduler.localDirsRemoved(Arrays.asList("/disk0/a", "/disk1/a"));
+		assertTrue(scheduler.getDiskStats().isEmpty());
+	}
+}
@@ -1,8 +1,10 @@
 package govind.incubator.shuffle;
 
+import com.google.common.util.concurrent.SettableFuture;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.buffer.NioManagedBuffer;
 import govind.incubator.network.client.TransportClient;
+import govind.incubator.network.handler.AsyncStreamCallback;
 import govind.incubator.network.handler.OneForOneStreamManager;
 import govind.incubator.network.handler.RpcCallback;
 import govind.incubator.network.handler.RpcHandler;
@@ -11,8 +13,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.TestCase.*;
 import static org.mockito.Mockito.*;
@@ -41,10 +50,15 @@ public class ExternalShuffleBlockHandlerSuite {
 		RpcCallback callback = mock(RpcCallback.class);
 
 		ExecutorShuffleInfo shuffleInfo = new ExecutorShuffleInfo(new String[]{"/a", "/b"}, 16, "sort");
+		SettableFuture<Void> persisted = SettableFuture.create();
+		when(blockManager.registerExecutor("app0", "exec1", shuffleInfo)).thenReturn(persisted);
 		RegisterExecutor registerExecutor = new RegisterExecutor("app0", "exec1", shuffleInfo);
 		handler.receive(client, registerExecutor.toByteBuffer(), callback);
 		verify(blockManager, times(1)).registerExecutor("app0", "exec1",shuffleInfo);
 
+		//持久化完成后才返回结果，RPC处理线程不等待
+		verify(callback, never()).onSuccess(any(ByteBuffer.class));
+		persisted.set(null);
 		verify(callback, times(1)).onSuccess(any(ByteBuffer.class));
 		verify(callback, never()).onFailure(any());
 	}
@@ -72,10 +86,11 @@ public class ExternalShuffleBlockHandlerSuite {
 
 		StreamHandle streamHandle = (StreamHandle) BlockTransferMessage.Decoder.fromByteByffer(response.getValue());
 		assertEquals(2, streamHandle.numChunks);
+		assertTrue(Arrays.equals(new long[]{4, 3}, streamHandle.blockSizes));
 
 		ArgumentCaptor<Iterator<ManagedBuffer>> stream = ArgumentCaptor.forClass(Iterator.class);
 
-		verify(streamManager, times(1)).registerStream(any(), stream.capture());
+		verify(streamManager, times(1)).registerStream(any(), stream.capture(), any());
 
 		Iterator<ManagedBuffer> managedBuffers = stream.getValue();
 		assertEquals(buffer1, managedBuffers.next());
@@ -83,6 +98,75 @@ public class ExternalShuffleBlockHandlerSuite {
 		assertFalse(managedBuffers.hasNext());
 	}
 
+	@Test
+	public void testOpenBlockOnDiskScheduler() {
+		RpcCallback callback = mock(RpcCallback.class);
+		DiskIOScheduler diskScheduler = new DiskIOScheduler(1, 16);
+		handler = new ExternalShuffleBlockHandler(blockManager, streamManager, 1024, diskScheduler);
+
+		NioManagedBuffer buffer1 = new NioManagedBuffer(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+		NioManagedBuffer buffer2 = new NioManagedBuffer(ByteBuffer.wrap(new byte[]{5, 6, 7}));
+		when(blockManager.getBlockLocalDir("app0", "exec1", "b1")).thenReturn("/disk0");
+		when(blockManager.getBlockLocalDir("app0", "exec1", "b2")).thenReturn("/disk1");
+		when(blockManager.getBlockData("app0", "exec1", "b1")).thenReturn(buffer1);
+		when(blockManager.getBlockData("app0", "exec1", "b2")).thenReturn(buffer2);
+
+		OpenBlock openBlock = new OpenBlock("app0", "exec1", new String[]{"b1", "b2"});
+		handler.receive(client, openBlock.toByteBuffer(), callback);
+
+		ArgumentCaptor<ByteBuffer> response = ArgumentCaptor.forClass(ByteBuffer.class);
+		verify(callback, timeout(5000).times(1)).onSuccess(response.capture());
+		verify(callback, never()).onFailure(any());
+
+		StreamHandle streamHandle = (StreamHandle) BlockTransferMessage.Decoder.fromByteByffer(response.getValue());
+		assertEquals(2, streamHandle.numChunks);
+
+		ArgumentCaptor<Iterator<ManagedBuffer>> stream = ArgumentCaptor.forClass(Iterator.class);
+		verify(streamManager, times(1)).registerStream(any(), stream.capture(), any());
+		Iterator<ManagedBuffer> managedBuffers = stream.getValue();
+		assertEquals(buffer1, managedBuffers.next());
+		assertEquals(buffer2, managedBuffers.next());
+
+		assertEquals(1, diskScheduler.getDiskStats().get("/disk0").getCompleted());
+		assertEquals(1, diskScheduler.getDiskStats().get("/disk1").getCompleted());
+		assertEquals(0.0, diskScheduler.getDiskStats().get("/disk0").getErrorRate());
+		diskScheduler.close();
+	}
+
+	@Test
+	public void testOpenBlockFailureReleasesOpenedBlocks() {
+		RpcCallback callback = mock(RpcCallback.class);
+		DiskIOScheduler diskScheduler = new DiskIOScheduler(1, 16);
+		handler = new ExternalShuffleBlockHandler(blockManager, streamManager, 1024, diskScheduler);
+
+		ManagedBuffer buffer1 = mock(ManagedBuffer.class);
+		when(blockManager.getBlockLocalDir("app0", "exec1", "b1")).thenReturn("/disk0");
+		when(blockManager.getBlockLocalDir("app0", "exec1", "b2")).thenReturn("/disk1");
+		when(blockManager.getBlockData("app0", "exec1", "b1")).thenReturn(buffer1);
+		when(blockManager.getBlockData("app0", "exec1", "b2")).thenThrow(new RuntimeException("打开失败"));
+
+		OpenBlock openBlock = new OpenBlock("app0", "exec1", new String[]{"b1", "b2"});
+		handler.receive(client, openBlock.toByteBuffer(), callback);
+
+		verify(callback, timeout(5000).times(1)).onFailure(any());
+		verify(callback, never()).onSuccess(any());
+		verify(buffer1, times(1)).release();
+		verify(streamManager, never()).registerStream(any(), any(), any());
+		diskScheduler.close();
+	}
+
+	@Test
+	public void testApplicationRemovedPrunesDiskScheduler() {
+		DiskIOScheduler diskScheduler = spy(new DiskIOScheduler(1, 16));
+		handler = new ExternalShuffleBlockHandler(blockManager, streamManager, 1024, diskScheduler);
+		when(blockManager.applicationRemoved("app0", false))
+				.thenReturn(new HashSet<>(Arrays.asList("/disk0", "/disk1")));
+
+		((ExternalShuffleBlockHandler) handler).applicationRemoved("app0", false);
+		verify(diskScheduler).localDirsRemoved(new HashSet<>(Arrays.asList("/disk0", "/disk1")));
+		diskScheduler.close();
+	}
+
 	@Test
 	public void testBadMessage() {
 		RpcCallback callback = mock(RpcCallback.class);
@@ -96,7 +180,7 @@ public class ExternalShuffleBlockHandlerSuite {
 			//pass
 		}
 
-		ByteBuffer buffer1 = new UploadBlock("a", "b", "c", new byte[]{0, 1}, new byte[]{2, 3}).toByteBuffer();
+		ByteBuffer buffer1 = new StreamHandle(1, 2).toByteBuffer();
 
 		try {
 			handler.receive(client, buffer1, callback);
@@ -108,4 +192,53 @@ public class ExternalShuffleBlockHandlerSuite {
 		verify(callback, never()).onSuccess(any());
 		verify(callback, never()).onFailure(any());
 	}
+
+	@Test
+	public void testFinalizeShuffleMergeOffRpcThread() throws Exception {
+		RpcCallback callback = mock(RpcCallback.class);
+		AtomicReference<String> finalizeThread = new AtomicReference<>();
+		when(blockManager.finalizeShuffleMerge("app0", 3)).thenAnswer(invocation -> {
+			finalizeThread.set(Thread.currentThread().getName());
+			return new MergeStatuses(3, new int[0], new BitSet[0], new long[0]);
+		});
+
+		handler.receive(client, new FinalizeShuffleMerge("app0", 3).toByteBuffer(), callback);
+
+		//截断合并文件及写入meta文件在写入线程中进行，完成后返回结果
+		verify(callback, timeout(5000).times(1)).onSuccess(any(ByteBuffer.class));
+		verify(callback, never()).onFailure(any());
+		assertTrue(finalizeThread.get().startsWith("govind-shuffle-upload-writer"));
+	}
+
+	@Test
+	public void testPushBlockStreamUsesWriterExecutor() {
+		AsyncStreamCallback pushCallback = mock(AsyncStreamCallback.class);
+		when(blockManager.receivePushedBlock(eq("app0"), eq(1), eq(2), eq(3), any(Executor.class))).thenReturn(pushCallback);
+
+		PushBlockStream msg = new PushBlockStream("app0", 1, 2, 3);
+		assertSame(pushCallback, handler.receiveStream(client, msg.toByteBuffer()));
+		verify(blockManager).receivePushedBlock(eq("app0"), eq(1), eq(2), eq(3), any(Executor.class));
+	}
+
+	@Test
+	public void testUploadBlock() throws Exception {
+		RpcCallback callback = mock(RpcCallback.class);
+
+		File blockFile = File.createTempFile("govind-upload", ".data");
+		blockFile.delete();
+		try {
+			when(blockManager.getUploadedBlockFile("app0", "exec1", "rdd_1_0")).thenReturn(blockFile);
+
+			byte[] data = new byte[]{1, 2, 3, 4, 5};
+			UploadBlock uploadBlock = new UploadBlock("app0", "exec1", "rdd_1_0", new byte[0], data);
+			handler.receive(client, uploadBlock.toByteBuffer(), callback);
+
+			//在写入线程中完成后返回
+			verify(callback, timeout(5000).times(1)).onSuccess(any(ByteBuffer.class));
+			verify(callback, never()).onFailure(any());
+			assertTrue(Arrays.equals(data, Files.readAllBytes(blockFile.toPath())));
+		} finally {
+			blockFile.delete();
+		}
+	}
 }
@@ -1,16 +1,38 @@
 package govind.incubator.shuffle;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.conf.MapConfigProvider;
 import govind.incubator.network.conf.SystemPropertyConfigProvider;
 import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.handler.AsyncStreamCallback;
 import govind.incubator.shuffle.ExternalShuffleBlockResolver.AppExecId;
 import govind.incubator.shuffle.protocol.ExecutorShuffleInfo;
+import govind.incubator.shuffle.protocol.MergeStatuses;
+import govind.incubator.shuffle.util.LevelDBProvider;
+import govind.incubator.shuffle.util.StoreVersion;
+import org.iq80.leveldb.DB;
 import org.junit.*;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static junit.framework.TestCase.*;
 
@@ -86,6 +108,260 @@ public class ExternalShuffleBlockResolverSuite {
 		assertEquals(sortBlock1, block1);
 	}
 
+	@Test
+	public void testExecutorFilesCache() {
+		ExecutorShuffleInfo shuffleInfo = dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager");
+		ExecutorFiles executorFiles = new ExecutorFiles(shuffleInfo);
+
+		for (String filename : new String[]{"shuffle_0_0_0", "shuffle_1_0_0.index", "rdd_1_2"}) {
+			assertEquals(ExternalShuffleBlockResolver.getFile(shuffleInfo.localDirs, shuffleInfo.subDirsPerLocalDir, filename),
+					executorFiles.getFile(filename));
+		}
+
+		ExecutorFiles.SortFiles files = executorFiles.getSortBasedFiles(1, 0);
+		assertEquals(ExternalShuffleBlockResolver.getFile(shuffleInfo.localDirs, shuffleInfo.subDirsPerLocalDir, "shuffle_1_0_0.index"), files.indexFile);
+		assertEquals(ExternalShuffleBlockResolver.getFile(shuffleInfo.localDirs, shuffleInfo.subDirsPerLocalDir, "shuffle_1_0_0.data"), files.dataFile);
+		assertEquals(ExternalShuffleBlockResolver.getLocalDir(shuffleInfo.localDirs, "shuffle_1_0_0.index"), files.indexLocalDir);
+		//同一个map输出的文件只解析一次
+		assertSame(files, executorFiles.getSortBasedFiles(1, 0));
+		assertEquals(0, executorFiles.getSortBasedFiles(0, 1).shuffleId);
+	}
+
+	@Test
+	public void testParseBlockIdFields() {
+		assertEquals(4, ExternalShuffleBlockResolver.blockIdFields("shuffle_12_345_6"));
+		assertEquals(12, ExternalShuffleBlockResolver.blockIdField("shuffle_12_345_6", 1));
+		assertEquals(345, ExternalShuffleBlockResolver.blockIdField("shuffle_12_345_6", 2));
+		assertEquals(6, ExternalShuffleBlockResolver.blockIdField("shuffle_12_345_6", 3));
+		assertEquals(Integer.MAX_VALUE, ExternalShuffleBlockResolver.blockIdField("shuffle_2147483647_0_0", 1));
+		assertBadField("shuffle_1__0", 2);
+		assertBadField("shuffle_a_0_0", 1);
+		assertBadField("shuffle_2147483648_0_0", 1);
+		assertBadField("shuffle_1", 2);
+	}
+
+	private static void assertBadField(String blockId, int field) {
+		try {
+			ExternalShuffleBlockResolver.blockIdField(blockId, field);
+			fail("应该拒绝非法的block id：" + blockId);
+		} catch (IllegalArgumentException e) {
+			//pass
+		}
+	}
+
+	@Test
+	public void testSortShuffleIndexCache() throws IOException {
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, null);
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+		ShuffleIndexLookup indexCache = blockResolver.getIndexCache();
+
+		blockResolver.getBlockData("app0", "exec0", "shuffle_1_0_0");
+		blockResolver.getBlockData("app0", "exec0", "shuffle_1_0_1");
+		//同一个map输出的两个分区只读取一次索引文件
+		assertEquals(2, indexCache.getRequestCount());
+		assertEquals(1, indexCache.getLoadCount());
+		assertEquals(1, indexCache.getHitCount());
+		assertEquals(3 * 8, indexCache.getMemoryUsed());
+
+		//应用移除后缓存失效
+		blockResolver.applicationRemoved("app0", false);
+		assertEquals(0, indexCache.getMemoryUsed());
+
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+		InputStream block1Stream = blockResolver
+				.getBlockData("app0", "exec0", "shuffle_1_0_1")
+				.createInputStream();
+		assertEquals(sortBlock1, CharStreams.toString(new InputStreamReader(block1Stream)));
+		assertEquals(2, indexCache.getLoadCount());
+	}
+
+	@Test
+	public void testSortShuffleBlockCache() throws IOException {
+		TransportConf cacheConf = new TransportConf(new MapConfigProvider(ImmutableMap.of(
+				"govind.network.shuffle.blockCache.size", "1")), "shuffle");
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(cacheConf, null);
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+		ShuffleBlockCache blockCache = blockResolver.getBlockCache();
+
+		//第一次读取不缓存，第二次读取后缓存，第三次命中
+		for (int i = 0; i < 3; i++) {
+			ManagedBuffer block = blockResolver.getBlockData("app0", "exec0", "shuffle_1_0_0");
+			assertEquals(sortBlock0, CharStreams.toString(new InputStreamReader(block.createInputStream())));
+			block.release();
+		}
+		assertEquals(3, blockCache.getRequestCount());
+		assertEquals(1, blockCache.getHitCount());
+		assertEquals(sortBlock0.length(), blockCache.getBytesSaved());
+		assertEquals(sortBlock0.length(), blockCache.getMemoryUsed());
+
+		//应用移除后缓存失效
+		blockResolver.applicationRemoved("app0", false);
+		assertEquals(0, blockCache.getMemoryUsed());
+		blockResolver.close();
+	}
+
+	@Test
+	public void testSortShuffleMappedIndex() throws IOException {
+		TransportConf mmapConf = new TransportConf(new MapConfigProvider(
+				ImmutableMap.of("govind.network.shuffle.indexCache.mode", "mmap")), "shuffle");
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(mmapConf, null);
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+		MappedShuffleIndexCache indexCache = (MappedShuffleIndexCache) blockResolver.getIndexCache();
+
+		InputStream block0Stream = blockResolver
+				.getBlockData("app0", "exec0", "shuffle_1_0_0")
+				.createInputStream();
+		InputStream block1Stream = blockResolver
+				.getBlockData("app0", "exec0", "shuffle_1_0_1")
+				.createInputStream();
+		assertEquals(sortBlock0, CharStreams.toString(new InputStreamReader(block0Stream)));
+		assertEquals(sortBlock1, CharStreams.toString(new InputStreamReader(block1Stream)));
+		assertEquals(1, indexCache.getLoadCount());
+		assertEquals(1, indexCache.getLiveMappings());
+		assertEquals(3 * 8, indexCache.getMemoryUsed());
+
+		//应用移除后映射被释放
+		blockResolver.applicationRemoved("app0", false);
+		assertEquals(0, indexCache.getLiveMappings());
+		assertEquals(0, indexCache.getMemoryUsed());
+		blockResolver.close();
+	}
+
+	@Test
+	public void testPushMergedBlocks() throws IOException {
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, null);
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+
+		pushBlock(blockResolver, 5, 0, 0, "hello ");
+		pushBlock(blockResolver, 5, 2, 0, "world");
+		//重试推送同一个map的block被忽略
+		pushBlock(blockResolver, 5, 0, 0, "hello ");
+		pushBlock(blockResolver, 5, 1, 1, "merged");
+
+		MergeStatuses statuses = blockResolver.finalizeShuffleMerge("app0", 5);
+		assertEquals(2, statuses.reduceIds.length);
+		for (int i = 0; i < statuses.reduceIds.length; i++) {
+			if (statuses.reduceIds[i] == 0) {
+				assertEquals(11, statuses.sizes[i]);
+				assertEquals(BitSet.valueOf(new long[]{0b101}), statuses.mapBitmaps[i]);
+			} else {
+				assertEquals(6, statuses.sizes[i]);
+				assertEquals(BitSet.valueOf(new long[]{0b10}), statuses.mapBitmaps[i]);
+			}
+		}
+		assertEquals(3, blockResolver.getMergeManager().getMergedBlocks());
+		assertEquals(1, blockResolver.getMergeManager().getDuplicateBlocks());
+
+		InputStream merged = blockResolver.getBlockData("app0", "exec0", "shuffleMerged_5_0").createInputStream();
+		assertEquals("hello world", CharStreams.toString(new InputStreamReader(merged)));
+		merged.close();
+
+		//结束合并后不再接收推送
+		try {
+			blockResolver.receivePushedBlock("app0", 5, 3, 0, MoreExecutors.sameThreadExecutor());
+			fail("结束合并后应该拒绝推送");
+		} catch (IllegalStateException e) {
+			//pass
+		}
+
+		blockResolver.applicationRemoved("app0", false);
+		try {
+			blockResolver.getBlockData("app0", "exec0", "shuffleMerged_5_0");
+			fail("应用移除后不应该存在合并结果");
+		} catch (RuntimeException e) {
+			//pass
+		}
+		blockResolver.close();
+	}
+
+	@Test
+	public void testMergeDirsSpanAllExecutors() throws IOException {
+		TestShuffleDataContext dataContext1 = new TestShuffleDataContext(2, 5);
+		dataContext1.create();
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, null);
+		try {
+			blockResolver.registerExecutor("app0", "exec2", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+			blockResolver.registerExecutor("app0", "exec10", dataContext1.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+
+			//合并文件分布在所有Executor的local dirs中，与execId的顺序无关
+			Set<String> expected = new TreeSet<>(Arrays.asList(dataContext.localDirs));
+			expected.addAll(Arrays.asList(dataContext1.localDirs));
+			ExecutorShuffleInfo mergeInfo = blockResolver.getMergeExecutorInfo("app0");
+			assertEquals(new ArrayList<>(expected), Arrays.asList(mergeInfo.localDirs));
+		} finally {
+			blockResolver.close();
+			dataContext1.cleanup();
+		}
+	}
+
+	@Test
+	public void testMergeTruncatesUncommittedData() throws IOException {
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, null);
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+
+		pushBlock(blockResolver, 6, 0, 0, "hello ");
+		ExecutorShuffleInfo mergeInfo = blockResolver.getMergeExecutorInfo("app0");
+		File dataFile = ExternalShuffleBlockResolver.getFile(mergeInfo.localDirs, mergeInfo.subDirsPerLocalDir, "shuffleMerged_6_0.data");
+		File indexFile = ExternalShuffleBlockResolver.getFile(mergeInfo.localDirs, mergeInfo.subDirsPerLocalDir, "shuffleMerged_6_0.index");
+
+		//模拟追加失败且截断也失败时留下的数据
+		Files.append("garbage", dataFile, StandardCharsets.UTF_8);
+		Files.append("garbage", indexFile, StandardCharsets.UTF_8);
+
+		pushBlock(blockResolver, 6, 1, 0, "world");
+		blockResolver.finalizeShuffleMerge("app0", 6);
+
+		InputStream merged = blockResolver.getBlockData("app0", "exec0", "shuffleMerged_6_0").createInputStream();
+		assertEquals("hello world", CharStreams.toString(new InputStreamReader(merged)));
+		merged.close();
+		assertEquals(11, dataFile.length());
+
+		DataInputStream index = new DataInputStream(new FileInputStream(indexFile));
+		assertEquals(0, index.readLong());
+		assertEquals(6, index.readLong());
+		assertEquals(11, index.readLong());
+		assertEquals(-1, index.read());
+		index.close();
+
+		blockResolver.applicationRemoved("app0", false);
+		blockResolver.close();
+	}
+
+	@Test
+	public void testPushAppendsOnExecutor() throws IOException {
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, null);
+		blockResolver.registerExecutor("app0", "exec0", dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager"));
+
+		List<Runnable> tasks = new ArrayList<>();
+		AsyncStreamCallback callback = blockResolver.receivePushedBlock("app0", 7, 0, 0, tasks::add);
+		callback.onData("push", ByteBuffer.wrap("hello".getBytes()));
+		callback.onComplete("push");
+
+		//onComplete返回时尚未写入文件
+		ExecutorShuffleInfo mergeInfo = blockResolver.getMergeExecutorInfo("app0");
+		File dataFile = ExternalShuffleBlockResolver.getFile(mergeInfo.localDirs, mergeInfo.subDirsPerLocalDir, "shuffleMerged_7_0.data");
+		assertFalse(callback.completion().isDone());
+		assertFalse(dataFile.exists());
+
+		assertEquals(1, tasks.size());
+		tasks.get(0).run();
+		assertTrue(callback.completion().isDone());
+		assertEquals(5, dataFile.length());
+		assertEquals(1, blockResolver.getMergeManager().getMergedBlocks());
+
+		blockResolver.applicationRemoved("app0", false);
+		blockResolver.close();
+	}
+
+	private void pushBlock(ExternalShuffleBlockResolver blockResolver, int shuffleId, int mapId,
+			int reduceId, String data) throws IOException {
+		AsyncStreamCallback callback = blockResolver.receivePushedBlock("app0", shuffleId, mapId, reduceId,
+				MoreExecutors.sameThreadExecutor());
+		callback.onData("push", ByteBuffer.wrap(data.getBytes()));
+		callback.onComplete("push");
+		Futures.getUnchecked(callback.completion());
+	}
+
 	@Test
 	public void testJsonSerializationOfExecutorRegistration() throws IOException {
 		ObjectMapper mapper = new ObjectMapper();
@@ -140,4 +416,53 @@ public class ExternalShuffleBlockResolverSuite {
 			//pass
 		}
 	}
+
+	@Test
+	public void testRecoverRegisteredExecutors() throws IOException {
+		File dbFile = new File(dataContext.localDirs[0], "registeredExecutors.ldb");
+		ExecutorShuffleInfo sortInfo = dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager");
+		ExecutorShuffleInfo hashInfo = dataContext.createExecutorInfo("org.apache.spark.shuffle.hash.HashShuffleManager");
+
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, dbFile);
+		blockResolver.registerExecutor("app0", "exec0", sortInfo);
+		blockResolver.registerExecutor("app1", "exec0", hashInfo);
+		blockResolver.applicationRemoved("app1", false);
+		//关闭时将写入队列中的操作全部写入数据库
+		blockResolver.close();
+
+		ExternalShuffleBlockResolver recovered = new ExternalShuffleBlockResolver(conf, dbFile);
+		try {
+			recovered.awaitRecovery();
+			assertEquals(sortInfo, recovered.getExecutorInfo("app0", "exec0"));
+			assertNull(recovered.getExecutorInfo("app1", "exec0"));
+		} finally {
+			recovered.close();
+		}
+	}
+
+	@Test
+	public void testMigrateLegacyRegisteredExecutors() throws IOException {
+		File dbFile = new File(dataContext.localDirs[1], "legacyExecutors.ldb");
+		ExecutorShuffleInfo shuffleInfo = dataContext.createExecutorInfo("org.apache.spark.shuffle.sort.SortShuffleManager");
+
+		//以1.0版本的JSON格式写入
+		ObjectMapper mapper = new ObjectMapper();
+		DB legacyDb = LevelDBProvider.initLevelDB(dbFile, new StoreVersion(1, 0), mapper);
+		legacyDb.put(ExternalShuffleBlockResolver.legacyDbAppExecKey(new AppExecId("app0", "exec0")),
+				mapper.writeValueAsBytes(shuffleInfo));
+		legacyDb.close();
+
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(conf, dbFile);
+		try {
+			blockResolver.awaitRecovery();
+			assertEquals(shuffleInfo, blockResolver.getExecutorInfo("app0", "exec0"));
+			assertTrue(blockResolver.isRecovered());
+			InputStream block0Stream = blockResolver
+					.getBlockData("app0", "exec0", "shuffle_1_0_0")
+					.createInputStream();
+			assertEquals(sortBlock0, CharStreams.toString(new InputStreamReader(block0Stream)));
+		} finally {
+			blockResolver.close();
+		}
+	}
 }
@@ -3,10 +3,12 @@ package govind.incubator.shuffle;
 import com.google.common.util.concurrent.MoreExecutors;
 import govind.incubator.network.conf.SystemPropertyConfigProvider;
 import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.util.NettyUtil;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -107,6 +109,29 @@ public class ExternalShuffleCleanupSuite {
 		assertCleanup(someData1);
 	}
 
+	@Test
+	public void cleanupDoesNotFollowSymlinks() throws IOException {
+		TestShuffleDataContext dataContext = createSomeData();
+		File outside = Files.createTempDirectory("govind-outside").toFile();
+		File outsideFile = new File(outside, "keep");
+		Files.write(outsideFile.toPath(), "keep".getBytes());
+		Files.createSymbolicLink(new File(dataContext.localDirs[0], "link").toPath(), outside.toPath());
+
+		ExternalShuffleBlockResolver blockResolver = new ExternalShuffleBlockResolver(sameThreadExecutor, conf, null);
+		blockResolver.registerExecutor("app", "exec0", dataContext.createExecutorInfo("shuffleMgr"));
+		blockResolver.applicationRemoved("app", true);
+
+		assertCleanup(dataContext);
+		assertTrue(outsideFile.exists());
+		DirectoryCleaner cleaner = blockResolver.getDirectoryCleaner();
+		assertEquals(0, cleaner.getPendingDirs());
+		assertEquals(dataContext.localDirs.length, cleaner.getDeletedDirs());
+		//GHI + JKLMNOPQRSTUVWXYZ + ABC + DEF + 索引文件(3 * 8)
+		assertEquals(3 + 17 + 3 + 3 + 3 * 8, cleaner.getBytesReclaimed());
+
+		NettyUtil.deleteRecursively(outside);
+	}
+
 	private void assertStillThere(TestShuffleDataContext dataContext) {
 		for (String dir : dataContext.localDirs) {
 			assertTrue(dir + "被删除了", new File(dir).exists());
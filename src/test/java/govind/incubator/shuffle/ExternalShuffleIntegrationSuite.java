@@ -3,10 +3,13 @@ package govind.incubator.shuffle;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.jcraft.jsch.HASH;
+import govind.incubator.network.buffer.FileSegmentManagedBuffer;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.buffer.NioManagedBuffer;
+import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.conf.SystemPropertyConfigProvider;
 import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.handler.RpcCallback;
 import govind.incubator.network.server.TransportServer;
 import govind.incubator.network.util.NettyUtil;
 import govind.incubator.network.util.TransportContext;
@@ -21,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.TestCase.*;
 
@@ -111,6 +115,10 @@ public class ExternalShuffleIntegrationSuite {
 	}
 
 	private FetchResult fetchBlocks(String execId, String[] blockIds, int port) throws Exception {
+		return fetchBlocks(execId, blockIds, port, conf);
+	}
+
+	private FetchResult fetchBlocks(String execId, String[] blockIds, int port, TransportConf conf) throws Exception {
 		final FetchResult result = new FetchResult();
 
 		result.successBlocks = Collections.synchronizedSet(new HashSet<>());
@@ -264,10 +272,86 @@ public class ExternalShuffleIntegrationSuite {
 		}
 	}
 
+	@Test
+	public void testShortCircuitLocalReads() throws Exception {
+		System.setProperty("govind.network.shuffle.io.shortCircuitLocalReads", "true");
+		try {
+			TransportConf localConf = new TransportConf(new SystemPropertyConfigProvider(), "shuffle");
+			registerExecutor("exec-0", dataContext0.createExecutorInfo(SORT_MANAGER));
+			registerExecutor("exec-1", dataContext1.createExecutorInfo(HASH_MANAGER));
+
+			FetchResult res = fetchBlocks("exec-0", new String[]{"shuffle_0_0_0", "shuffle_0_0_2"}, server.getPort(), localConf);
+			assertEquals(Sets.newHashSet("shuffle_0_0_0", "shuffle_0_0_2"), res.successBlocks);
+			for (ManagedBuffer buffer : res.buffers) {
+				//直接读取本地文件，没有经过网络
+				assertTrue(buffer instanceof FileSegmentManagedBuffer);
+			}
+			assertBufferListEquals(res.buffers, Lists.newArrayList(exec0Blocks[0], exec0Blocks[2]));
+
+			res = fetchBlocks("exec-1", new String[]{"shuffle_1_0_1"}, server.getPort(), localConf);
+			assertEquals(Sets.newHashSet("shuffle_1_0_1"), res.successBlocks);
+			assertBufferListEquals(res.buffers, Lists.newArrayList(exec1Blocks[1]));
+
+			//无法在本地读取时改为通过网络获取，结果与网络获取一致
+			res = fetchBlocks("exec-2", new String[]{"shuffle_0_0_0"}, server.getPort(), localConf);
+			assertEquals(Sets.newHashSet("shuffle_0_0_0"), res.failedBlocks);
+			res = fetchBlocks("exec-0", new String[]{"shuffle_2_0_0"}, server.getPort(), localConf);
+			assertEquals(Sets.newHashSet("shuffle_2_0_0"), res.failedBlocks);
+		} finally {
+			System.clearProperty("govind.network.shuffle.io.shortCircuitLocalReads");
+		}
+	}
+
+	@Test
+	public void testRegisterExecutorsInOneCall() throws Exception {
+		ExternalShuffleClient client = new ExternalShuffleClient(conf, null, false, false);
+		client.init(APP_ID);
+		try {
+			TransportClient connection = client.clientFactory.createClient(NettyUtil.getLocalHost(), server.getPort());
+
+			Map<String, ExecutorShuffleInfo> executors = new LinkedHashMap<>();
+			executors.put("exec-0", dataContext0.createExecutorInfo(SORT_MANAGER));
+			executors.put("exec-1", dataContext1.createExecutorInfo(HASH_MANAGER));
+			final Semaphore registered = new Semaphore(0);
+			final AtomicReference<Throwable> error = new AtomicReference<>();
+			client.registerWithShuffleServer(NettyUtil.getLocalHost(), server.getPort(), executors, new RpcCallback() {
+				@Override
+				public void onSuccess(ByteBuffer response) {
+					registered.release();
+				}
+
+				@Override
+				public void onFailure(Throwable cause) {
+					error.set(cause);
+					registered.release();
+				}
+			});
+			assertTrue(registered.tryAcquire(5, TimeUnit.SECONDS));
+			assertNull(error.get());
+
+			//注册使用连接池中的连接，完成后不关闭
+			assertTrue(connection.isActive());
+			assertSame(connection, client.clientFactory.createClient(NettyUtil.getLocalHost(), server.getPort()));
+		} finally {
+			client.close();
+		}
+
+		FetchResult res = fetchBlocks("exec-0", new String[]{"shuffle_0_0_0"});
+		assertEquals(Sets.newHashSet("shuffle_0_0_0"), res.successBlocks);
+		res.releaseBuffers();
+		res = fetchBlocks("exec-1", new String[]{"shuffle_1_0_1"});
+		assertEquals(Sets.newHashSet("shuffle_1_0_1"), res.successBlocks);
+		res.releaseBuffers();
+	}
+
 	private void registerExecutor(String execId, ExecutorShuffleInfo shuffleInfo) throws IOException {
 		ExternalShuffleClient client = new ExternalShuffleClient(conf, null, false, false);
 		client.init(APP_ID);
-		client.registerWithShuffleServer(NettyUtil.getLocalHost(), server.getPort(),execId, shuffleInfo);
+		try {
+			client.registerWithShuffleServer(NettyUtil.getLocalHost(), server.getPort(),execId, shuffleInfo);
+		} finally {
+			client.close();
+		}
 	}
 
 	private void assertBufferListEquals(List<ManagedBuffer> list0, List<byte[]> list1) throws IOException {
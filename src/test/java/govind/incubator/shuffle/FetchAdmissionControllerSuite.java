@@ -0,0 +1,164 @@
+package govind.incubator.shuffle;
+
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NioManagedBuffer;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-22
+ */
+public class FetchAdmissionControllerSuite {
+
+	/** 记录被放行的请求 */
+	class RecordingFetcher implements FetchAdmissionController.Fetcher {
+		final String host;
+		final List<String> started;
+		final List<BlockFetchingListener> listeners = new ArrayList<>();
+
+		RecordingFetcher(String host, List<String> started) {
+			this.host = host;
+			this.started = started;
+		}
+
+		@Override
+		public void fetch(String[] blockIds, BlockFetchingListener listener) {
+			started.add(host + "/" + blockIds[0]);
+			listeners.add(listener);
+		}
+	}
+
+	@Test
+	public void testBytesInFlightLimit() {
+		FetchAdmissionController controller = new FetchAdmissionController(100, 0, 0, Runnable::run);
+		List<String> started = new ArrayList<>();
+		RecordingFetcher fetcher = new RecordingFetcher("host0", started);
+
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+		controller.fetch("host0", new String[]{"b0", "b1"}, listener, fetcher);
+		fetcher.listeners.get(0).onBlockSizes(new String[]{"b0", "b1"}, new long[]{60, 120});
+		assertEquals(180, controller.getBytesInFlight());
+		verify(listener).onBlockSizes(any(), any());
+
+		//超过maxBytesInFlight，排队等待
+		controller.fetch("host0", new String[]{"b2"}, listener, fetcher);
+		assertEquals(1, started.size());
+		assertEquals(1, controller.getDeferredRequests());
+
+		//释放一个block后仍超过限制
+		fetcher.listeners.get(0).onBlockFetchSuccess("b0", new NioManagedBuffer(ByteBuffer.allocate(60)));
+		assertEquals(120, controller.getBytesInFlight());
+		assertEquals(1, started.size());
+
+		fetcher.listeners.get(0).onBlockFetchFailure("b1", new RuntimeException("失败"));
+		assertEquals(0, controller.getBytesInFlight());
+		assertEquals(2, started.size());
+		assertEquals(0, controller.getDeferredRequests());
+		assertEquals(1, controller.getRequestsInFlight());
+		verify(listener).onBlockFetchSuccess(eq("b0"), any());
+		verify(listener).onBlockFetchFailure(eq("b1"), any());
+
+		//重试时再次收到的大小不重复计入
+		fetcher.listeners.get(1).onBlockSizes(new String[]{"b2"}, new long[]{10});
+		fetcher.listeners.get(1).onBlockSizes(new String[]{"b2"}, new long[]{10});
+		assertEquals(10, controller.getBytesInFlight());
+		fetcher.listeners.get(1).onBlockFetchSuccess("b2", new NioManagedBuffer(ByteBuffer.allocate(10)));
+		assertEquals(0, controller.getBytesInFlight());
+		assertEquals(0, controller.getRequestsInFlight());
+	}
+
+	@Test
+	public void testPerHostLimitsAndFairness() {
+		FetchAdmissionController controller = new FetchAdmissionController(0, 1, 2, Runnable::run);
+		List<String> started = new ArrayList<>();
+		RecordingFetcher fetcher0 = new RecordingFetcher("host0", started);
+		RecordingFetcher fetcher1 = new RecordingFetcher("host1", started);
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+
+		controller.fetch("host0", new String[]{"a0"}, listener, fetcher0);
+		controller.fetch("host0", new String[]{"a1"}, listener, fetcher0);
+		controller.fetch("host0", new String[]{"a2"}, listener, fetcher0);
+		//其他host不受影响
+		controller.fetch("host1", new String[]{"b0", "b1"}, listener, fetcher1);
+		controller.fetch("host1", new String[]{"b2"}, listener, fetcher1);
+		assertEquals(2, started.size());
+		assertEquals(1, controller.getRequestsInFlight("host0"));
+		assertEquals(2, controller.getBlocksInFlight("host1"));
+		assertEquals(3, controller.getDeferredRequests());
+
+		fetcher0.listeners.get(0).onBlockFetchSuccess("a0", new NioManagedBuffer(ByteBuffer.allocate(1)));
+		assertEquals("host0/a1", started.get(2));
+		fetcher1.listeners.get(0).onBlockFetchSuccess("b0", new NioManagedBuffer(ByteBuffer.allocate(1)));
+		//请求未完成前不放行
+		assertEquals(3, started.size());
+		fetcher1.listeners.get(0).onBlockFetchSuccess("b1", new NioManagedBuffer(ByteBuffer.allocate(1)));
+		assertEquals("host1/b2", started.get(3));
+		assertEquals(1, controller.getDeferredRequests());
+	}
+
+	@Test
+	public void testRetainedBufferHoldsBytes() throws Exception {
+		FetchAdmissionController controller = new FetchAdmissionController(100, 0, 0, Runnable::run);
+		List<String> started = new ArrayList<>();
+		RecordingFetcher fetcher = new RecordingFetcher("host0", started);
+
+		final ManagedBuffer[] retained = new ManagedBuffer[1];
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+		doAnswer((Answer<Void>) invocation -> {
+			retained[0] = ((ManagedBuffer) invocation.getArguments()[1]).retain();
+			return null;
+		}).when(listener).onBlockFetchSuccess(eq("b0"), any());
+
+		controller.fetch("host0", new String[]{"b0"}, listener, fetcher);
+		fetcher.listeners.get(0).onBlockSizes(new String[]{"b0"}, new long[]{120});
+		controller.fetch("host0", new String[]{"b1"}, listener, fetcher);
+		assertEquals(1, controller.getDeferredRequests());
+
+		fetcher.listeners.get(0).onBlockFetchSuccess("b0", new NioManagedBuffer(ByteBuffer.allocate(120)));
+		//请求已经完成，但buffer仍被监听器持有
+		assertEquals(0, controller.getRequestsInFlight("host0"));
+		assertEquals(120, controller.getBytesInFlight());
+		assertEquals(120, retained[0].nioByteBuffer().remaining());
+
+		retained[0].release();
+		assertEquals(0, controller.getBytesInFlight());
+		assertEquals(0, controller.getDeferredRequests());
+		assertEquals(2, started.size());
+	}
+
+	@Test
+	public void testDeferredRequestStartsOnExecutor() {
+		List<Runnable> tasks = new ArrayList<>();
+		FetchAdmissionController controller = new FetchAdmissionController(0, 1, 0, tasks::add);
+		List<String> started = new ArrayList<>();
+		RecordingFetcher fetcher = new RecordingFetcher("host0", started);
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+
+		//未超过限制时在调用线程中发起
+		controller.fetch("host0", new String[]{"a0"}, listener, fetcher);
+		controller.fetch("host0", new String[]{"a1"}, listener, fetcher);
+		assertEquals(1, started.size());
+		assertTrue(tasks.isEmpty());
+
+		//在回调中放行的请求交给线程池发起，不在回调线程中创建连接
+		fetcher.listeners.get(0).onBlockFetchSuccess("a0", new NioManagedBuffer(ByteBuffer.allocate(1)));
+		assertEquals(1, started.size());
+		assertEquals(1, tasks.size());
+		assertEquals(1, controller.getRequestsInFlight("host0"));
+
+		tasks.get(0).run();
+		assertEquals("host0/a1", started.get(1));
+	}
+}
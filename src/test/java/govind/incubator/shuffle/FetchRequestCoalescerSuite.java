@@ -0,0 +1,146 @@
+package govind.incubator.shuffle;
+
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NioManagedBuffer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-22
+ */
+public class FetchRequestCoalescerSuite {
+
+	/** 记录合并后的请求 */
+	class RecordingFetcher implements FetchRequestCoalescer.BatchFetcher {
+		final List<String[]> requests = new ArrayList<>();
+		final List<BlockFetchingListener> listeners = new ArrayList<>();
+
+		@Override
+		public synchronized void fetch(String host, int port, String execId, String[] blockIds, BlockFetchingListener listener) {
+			requests.add(blockIds);
+			listeners.add(listener);
+		}
+	}
+
+	@Test
+	public void testCoalesceCallsToSameExecutor() {
+		RecordingFetcher fetcher = new RecordingFetcher();
+		FetchRequestCoalescer coalescer = new FetchRequestCoalescer(fetcher, 60000, 100);
+
+		BlockFetchingListener listener0 = mock(BlockFetchingListener.class);
+		BlockFetchingListener listener1 = mock(BlockFetchingListener.class);
+		coalescer.fetchBlocks("host", 1, "exec0", new String[]{"b0", "b1"}, listener0);
+		coalescer.fetchBlocks("host", 1, "exec0", new String[]{"b1", "b2"}, listener1);
+		//窗口结束前不发送
+		assertTrue(fetcher.requests.isEmpty());
+
+		coalescer.close();
+		assertEquals(1, fetcher.requests.size());
+		assertEquals(Arrays.asList("b0", "b1", "b2"), Arrays.asList(fetcher.requests.get(0)));
+
+		BlockFetchingListener merged = fetcher.listeners.get(0);
+		ManagedBuffer b1 = new NioManagedBuffer(ByteBuffer.wrap(new byte[3]));
+		merged.onBlockSizes(new String[]{"b0", "b1", "b2"}, new long[]{1, 3, 5});
+		merged.onBlockFetchSuccess("b1", b1);
+		merged.onBlockFetchFailure("b2", new RuntimeException("失败"));
+
+		verify(listener0).onBlockSizes(aryEq(new String[]{"b0", "b1"}), aryEq(new long[]{1, 3}));
+		verify(listener1).onBlockSizes(aryEq(new String[]{"b1", "b2"}), aryEq(new long[]{3, 5}));
+		verify(listener0).onBlockFetchSuccess("b1", b1);
+		verify(listener1).onBlockFetchSuccess("b1", b1);
+		verify(listener0, never()).onBlockFetchFailure(any(), any());
+		verify(listener1).onBlockFetchFailure(eq("b2"), any());
+	}
+
+	@Test
+	public void testSeparateExecutorsAndMaxBlocks() {
+		RecordingFetcher fetcher = new RecordingFetcher();
+		FetchRequestCoalescer coalescer = new FetchRequestCoalescer(fetcher, 60000, 3);
+
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+		coalescer.fetchBlocks("host", 1, "exec0", new String[]{"b0", "b1"}, listener);
+		coalescer.fetchBlocks("host", 1, "exec1", new String[]{"b0"}, listener);
+		//达到maxBlocks时立即发送
+		coalescer.fetchBlocks("host", 1, "exec0", new String[]{"b2"}, listener);
+		assertEquals(1, fetcher.requests.size());
+		assertEquals(3, fetcher.requests.get(0).length);
+
+		coalescer.close();
+		assertEquals(2, fetcher.requests.size());
+		assertEquals(3, coalescer.getCallsReceived());
+		assertEquals(2, coalescer.getBatchesSent());
+	}
+
+	@Test
+	public void testFlushAfterWindow() throws Exception {
+		RecordingFetcher fetcher = new RecordingFetcher();
+		FetchRequestCoalescer coalescer = new FetchRequestCoalescer(fetcher, 10, 100);
+
+		coalescer.fetchBlocks("host", 1, "exec0", new String[]{"b0"}, mock(BlockFetchingListener.class));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			synchronized (fetcher) {
+				if (!fetcher.requests.isEmpty()) {
+					break;
+				}
+			}
+			Thread.sleep(10);
+		}
+		synchronized (fetcher) {
+			assertEquals(1, fetcher.requests.size());
+		}
+		coalescer.close();
+	}
+
+	@Test
+	public void testBlockedSendDoesNotDelayOtherHosts() throws Exception {
+		CountDownLatch deadHostBlocked = new CountDownLatch(1);
+		CountDownLatch unblock = new CountDownLatch(1);
+		RecordingFetcher recording = new RecordingFetcher();
+		FetchRequestCoalescer.BatchFetcher fetcher = (host, port, execId, blockIds, listener) -> {
+			if ("dead".equals(host)) {
+				//模拟连接不可达的host时阻塞
+				deadHostBlocked.countDown();
+				try {
+					unblock.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			} else {
+				recording.fetch(host, port, execId, blockIds, listener);
+			}
+		};
+		FetchRequestCoalescer coalescer = new FetchRequestCoalescer(fetcher, 10, 100);
+
+		try {
+			coalescer.fetchBlocks("dead", 1, "exec0", new String[]{"b0"}, mock(BlockFetchingListener.class));
+			assertTrue(deadHostBlocked.await(5, TimeUnit.SECONDS));
+			coalescer.fetchBlocks("live", 1, "exec0", new String[]{"b1"}, mock(BlockFetchingListener.class));
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (recording.requests.isEmpty() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, recording.requests.size());
+			assertEquals(Arrays.asList("b1"), Arrays.asList(recording.requests.get(0)));
+		} finally {
+			unblock.countDown();
+			coalescer.close();
+		}
+	}
+}
@@ -1,11 +1,14 @@
 package govind.incubator.shuffle;
 
 import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import govind.incubator.network.buffer.FileSegmentManagedBuffer;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.buffer.NioManagedBuffer;
 import govind.incubator.network.client.TransportClient;
 import govind.incubator.network.handler.ChunkReceivedCallback;
 import govind.incubator.network.handler.RpcCallback;
+import govind.incubator.network.handler.StreamCallback;
 import govind.incubator.shuffle.protocol.BlockTransferMessage;
 import govind.incubator.shuffle.protocol.BlockTransferMessage.Decoder;
 import govind.incubator.shuffle.protocol.OpenBlock;
@@ -14,13 +17,17 @@ import org.apache.hadoop.classification.InterfaceAudience.Public;
 import org.junit.Test;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
 import static junit.framework.TestCase.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -49,6 +56,8 @@ public class OneForOneBlockFetcherSuite {
 
 		BlockFetchingListener listener = fetchBlocks(blocks);
 
+		//获取数据前得到每个block的大小
+		verify(listener).onBlockSizes(aryEq(new String[]{"b0", "b1", "b2"}), aryEq(new long[]{12, 34, 56}));
 		for (int i = 0; i < blocks.size(); i++) {
 			verify(listener).onBlockFetchSuccess("b" + i, blocks.get("b" + i));
 		}
@@ -83,6 +92,100 @@ public class OneForOneBlockFetcherSuite {
 		verify(listener, times(1)).onBlockFetchSuccess("b2", blocks.get("b2"));
 	}
 
+	@Test
+	public void testFetchLargeBlockToDisk() throws Exception {
+		File tempDir = Files.createTempDir();
+		byte[] data = largeBlockData();
+		final byte[][] received = new byte[1][];
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+		doAnswer((Answer<Void>) invocation -> {
+			ManagedBuffer buffer = (ManagedBuffer) invocation.getArguments()[1];
+			assertTrue(buffer instanceof FileSegmentManagedBuffer);
+			ByteBuffer nio = buffer.nioByteBuffer();
+			received[0] = new byte[nio.remaining()];
+			nio.get(received[0]);
+			return null;
+		}).when(listener).onBlockFetchSuccess(eq("b1"), any());
+
+		TransportClient client = fetchLargeBlockToDisk(listener, tempDir, data);
+
+		verify(listener).onBlockFetchSuccess(eq("b0"), any());
+		verify(listener).onBlockFetchSuccess(eq("b1"), any());
+		verify(client, never()).fetchChunk(eq(123L), eq(1), any(ChunkReceivedCallback.class));
+		assertTrue(Arrays.equals(data, received[0]));
+		//没有retain时回调返回后临时文件被删除
+		assertEquals(0, tempDir.listFiles().length);
+		tempDir.delete();
+	}
+
+	@Test
+	public void testReadLargeBlockAfterCallback() throws Exception {
+		File tempDir = Files.createTempDir();
+		byte[] data = largeBlockData();
+		final ManagedBuffer[] retained = new ManagedBuffer[1];
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+		doAnswer((Answer<Void>) invocation -> {
+			retained[0] = ((ManagedBuffer) invocation.getArguments()[1]).retain();
+			return null;
+		}).when(listener).onBlockFetchSuccess(eq("b1"), any());
+
+		fetchLargeBlockToDisk(listener, tempDir, data);
+
+		//回调返回后仍然可以读取
+		assertEquals(1, tempDir.listFiles().length);
+		ByteBuffer nio = retained[0].nioByteBuffer();
+		byte[] received = new byte[nio.remaining()];
+		nio.get(received);
+		assertTrue(Arrays.equals(data, received));
+
+		//释放后删除临时文件
+		retained[0].release();
+		assertEquals(0, tempDir.listFiles().length);
+		tempDir.delete();
+	}
+
+	private static byte[] largeBlockData() {
+		byte[] data = new byte[30];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	/**
+	 * 获取两个block，b0在内存中获取，b1超过阈值，以流的方式分两次到达
+	 */
+	private TransportClient fetchLargeBlockToDisk(BlockFetchingListener listener, File tempDir, byte[] data) {
+		TransportClient client = mock(TransportClient.class);
+		OneForOneBlockFetcher blockFetcher = new OneForOneBlockFetcher(client, "app-0", "exec-0",
+				new String[]{"b0", "b1"}, listener, 20, tempDir);
+
+		doAnswer((Answer<Void>) invocation -> {
+			RpcCallback callback = (RpcCallback) invocation.getArguments()[1];
+			callback.onSuccess(new StreamHandle(123, 2, new long[]{10, data.length}).toByteBuffer());
+			return null;
+		}).when(client).sendRpcAsync(any(ByteBuffer.class), any(RpcCallback.class));
+
+		doAnswer((Answer<Void>) invocation -> {
+			((ChunkReceivedCallback) invocation.getArguments()[2])
+					.onSuccess(0, new NioManagedBuffer(ByteBuffer.wrap(new byte[10])));
+			return null;
+		}).when(client).fetchChunk(eq(123L), eq(0), any(ChunkReceivedCallback.class));
+
+		doAnswer((Answer<Void>) invocation -> {
+			String streamId = (String) invocation.getArguments()[0];
+			assertEquals("123_1", streamId);
+			StreamCallback callback = (StreamCallback) invocation.getArguments()[1];
+			callback.onData(streamId, ByteBuffer.wrap(data, 0, 16));
+			callback.onData(streamId, ByteBuffer.wrap(data, 16, data.length - 16));
+			callback.onComplete(streamId);
+			return null;
+		}).when(client).stream(anyString(), any(StreamCallback.class));
+
+		blockFetcher.start();
+		return client;
+	}
+
 	/**
 	 * 1、通过mock server端，响应结果为<blockId, block>；
 	 * 2、采用LinkedHashMap保证响应顺序与请求顺序一致；
@@ -99,7 +202,12 @@ public class OneForOneBlockFetcherSuite {
 					(ByteBuffer) invocation.getArguments()[0]
 			);
 			RpcCallback callback = (RpcCallback) invocation.getArguments()[1];
-			callback.onSuccess(new StreamHandle(123, blocks.size()).toByteBuffer());
+			long[] blockSizes = new long[blocks.size()];
+			int i = 0;
+			for (ManagedBuffer block : blocks.values()) {
+				blockSizes[i++] = block == null ? 0 : block.size();
+			}
+			callback.onSuccess(new StreamHandle(123, blocks.size(), blockSizes).toByteBuffer());
 
 			assertEquals(new OpenBlock("app-0", "exec-0", blockIds), msg);
 			return null;
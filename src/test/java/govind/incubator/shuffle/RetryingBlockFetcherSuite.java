@@ -1,7 +1,9 @@
 package govind.incubator.shuffle;
 
+import com.google.common.base.Throwables;
 import govind.incubator.network.buffer.ManagedBuffer;
 import govind.incubator.network.buffer.NioManagedBuffer;
+import govind.incubator.network.client.CircuitOpenException;
 import govind.incubator.network.conf.SystemPropertyConfigProvider;
 import govind.incubator.network.conf.TransportConf;
 import govind.incubator.shuffle.RetryingBlockFetcher.BlockFetcherStarter;
@@ -21,7 +23,10 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -88,6 +93,47 @@ public class RetryingBlockFetcherSuite {
 		verifyNoMoreInteractions(listener);
 	}
 
+	@Test
+	public void testNoRetryWhenCircuitOpen() throws IOException {
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+
+		List<? extends Map<String, Object>> interactions = Arrays.asList(
+				ImmutableMap.<String, Object>builder()
+						.put("b0", new CircuitOpenException("熔断器打开"))
+						.put("b1", block1)
+						.build()
+		);
+
+		performInteraction(interactions,  listener);
+
+		verify(listener).onBlockFetchFailure(eq("b0"), any(CircuitOpenException.class));
+		verify(listener).onBlockFetchSuccess("b1", block1);
+		verifyNoMoreInteractions(listener);
+	}
+
+	@Test
+	public void testRetryWhenServerRecovering() throws IOException {
+		BlockFetchingListener listener = mock(BlockFetchingListener.class);
+
+		//服务端的异常以堆栈字符串的形式返回
+		List<? extends Map<String, Object>> interactions = Arrays.asList(
+				ImmutableMap.<String, Object>builder()
+						.put("b0", block0)
+						.put("b1", new RuntimeException(Throwables.getStackTraceAsString(
+								new RecoveringException("app0", "exec0"))))
+						.build(),
+				ImmutableMap.<String, Object>builder()
+						.put("b1", block1)
+						.build()
+		);
+
+		performInteraction(interactions,  listener);
+
+		verify(listener, timeout(5000)).onBlockFetchSuccess("b0", block0);
+		verify(listener, timeout(5000)).onBlockFetchSuccess("b1", block1);
+		verifyNoMoreInteractions(listener);
+	}
+
 	@Test
 	public void testSingleIOExceptionOnFirst() throws IOException {
 		BlockFetchingListener listener = mock(BlockFetchingListener.class);
@@ -216,6 +262,53 @@ public class RetryingBlockFetcherSuite {
 	}
 
 
+	@Test
+	public void testPerHostRetryBudget() throws IOException {
+		System.setProperty("govind.network.shuffle.io.maxPendingRetriesPerHost", "1");
+		try {
+			TransportConf conf = new TransportConf(new SystemPropertyConfigProvider(), "shuffle");
+			BlockFetcherStarter fetcherStarter = mock(BlockFetcherStarter.class);
+			doThrow(new IOException("连接被拒绝"))
+					.doNothing()
+					.when(fetcherStarter).createAndStart(any(), any());
+			doThrow(new IOException("连接被拒绝")).when(fetcherStarter).createAndStart(aryEq(new String[]{"b1"}), any());
+
+			BlockFetchingListener listener0 = mock(BlockFetchingListener.class);
+			BlockFetchingListener listener1 = mock(BlockFetchingListener.class);
+			new RetryingBlockFetcher(conf, "hostA", fetcherStarter, new String[]{"b0"}, listener0).start();
+			assertEquals(1, RetryingBlockFetcher.getPendingRetries("hostA"));
+
+			//第二个请求没有重试名额，直接失败
+			new RetryingBlockFetcher(conf, "hostA", fetcherStarter, new String[]{"b1"}, listener1).start();
+			verify(listener1).onBlockFetchFailure(eq("b1"), any());
+			assertEquals(1, RetryingBlockFetcher.getRetryBudgetExhausted());
+
+			verify(fetcherStarter, timeout(5000).times(2)).createAndStart(aryEq(new String[]{"b0"}), any());
+			assertEquals(0, RetryingBlockFetcher.getPendingRetries("hostA"));
+			verifyNoMoreInteractions(listener0);
+		} finally {
+			System.clearProperty("govind.network.shuffle.io.maxPendingRetriesPerHost");
+		}
+	}
+
+	@Test
+	public void testRetryBackoff() {
+		assertEquals(1000, RetryBackoff.FIXED.nextWaitMs(3, 1000, 60000, 1000));
+
+		for (int retry = 1; retry <= 10; retry++) {
+			long expected = Math.min(60000, 1000L << (retry - 1));
+			long wait = RetryBackoff.EXPONENTIAL.nextWaitMs(retry, 1000, 60000, 0);
+			assertTrue(wait >= expected / 2 && wait <= expected);
+		}
+
+		long prev = 0;
+		for (int retry = 1; retry <= 10; retry++) {
+			long wait = RetryBackoff.DECORRELATED_JITTER.nextWaitMs(retry, 1000, 60000, prev);
+			assertTrue(wait >= 1000 && wait <= Math.min(60000, Math.max(prev, 1000) * 3));
+			prev = wait;
+		}
+	}
+
 	/**
 	 * 针对每个block请求，根据提供的{@code interactions}决定是返回ManagedBuffer
 	 * 还是IOException。
@@ -4,6 +4,8 @@ import govind.incubator.shuffle.protocol.*;
 import govind.incubator.shuffle.protocol.BlockTransferMessage.Decoder;
 import org.junit.Test;
 
+import java.util.BitSet;
+
 import static junit.framework.TestCase.assertEquals;
 
 /**
@@ -20,6 +22,17 @@ public class TransferBlockMessageSuite {
 
 		checkSerializeDeserialize(new UploadBlock("app-3","exec-3","block-1", new byte[]{1,2,3},new  byte[]{4,5,6,7}));
 		checkSerializeDeserialize(new StreamHandle(12345L, 16));
+		checkSerializeDeserialize(new StreamHandle(12345L, 3, new long[]{1, 22, 333}));
+		checkSerializeDeserialize(new UploadBlockStream("app-4", "exec-4", "block-2", new byte[]{1, 2}));
+		checkSerializeDeserialize(new PushBlockStream("app-5", 1, 2, 3));
+		checkSerializeDeserialize(new FinalizeShuffleMerge("app-6", 4));
+		checkSerializeDeserialize(new MergeStatuses(7, new int[]{0, 1},
+				new BitSet[]{BitSet.valueOf(new long[]{0b101}), new BitSet()}, new long[]{100, 0}));
+		checkSerializeDeserialize(new GetExecutorShuffleInfo("app-7", "exec-7"));
+		checkSerializeDeserialize(new RegisterExecutors("app-8", new String[]{"exec-8", "exec-9"},
+				new ExecutorShuffleInfo[]{
+						new ExecutorShuffleInfo(new String[]{"/local1"}, 16, "testShuffleManager"),
+						new ExecutorShuffleInfo(new String[]{"/local2", "/local3"}, 32, "testShuffleManager")}));
 	}
 
 	private void checkSerializeDeserialize(BlockTransferMessage msg) {
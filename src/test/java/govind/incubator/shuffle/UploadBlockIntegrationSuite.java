@@ -0,0 +1,202 @@
+package govind.incubator.shuffle;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import govind.incubator.network.buffer.ManagedBuffer;
+import govind.incubator.network.buffer.NioManagedBuffer;
+import govind.incubator.network.conf.MapConfigProvider;
+import govind.incubator.network.conf.TransportConf;
+import govind.incubator.network.handler.OneForOneStreamManager;
+import govind.incubator.network.handler.RpcCallback;
+import govind.incubator.network.protocol.UploadStream;
+import govind.incubator.network.protocol.codec.MessageEncoder;
+import govind.incubator.network.server.TransportServer;
+import govind.incubator.network.util.ByteArrayWritableChannel;
+import govind.incubator.network.util.TransportContext;
+import govind.incubator.shuffle.protocol.UploadBlockStream;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ *
+ * 以流的方式上传block：UploadBlockStream -> processStreamUpload -> UploadedBlockWriter
+ */
+public class UploadBlockIntegrationSuite {
+	File uploadDir;
+	File target;
+	ExternalShuffleBlockHandler handler;
+	TransportServer server;
+	ExternalShuffleClient client;
+
+	@Before
+	public void beforeEach() throws IOException {
+		uploadDir = Files.createTempDir();
+		target = new File(uploadDir, "rdd_0_0");
+		ExternalShuffleBlockResolver blockManager = mock(ExternalShuffleBlockResolver.class);
+		when(blockManager.getUploadedBlockFile("app0", "exec0", "rdd_0_0")).thenReturn(target);
+
+		//所有block都以流的方式上传
+		TransportConf conf = new TransportConf(new MapConfigProvider(
+				ImmutableMap.of("govind.network.shuffle.upload.maxInRpcSize", "0")), "shuffle");
+		handler = new ExternalShuffleBlockHandler(blockManager, new OneForOneStreamManager(), 0);
+		server = new TransportContext(conf, handler).createServer();
+		client = new ExternalShuffleClient(conf, null, false, false);
+		client.init("app0");
+	}
+
+	@After
+	public void afterEach() throws IOException {
+		client.close();
+		server.close();
+		handler.close();
+		for (File file : uploadDir.listFiles()) {
+			file.delete();
+		}
+		uploadDir.delete();
+	}
+
+	@Test
+	public void testUploadStream() throws Exception {
+		byte[] data = new byte[1024 * 1024];
+		new Random(42).nextBytes(data);
+
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Semaphore done = new Semaphore(0);
+		client.uploadBlock("localhost", server.getPort(), "exec0", "rdd_0_0", new byte[0],
+				new NioManagedBuffer(ByteBuffer.wrap(data)), new RpcCallback() {
+					@Override
+					public void onSuccess(ByteBuffer response) {
+						done.release();
+					}
+
+					@Override
+					public void onFailure(Throwable e) {
+						failure.set(e);
+						done.release();
+					}
+				});
+
+		assertTrue(done.tryAcquire(10, TimeUnit.SECONDS));
+		assertEquals(null, failure.get());
+		//返回结果时数据已经全部写入，临时文件已重命名
+		assertTrue(Arrays.equals(data, java.nio.file.Files.readAllBytes(target.toPath())));
+		assertEquals(1, uploadDir.listFiles().length);
+	}
+
+	@Test
+	public void testConnectionClosedMidStream() throws Exception {
+		UploadBlockStream msg = new UploadBlockStream("app0", "exec0", "rdd_0_0", new byte[0]);
+		byte[] frame = encode(new UploadStream(1, new NioManagedBuffer(msg.toByteBuffer()),
+				new NioManagedBuffer(ByteBuffer.allocate(64 * 1024))));
+
+		//只发送一半的数据后断开连接
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			OutputStream out = socket.getOutputStream();
+			out.write(frame, 0, frame.length - 32 * 1024);
+			out.flush();
+			assertNotNull(waitFor(() -> uploadDir.listFiles().length == 1 ? uploadDir.listFiles()[0] : null));
+		}
+
+		//临时文件被删除，目标文件不存在
+		assertNotNull(waitFor(() -> uploadDir.listFiles().length == 0 ? Boolean.TRUE : null));
+		assertFalse(target.exists());
+	}
+
+	@Test
+	public void testRejectedUploadLeavesNoFile() throws Exception {
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Semaphore done = new Semaphore(0);
+		//未知的block没有对应的文件
+		client.uploadBlock("localhost", server.getPort(), "exec0", "rdd_9_9", new byte[0],
+				new NioManagedBuffer(ByteBuffer.allocate(1024)), new RpcCallback() {
+					@Override
+					public void onSuccess(ByteBuffer response) {
+						done.release();
+					}
+
+					@Override
+					public void onFailure(Throwable e) {
+						failure.set(e);
+						done.release();
+					}
+				});
+
+		assertTrue(done.tryAcquire(10, TimeUnit.SECONDS));
+		assertNotNull(failure.get());
+		assertEquals(0, uploadDir.listFiles().length);
+	}
+
+	@Test
+	public void testReleaseDataWhenConnectFails() throws Exception {
+		//关闭后的端口无法连接
+		int port = server.getPort();
+		server.close();
+
+		ManagedBuffer data = mock(ManagedBuffer.class);
+		when(data.size()).thenReturn(1024L);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		client.uploadBlock("localhost", port, "exec0", "rdd_0_0", new byte[0], data, new RpcCallback() {
+			@Override
+			public void onSuccess(ByteBuffer response) {
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				failure.set(e);
+			}
+		});
+
+		assertNotNull(failure.get());
+		verify(data, times(1)).release();
+	}
+
+	private static byte[] encode(UploadStream msg) throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder());
+		channel.writeOutbound(msg);
+		FileRegion region = (FileRegion) channel.readOutbound();
+		ByteArrayWritableChannel out = new ByteArrayWritableChannel((int) region.count());
+		while (region.transfered() < region.count()) {
+			region.transferTo(out, region.transfered());
+		}
+		return out.getData();
+	}
+
+	private interface Condition<T> {
+		T get();
+	}
+
+	private static <T> T waitFor(Condition<T> condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		T result;
+		while ((result = condition.get()) == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,134 @@
+package govind.incubator.shuffle.util;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import govind.incubator.shuffle.util.LevelDBWriteQueue.SyncPolicy;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Author: 高文文
+ * Project Name: govind-incubator
+ * Date: 2019-11-24
+ */
+public class LevelDBWriteQueueSuite {
+
+	@Test
+	public void testAlwaysWaitsForSyncWrite() throws Exception {
+		DB db = mockDB();
+		LevelDBWriteQueue queue = new LevelDBWriteQueue(db, SyncPolicy.ALWAYS, 10000, 16);
+		try {
+			ListenableFuture<Void> done = queue.put(new byte[]{1}, new byte[]{1});
+			//写入后完成，不需要等待flushInterval
+			done.get(5, TimeUnit.SECONDS);
+			assertEquals(1, queue.getOpsWritten());
+			assertTrue(captureWriteOptions(db, 1).get(0).sync());
+		} finally {
+			queue.close();
+		}
+	}
+
+	@Test
+	public void testBatchReturnsBeforeWrite() throws Exception {
+		DB db = mockDB();
+		LevelDBWriteQueue queue = new LevelDBWriteQueue(db, SyncPolicy.BATCH, 300, 16);
+		try {
+			assertTrue(queue.put(new byte[]{1}, new byte[]{1}).isDone());
+			assertTrue(queue.delete(new byte[]{2}).isDone());
+			assertEquals(0, queue.getOpsWritten());
+
+			//两个操作在同一个flushInterval内，合并为一个sync写入
+			verify(db, timeout(5000)).write(any(WriteBatch.class), any(WriteOptions.class));
+			//等待后台线程更新统计信息
+			queue.close();
+			assertEquals(1, queue.getBatchesWritten());
+			assertEquals(2, queue.getOpsWritten());
+			assertTrue(captureWriteOptions(db, 1).get(0).sync());
+		} finally {
+			queue.close();
+		}
+	}
+
+	@Test
+	public void testNoneWritesWithoutSync() throws Exception {
+		DB db = mockDB();
+		LevelDBWriteQueue queue = new LevelDBWriteQueue(db, SyncPolicy.NONE, 10, 16);
+		try {
+			queue.put(new byte[]{1}, new byte[]{1});
+			verify(db, timeout(5000)).write(any(WriteBatch.class), any(WriteOptions.class));
+			assertFalse(captureWriteOptions(db, 1).get(0).sync());
+		} finally {
+			queue.close();
+		}
+	}
+
+	@Test
+	public void testCloseFlushesPendingAndRejectsNewOps() throws Exception {
+		DB db = mockDB();
+		LevelDBWriteQueue queue = new LevelDBWriteQueue(db, SyncPolicy.BATCH, 10000, 16);
+		queue.put(new byte[]{1}, new byte[]{1});
+		queue.close();
+		assertEquals(1, queue.getOpsWritten());
+
+		try {
+			queue.put(new byte[]{2}, new byte[]{2}).get();
+			fail("关闭后不应接收新的操作");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void testBatchDefersCompletionWhenBacklogged() throws Exception {
+		DB db = mockDB();
+		CountDownLatch unblock = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			unblock.await();
+			return null;
+		}).when(db).write(any(WriteBatch.class), any(WriteOptions.class));
+
+		LevelDBWriteQueue queue = new LevelDBWriteQueue(db, SyncPolicy.BATCH, 0, 1);
+		try {
+			//第一个操作被后台线程取走并阻塞在写入上，第二个操作留在队列中
+			queue.put(new byte[]{1}, new byte[]{1});
+			verify(db, timeout(5000)).write(any(WriteBatch.class), any(WriteOptions.class));
+			queue.put(new byte[]{2}, new byte[]{2});
+
+			//队列中已有maxBatchSize个操作，第三个操作立即返回，但写入完成后future才完成
+			ListenableFuture<Void> third = queue.put(new byte[]{3}, new byte[]{3});
+			Thread.sleep(300);
+			assertFalse(third.isDone());
+
+			unblock.countDown();
+			third.get(5, TimeUnit.SECONDS);
+			assertEquals(0, queue.getPendingOps());
+		} finally {
+			unblock.countDown();
+			queue.close();
+		}
+	}
+
+	private static DB mockDB() {
+		DB db = mock(DB.class);
+		when(db.createWriteBatch()).thenAnswer(invocation -> mock(WriteBatch.class));
+		return db;
+	}
+
+	private static List<WriteOptions> captureWriteOptions(DB db, int times) {
+		ArgumentCaptor<WriteOptions> captor = ArgumentCaptor.forClass(WriteOptions.class);
+		verify(db, times(times)).write(any(WriteBatch.class), captor.capture());
+		return captor.getAllValues();
+	}
+}